@@ -23,7 +23,15 @@
  */
 package net.sf.joost.test;
 
+import net.sf.joost.test.emitter.EventStoreTest;
+import net.sf.joost.test.emitter.MessageWriterTest;
+import net.sf.joost.test.emitter.StreamEmitterTest;
+import net.sf.joost.test.stx.DocumentCacheTest;
+import net.sf.joost.test.stx.ExpressionCompilerTest;
+import net.sf.joost.test.stx.PatternAutomatonTest;
+import net.sf.joost.test.stx.SplitModeTest;
 import net.sf.joost.test.stx.StxTest;
+import net.sf.joost.test.stx.TemplateDispatchTest;
 import net.sf.joost.test.stx.function.ExtensionFunctionTest;
 import net.sf.joost.test.trax.thread.TemplateThreadSafetyTest;
 
@@ -42,6 +50,14 @@ public class AllTests extends TestSuite
       suite.addTest(net.sf.joost.test.trax.AllTests.suite());
       suite.addTestSuite(ExtensionFunctionTest.class);
       suite.addTestSuite(TemplateThreadSafetyTest.class);
+      suite.addTestSuite(TemplateDispatchTest.class);
+      suite.addTestSuite(ExpressionCompilerTest.class);
+      suite.addTestSuite(StreamEmitterTest.class);
+      suite.addTestSuite(SplitModeTest.class);
+      suite.addTestSuite(EventStoreTest.class);
+      suite.addTestSuite(MessageWriterTest.class);
+      suite.addTestSuite(PatternAutomatonTest.class);
+      suite.addTestSuite(DocumentCacheTest.class);
       return suite;
    }
 }
@@ -0,0 +1,233 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is agent.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+package net.sf.joost.test.emitter;
+
+import net.sf.joost.emitter.BufferEmitter;
+import net.sf.joost.emitter.EventLog;
+import net.sf.joost.test.stx.TransformTestCase;
+import net.sf.joost.trax.TrAXConstants;
+
+import java.io.File;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Tests the storage of buffers and split mode subtrees in the
+ * {@link net.sf.joost.emitter.EventStore}. Spilled buffers must yield the
+ * same results as buffers kept in memory, which are those of the former
+ * implementation that stored SAXEvent objects.
+ * @version $Revision$ $Date$
+ * @author agent
+ */
+public class EventStoreTest extends TransformTestCase
+{
+   public EventStoreTest(String name)
+   {
+      super(name);
+   }
+
+   /**
+    * @param threshold the buffer spill threshold, <code>null</code> for
+    *        the default
+    * @return a new factory
+    */
+   private TransformerFactory newFactory(Integer threshold)
+   {
+      TransformerFactory factory = newFactory();
+      if (threshold != null)
+         factory.setAttribute(TrAXConstants.BUFFER_SPILL_THRESHOLD,
+                              threshold);
+      return factory;
+   }
+
+   /**
+    * @return an input document of about 400 KB (more than one chunk of
+    *         the EventStore)
+    */
+   private static String getInput()
+   {
+      StringBuffer sb = new StringBuffer(
+         "<?xml version='1.0'?><?pi data?><!--c--><root xmlns:q='urn:q'>");
+      for (int i=0; i<3000; i++)
+         sb.append("<record id='").append(i)
+           .append("' q:x='\u00e4\u20ac").append(i)
+           .append("'><p:n xmlns:p='urn:p'>N").append(i)
+           .append(" &amp; \ud834\udd1e</p:n><![CDATA[cd <").append(i)
+           .append(">]]><!-- ").append(i).append(" --><?t ").append(i)
+           .append("?>text ").append(i).append("</record>");
+      return sb.append("</root>").toString();
+   }
+
+   private String transform(Integer threshold, Source sheet, String input)
+      throws TransformerException
+   {
+      return transform(newFactory(threshold).newTemplates(sheet),
+                       getStringSource(input));
+   }
+
+   public void testSpilledBuffers() throws TransformerException
+   {
+      String input = getInput();
+      String expected =
+         transform(new Integer(-1), getSource("buffer.stx"), input);
+      // every 50th record has been moved to the buffer "part"
+      assertTrue(expected.indexOf(
+         "<e name=\"record\" ns=\"\" pos=\"2940\"><a name=\"id\" " +
+         "value=\"2999\" /><a name=\"q:x\" value=\"\u00e4\u20ac2999\" />" +
+         "<e name=\"p:n\" ns=\"urn:p\" pos=\"1\"><t>N2999 &amp; " +
+         "&#119070;</t></e><c>cd &lt;2999&gt;</c><!-- 2999 --><?t 2999?>" +
+         "<t>text 2999</t></e>") != -1);
+      assertEquals(expected,
+                   transform(null, getSource("buffer.stx"), input));
+      assertEquals(expected,
+                   transform(new Integer(0), getSource("buffer.stx"), input));
+      assertEquals(expected,
+                   transform(new Integer(100000), getSource("buffer.stx"),
+                             input));
+   }
+
+   /** Fills a buffer with more than one chunk of the EventStore */
+   private static void fill(BufferEmitter buffer, String name)
+      throws SAXException
+   {
+      AttributesImpl attrs = new AttributesImpl();
+      buffer.startElement("", name, name, attrs);
+      char[] text = "text of a buffer".toCharArray();
+      for (int i=0; i<10000; i++) {
+         buffer.startElement("", "e", "e", attrs);
+         buffer.characters(text, 0, text.length);
+         buffer.endElement("", "e", "e");
+      }
+      buffer.endElement("", name, name);
+      buffer.filled();
+   }
+
+   /** The contents of a spilled buffer are released after a refill */
+   public void testReleasedStore() throws SAXException
+   {
+      BufferEmitter buffer = new BufferEmitter(0);
+      fill(buffer, "first");
+      EventLog first = buffer.getEvents();
+      first.replay(new DefaultHandler(), null);
+      buffer.clear();
+      fill(buffer, "second");
+      try {
+         first.replay(new DefaultHandler(), null);
+         fail("SAXException expected");
+      }
+      catch (SAXException ex) {
+         // expected, the first store has been closed
+      }
+      buffer.getEvents().replay(new DefaultHandler(), null);
+      buffer.close();
+   }
+
+   /**
+    * @return the number of open file descriptors of this process,
+    *         -1 if unknown
+    */
+   private static int countOpenFiles()
+   {
+      String[] fds = new File("/proc/self/fd").list();
+      return fds != null ? fds.length : -1;
+   }
+
+   /**
+    * Buffers that are cleared or go out of scope must close their
+    * temporary files without waiting for the garbage collector
+    */
+   public void testClosedFiles() throws TransformerException
+   {
+      StringBuffer sb = new StringBuffer("<root>");
+      for (int i=0; i<40; i++) {
+         sb.append("<record n='").append(i).append("'>");
+         for (int j=0; j<5000; j++)
+            sb.append("<v>").append(j).append("</v>");
+         sb.append("</record>");
+      }
+      String input = sb.append("</root>").toString();
+      String sheet =
+         "<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns' " +
+         "version='1.0' pass-through='none'><stx:buffer name='g' />" +
+         "<stx:template match='record'><stx:buffer name='l'>" +
+         "<stx:process-self group='copy' /></stx:buffer>" +
+         "<stx:result-buffer name='g' clear='yes'>" +
+         "<stx:process-buffer name='l' group='copy' /></stx:result-buffer>" +
+         "<r n='{@n}'><stx:process-buffer name='g' group='count' /></r>" +
+         "</stx:template>" +
+         "<stx:group name='copy'><stx:template match='node()'>" +
+         "<stx:copy><stx:process-children /></stx:copy></stx:template>" +
+         "</stx:group>" +
+         "<stx:group name='count'><stx:template match='v[. = 4999]'>" +
+         "<stx:value-of select='.' /></stx:template></stx:group>" +
+         "</stx:transform>";
+
+      // the first transformation opens some files of the JVM
+      String result =
+         transform(new Integer(0), getStringSource(sheet), input);
+      assertTrue(result.indexOf("<r n=\"39\">4999</r>") != -1);
+      int before = countOpenFiles();
+      assertEquals(result,
+                   transform(new Integer(0), getStringSource(sheet), input));
+      if (before != -1)
+         assertTrue("temporary files still open",
+                    countOpenFiles() <= before);
+   }
+
+   /** Subtrees in split mode, each bigger than a chunk */
+   public void testSpilledSubtrees() throws TransformerException
+   {
+      StringBuffer sb = new StringBuffer("<root>");
+      for (int i=0; i<8; i++) {
+         sb.append("<record n='").append(i).append("'>");
+         for (int j=0; j<5000; j++)
+            sb.append("<v a='").append(j).append("'>").append(i * j)
+              .append("</v>");
+         sb.append("</record>");
+      }
+      String input = sb.append("</root>").toString();
+      String sheet =
+         "<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns' " +
+         "version='1.0'><stx:template match='v'><w pos='{position()}' " +
+         "a='{@a}'><stx:value-of select='. * 2' /></w></stx:template>" +
+         "<stx:template match='*'><stx:copy attributes='@*'>" +
+         "<stx:process-children /></stx:copy></stx:template>" +
+         "</stx:transform>";
+
+      String expected =
+         transform(new Integer(-1), getStringSource(sheet), input);
+      TransformerFactory factory = newFactory(new Integer(0));
+      factory.setAttribute(TrAXConstants.SPLIT_PATTERN, "/root/record");
+      factory.setAttribute(TrAXConstants.SPLIT_THREADS, new Integer(2));
+      assertEquals(expected,
+                   transform(factory.newTemplates(getStringSource(sheet)),
+                             getStringSource(input)));
+   }
+}
@@ -0,0 +1,199 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is agent.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+package net.sf.joost.test.emitter;
+
+import net.sf.joost.emitter.MessageWriter;
+import net.sf.joost.test.stx.TransformTestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringWriter;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.stream.StreamResult;
+
+/**
+ * Tests the output of <code>stx:message</code> to standard error via the
+ * {@link MessageWriter}. The expected results are those of the former
+ * implementation that wrote directly to <code>System.err</code>.
+ * @version $Revision$ $Date$
+ * @author agent
+ */
+public class MessageWriterTest extends TransformTestCase
+{
+   private PrintStream systemErr;
+
+   public MessageWriterTest(String name)
+   {
+      super(name);
+   }
+
+   protected void setUp() throws Exception
+   {
+      super.setUp();
+      systemErr = System.err;
+   }
+
+   protected void tearDown() throws Exception
+   {
+      System.setErr(systemErr);
+      super.tearDown();
+   }
+
+   /**
+    * Runs a transformation with messages
+    * @param encoding the output encoding of the sheet
+    * @return the bytes written to <code>System.err</code>
+    */
+   private byte[] transformMessages(String encoding)
+      throws TransformerException
+   {
+      Templates templates = newFactory().newTemplates(getStringSource(
+         "<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns' " +
+         "version='1.0' output-encoding='" + encoding + "'>" +
+         "<stx:template match='a'><stx:message>m <x a='\u00e4'>\u20ac" +
+         "&lt;</x></stx:message><stx:message select=\"concat(., '!')\" />" +
+         "</stx:template></stx:transform>"));
+      ByteArrayOutputStream err = new ByteArrayOutputStream();
+      System.setErr(new PrintStream(err));
+      transform(templates, getStringSource("<r><a>\u00fc</a><a /></r>"));
+      System.setErr(systemErr);
+      return err.toByteArray();
+   }
+
+   public void testEncoding() throws Exception
+   {
+      String text = "m <x a=\"\u00e4\">\u20ac&lt;</x>\n\u00fc!\n" +
+                    "m <x a=\"\u00e4\">\u20ac&lt;</x>\n!\n";
+      assertEquals(text, new String(transformMessages("UTF-8"), "UTF-8"));
+      assertEquals(text, new String(transformMessages("UTF-16"), "UTF-16"));
+      assertEquals("m <x a=\"\u00e4\">&#8364;&lt;</x>\n\u00fc!\n" +
+                   "m <x a=\"\u00e4\">&#8364;&lt;</x>\n!\n",
+                   new String(transformMessages("ISO-8859-1"),
+                              "ISO-8859-1"));
+      assertEquals("m <x a=\"&#228;\">&#8364;&lt;</x>\n&#252;!\n" +
+                   "m <x a=\"&#228;\">&#8364;&lt;</x>\n!\n",
+                   new String(transformMessages("US-ASCII"), "US-ASCII"));
+   }
+
+   /** Each transformation uses the current <code>System.err</code> */
+   public void testSetErr() throws Exception
+   {
+      byte[] first = transformMessages("UTF-8");
+      assertEquals(54, first.length);
+      assertEquals(new String(first, "UTF-8"),
+                   new String(transformMessages("UTF-8"), "UTF-8"));
+   }
+
+   /** A stream whose first write blocks until it has been released */
+   private static final class BlockingStream extends OutputStream
+   {
+      private boolean released;
+
+      public synchronized void write(int b)
+      {
+         while (!released) {
+            try {
+               wait();
+            }
+            catch (InterruptedException ex) {
+               return;
+            }
+         }
+      }
+
+      synchronized void release()
+      {
+         released = true;
+         notifyAll();
+      }
+   }
+
+   /** Flushing waits only for the messages of the same owner */
+   public void testFlushOwner() throws Exception
+   {
+      MessageWriter writer = new MessageWriter(10);
+      BlockingStream blocked = new BlockingStream();
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      Object owner1 = new Object(), owner2 = new Object();
+      writer.write(blocked, new byte[] { 'a' }, owner1);
+      // returns immediately, owner2 hasn't written anything
+      writer.flush(owner2);
+      blocked.release();
+      writer.write(out, new byte[] { 'b' }, owner2);
+      writer.flush(owner2);
+      assertEquals("b", out.toString("US-ASCII"));
+      writer.flush(owner1);
+      writer.flush();
+   }
+
+   /** A stream whose writes fail with the given exception or error */
+   private static final class FailingStream extends OutputStream
+   {
+      private Throwable failure;
+
+      /** the thread that called write */
+      Thread writer;
+
+      FailingStream(Throwable failure)
+      {
+         this.failure = failure;
+      }
+
+      public void write(int b)
+      {
+         writer = Thread.currentThread();
+         if (failure instanceof Error)
+            throw (Error)failure;
+         throw (RuntimeException)failure;
+      }
+   }
+
+   /** A failing stream must neither block the owners nor later messages */
+   public void testFailingStream() throws Exception
+   {
+      MessageWriter writer = new MessageWriter(2);
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      Object owner = new Object();
+      writer.write(new FailingStream(new IllegalStateException("failed")),
+                   new byte[] { 'a' }, owner);
+      writer.write(out, new byte[] { 'b' }, owner);
+      writer.flush(owner);
+      assertEquals("b", out.toString("US-ASCII"));
+
+      // kills the background thread
+      FailingStream failing = new FailingStream(new Error("failed"));
+      writer.write(failing, new byte[] { 'c' }, owner);
+      writer.flush(owner);
+      // the dying thread reports the Error to System.err
+      failing.writer.join();
+      for (int i=0; i<5; i++) // more messages than the capacity
+         writer.write(out, new byte[] { 'd' }, owner);
+      writer.flush(owner);
+      assertEquals("bddddd", out.toString("US-ASCII"));
+   }
+}
@@ -0,0 +1,220 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is agent.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+package net.sf.joost.test.emitter;
+
+import net.sf.joost.test.stx.TransformTestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.stream.StreamResult;
+
+/**
+ * Tests the escaping and encoding of the {@link
+ * net.sf.joost.emitter.StreamEmitter}. The expected results are those of
+ * the former implementation that didn't use a reusable output buffer and
+ * didn't encode directly into bytes.
+ * @version $Revision$ $Date$
+ * @author agent
+ */
+public class StreamEmitterTest extends TransformTestCase
+{
+   /** The contents of the result of escaping.stx, split by encoding */
+   private static final String START =
+      "<out a=\"&lt;&amp;&gt;&quot;'&#x9;&#xA;&#xD; ";
+   private static final String CDATA =
+      "<![CDATA[c: <& ]]]]><![CDATA[> ]]]]>";
+
+   public StreamEmitterTest(String name)
+   {
+      super(name);
+   }
+
+   /**
+    * Transforms a document and decodes the result.
+    * @param templates the sheet
+    * @param input the input document
+    * @param method the output method
+    * @param encoding the output encoding
+    * @return the result
+    */
+   private static String transform(Templates templates, Source input,
+                                   String method, String encoding)
+      throws TransformerException, UnsupportedEncodingException
+   {
+      Transformer transformer = templates.newTransformer();
+      transformer.setOutputProperty(OutputKeys.METHOD, method);
+      transformer.setOutputProperty(OutputKeys.ENCODING, encoding);
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      transformer.transform(input, new StreamResult(out));
+      return new String(out.toByteArray(), encoding);
+   }
+
+   private void assertEscaping(String encoding, String expected)
+      throws TransformerException, UnsupportedEncodingException
+   {
+      assertEquals(encoding,
+                   "<?xml version=\"1.0\" encoding=\"" +
+                   encoding.toUpperCase() + "\"?>\n" + expected + "\n",
+                   transform(newFactory().newTemplates(
+                                getSource("escaping.stx")),
+                             getStringSource("<x/>"), "xml", encoding));
+   }
+
+   public void testUTF8() throws Exception
+   {
+      assertEscaping("UTF-8",
+         START + "\u00e9\u20ac\u03a9&#128512;\">t: &lt;&amp;&gt;\"' " +
+         "]]&gt; \u00a0\u00e9\u00fc\u20ac\u03a9&#128512;\u007f\u0085" +
+         "\u2028" + CDATA + "<!--\u00e9\u20ac\u03a9--><?pi \u00e9\u20ac?>" +
+         "<\u00e9l\u03a9 /></out>");
+   }
+
+   public void testUTF16() throws Exception
+   {
+      assertEscaping("UTF-16",
+         START + "\u00e9\u20ac\u03a9&#128512;\">t: &lt;&amp;&gt;\"' " +
+         "]]&gt; \u00a0\u00e9\u00fc\u20ac\u03a9&#128512;\u007f\u0085" +
+         "\u2028" + CDATA + "<!--\u00e9\u20ac\u03a9--><?pi \u00e9\u20ac?>" +
+         "<\u00e9l\u03a9 /></out>");
+   }
+
+   public void testISO88591() throws Exception
+   {
+      assertEscaping("ISO-8859-1",
+         START + "\u00e9&#8364;&#937;&#128512;\">t: &lt;&amp;&gt;\"' " +
+         "]]&gt; \u00a0\u00e9\u00fc&#8364;&#937;&#128512;\u007f\u0085" +
+         "&#8232;" + CDATA + "<!--\u00e9??--><?pi \u00e9??>" +
+         "<\u00e9l? /></out>");
+   }
+
+   public void testASCII() throws Exception
+   {
+      assertEscaping("US-ASCII",
+         START + "&#233;&#8364;&#937;&#128512;\">t: &lt;&amp;&gt;\"' " +
+         "]]&gt; &#160;&#233;&#252;&#8364;&#937;&#128512;\u007f&#133;" +
+         "&#8232;" + CDATA + "<!--???--><?pi ???><?l? /></out>");
+   }
+
+   public void testWindows1252() throws Exception
+   {
+      assertEscaping("windows-1252",
+         START + "\u00e9\u20ac&#937;&#128512;\">t: &lt;&amp;&gt;\"' " +
+         "]]&gt; \u00a0\u00e9\u00fc\u20ac&#937;&#128512;\u007f&#133;" +
+         "&#8232;" + CDATA + "<!--\u00e9\u20ac?--><?pi \u00e9\u20ac?>" +
+         "<\u00e9l? /></out>");
+   }
+
+   public void testISO88597() throws Exception
+   {
+      assertEscaping("ISO-8859-7",
+         START + "&#233;\u20ac\u03a9&#128512;\">t: &lt;&amp;&gt;\"' " +
+         "]]&gt; \u00a0&#233;&#252;\u20ac\u03a9&#128512;\u007f\u0085" +
+         "&#8232;" + CDATA + "<!--?\u20ac\u03a9--><?pi ?\u20ac?>" +
+         "<?l\u03a9 /></out>");
+   }
+
+   /**
+    * A Writer receives the same characters as an UTF-8 encoded
+    * OutputStream (the encoding of a Writer is unknown)
+    */
+   public void testWriter() throws Exception
+   {
+      Templates templates =
+         newFactory().newTemplates(getSource("escaping.stx"));
+      StringWriter writer = new StringWriter();
+      templates.newTransformer().transform(getStringSource("<x/>"),
+                                           new StreamResult(writer));
+      assertEquals(transform(templates, getStringSource("<x/>"),
+                             "xml", "UTF-8"),
+                   writer.toString());
+   }
+
+   /** Text and attribute values that exceed the output buffer */
+   public void testLongText() throws Exception
+   {
+      StringBuffer input = new StringBuffer("<x a='");
+      StringBuffer text = new StringBuffer();
+      StringBuffer expected = new StringBuffer();
+      for (int i=0; i<5000; i++) {
+         text.append("a&amp;&lt;\u00e9\u20ac\"");
+         expected.append("a&amp;&lt;\u00e9&#8364;\"");
+      }
+      input.append(text).append("'>").append(text).append("</x>");
+      String result =
+         transform(newFactory().newTemplates(getStringSource(
+            "<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns'" +
+            " version='1.0' pass-through='all' />")),
+            getStringSource(input.toString()), "xml", "ISO-8859-1");
+      String attr = expected.toString().replaceAll("\"", "&quot;");
+      assertEquals("<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>\n" +
+                   "<x a=\"" + attr + "\">" + expected + "</x>\n",
+                   result);
+   }
+
+   /** The text method doesn't escape characters */
+   public void testTextMethod() throws Exception
+   {
+      assertEquals("<&>\"\u00e9\u20ac",
+                   transform(newFactory().newTemplates(getStringSource(
+                      "<stx:transform xmlns:stx='http://stx.sourceforge.net" +
+                      "/2002/ns' version='1.0' pass-through='all' />")),
+                      getStringSource("<x>&lt;&amp;>\"\u00e9\u20ac</x>"),
+                      "text", "windows-1252"));
+   }
+
+   /** Characters that can't be encoded in text output or CDATA sections */
+   public void testNotEncodable() throws Exception
+   {
+      Templates templates = newFactory().newTemplates(getStringSource(
+         "<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns' " +
+         "version='1.0'><stx:template match='x'><stx:cdata>" +
+         "<stx:value-of select='.' /></stx:cdata></stx:template>" +
+         "</stx:transform>"));
+      assertEquals("<?xml version=\"1.0\" encoding=\"ISO-8859-7\"?>\n" +
+                   "<![CDATA[\u03a9]]>\n",
+                   transform(templates, getStringSource("<x>\u03a9</x>"),
+                             "xml", "ISO-8859-7"));
+      try {
+         transform(templates, getStringSource("<x>\u00e9</x>"),
+                   "xml", "ISO-8859-7");
+         fail("Expected an error for a CDATA section");
+      }
+      catch (TransformerException ex) {
+      }
+      try {
+         transform(templates, getStringSource("<x>\u20ac</x>"),
+                   "text", "ISO-8859-1");
+         fail("Expected an error for text output");
+      }
+      catch (TransformerException ex) {
+      }
+   }
+}
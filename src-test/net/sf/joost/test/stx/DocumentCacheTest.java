@@ -0,0 +1,376 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is agent.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+package net.sf.joost.test.stx;
+
+import net.sf.joost.stx.DocumentCache;
+import net.sf.joost.trax.TrAXConstants;
+import net.sf.joost.trax.TransformerFactoryImpl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.util.ArrayList;
+
+import javax.xml.transform.ErrorListener;
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamResult;
+
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.helpers.DefaultHandler;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+/**
+ * Tests the cache for <code>stx:process-document</code>
+ * ({@link DocumentCache}): the results must be the same as without the
+ * cache, errors must be reported by the thread that processes the
+ * document, and idle worker threads must terminate.
+ * @version $Revision$ $Date$
+ * @author agent
+ */
+public class DocumentCacheTest extends TransformTestCase
+{
+   private static final String WORKER_NAME = "Joost document prefetch";
+
+   private static final int DOCUMENTS = 10;
+
+   /** A temporary directory containing the documents */
+   private File dir;
+
+   /** The URLs of the documents */
+   private String[] urls = new String[DOCUMENTS];
+
+   /** The URL of a malformed document */
+   private String badUrl;
+
+   /** The factories with a document cache */
+   private ArrayList factories = new ArrayList();
+
+   public DocumentCacheTest(String name)
+   {
+      super(name);
+   }
+
+   protected void setUp() throws Exception
+   {
+      super.setUp();
+      dir = File.createTempFile("joost", ".test");
+      dir.delete();
+      dir.mkdir();
+      for (int i=0; i<DOCUMENTS; i++) {
+         StringBuffer doc = new StringBuffer("<doc n='" + i + "'>");
+         for (int k=0; k<=i; k++)
+            doc.append("<item v='").append(i * k)
+               .append("' />text ").append(k).append("<!--c-->");
+         doc.append("</doc>");
+         urls[i] = write("doc" + i + ".xml", doc.toString());
+      }
+      badUrl = write("bad.xml", "<doc n='bad'><item></doc>");
+   }
+
+   protected void tearDown() throws Exception
+   {
+      // terminate the worker threads of the caches
+      for (int i=0; i<factories.size(); i++)
+         ((TransformerFactory)factories.get(i)).setAttribute(
+            TrAXConstants.DOCUMENT_CACHE_SIZE, new Integer(0));
+      File[] files = dir.listFiles();
+      for (int i=0; i<files.length; i++)
+         files[i].delete();
+      dir.delete();
+      super.tearDown();
+   }
+
+   /** Writes a file into {@link #dir} and returns its URL */
+   private String write(String name, String content) throws IOException
+   {
+      File file = new File(dir, name);
+      OutputStream out = new FileOutputStream(file);
+      out.write(content.getBytes("UTF-8"));
+      out.close();
+      return file.toURI().toString();
+   }
+
+   /** @return a factory with a document cache */
+   private TransformerFactory newFactory(int size, int threads)
+   {
+      TransformerFactory factory = newFactory();
+      factory.setAttribute(TrAXConstants.DOCUMENT_CACHE_SIZE,
+                           new Integer(size));
+      factory.setAttribute(TrAXConstants.DOCUMENT_PREFETCH_THREADS,
+                           new Integer(threads));
+      factories.add(factory);
+      return factory;
+   }
+
+   /** @return the space separated URLs of the given documents */
+   private String getDocs(int[] docs)
+   {
+      StringBuffer result = new StringBuffer();
+      for (int i=0; i<docs.length; i++) {
+         if (i > 0)
+            result.append(' ');
+         result.append(docs[i] < 0 ? badUrl : urls[docs[i]]);
+      }
+      return result.toString();
+   }
+
+   /** @return the result of documents.stx for a list of documents */
+   private static String transform(Transformer transformer, String docs)
+      throws TransformerException
+   {
+      transformer.setParameter("docs", docs);
+      StringWriter writer = new StringWriter();
+      transformer.transform(getStringSource("<root />"),
+                            new StreamResult(writer));
+      return writer.toString();
+   }
+
+   /** @return the number of running worker threads */
+   private static int countWorkers()
+   {
+      Thread[] threads = new Thread[Thread.activeCount() + 10];
+      int count = 0;
+      for (int i=Thread.enumerate(threads)-1; i>=0; i--)
+         if (WORKER_NAME.equals(threads[i].getName()))
+            count++;
+      return count;
+   }
+
+   /**
+    * Waits until at most <code>max</code> worker threads are running
+    * @return the number of running worker threads
+    */
+   private static int waitForWorkers(int max)
+      throws InterruptedException
+   {
+      int count = countWorkers();
+      for (int i=0; i<50 && count > max; i++) {
+         Thread.sleep(100);
+         count = countWorkers();
+      }
+      return count;
+   }
+
+   public void testSameResult() throws Exception
+   {
+      String docs = getDocs(new int[] { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9,
+                                        3, 3, 9, 0 });
+      String expected = transform(
+         newFactory().newTemplates(getSource("documents.stx"))
+                     .newTransformer(), docs);
+      assertTrue(expected, expected.indexOf("<doc n=\"9\">") > 0);
+
+      int[][] configs = { { 100, 0 }, { 100, 1 }, { 100, 4 }, { 3, 2 } };
+      for (int i=0; i<configs.length; i++) {
+         TransformerFactory factory =
+            newFactory(configs[i][0], configs[i][1]);
+         Templates templates =
+            factory.newTemplates(getSource("documents.stx"));
+         for (int k=0; k<3; k++)
+            assertEquals("size=" + configs[i][0] + ", threads=" +
+                         configs[i][1] + ", run " + k, expected,
+                         transform(templates.newTransformer(), docs));
+         DocumentCache cache =
+            ((TransformerFactoryImpl)factory).getDocumentCache();
+         assertEquals(42, cache.getHits() + cache.getMisses());
+         if (configs[i][0] == 100) {
+            // prefetched documents may already be cached when requested
+            if (configs[i][1] == 0)
+               assertEquals(DOCUMENTS, cache.getMisses());
+            else
+               assertTrue(cache.getMisses() <= DOCUMENTS);
+            assertEquals(DOCUMENTS, cache.getSize());
+         }
+         else
+            assertEquals(3, cache.getSize());
+      }
+   }
+
+   public void testConcurrentTransformations() throws Exception
+   {
+      final String docs = getDocs(new int[] { 5, 4, 3, 2, 1, 0, 9, 8, 7 });
+      final String expected = transform(
+         newFactory().newTemplates(getSource("documents.stx"))
+                     .newTransformer(), docs);
+      final Templates templates = newFactory(5, 2).newTemplates(
+         getSource("documents.stx"));
+      final Throwable[] failure = new Throwable[1];
+      Thread[] threads = new Thread[4];
+      for (int i=0; i<threads.length; i++) {
+         threads[i] = new Thread() {
+            public void run()
+            {
+               try {
+                  for (int j=0; j<10; j++)
+                     assertEquals(expected,
+                                  transform(templates.newTransformer(),
+                                            docs));
+               }
+               catch (Throwable t) {
+                  synchronized (failure) {
+                     failure[0] = t;
+                  }
+               }
+            }
+         };
+         threads[i].start();
+      }
+      for (int i=0; i<threads.length; i++)
+         threads[i].join();
+      if (failure[0] != null)
+         throw new Exception(failure[0].toString());
+   }
+
+   public void testErrorsInProcessingThread() throws Exception
+   {
+      final ArrayList callers = new ArrayList();
+      Transformer transformer = newFactory(100, 2)
+         .newTemplates(getSource("documents.stx")).newTransformer();
+      transformer.setErrorListener(new ErrorListener() {
+         public void warning(TransformerException ex) {
+            callers.add(Thread.currentThread());
+         }
+         public void error(TransformerException ex) {
+            callers.add(Thread.currentThread());
+         }
+         public void fatalError(TransformerException ex)
+            throws TransformerException
+         {
+            callers.add(Thread.currentThread());
+            throw ex;
+         }
+      });
+      try {
+         // the malformed document will be parsed ahead of time
+         transform(transformer, getDocs(new int[] { 9, 8, -1, 0 }));
+         fail("Malformed document accepted");
+      }
+      catch (TransformerException ex) {
+         // expected
+      }
+      assertFalse(callers.isEmpty());
+      for (int i=0; i<callers.size(); i++)
+         assertSame(Thread.currentThread(), callers.get(i));
+   }
+
+   public void testPrefetchErrors() throws Exception
+   {
+      final ArrayList callers = new ArrayList();
+      ErrorHandler handler = new DefaultHandler() {
+         public void fatalError(SAXParseException ex) {
+            callers.add(Thread.currentThread());
+         }
+      };
+      DocumentCache cache = new DocumentCache(10, 1);
+      cache.prefetch(badUrl);
+      Thread.sleep(200);
+      assertTrue(callers.isEmpty());
+      for (int k=0; k<2; k++) { // the second time parsed in this thread
+         try {
+            cache.process(badUrl, handler, new DefaultHandler(), null);
+            fail("Malformed document accepted");
+         }
+         catch (SAXException ex) {
+            // expected
+         }
+         assertEquals(k + 1, callers.size());
+         assertSame(Thread.currentThread(), callers.get(k));
+      }
+      assertEquals(0, cache.getSize());
+      cache.shutdown();
+   }
+
+   /** A parser that fails with an Error, see {@link #testWorkerError} */
+   public static final class FailingParser extends XMLFilterImpl
+   {
+      /** the thread that called parse */
+      static Thread caller;
+
+      public void parse(InputSource input)
+      {
+         caller = Thread.currentThread();
+         throw new Error("parser failed");
+      }
+   }
+
+   /** A worker killed by an Error must release its slot */
+   public void testWorkerError() throws Exception
+   {
+      assertEquals(0, waitForWorkers(0));
+      DocumentCache cache = new DocumentCache(10, 1, 10000);
+      String driver = System.getProperty("org.xml.sax.driver");
+      System.setProperty("org.xml.sax.driver",
+                         FailingParser.class.getName());
+      try {
+         cache.prefetch(urls[0]);
+         for (int i=0; i<50 && FailingParser.caller == null; i++)
+            Thread.sleep(100);
+         // the dying worker reports the Error to System.err
+         FailingParser.caller.join();
+      }
+      finally {
+         if (driver == null)
+            System.getProperties().remove("org.xml.sax.driver");
+         else
+            System.setProperty("org.xml.sax.driver", driver);
+      }
+
+      // a new worker parses the next document
+      cache.prefetch(urls[1]);
+      for (int i=0; i<50 && cache.getSize() == 0; i++)
+         Thread.sleep(100);
+      assertEquals(1, cache.getSize());
+      cache.process(urls[1], null, new DefaultHandler(), null);
+      assertEquals(1, cache.getHits());
+      // the failed document will be parsed again
+      cache.process(urls[0], null, new DefaultHandler(), null);
+      assertEquals(2, cache.getSize());
+      cache.shutdown();
+   }
+
+   public void testIdleWorkers() throws Exception
+   {
+      assertEquals(0, waitForWorkers(0));
+      DocumentCache cache = new DocumentCache(10, 3, 200);
+      for (int round=0; round<2; round++) {
+         for (int i=0; i<DOCUMENTS; i++)
+            cache.prefetch(urls[i]);
+         assertTrue(countWorkers() > 0);
+         for (int i=0; i<DOCUMENTS; i++)
+            cache.process(urls[i], null, new DefaultHandler(), null);
+         assertEquals(DOCUMENTS, cache.getSize());
+         // the workers terminate without shutdown()
+         assertEquals(0, waitForWorkers(0));
+         cache.clear();
+      }
+   }
+}
@@ -0,0 +1,76 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is agent.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+package net.sf.joost.test.stx;
+
+import net.sf.joost.trax.TrAXConstants;
+
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+
+/**
+ * Compares the results of compiled and interpreted STXPath expressions
+ * (see {@link TrAXConstants#COMPILE_EXPRESSIONS}).
+ * @version $Revision$ $Date$
+ * @author agent
+ */
+public class ExpressionCompilerTest extends TransformTestCase
+{
+   private static final String INPUT =
+      "<items><item n='1'>ab</item><item n='0'>xyz</item>" +
+      "<item n='-2.5'></item><item n='x'>a</item><item>abcd</item></items>";
+
+   public ExpressionCompilerTest(String name)
+   {
+      super(name);
+   }
+
+   private String transform(boolean compile)
+      throws TransformerException
+   {
+      TransformerFactory factory = newFactory();
+      factory.setAttribute(TrAXConstants.COMPILE_EXPRESSIONS,
+                           Boolean.valueOf(compile));
+      return transform(factory.newTemplates(getSource("expressions.stx")),
+                       getStringSource(INPUT));
+   }
+
+   public void testCompiledEqualsInterpreted() throws TransformerException
+   {
+      String interpreted = transform(false);
+      assertEquals(interpreted, transform(true));
+   }
+
+   public void testResults() throws TransformerException
+   {
+      String result = transform(true);
+      assertTrue(result, result.indexOf(
+         "<constants>8.5 1 -1 1 -5 2|Infinity -Infinity NaN false true " +
+         "100000000 0.00005 true false true false true false|3 true true " +
+         "true 6 a2 false false true</constants>") != -1);
+      assertTrue(result, result.indexOf(
+         "<item pos=\"3\" a=\"7\" b=\"false\" c=\"-3\" d=\"0.5\" " +
+         "e=\"false\" f=\"4\" g=\"-1.5\" h=\"true\" i=\"-4\"><mid />" +
+         "late..</item>") != -1);
+   }
+}
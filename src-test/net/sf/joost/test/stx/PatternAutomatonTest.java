@@ -0,0 +1,195 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is agent.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+package net.sf.joost.test.stx;
+
+import java.util.Random;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerException;
+
+/**
+ * Tests the matching of pattern prefixes by the automaton
+ * ({@link net.sf.joost.instruction.PatternAutomaton}). The results are
+ * compared with those of the same patterns with a predicate in every
+ * step except the last one, which makes them ineligible for the
+ * automaton, so they are matched step by step as before.
+ * @version $Revision$ $Date$
+ * @author agent
+ */
+public class PatternAutomatonTest extends TransformTestCase
+{
+   private static final String XML_DECL =
+      "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n";
+
+   private static final String[] PATTERNS = {
+      "a/b", "a//b", "/root//a/b", "/root/a", "/root//a/c", "/root/*/b",
+      "*/b", "p:*/a", "*:a/b", "a//*/c", "a//b//c", "root/a/b/c",
+      "node()/b", "a/b/text()", "b//text()", "c/p:a", "p:a//p:a",
+      "a/b | c//a", "/a", "b/c/@x", "a/b[@x]", "a//b[2]", "b/a/c/b/a",
+      "a//a//a", "c/c", "/root//c//c", "a/comment()", "b/processing-instruction()"
+   };
+
+   /** The element names of the generated documents */
+   private static final String[] NAMES = { "a", "b", "c", "p:a", "q:c" };
+
+   public PatternAutomatonTest(String name)
+   {
+      super(name);
+   }
+
+   /**
+    * @return a sheet with a template for each pattern; every template
+    *         passes the node on to the next matching template
+    */
+   private static String createSheet(String[] patterns, boolean predicates)
+   {
+      StringBuffer sheet = new StringBuffer(
+         "<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns' " +
+         "xmlns:p='urn:p' version='1.0' exclude-result-prefixes='p'>" +
+         "<stx:template match='node()' priority='-10'>" +
+         "<stx:value-of select='name()' /><stx:process-attributes />" +
+         "<stx:process-children /></stx:template>" +
+         "<stx:template match='text()' priority='-9'>" +
+         "<stx:value-of select='.' /></stx:template>");
+      for (int i=0; i<patterns.length; i++) {
+         String pattern = patterns[i];
+         if (predicates) {
+            // [true()] after every step followed by a slash
+            StringBuffer tmp = new StringBuffer();
+            for (int k=0; k<pattern.length(); k++) {
+               char c = pattern.charAt(k);
+               if (c == '/' && k > 0 && pattern.charAt(k-1) != '/' &&
+                   pattern.charAt(k-1) != ' ')
+                  tmp.append("[true()]");
+               tmp.append(c);
+            }
+            pattern = tmp.toString();
+         }
+         sheet.append("<stx:template match='").append(pattern)
+              .append("' priority='").append(i)
+              .append("'>(").append(i).append(")<stx:process-self />")
+              .append("</stx:template>");
+      }
+      sheet.append("</stx:transform>");
+      return sheet.toString();
+   }
+
+   /** Appends a random element with random content to a document */
+   private static void createElement(StringBuffer doc, Random random,
+                                     int depth)
+   {
+      String name = NAMES[random.nextInt(NAMES.length)];
+      doc.append('<').append(name);
+      if (random.nextInt(3) == 0)
+         doc.append(" x='").append(depth).append('\'');
+      doc.append('>');
+      int children = depth < 7 ? random.nextInt(4) : 0;
+      for (int i=0; i<children; i++) {
+         switch (random.nextInt(6)) {
+         case 0:
+            doc.append("t").append(depth);
+            break;
+         case 1:
+            doc.append("<!--c-->");
+            break;
+         case 2:
+            doc.append("<?pi?>");
+            break;
+         default:
+            createElement(doc, random, depth + 1);
+         }
+      }
+      doc.append("</").append(name).append('>');
+   }
+
+   /** Compares the results of both sheets for a document */
+   private void assertSameResult(Templates expected, Templates actual,
+                                 String input)
+      throws TransformerException
+   {
+      assertEquals(input, transform(expected, getStringSource(input)),
+                   transform(actual, getStringSource(input)));
+   }
+
+   public void testPatterns() throws TransformerException
+   {
+      String input =
+         "<root xmlns:p='urn:p' xmlns:q='urn:p'><a><b>1<c x='1'><p:a>" +
+         "<p:a /><a /></p:a></c></b><!--c--><b><c><b><a /></b></c></b>" +
+         "</a><c><c><q:c /><a><b>2</b></a></c></c></root>";
+      Templates templates = newFactory().newTemplates(
+         getStringSource(createSheet(PATTERNS, false)));
+      // the result of the former step by step matching
+      assertEquals(XML_DECL +
+         "root(3)a(17)(12)(8)(6)(5)(2)(1)(0)b(14)(13)1(11)(10)(9)c(19)" +
+         "(15)p:a(16)p:a(17)(7)a(26)(21)(17)(12)(8)(6)(5)(2)(1)(0)b" +
+         "(11)(10)(9)c(12)(6)(1)b(17)ac(25)(24)cq:c(17)a(17)(12)(8)(6)" +
+         "(2)(1)(0)b(14)(13)2\n",
+         transform(templates, getStringSource(input)));
+      assertSameResult(newFactory().newTemplates(
+                          getStringSource(createSheet(PATTERNS, true))),
+                       templates, input);
+   }
+
+   public void testRandomDocuments() throws TransformerException
+   {
+      Templates expected = newFactory().newTemplates(
+         getStringSource(createSheet(PATTERNS, true)));
+      Templates actual = newFactory().newTemplates(
+         getStringSource(createSheet(PATTERNS, false)));
+      Random random = new Random(42);
+      for (int i=0; i<100; i++) {
+         StringBuffer doc = new StringBuffer(
+            "<root xmlns:p='urn:p' xmlns:q='urn:q'>");
+         createElement(doc, random, 1);
+         doc.append("</root>");
+         assertSameResult(expected, actual, doc.toString());
+      }
+   }
+
+   /** More than 64 steps, so the states need several words */
+   public void testManyPatterns() throws TransformerException
+   {
+      String[] steps = { "a", "b", "c", "*", "p:a", "node()" };
+      String[] patterns = new String[steps.length * steps.length * 2];
+      int n = 0;
+      for (int i=0; i<steps.length; i++)
+         for (int k=0; k<steps.length; k++) {
+            patterns[n++] = steps[i] + "/" + steps[k] + "/b";
+            patterns[n++] = steps[i] + "//" + steps[k] + "/c";
+         }
+      Templates expected = newFactory().newTemplates(
+         getStringSource(createSheet(patterns, true)));
+      Templates actual = newFactory().newTemplates(
+         getStringSource(createSheet(patterns, false)));
+      Random random = new Random(7);
+      for (int i=0; i<30; i++) {
+         StringBuffer doc = new StringBuffer(
+            "<root xmlns:p='urn:p' xmlns:q='urn:q'>");
+         createElement(doc, random, 1);
+         doc.append("</root>");
+         assertSameResult(expected, actual, doc.toString());
+      }
+   }
+}
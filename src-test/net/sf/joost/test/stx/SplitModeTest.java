@@ -0,0 +1,296 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is agent.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+package net.sf.joost.test.stx;
+
+import net.sf.joost.trax.TrAXConstants;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+
+import javax.xml.transform.ErrorListener;
+import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamResult;
+
+/**
+ * Tests the parallel transformation of subtrees (split mode). The expected
+ * results are those of the serial transformation.
+ * @version $Revision$ $Date$
+ * @author agent
+ */
+public class SplitModeTest extends TransformTestCase
+{
+   private static final String WORKER_NAME = "Joost split worker";
+
+   public SplitModeTest(String name)
+   {
+      super(name);
+   }
+
+   /** @return the compiled sheet split.stx */
+   private Templates newTemplates(String pattern, int threads)
+      throws TransformerException
+   {
+      TransformerFactory factory = newFactory();
+      if (pattern != null) {
+         factory.setAttribute(TrAXConstants.SPLIT_PATTERN, pattern);
+         factory.setAttribute(TrAXConstants.SPLIT_THREADS,
+                              new Integer(threads));
+      }
+      return factory.newTemplates(getSource("split.stx"));
+   }
+
+   /** @return an input document with the given number of records */
+   private static String getInput(int records)
+   {
+      StringBuffer sb = new StringBuffer(
+         "<?xml version='1.0'?><!-- c --><root xmlns:x='urn:x' kind='test'>");
+      for (int i=0; i<records; i++) {
+         sb.append("<record id='").append(i).append("' x:a='v").append(i)
+           .append("'><name>Name ").append(i).append(" &amp; co</name>")
+           .append("<val>").append(i * 7 % 100).append("</val><!-- ")
+           .append(i).append(" --></record>");
+         if (i % 3 == 0)
+            sb.append("<other n='").append(i).append("' />");
+      }
+      return sb.append("text</root>").toString();
+   }
+
+   private static String transform(Transformer transformer, String input)
+      throws TransformerException
+   {
+      StringWriter writer = new StringWriter();
+      transformer.transform(getStringSource(input), new StreamResult(writer));
+      return writer.toString();
+   }
+
+   /** @return the number of running split worker threads */
+   private static int countWorkers()
+   {
+      Thread[] threads = new Thread[Thread.activeCount() + 10];
+      int count = 0;
+      for (int i=Thread.enumerate(threads)-1; i>=0; i--)
+         if (WORKER_NAME.equals(threads[i].getName()))
+            count++;
+      return count;
+   }
+
+   /**
+    * Waits until at most <code>max</code> worker threads are running
+    * @return the number of running worker threads
+    */
+   private static int waitForWorkers(int max)
+      throws InterruptedException
+   {
+      int count = countWorkers();
+      for (int i=0; i<50 && count > max; i++) {
+         Thread.sleep(100);
+         count = countWorkers();
+      }
+      return count;
+   }
+
+   public void testSameResult() throws TransformerException
+   {
+      String input = getInput(500);
+      String expected = transform(newTemplates(null, 0),
+                                  getStringSource(input));
+      for (int threads=1; threads<=4; threads++)
+         assertEquals("threads=" + threads, expected,
+                      transform(newTemplates("/root/record", threads),
+                                getStringSource(input)));
+      assertEquals(expected,
+                   transform(newTemplates("/*/*", 3),
+                             getStringSource(input)));
+   }
+
+   public void testNoMatch() throws TransformerException
+   {
+      String input = getInput(10);
+      assertEquals(transform(newTemplates(null, 0), getStringSource(input)),
+                   transform(newTemplates("/root/none", 2),
+                             getStringSource(input)));
+   }
+
+   /** A reused transformer must use the current parameters */
+   public void testReusedTransformer() throws TransformerException
+   {
+      String input = getInput(100);
+      Transformer serial = newTemplates(null, 0).newTransformer();
+      Transformer split = newTemplates("/root/record", 2).newTransformer();
+      for (int i=0; i<3; i++) {
+         serial.setParameter("gp", "run" + i);
+         split.setParameter("gp", "run" + i);
+         String expected = transform(serial, input);
+         assertTrue(expected.indexOf("gv-run" + i) != -1);
+         assertEquals(expected, transform(split, input));
+      }
+   }
+
+   /** Failed transformations must terminate their worker threads */
+   public void testFailedTransformations() throws Exception
+   {
+      int before = countWorkers();
+      // not well-formed
+      String input = getInput(200) + "<record>";
+      Templates templates = newTemplates("/root/record", 4);
+      for (int i=0; i<5; i++) {
+         try {
+            transform(templates.newTransformer(), input);
+            fail("TransformerException expected");
+         }
+         catch (TransformerException ex) {
+            // expected
+         }
+      }
+      assertTrue("worker threads still running",
+                 waitForWorkers(before) <= before);
+   }
+
+   /** The thread that called <code>toString()</code> on a failing value */
+   private static Thread failedWorker;
+
+   /**
+    * Extension function for {@link #testWorkerError}
+    * @return an object whose string value can't be computed
+    */
+   public static Object failingValue()
+   {
+      return new Object() {
+         public String toString()
+         {
+            failedWorker = Thread.currentThread();
+            throw new Error("no string value");
+         }
+      };
+   }
+
+   /**
+    * A worker killed by an Error must not block the next transformation
+    * of the same transformer
+    */
+   public void testWorkerError() throws Exception
+   {
+      TransformerFactory factory = newFactory();
+      factory.setAttribute(TrAXConstants.SPLIT_PATTERN, "/root/item");
+      factory.setAttribute(TrAXConstants.SPLIT_THREADS, new Integer(1));
+      Source sheet = getStringSource(
+         "<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns' " +
+         "xmlns:t='java:net.sf.joost.test.stx.SplitModeTest' " +
+         "exclude-result-prefixes='t' version='1.0'>" +
+         "<stx:template match='item'><stx:if test='@fail'>" +
+         "<stx:value-of select='t:failingValue()' /></stx:if>" +
+         "<i n='{@n}' /></stx:template></stx:transform>");
+      final Transformer transformer =
+         factory.newTemplates(sheet).newTransformer();
+      try {
+         transform(transformer,
+                   "<root><item n='1' /><item n='2' fail='yes' />" +
+                   "<item n='3' /></root>");
+         fail("TransformerException expected");
+      }
+      catch (TransformerException ex) {
+         // expected
+      }
+      // the dying worker reports the Error to System.err
+      failedWorker.join();
+
+      final String[] result = new String[1];
+      Thread t = new Thread() {
+         public void run()
+         {
+            try {
+               result[0] = transform(transformer,
+                                     "<root><item n='1' /><item n='2' />" +
+                                     "</root>");
+            }
+            catch (TransformerException ex) {
+               result[0] = ex.toString();
+            }
+         }
+      };
+      t.setDaemon(true);
+      t.start();
+      t.join(10000);
+      assertFalse("transformation blocked", t.isAlive());
+      assertEquals("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                   "<i n=\"1\" /><i n=\"2\" />\n", result[0]);
+   }
+
+   /** The worker threads of a transformer will be reused */
+   public void testWorkerReuse() throws Exception
+   {
+      int before = countWorkers();
+      String input = getInput(100);
+      Transformer transformer =
+         newTemplates("/root/record", 3).newTransformer();
+      String expected = transform(transformer, input);
+      for (int i=0; i<5; i++)
+         assertEquals(expected, transform(transformer, input));
+      assertTrue(countWorkers() <= before + 3);
+   }
+
+   /** A sheet that changes group variables must be processed serially */
+   public void testDisabledWarning() throws TransformerException
+   {
+      TransformerFactory factory = newFactory();
+      factory.setAttribute(TrAXConstants.SPLIT_PATTERN, "/root/record");
+      Source sheet = getStringSource(
+         "<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns' " +
+         "version='1.0'><stx:variable name='n' select='0' />" +
+         "<stx:template match='record'><stx:assign name='n' " +
+         "select='$n + 1' /><r n='{$n}' /></stx:template></stx:transform>");
+      Transformer transformer =
+         factory.newTemplates(sheet).newTransformer();
+      final ArrayList warnings = new ArrayList();
+      transformer.setErrorListener(new ErrorListener() {
+         public void warning(TransformerException ex)
+         {
+            warnings.add(ex.getMessage());
+         }
+         public void error(TransformerException ex)
+            throws TransformerException
+         {
+            throw ex;
+         }
+         public void fatalError(TransformerException ex)
+            throws TransformerException
+         {
+            throw ex;
+         }
+      });
+      StringWriter writer = new StringWriter();
+      transformer.transform(
+         getStringSource("<root><record /><record /><record /></root>"),
+         new StreamResult(writer));
+      assertEquals("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                   "<r n=\"1\" /><r n=\"2\" /><r n=\"3\" />\n",
+                   writer.toString());
+      assertEquals(1, warnings.size());
+      assertTrue(((String)warnings.get(0)).startsWith("Split mode disabled"));
+   }
+}
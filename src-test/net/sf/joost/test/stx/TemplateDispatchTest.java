@@ -0,0 +1,98 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is agent.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+package net.sf.joost.test.stx;
+
+import javax.xml.transform.TransformerException;
+
+/**
+ * Tests the selection of templates (dispatch index). The expected results
+ * are those of the former linear search.
+ * @version $Revision$ $Date$
+ * @author agent
+ */
+public class TemplateDispatchTest extends TransformTestCase
+{
+   private static final String XML_DECL =
+      "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n";
+
+   public TemplateDispatchTest(String name)
+   {
+      super(name);
+   }
+
+   public void testNodeKinds() throws TransformerException
+   {
+      String input =
+         "<?pi-a data?><root xmlns:p='urn:p' xmlns:q='urn:q'>" +
+         "<a /><b x='1' /><b /><p:a /><q:b /><p:c />" +
+         "<c><!--comment--><?pi-b data?><![CDATA[cdata]]>text</c>" +
+         "<d><a /></d><e>e</e>" +
+         "</root>";
+      assertEquals(XML_DECL +
+         "<doc><pi-a /><any name=\"root\"><a-name /><b-x x=\"1\" />" +
+         "<any-b ns=\"\" /><p-any name=\"a\" /><any-b ns=\"urn:q\" />" +
+         "<p-any name=\"c\" /><c-or-e name=\"c\"><g-comment>comment" +
+         "</g-comment><g-node kind=\"pi-b\" /><g-cdata>cdata</g-cdata>" +
+         "<g-node kind=\"\"><g2-text>text</g2-text></g-node></c-or-e>" +
+         "<any name=\"d\"><d-a><a-name /></d-a></any><c-or-e name=\"e\">" +
+         "<g-node kind=\"\"><g2-text>e</g2-text></g-node></c-or-e>" +
+         "</any></doc>\n",
+         transform("dispatch.stx", input));
+   }
+
+   /**
+    * Many templates with different names, a template with a predicate
+    * and a lower priority, and a wildcard template
+    */
+   public void testManyTemplates() throws TransformerException
+   {
+      StringBuffer sheet = new StringBuffer(
+         "<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns' " +
+         "version='1.0'><stx:template match='*'><other name='{name()}' />" +
+         "</stx:template><stx:template match='root'><stx:process-children />" +
+         "</stx:template>");
+      StringBuffer input = new StringBuffer("<root>");
+      StringBuffer expected = new StringBuffer(XML_DECL);
+      for (int i=0; i<200; i++) {
+         sheet.append("<stx:template match='e").append(i)
+              .append("[@n mod 2 = 0]' priority='").append(i % 3)
+              .append("'><even n='").append(i).append("' /></stx:template>");
+         input.append("<e").append(i % 210).append(" n='").append(i % 4)
+              .append("' />");
+         expected.append(i % 4 % 2 == 0 ? "<even n=\"" + i + "\" />"
+                                        : "<other name=\"e" + i + "\" />");
+      }
+      for (int i=200; i<210; i++) {
+         input.append("<e").append(i).append(" />");
+         expected.append("<other name=\"e").append(i).append("\" />");
+      }
+      sheet.append("</stx:transform>");
+      input.append("</root>");
+      expected.append('\n');
+      assertEquals(expected.toString(),
+                   transform(newFactory().newTemplates(
+                                getStringSource(sheet.toString())),
+                             getStringSource(input.toString())));
+   }
+}
@@ -0,0 +1,103 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is agent.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+package net.sf.joost.test.stx;
+
+import net.sf.joost.trax.TransformerFactoryImpl;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.URL;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import junit.framework.TestCase;
+
+/**
+ * Base class for tests that compare the results of transformations, for
+ * example with and without an optimization.
+ * @version $Revision$ $Date$
+ * @author agent
+ */
+public abstract class TransformTestCase extends TestCase
+{
+   public TransformTestCase(String name)
+   {
+      super(name);
+   }
+
+   /** @return a new Joost factory */
+   protected TransformerFactory newFactory()
+   {
+      return new TransformerFactoryImpl();
+   }
+
+   /**
+    * @param name the name of a resource in the package of the test class
+    * @return a source for this resource (with system identifier)
+    */
+   protected Source getSource(String name)
+   {
+      URL url = getClass().getResource(name);
+      assertNotNull("Missing resource " + name, url);
+      return new StreamSource(url.toExternalForm());
+   }
+
+   /** @return a source for a document given as string */
+   protected static Source getStringSource(String xml)
+   {
+      return new StreamSource(new StringReader(xml));
+   }
+
+   /**
+    * Transforms a document.
+    * @param templates the compiled sheet
+    * @param input the input document
+    * @return the result as string
+    */
+   protected static String transform(Templates templates, Source input)
+      throws TransformerException
+   {
+      StringWriter writer = new StringWriter();
+      templates.newTransformer().transform(input, new StreamResult(writer));
+      return writer.toString();
+   }
+
+   /**
+    * Transforms a document using a new factory.
+    * @param sheet the name of the sheet resource
+    * @param input the input document as string
+    * @return the result as string
+    */
+   protected String transform(String sheet, String input)
+      throws TransformerException
+   {
+      return transform(newFactory().newTemplates(getSource(sheet)),
+                       getStringSource(input));
+   }
+}
@@ -55,6 +55,11 @@ public class AllTests extends TestSuite {
         TestSuite suite = new TestSuite(AllTests.class.getName());
         suite.addTestSuite(net.sf.joost.test.trax.TestTestCases.class);
         suite.addTest(ExternalErrorListenerTest.suite());
+        suite.addTestSuite(SheetCacheTest.class);
+        suite.addTestSuite(TemplatesCacheTest.class);
+        suite.addTestSuite(TransformerPoolTest.class);
+        suite.addTestSuite(StAXTest.class);
+        suite.addTestSuite(ChunkParserTest.class);
         return suite;
     }
 }
@@ -0,0 +1,231 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is agent.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+package net.sf.joost.test.trax;
+
+import net.sf.joost.test.stx.TransformTestCase;
+import net.sf.joost.trax.ChunkParser;
+import net.sf.joost.trax.TransformerHandlerImpl;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+
+import javax.xml.transform.ErrorListener;
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Tests the input in chunks of bytes ({@link ChunkParser},
+ * {@link TransformerHandlerImpl#parse(ByteBuffer)}): the result must be
+ * the same as for the SAX parser, regardless of the size of the chunks,
+ * and malformed documents rejected by the SAX parser must be rejected,
+ * too.
+ * @version $Revision$ $Date$
+ * @author agent
+ */
+public class ChunkParserTest extends TransformTestCase
+{
+   private static final String[] WELL_FORMED = {
+      "<root />",
+      "<?xml version=\"1.0\"?>\n<!-- c --><?pi data?>\r\n<root>\r\n</root>",
+      "<root a=\"1\" b='&lt;&amp;&quot;&apos;&gt;' c=\"x\ty\nz\">"
+         + "a &amp; b &#x20AC;&#65;&#x1D11E;</root>",
+      "<root xmlns=\"urn:d\" xmlns:p=\"urn:p\"><p:a p:x=\"1\" y=\"2\">"
+         + "<b xmlns=\"\" /></p:a><c xmlns:p=\"urn:q\"><p:a /></c></root>",
+      "<r>a]]b]>c] ]]&gt; ]</r>",
+      "<r><!-- a - b --><![CDATA[<a> ]] ]]]]><?pi ]]?></r>",
+      "<\u00E9l \u00E0-b.c_d=\"1\"><_x\u0391 /></\u00E9l>",
+      "<!DOCTYPE root><root>\n  <a>\n    <b>x</b>\n"
+         + "  </a>\n</root>\n"
+   };
+
+   private static final String[] MALFORMED = {
+      "<1a />",
+      "<a 1b=\"x\" />",
+      "<a:b:c xmlns:a=\"urn:a\" />",
+      "<a: />",
+      "<a -b=\"x\" />",
+      "<a><?1pi data?></a>",
+      "<root>\u0001</root>",
+      "<root a=\"\u0008\" />",
+      "<root><!-- \u0002 --></root>",
+      "<root>\u0000</root>",
+      "<root>\uFFFE</root>",
+      "<root>&#1;</root>",
+      "<root>&#xFFFF;</root>",
+      "<root>a]]>b</root>",
+      "<root>]]></root>",
+      "<root><!-- a -- b --></root>",
+      "<root><!-- a ---></root>",
+      "<a></b>",
+      "<a>",
+      "<a></a",
+      "text",
+      "<a /><b />",
+      "<a =\"x\" />",
+      "<a>&foo;</a>",
+      "<a b=\"<\" />"
+   };
+
+   private static final int[] CHUNK_SIZES = { 1, 2, 3, 7, 64, 100000 };
+
+   private Templates templates;
+
+   public ChunkParserTest(String name)
+   {
+      super(name);
+   }
+
+   protected void setUp() throws Exception
+   {
+      super.setUp();
+      templates = newFactory().newTemplates(getSource("stax.stx"));
+   }
+
+   /** @return the result of the SAX parser */
+   private String transformBytes(byte[] input)
+      throws TransformerException
+   {
+      Transformer transformer = templates.newTransformer();
+      transformer.setErrorListener(new ErrorListener() {
+         public void warning(TransformerException ex) {}
+         public void error(TransformerException ex) {}
+         public void fatalError(TransformerException ex)
+            throws TransformerException
+         {
+            throw ex;
+         }
+      });
+      StringWriter writer = new StringWriter();
+      transformer.transform(
+         new StreamSource(new ByteArrayInputStream(input)),
+         new StreamResult(writer));
+      return writer.toString();
+   }
+
+   /** @return the result of the chunk parser */
+   private String transformChunks(byte[] input, int chunkSize)
+      throws Exception
+   {
+      StringWriter writer = new StringWriter();
+      TransformerHandlerImpl handler = (TransformerHandlerImpl)
+         ((SAXTransformerFactory)newFactory())
+            .newTransformerHandler(templates);
+      handler.setResult(new StreamResult(writer));
+      for (int i=0; i<input.length; i+=chunkSize)
+         handler.parse(ByteBuffer.wrap(input, i,
+                                       Math.min(chunkSize,
+                                                input.length - i)));
+      handler.endParse();
+      return writer.toString();
+   }
+
+   /** Compares the results for all chunk sizes */
+   private void assertSameResult(String message, byte[] input)
+      throws Exception
+   {
+      String expected = transformBytes(input);
+      for (int k=0; k<CHUNK_SIZES.length; k++)
+         assertEquals(message + " (" + CHUNK_SIZES[k] + ")", expected,
+                      transformChunks(input, CHUNK_SIZES[k]));
+   }
+
+   public void testUTF8() throws Exception
+   {
+      for (int i=0; i<WELL_FORMED.length; i++)
+         assertSameResult(WELL_FORMED[i], WELL_FORMED[i].getBytes("UTF-8"));
+   }
+
+   public void testEncodings() throws Exception
+   {
+      String doc = "<root a=\"\u00E4\u00F6\u00FC\">\u00DF\u00E9</root>";
+      assertSameResult("ISO-8859-1",
+         ("<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>" + doc)
+            .getBytes("ISO-8859-1"));
+      assertSameResult("UTF-16BE", ("\uFEFF" + doc).getBytes("UTF-16BE"));
+      assertSameResult("UTF-16LE", ("\uFEFF" + doc).getBytes("UTF-16LE"));
+      assertSameResult("UTF-8 BOM", ("\uFEFF" + doc).getBytes("UTF-8"));
+   }
+
+   public void testMalformed() throws Exception
+   {
+      for (int i=0; i<MALFORMED.length; i++) {
+         byte[] input = MALFORMED[i].getBytes("UTF-8");
+         try {
+            transformBytes(input);
+            fail("SAX parser accepted " + MALFORMED[i]);
+         }
+         catch (TransformerException ex) {
+            // expected
+         }
+         for (int k=0; k<CHUNK_SIZES.length; k++) {
+            try {
+               transformChunks(input, CHUNK_SIZES[k]);
+               fail("Accepted " + MALFORMED[i] + " (" + CHUNK_SIZES[k] +
+                    ")");
+            }
+            catch (SAXParseException ex) {
+               // expected
+            }
+         }
+      }
+   }
+
+   public void testErrorLocation() throws Exception
+   {
+      final SAXParseException[] error = new SAXParseException[1];
+      ChunkParser parser = new ChunkParser(new DefaultHandler());
+      parser.setErrorHandler(new DefaultHandler() {
+         public void fatalError(SAXParseException ex) {
+            error[0] = ex;
+         }
+      });
+      try {
+         parser.parse(ByteBuffer.wrap(
+            "<root>\n  <a>x\u0001</a>\n</root>".getBytes("UTF-8")));
+         fail("Invalid character accepted");
+      }
+      catch (SAXParseException ex) {
+         assertSame(ex, error[0]);
+         assertEquals(2, ex.getLineNumber());
+         assertEquals(7, ex.getColumnNumber());
+      }
+      // the parser won't continue
+      try {
+         parser.end();
+         fail("Parsing continued after an error");
+      }
+      catch (SAXException ex) {
+         // expected
+      }
+   }
+}
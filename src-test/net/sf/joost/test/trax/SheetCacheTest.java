@@ -0,0 +1,253 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is agent.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+package net.sf.joost.test.trax;
+
+import net.sf.joost.test.stx.TransformTestCase;
+import net.sf.joost.trax.TrAXConstants;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.URIResolver;
+import javax.xml.transform.stream.StreamSource;
+
+/**
+ * Tests the cache of compiled transformation sheets
+ * ({@link TrAXConstants#SHEET_CACHE_DIRECTORY}). A cached sheet must
+ * yield the same results as a parsed sheet.
+ * @version $Revision$ $Date$
+ * @author agent
+ */
+public class SheetCacheTest extends TransformTestCase
+{
+   private static final String INPUT = "<root><a>1</a><b>2</b></root>";
+
+   private static final String XML_DECL =
+      "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n";
+
+   /** A temporary directory, contains the sheets and the cache */
+   private File dir;
+
+   /** The cache directory */
+   private File cache;
+
+   public SheetCacheTest(String name)
+   {
+      super(name);
+   }
+
+   protected void setUp() throws Exception
+   {
+      super.setUp();
+      dir = File.createTempFile("joost", ".test");
+      dir.delete();
+      dir.mkdir();
+      cache = new File(dir, "cache");
+   }
+
+   protected void tearDown() throws Exception
+   {
+      delete(dir);
+      super.tearDown();
+   }
+
+   private static void delete(File file)
+   {
+      File[] files = file.listFiles();
+      for (int i=0; files != null && i<files.length; i++)
+         delete(files[i]);
+      file.delete();
+   }
+
+   private void write(String name, String contents) throws IOException
+   {
+      OutputStream out = new FileOutputStream(new File(dir, name));
+      out.write(contents.getBytes("UTF-8"));
+      out.close();
+   }
+
+   /** @return a sheet with the given templates */
+   private static String sheet(String templates)
+   {
+      return "<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns'" +
+             " version='1.0' pass-through='all'>" + templates +
+             "</stx:transform>";
+   }
+
+   /** @return a factory using the cache directory */
+   private TransformerFactory newCachingFactory()
+   {
+      TransformerFactory factory = newFactory();
+      factory.setAttribute(TrAXConstants.SHEET_CACHE_DIRECTORY,
+                           cache.getPath());
+      return factory;
+   }
+
+   private String transform(TransformerFactory factory, String sheetName)
+      throws TransformerException
+   {
+      Source sheet = new StreamSource(new File(dir, sheetName));
+      return transform(factory.newTemplates(sheet),
+                       getStringSource(INPUT));
+   }
+
+   /** @return the number of compiled sheets in the cache */
+   private int cacheSize()
+   {
+      String[] names = cache.list();
+      int count = 0;
+      for (int i=0; names != null && i<names.length; i++)
+         if (names[i].endsWith(".stxc"))
+            count++;
+      return count;
+   }
+
+   public void testCachedSheet() throws Exception
+   {
+      write("main.stx", sheet(
+         "<stx:include href='inc.stx' /><stx:template match='a'>" +
+         "<x><stx:value-of select='. + 1' /></x></stx:template>"));
+      write("inc.stx", sheet("<stx:template match='b'><y /></stx:template>"));
+      String expected = XML_DECL + "<root><x>2</x><y /></root>\n";
+      assertEquals(expected, transform(newFactory(), "main.stx"));
+
+      assertEquals(expected, transform(newCachingFactory(), "main.stx"));
+      assertEquals(1, cacheSize());
+      // read from the cache
+      assertEquals(expected, transform(newCachingFactory(), "main.stx"));
+      assertEquals(1, cacheSize());
+
+      // a changed include invalidates the compiled sheet
+      write("inc.stx", sheet("<stx:template match='b'><z /></stx:template>"));
+      assertEquals(XML_DECL + "<root><x>2</x><z /></root>\n",
+                   transform(newCachingFactory(), "main.stx"));
+      // a changed main sheet has a new key
+      write("main.stx", sheet("<stx:include href='inc.stx' />"));
+      assertEquals(XML_DECL + "<root><a>1</a><z /></root>\n",
+                   transform(newCachingFactory(), "main.stx"));
+      assertEquals(2, cacheSize());
+   }
+
+   /** Precompiled regular expressions must be stored in the cache */
+   public void testRegexSheet() throws Exception
+   {
+      write("main.stx", sheet(
+         "<stx:template match='a'><x m='{matches(., \"^[0-9]+$\")}' " +
+         "r='{replace(., \"1\", \"one\")}' /></stx:template>" +
+         "<stx:template match='b'><stx:for-each-item name='t' " +
+         "select='tokenize(\"p-q\", \"-\")'><y t='{$t}' />" +
+         "</stx:for-each-item></stx:template>"));
+      String expected = XML_DECL + "<root><x m=\"true\" r=\"one\" />" +
+         "<y t=\"p\" /><y t=\"q\" /></root>\n";
+      assertEquals(expected, transform(newFactory(), "main.stx"));
+      assertEquals(expected, transform(newCachingFactory(), "main.stx"));
+      assertEquals(1, cacheSize());
+      // read from the cache
+      assertEquals(expected, transform(newCachingFactory(), "main.stx"));
+   }
+
+   /** A compiled sheet will be read from the cache instead of the file */
+   public void testCacheUsed() throws Exception
+   {
+      write("main.stx", sheet("<stx:template match='a'><x /></stx:template>"));
+      transform(newCachingFactory(), "main.stx");
+      File[] files = cache.listFiles();
+      assertEquals(1, files.length);
+      File compiled = files[0];
+      File copy = new File(dir, "copy");
+      assertTrue(compiled.renameTo(copy));
+
+      write("main.stx", sheet("<stx:template match='a'><y /></stx:template>"));
+      transform(newCachingFactory(), "main.stx");
+      files = cache.listFiles();
+      assertEquals(1, files.length);
+      // replace the new compiled sheet with the previous one
+      assertTrue(files[0].delete());
+      assertTrue(copy.renameTo(files[0]));
+      assertEquals(XML_DECL + "<root><x /><b>2</b></root>\n",
+                   transform(newCachingFactory(), "main.stx"));
+   }
+
+   /** A corrupt file in the cache will be ignored */
+   public void testCorruptFile() throws Exception
+   {
+      write("main.stx", sheet("<stx:template match='a'><x /></stx:template>"));
+      String expected = XML_DECL + "<root><x /><b>2</b></root>\n";
+      assertEquals(expected, transform(newCachingFactory(), "main.stx"));
+      File[] files = cache.listFiles();
+      assertEquals(1, files.length);
+      OutputStream out = new FileOutputStream(files[0]);
+      out.write("no compiled sheet".getBytes("ISO-8859-1"));
+      out.close();
+      assertEquals(expected, transform(newCachingFactory(), "main.stx"));
+   }
+
+   /** Included sheets will be resolved via the URIResolver */
+   public void testURIResolver() throws Exception
+   {
+      write("main.stx", sheet(
+         "<stx:include href='urn:included' /><stx:template match='a'>" +
+         "<x /></stx:template>"));
+      IncludeResolver resolver = new IncludeResolver();
+      resolver.sheet = sheet("<stx:template match='b'><y /></stx:template>");
+      TransformerFactory factory = newCachingFactory();
+      factory.setURIResolver(resolver);
+      assertEquals(XML_DECL + "<root><x /><y /></root>\n",
+                   transform(factory, "main.stx"));
+      assertEquals(1, cacheSize());
+
+      factory = newCachingFactory();
+      factory.setURIResolver(resolver);
+      assertEquals(XML_DECL + "<root><x /><y /></root>\n",
+                   transform(factory, "main.stx"));
+
+      // the resolver provides a changed sheet
+      resolver.sheet = sheet("<stx:template match='b'><z /></stx:template>");
+      factory = newCachingFactory();
+      factory.setURIResolver(resolver);
+      assertEquals(XML_DECL + "<root><x /><z /></root>\n",
+                   transform(factory, "main.stx"));
+   }
+
+   /** Provides the sheet <code>urn:included</code> */
+   private static final class IncludeResolver implements URIResolver
+   {
+      String sheet;
+
+      public Source resolve(String href, String base)
+      {
+         if (!href.equals("urn:included"))
+            return null;
+         StreamSource source = new StreamSource(new StringReader(sheet));
+         source.setSystemId(href);
+         return source;
+      }
+   }
+}
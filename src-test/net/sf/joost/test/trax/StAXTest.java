@@ -0,0 +1,191 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is agent.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+package net.sf.joost.test.trax;
+
+import net.sf.joost.test.stx.TransformTestCase;
+import net.sf.joost.trax.StAXDriver;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.ErrorListener;
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.transform.stax.StAXSource;
+import javax.xml.transform.stream.StreamResult;
+
+/**
+ * Tests StAX input ({@link StAXDriver}): transforming a
+ * <code>StAXSource</code> must produce the same result as transforming
+ * the same document parsed by the SAX parser.
+ * @version $Revision$ $Date$
+ * @author agent
+ */
+public class StAXTest extends TransformTestCase
+{
+   private static final String[] INPUTS = {
+      "<root />",
+      "<root a=\"1\" b=\"&lt;&amp;&quot;\">text</root>",
+      "<?pi before?><!-- before --><root xmlns=\"urn:d\" xmlns:p=\"urn:p\">"
+         + "<p:a p:x=\"1\" y=\"2\"><b xmlns=\"\" /><p:a>1</p:a></p:a>"
+         + "<!-- inside --><?pi inside data?>"
+         + "<c>a &amp; b &#x20AC; <![CDATA[<cdata> & ]]> z</c>"
+         + "<c xmlns:p=\"urn:q\"><p:a /></c>"
+         + "</root><!-- after -->",
+      "<root>\n  <a>\n    <b>x</b>\n  </a>\n  <a />\n\n</root>\n"
+   };
+
+   /**
+    * The property of the JDK's StAX implementation that reports CDATA
+    * sections as such, otherwise they appear as plain characters
+    */
+   private static final String REPORT_CDATA =
+      "http://java.sun.com/xml/stream/properties/report-cdata-event";
+
+   private XMLInputFactory inputFactory;
+
+   public StAXTest(String name)
+   {
+      super(name);
+   }
+
+   protected void setUp() throws Exception
+   {
+      super.setUp();
+      inputFactory = XMLInputFactory.newInstance();
+      if (inputFactory.isPropertySupported(REPORT_CDATA))
+         inputFactory.setProperty(REPORT_CDATA, Boolean.TRUE);
+   }
+
+   /** @return a stream reader for a document */
+   private XMLStreamReader newStreamReader(String xml) throws Exception
+   {
+      return inputFactory.createXMLStreamReader(new StringReader(xml));
+   }
+
+   /** @return the compiled sheet stax.stx */
+   private Templates newTemplates() throws TransformerException
+   {
+      return newFactory().newTemplates(getSource("stax.stx"));
+   }
+
+   public void testFeature()
+   {
+      assertTrue(newFactory().getFeature(StAXSource.FEATURE));
+   }
+
+   public void testStreamReader() throws Exception
+   {
+      Templates templates = newTemplates();
+      for (int i=0; i<INPUTS.length; i++) {
+         String expected = transform(templates, getStringSource(INPUTS[i]));
+         assertEquals(INPUTS[i], expected,
+            transform(templates,
+                      new StAXSource(newStreamReader(INPUTS[i]))));
+      }
+   }
+
+   public void testEventReader() throws Exception
+   {
+      Templates templates = newTemplates();
+      for (int i=0; i<INPUTS.length; i++) {
+         String expected = transform(templates, getStringSource(INPUTS[i]));
+         StAXSource source = new StAXSource(
+            inputFactory.createXMLEventReader(new StringReader(INPUTS[i])));
+         assertEquals(INPUTS[i], expected, transform(templates, source));
+      }
+   }
+
+   public void testSubtree() throws Exception
+   {
+      Templates templates = newTemplates();
+      String expected = transform(templates,
+         getStringSource("<a><b>x</b><c y=\"1\" /></a>"));
+
+      XMLStreamReader reader =
+         newStreamReader("<root><x /><a><b>x</b><c y=\"1\" /></a><z /></root>");
+      reader.nextTag(); // root
+      reader.nextTag(); // x
+      reader.nextTag(); // end of x
+      reader.nextTag(); // a
+      assertEquals("a", reader.getLocalName());
+      assertEquals(expected, transform(templates, new StAXSource(reader)));
+      // the reader is positioned after the subtree
+      assertEquals(XMLStreamConstants.END_ELEMENT, reader.getEventType());
+      assertEquals("a", reader.getLocalName());
+   }
+
+   public void testParseEvents() throws Exception
+   {
+      Templates templates = newTemplates();
+      SAXTransformerFactory factory = (SAXTransformerFactory)newFactory();
+      for (int i=0; i<INPUTS.length; i++) {
+         String expected = transform(templates, getStringSource(INPUTS[i]));
+         StringWriter writer = new StringWriter();
+         TransformerHandler handler =
+            factory.newTransformerHandler(templates);
+         handler.setResult(new StreamResult(writer));
+         StAXDriver driver = new StAXDriver(newStreamReader(INPUTS[i]));
+         driver.setContentHandler(handler);
+         driver.setProperty("http://xml.org/sax/properties/lexical-handler",
+                            handler);
+         int steps = 0;
+         while (driver.parseEvents(1))
+            steps++;
+         assertFalse(driver.parseEvents(1));
+         assertTrue(steps > 1);
+         assertEquals(INPUTS[i], expected, writer.toString());
+      }
+   }
+
+   public void testMalformedInput() throws Exception
+   {
+      Transformer transformer = newTemplates().newTransformer();
+      transformer.setErrorListener(new ErrorListener() {
+         public void warning(TransformerException ex) {}
+         public void error(TransformerException ex) {}
+         public void fatalError(TransformerException ex)
+            throws TransformerException
+         {
+            throw ex;
+         }
+      });
+      try {
+         transformer.transform(
+            new StAXSource(newStreamReader("<root><a></b></root>")),
+            new StreamResult(new StringWriter()));
+         fail("Malformed input accepted");
+      }
+      catch (TransformerException ex) {
+         // expected
+      }
+   }
+}
@@ -0,0 +1,277 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is agent.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+package net.sf.joost.test.trax;
+
+import net.sf.joost.test.stx.TransformTestCase;
+import net.sf.joost.trax.TemplatesCache;
+import net.sf.joost.trax.TrAXConstants;
+import net.sf.joost.trax.TransformerFactoryImpl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+
+import javax.xml.transform.ErrorListener;
+import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.URIResolver;
+import javax.xml.transform.stream.StreamSource;
+
+/**
+ * Tests the cache of <code>Templates</code> objects
+ * ({@link TrAXConstants#TEMPLATES_CACHE_SIZE}).
+ * @version $Revision$ $Date$
+ * @author agent
+ */
+public class TemplatesCacheTest extends TransformTestCase
+{
+   private static final String INPUT = "<root><a /><b /></root>";
+
+   private static final String XML_DECL =
+      "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n";
+
+   /** A temporary directory containing the sheets */
+   private File dir;
+
+   public TemplatesCacheTest(String name)
+   {
+      super(name);
+   }
+
+   protected void setUp() throws Exception
+   {
+      super.setUp();
+      dir = File.createTempFile("joost", ".test");
+      dir.delete();
+      dir.mkdir();
+   }
+
+   protected void tearDown() throws Exception
+   {
+      File[] files = dir.listFiles();
+      for (int i=0; i<files.length; i++)
+         files[i].delete();
+      dir.delete();
+      super.tearDown();
+   }
+
+   /**
+    * Writes a sheet that transforms the element <code>a</code>
+    * @param name the file name
+    * @param element the element that replaces <code>a</code>
+    * @return the system identifier of the sheet
+    */
+   private String write(String name, String element) throws IOException
+   {
+      File file = new File(dir, name);
+      OutputStream out = new FileOutputStream(file);
+      out.write(("<stx:transform " +
+                 "xmlns:stx='http://stx.sourceforge.net/2002/ns' " +
+                 "version='1.0' pass-through='all'><stx:template " +
+                 "match='a'><" + element + " /></stx:template>" +
+                 "</stx:transform>").getBytes("UTF-8"));
+      out.close();
+      return file.toURI().toString();
+   }
+
+   /** @return a factory that caches <code>size</code> objects */
+   private TransformerFactoryImpl newCachingFactory(int size)
+   {
+      TransformerFactoryImpl factory = new TransformerFactoryImpl();
+      factory.setAttribute(TrAXConstants.TEMPLATES_CACHE_SIZE,
+                           new Integer(size));
+      return factory;
+   }
+
+   private static String transform(Templates templates)
+      throws TransformerException
+   {
+      return transform(templates, getStringSource(INPUT));
+   }
+
+   public void testCachedTemplates() throws Exception
+   {
+      String systemId = write("a.stx", "x");
+      TransformerFactoryImpl factory = newCachingFactory(10);
+      Templates templates = factory.newTemplates(new StreamSource(systemId));
+      assertEquals(XML_DECL + "<root><x /><b /></root>\n",
+                   transform(templates));
+      assertSame(templates,
+                 factory.newTemplates(new StreamSource(systemId)));
+      // relative file names will be resolved
+      assertSame(templates, factory.newTemplates(
+         new StreamSource(new File(dir, "a.stx").getPath())));
+
+      TemplatesCache cache = factory.getTemplatesCache();
+      assertEquals(1, cache.getSize());
+      assertEquals(2, cache.getHits());
+      assertEquals(1, cache.getMisses());
+
+      // the same result without caching
+      assertEquals(transform(templates),
+                   transform(newFactory().newTemplates(
+                      new StreamSource(systemId))));
+   }
+
+   /** Sources with a stream won't be cached */
+   public void testStreamSource() throws Exception
+   {
+      String systemId = write("a.stx", "x");
+      TransformerFactoryImpl factory = newCachingFactory(10);
+      StreamSource source =
+         new StreamSource(new StringReader(
+            "<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns' " +
+            "version='1.0' />"), systemId);
+      Templates templates = factory.newTemplates(source);
+      assertEquals(XML_DECL + "\n", transform(templates));
+      assertEquals(0, factory.getTemplatesCache().getSize());
+      assertNotSame(templates,
+                    factory.newTemplates(new StreamSource(systemId)));
+   }
+
+   /** A modified sheet will be compiled again */
+   public void testModifiedSheet() throws Exception
+   {
+      String systemId = write("a.stx", "x");
+      TransformerFactoryImpl factory = newCachingFactory(10);
+      Templates templates = factory.newTemplates(new StreamSource(systemId));
+
+      File file = new File(dir, "a.stx");
+      long modified = file.lastModified();
+      write("a.stx", "y");
+      file.setLastModified(modified + 2000);
+      Templates changed = factory.newTemplates(new StreamSource(systemId));
+      assertNotSame(templates, changed);
+      assertEquals(XML_DECL + "<root><y /><b /></root>\n",
+                   transform(changed));
+      assertSame(changed, factory.newTemplates(new StreamSource(systemId)));
+   }
+
+   /** The least recently used objects will be evicted */
+   public void testEviction() throws Exception
+   {
+      TransformerFactoryImpl factory = newCachingFactory(2);
+      String[] systemIds = new String[5];
+      for (int i=0; i<systemIds.length; i++) {
+         systemIds[i] = write("s" + i + ".stx", "x" + i);
+         factory.newTemplates(new StreamSource(systemIds[i]));
+      }
+      assertTrue(factory.getTemplatesCache().getSize() <= 2);
+      for (int i=0; i<systemIds.length; i++)
+         assertEquals(XML_DECL + "<root><x" + i + " /><b /></root>\n",
+                      transform(factory.newTemplates(
+                         new StreamSource(systemIds[i]))));
+   }
+
+   /** Changing an attribute or the URIResolver clears the cache */
+   public void testChangedFactory() throws Exception
+   {
+      String systemId = write("a.stx", "x");
+      TransformerFactoryImpl factory = newCachingFactory(10);
+      Templates templates = factory.newTemplates(new StreamSource(systemId));
+      factory.setAttribute(TrAXConstants.ALLOW_EXTERNAL_FUNCTIONS,
+                           Boolean.FALSE);
+      Templates other = factory.newTemplates(new StreamSource(systemId));
+      assertNotSame(templates, other);
+      factory.setURIResolver(new URIResolver() {
+         public Source resolve(String href, String base)
+         {
+            return null;
+         }
+      });
+      assertNotSame(other, factory.newTemplates(new StreamSource(systemId)));
+   }
+
+   /** A sheet that couldn't be compiled won't be cached */
+   public void testError() throws Exception
+   {
+      String systemId = write("a.stx", "x");
+      OutputStream out = new FileOutputStream(new File(dir, "a.stx"));
+      out.write("<stx:transform".getBytes("UTF-8"));
+      out.close();
+      TransformerFactoryImpl factory = newCachingFactory(10);
+      factory.setErrorListener(new ErrorListener() {
+         public void warning(TransformerException ex)
+         { }
+         public void error(TransformerException ex)
+            throws TransformerException
+         {
+            throw ex;
+         }
+         public void fatalError(TransformerException ex)
+            throws TransformerException
+         {
+            throw ex;
+         }
+      });
+      try {
+         factory.newTemplates(new StreamSource(systemId));
+         fail("TransformerConfigurationException expected");
+      }
+      catch (TransformerConfigurationException ex) {
+         // expected
+      }
+      assertEquals(0, factory.getTemplatesCache().getSize());
+
+      write("a.stx", "x");
+      assertEquals(XML_DECL + "<root><x /><b /></root>\n",
+                   transform(factory.newTemplates(
+                      new StreamSource(systemId))));
+   }
+
+   /** Concurrent requests for the same sheet compile it once */
+   public void testConcurrentRequests() throws Exception
+   {
+      final String systemId = write("a.stx", "x");
+      final TransformerFactoryImpl factory = newCachingFactory(10);
+      final Templates[] results = new Templates[8];
+      Thread[] threads = new Thread[results.length];
+      for (int i=0; i<threads.length; i++) {
+         final int n = i;
+         threads[i] = new Thread() {
+            public void run()
+            {
+               try {
+                  results[n] =
+                     factory.newTemplates(new StreamSource(systemId));
+               }
+               catch (TransformerConfigurationException ex) {
+                  // results[n] remains null
+               }
+            }
+         };
+         threads[i].start();
+      }
+      for (int i=0; i<threads.length; i++)
+         threads[i].join();
+      for (int i=0; i<results.length; i++)
+         assertSame(results[0], results[i]);
+      assertNotNull(results[0]);
+      assertEquals(1, factory.getTemplatesCache().getMisses());
+   }
+}
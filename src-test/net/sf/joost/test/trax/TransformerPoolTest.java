@@ -0,0 +1,250 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is agent.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+package net.sf.joost.test.trax;
+
+import net.sf.joost.test.stx.TransformTestCase;
+import net.sf.joost.trax.TemplatesImpl;
+import net.sf.joost.trax.TrAXConstants;
+
+import java.io.StringWriter;
+
+import javax.xml.transform.ErrorListener;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamResult;
+
+/**
+ * Tests the reuse of transformers, either after {@link Transformer#reset}
+ * or from the pool of a <code>Templates</code> object
+ * ({@link TrAXConstants#TRANSFORMER_POOL_SIZE}). A reused transformer
+ * must produce the same result as a new one.
+ * @version $Revision$ $Date$
+ * @author agent
+ */
+public class TransformerPoolTest extends TransformTestCase
+{
+   private static final String INPUT =
+      "<root><item v=\"a\" /><item v=\"b\" /><item v=\"c\" /></root>";
+
+   /** A document that will be rejected by the parser after the first item */
+   private static final String MALFORMED =
+      "<root><item v=\"x\" /><item v=\"y\"></root>";
+
+   public TransformerPoolTest(String name)
+   {
+      super(name);
+   }
+
+   /** @return the output of a transformer */
+   private static String transform(Transformer transformer, String input)
+      throws TransformerException
+   {
+      StringWriter writer = new StringWriter();
+      transformer.transform(getStringSource(input),
+                            new StreamResult(writer));
+      return writer.toString();
+   }
+
+   /** @return the output of a transformation that fails */
+   private static String transformMalformed(Transformer transformer)
+   {
+      // don't report the expected parser error
+      transformer.setErrorListener(new ErrorListener() {
+         public void warning(TransformerException ex) {}
+         public void error(TransformerException ex) {}
+         public void fatalError(TransformerException ex)
+            throws TransformerException
+         {
+            throw ex;
+         }
+      });
+      StringWriter writer = new StringWriter();
+      try {
+         transformer.transform(getStringSource(MALFORMED),
+                               new StreamResult(writer));
+         fail("Malformed input accepted");
+      }
+      catch (TransformerException ex) {
+         // expected
+      }
+      return writer.toString();
+   }
+
+   /** @return a new templates object for pool.stx */
+   private TemplatesImpl newTemplates(TransformerFactory factory)
+      throws TransformerException
+   {
+      return (TemplatesImpl)factory.newTemplates(getSource("pool.stx"));
+   }
+
+   public void testRepeatedTransformations() throws Exception
+   {
+      Templates templates = newTemplates(newFactory());
+      String expected = transform(templates, getStringSource(INPUT));
+      assertTrue(expected, expected.indexOf("<total count=\"3\">") > 0);
+
+      // the global variable and the buffer must start empty each time
+      Transformer transformer = templates.newTransformer();
+      for (int i=0; i<3; i++)
+         assertEquals(expected, transform(transformer, INPUT));
+   }
+
+   public void testReset() throws Exception
+   {
+      Templates templates = newTemplates(newFactory());
+      String expected = transform(templates, getStringSource(INPUT));
+
+      Transformer transformer = templates.newTransformer();
+      transformer.setParameter("p", "changed");
+      transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+      String changed = transform(transformer, INPUT);
+      assertTrue(changed, changed.startsWith("<out p=\"changed\">"));
+
+      transformer.reset();
+      assertNull(transformer.getParameter("p"));
+      assertEquals(templates.getOutputProperties(),
+                   transformer.getOutputProperties());
+      assertEquals(expected, transform(transformer, INPUT));
+   }
+
+   public void testResetAfterFailure() throws Exception
+   {
+      Templates templates = newTemplates(newFactory());
+      String expected = transform(templates, getStringSource(INPUT));
+
+      // the failed transformation leaves open elements, buffer contents
+      // and an assigned global variable behind
+      Transformer transformer = templates.newTransformer();
+      transformMalformed(transformer);
+      transformer.reset();
+      assertEquals(expected, transform(transformer, INPUT));
+
+      // without reset
+      transformMalformed(transformer);
+      assertEquals(expected, transform(transformer, INPUT));
+   }
+
+   public void testPool() throws Exception
+   {
+      TemplatesImpl templates = newTemplates(newFactory());
+      String expected = transform(templates, getStringSource(INPUT));
+
+      Transformer transformer = templates.acquireTransformer();
+      transformer.setParameter("p", "changed");
+      transform(transformer, INPUT);
+      templates.releaseTransformer(transformer);
+
+      // the same transformer, reset
+      Transformer pooled = templates.acquireTransformer();
+      assertSame(transformer, pooled);
+      assertNull(pooled.getParameter("p"));
+      assertEquals(expected, transform(pooled, INPUT));
+
+      // an aborted transformer may be released too
+      transformMalformed(pooled);
+      templates.releaseTransformer(pooled);
+      pooled = templates.acquireTransformer();
+      assertSame(transformer, pooled);
+      assertEquals(expected, transform(pooled, INPUT));
+
+      // the pool is empty now
+      Transformer other = templates.acquireTransformer();
+      assertNotSame(pooled, other);
+      assertEquals(expected, transform(other, INPUT));
+   }
+
+   public void testPoolSize() throws Exception
+   {
+      TransformerFactory factory = newFactory();
+      factory.setAttribute(TrAXConstants.TRANSFORMER_POOL_SIZE,
+                           new Integer(1));
+      TemplatesImpl templates = newTemplates(factory);
+      Transformer t1 = templates.acquireTransformer();
+      Transformer t2 = templates.acquireTransformer();
+      templates.releaseTransformer(t1);
+      templates.releaseTransformer(t2); // discarded
+      assertSame(t1, templates.acquireTransformer());
+      Transformer t3 = templates.acquireTransformer();
+      assertNotSame(t1, t3);
+      assertNotSame(t2, t3);
+
+      // transformers of other templates are discarded
+      TemplatesImpl others = newTemplates(factory);
+      Transformer foreign = others.acquireTransformer();
+      templates.releaseTransformer(foreign);
+      assertNotSame(foreign, templates.acquireTransformer());
+
+      // no pool
+      factory.setAttribute(TrAXConstants.TRANSFORMER_POOL_SIZE,
+                           new Integer(0));
+      templates = newTemplates(factory);
+      t1 = templates.acquireTransformer();
+      templates.releaseTransformer(t1);
+      assertNotSame(t1, templates.acquireTransformer());
+
+      try {
+         factory.setAttribute(TrAXConstants.TRANSFORMER_POOL_SIZE,
+                              new Integer(-1));
+         fail("Negative pool size accepted");
+      }
+      catch (IllegalArgumentException ex) {
+         // expected
+      }
+   }
+
+   public void testConcurrentPool() throws Exception
+   {
+      final TemplatesImpl templates = newTemplates(newFactory());
+      final String expected = transform(templates, getStringSource(INPUT));
+      final Throwable[] failure = new Throwable[1];
+      Thread[] threads = new Thread[4];
+      for (int i=0; i<threads.length; i++) {
+         threads[i] = new Thread() {
+            public void run()
+            {
+               try {
+                  for (int j=0; j<50; j++) {
+                     Transformer t = templates.acquireTransformer();
+                     assertEquals(expected, transform(t, INPUT));
+                     templates.releaseTransformer(t);
+                  }
+               }
+               catch (Throwable t) {
+                  synchronized (failure) {
+                     failure[0] = t;
+                  }
+               }
+            }
+         };
+         threads[i].start();
+      }
+      for (int i=0; i<threads.length; i++)
+         threads[i].join();
+      if (failure[0] != null)
+         throw new Exception(failure[0].toString());
+   }
+}
@@ -0,0 +1,158 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is agent.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+
+package net.sf.joost.test.trax.profiler;
+
+import net.sf.joost.trax.TrAXConstants;
+
+import java.io.File;
+import java.io.StringReader;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Compares the transformation throughput of the expression interpreter
+ * with the optimized expressions created by the
+ * {@link net.sf.joost.grammar.ExpressionCompiler}
+ * (see {@link TrAXConstants#COMPILE_EXPRESSIONS}).
+ * The measurement uses the test sheets in <code>src-test</code> as well as
+ * a generated sheet containing mainly arithmetic expressions.
+ * <p>
+ * Usage: <code>java net.sf.joost.test.trax.profiler.ExpressionCompilerProfiler
+ * [iterations [sheet input]...]</code>
+ * @version $Revision$ $Date$
+ * @author agent
+ */
+public class ExpressionCompilerProfiler
+{
+   private static final String DATA = "src-test/net/sf/joost/test/trax/data/";
+
+   private static final String[] DEFAULT_SHEETS = {
+      DATA + "flat.stx", DATA + "flat.xml",
+      DATA + "copy.stx", DATA + "flat2.xml",
+      null, DATA + "flat.xml" // generated sheet
+   };
+
+   public static void main(String[] args)
+      throws Exception
+   {
+      int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+      String[] sheets = DEFAULT_SHEETS;
+      if (args.length > 2) {
+         sheets = new String[(args.length - 1) & ~1];
+         System.arraycopy(args, 1, sheets, 0, sheets.length);
+      }
+
+      System.out.println("sheet                 interpreted/sec  compiled/sec");
+      for (int i=0; i<sheets.length; i+=2) {
+         double[] result = new double[2];
+         for (int mode=0; mode<2; mode++) {
+            Templates templates = createTemplates(sheets[i], mode == 1);
+            // warm up, then measure
+            run(templates, sheets[i+1], iterations / 10);
+            result[mode] = run(templates, sheets[i+1], iterations);
+         }
+         String name = sheets[i] == null
+                       ? "(generated)"
+                       : new File(sheets[i]).getName();
+         System.out.println(pad(name, -21) +
+                            pad(String.valueOf((long)result[0]), 17) +
+                            pad(String.valueOf((long)result[1]), 14));
+      }
+   }
+
+
+   /** @return the compiled sheet */
+   private static Templates createTemplates(String sheet, boolean compile)
+      throws Exception
+   {
+      TransformerFactory factory =
+         new net.sf.joost.trax.TransformerFactoryImpl();
+      factory.setAttribute(TrAXConstants.COMPILE_EXPRESSIONS,
+                           new Boolean(compile));
+      if (sheet == null)
+         return factory.newTemplates(
+            new StreamSource(new StringReader(createSheet())));
+      return factory.newTemplates(new StreamSource(new File(sheet)));
+   }
+
+
+   /**
+    * Transforms the <code>input</code> document <code>iterations</code> times
+    * @return the number of transformations per second
+    */
+   private static double run(Templates templates, String input,
+                             int iterations)
+      throws Exception
+   {
+      File inputFile = new File(input);
+      long start = System.currentTimeMillis();
+      for (int i=0; i<iterations; i++) {
+         Transformer transformer = templates.newTransformer();
+         transformer.transform(new StreamSource(inputFile),
+                               new SAXResult(new DefaultHandler()));
+      }
+      long delta = Math.max(1, System.currentTimeMillis() - start);
+      return iterations * 1000.0 / delta;
+   }
+
+
+   /** @return a sheet that evaluates mainly typed arithmetic expressions */
+   private static String createSheet()
+   {
+      return
+         "<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns'" +
+         " version='1.0' pass-through='none'>\n" +
+         "<stx:template match='*'>\n" +
+         "  <stx:if test='position() mod 2 = 1 and position() * 3 &gt; 2'>\n" +
+         "    <e n='{position() * 2 + 1}' l='{string-length(.) div 2}'/>\n" +
+         "  </stx:if>\n" +
+         "  <stx:if test='(position() + 10) * (1 + 1) != 2 * 3 - 1'>\n" +
+         "    <stx:value-of select='-position() + 60 * 60 * 24'/>\n" +
+         "  </stx:if>\n" +
+         "  <stx:process-children/>\n" +
+         "</stx:template>\n" +
+         "</stx:transform>\n";
+   }
+
+
+   /**
+    * Pads a string with spaces
+    * @param length the length of the result; negative values pad on the
+    *        right side
+    */
+   private static String pad(String s, int length)
+   {
+      StringBuffer sb = new StringBuffer();
+      for (int i=s.length(); i<Math.abs(length); i++)
+         sb.append(' ');
+      return length < 0 ? s + sb : sb.append(s).toString();
+   }
+}
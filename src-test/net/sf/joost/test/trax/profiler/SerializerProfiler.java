@@ -0,0 +1,237 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is agent.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+
+package net.sf.joost.test.trax.profiler;
+
+import net.sf.joost.emitter.StreamEmitter;
+
+import java.io.BufferedWriter;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Properties;
+
+import javax.xml.transform.OutputKeys;
+
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * Measures the throughput of the XML serializer
+ * ({@link net.sf.joost.emitter.XmlEmitter}) in MB/s of produced characters
+ * for several output encodings and kinds of content. The output is
+ * written to a writer that discards all characters.
+ * <p>
+ * A second table compares the output to a byte stream using the
+ * {@link net.sf.joost.emitter.ByteEncodingWriter} (as created by
+ * {@link StreamEmitter#newEmitter(OutputStream, Properties)}) with an
+ * <code>OutputStreamWriter</code>.
+ * <p>
+ * Usage: <code>java net.sf.joost.test.trax.profiler.SerializerProfiler
+ * [megabytes [encoding]...]</code>
+ * @version $Revision$ $Date$
+ * @author agent
+ */
+public class SerializerProfiler
+{
+   private static final String[] DEFAULT_ENCODINGS = {
+      "UTF-8", "ISO-8859-1", "US-ASCII", "windows-1252"
+   };
+
+   /** The kinds of content */
+   private static final String[] CONTENTS = {
+      "plain text", "markup in text", "non-ASCII text", "attributes"
+   };
+
+   private static final String PLAIN =
+      "The quick brown fox jumps over the lazy dog. ";
+   private static final String MARKUP =
+      "if (a < b && b > c) { x = \"<tag>\"; } ";
+   private static final String NON_ASCII =
+      "Gr\u00fc\u00dfe aus K\u00f6ln \u2013 \u20ac 5, \u4e2d\u6587. ";
+
+
+   public static void main(String[] args)
+      throws Exception
+   {
+      int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+      String[] encodings = DEFAULT_ENCODINGS;
+      if (args.length > 1) {
+         encodings = new String[args.length - 1];
+         System.arraycopy(args, 1, encodings, 0, encodings.length);
+      }
+
+      System.out.println("characters to a Writer");
+      printTable(encodings, megabytes, WRITER);
+      System.out.println();
+      System.out.println("bytes to an OutputStream, using a " +
+                         "ByteEncodingWriter / an OutputStreamWriter");
+      printTable(encodings, megabytes, BYTES);
+   }
+
+
+   // output targets
+   private static final int WRITER = 0;
+   private static final int BYTES = 1;
+   private static final int OUTPUT_STREAM_WRITER = 2;
+
+
+   private static void printTable(String[] encodings, int megabytes,
+                                  int target)
+      throws Exception
+   {
+      System.out.print(pad("content", -16));
+      for (int i=0; i<encodings.length; i++)
+         System.out.print(pad(encodings[i], 14));
+      System.out.println("   (MB/s)");
+      for (int c=0; c<CONTENTS.length; c++) {
+         System.out.print(pad(CONTENTS[c], -16));
+         for (int i=0; i<encodings.length; i++) {
+            // warm up, then measure
+            run(encodings[i], c, megabytes / 10 + 1, target);
+            long result = (long)run(encodings[i], c, megabytes, target);
+            if (target == BYTES) {
+               run(encodings[i], c, megabytes / 10 + 1,
+                   OUTPUT_STREAM_WRITER);
+               long osw = (long)run(encodings[i], c, megabytes,
+                                    OUTPUT_STREAM_WRITER);
+               System.out.print(pad(result + " / " + osw, 14));
+            }
+            else
+               System.out.print(pad(String.valueOf(result), 14));
+         }
+         System.out.println();
+      }
+   }
+
+
+   /**
+    * Serializes a document with (approximately) <code>megabytes</code>
+    * of output
+    * @return the throughput in MB/s
+    */
+   private static double run(String encoding, int content, int megabytes,
+                             int target)
+      throws Exception
+   {
+      String text = content == 0 ? PLAIN
+                  : content == 1 ? MARKUP
+                  : NON_ASCII;
+      StringBuffer sb = new StringBuffer();
+      while (sb.length() < 1000)
+         sb.append(text);
+      char[] chars = sb.toString().toCharArray();
+      AttributesImpl attrs = new AttributesImpl();
+      AttributesImpl noAttrs = new AttributesImpl();
+      if (content == 3) {
+         attrs.addAttribute("", "id", "id", "CDATA", "e1234");
+         attrs.addAttribute("", "title", "title", "CDATA", PLAIN);
+         attrs.addAttribute("", "expr", "expr", "CDATA", MARKUP);
+      }
+
+      CountingWriter writer = new CountingWriter();
+      CountingOutputStream out = new CountingOutputStream();
+      StreamEmitter emitter;
+      if (target == WRITER)
+         emitter = StreamEmitter.newEmitter(writer, encoding, null);
+      else if (target == BYTES) {
+         Properties props = new Properties();
+         props.setProperty(OutputKeys.ENCODING, encoding);
+         emitter = StreamEmitter.newEmitter(out, props);
+      }
+      else
+         emitter = StreamEmitter.newEmitter(
+            new BufferedWriter(new OutputStreamWriter(out, encoding)),
+            encoding, null);
+      long limit = megabytes * 1024L * 1024L;
+      long start = System.currentTimeMillis();
+      emitter.startDocument();
+      emitter.startElement("", "doc", "doc", noAttrs);
+      while (writer.count + out.count < limit) {
+         emitter.startElement("", "e", "e", attrs);
+         if (content == 3)
+            emitter.characters(chars, 0, 20);
+         else
+            emitter.characters(chars, 0, chars.length);
+         emitter.endElement("", "e", "e");
+      }
+      emitter.endElement("", "doc", "doc");
+      emitter.endDocument();
+      long delta = Math.max(1, System.currentTimeMillis() - start);
+      return (writer.count + out.count) * 1000.0 / 1024 / 1024 / delta;
+   }
+
+
+   /** A writer that counts and discards all characters */
+   private static final class CountingWriter extends Writer
+   {
+      long count;
+
+      public void write(char[] cbuf, int off, int len)
+      {
+         count += len;
+      }
+
+      public void write(String str)
+      {
+         count += str.length();
+      }
+
+      public void flush()
+      { }
+
+      public void close()
+      { }
+   }
+
+
+   /** An output stream that counts and discards all bytes */
+   private static final class CountingOutputStream extends OutputStream
+   {
+      long count;
+
+      public void write(byte[] b, int off, int len)
+      {
+         count += len;
+      }
+
+      public void write(int b)
+      {
+         count++;
+      }
+   }
+
+
+   /**
+    * Pads a string with spaces
+    * @param length the length of the result; negative values pad on the
+    *        right side
+    */
+   private static String pad(String s, int length)
+   {
+      StringBuffer sb = new StringBuffer();
+      for (int i=s.length(); i<Math.abs(length); i++)
+         sb.append(' ');
+      return length < 0 ? s + sb : sb.append(s).toString();
+   }
+}
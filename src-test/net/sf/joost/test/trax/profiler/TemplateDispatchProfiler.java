@@ -0,0 +1,169 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is agent.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+
+package net.sf.joost.test.trax.profiler;
+
+import net.sf.joost.stx.ParseContext;
+import net.sf.joost.stx.Processor;
+
+import java.io.StringReader;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.DefaultHandler;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+/**
+ * Measures the template dispatch throughput (events per second) for
+ * transformation sheets with a growing number of templates.
+ * Each generated sheet contains one template per element name and
+ * a few generic templates; the input consists of a flat list of
+ * elements whose names are evenly distributed over all templates.
+ * <p>
+ * Usage: <code>java net.sf.joost.test.trax.profiler.TemplateDispatchProfiler
+ * [elements [template-counts...]]</code>
+ * @version $Revision$ $Date$
+ * @author agent
+ */
+public class TemplateDispatchProfiler
+{
+   private static final int[] DEFAULT_TEMPLATE_COUNTS =
+      { 1, 10, 50, 100, 200, 400 };
+
+   public static void main(String[] args)
+      throws Exception
+   {
+      int elements = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+      int[] counts = DEFAULT_TEMPLATE_COUNTS;
+      if (args.length > 1) {
+         counts = new int[args.length - 1];
+         for (int i=1; i<args.length; i++)
+            counts[i-1] = Integer.parseInt(args[i]);
+      }
+
+      System.out.println("templates   events/sec");
+      for (int i=0; i<counts.length; i++) {
+         // warm up, then measure
+         run(counts[i], elements / 10);
+         double eventsPerSec = run(counts[i], elements);
+         System.out.println(pad(String.valueOf(counts[i]), 9) +
+                            pad(String.valueOf((long)eventsPerSec), 13));
+      }
+   }
+
+
+   /**
+    * Runs a transformation with <code>templates</code> templates on
+    * <code>elements</code> input elements
+    * @return the number of processed events per second
+    */
+   private static double run(int templates, int elements)
+      throws Exception
+   {
+      Processor proc =
+         new Processor(new InputSource(new StringReader(createSheet(templates))),
+                       new ParseContext());
+      EventGenerator generator = new EventGenerator(templates, elements);
+      proc.setParent(generator);
+      proc.setContentHandler(new DefaultHandler());
+
+      long start = System.currentTimeMillis();
+      proc.parse(new InputSource());
+      long delta = Math.max(1, System.currentTimeMillis() - start);
+      return generator.eventCount * 1000.0 / delta;
+   }
+
+
+   /** @return a transformation sheet with <code>count</code> templates */
+   private static String createSheet(int count)
+   {
+      StringBuffer sb = new StringBuffer();
+      sb.append("<stx:transform xmlns:stx='http://stx.sourceforge.net/2002/ns'")
+        .append(" version='1.0'>\n")
+        .append("<stx:template match='/'><stx:process-children/>")
+        .append("</stx:template>\n")
+        .append("<stx:template match='*' priority='-1'>")
+        .append("<stx:process-children/></stx:template>\n")
+        .append("<stx:template match='text()'><stx:value-of select='.'/>")
+        .append("</stx:template>\n");
+      for (int i=0; i<count; i++) {
+         sb.append("<stx:template match='list/e").append(i).append("'>")
+           .append("<stx:process-children/></stx:template>\n");
+      }
+      sb.append("</stx:transform>\n");
+      return sb.toString();
+   }
+
+
+   private static String pad(String s, int length)
+   {
+      StringBuffer sb = new StringBuffer();
+      for (int i=s.length(); i<length; i++)
+         sb.append(' ');
+      return sb.append(s).toString();
+   }
+
+
+   /** Generates a flat document <code>&lt;list>&lt;eN>text&lt;/eN>...</code> */
+   private static final class EventGenerator extends XMLFilterImpl
+   {
+      private String[] names;
+      private int elements;
+      long eventCount;
+
+      EventGenerator(int templates, int elements)
+      {
+         names = new String[Math.max(templates, 1)];
+         for (int i=0; i<names.length; i++)
+            names[i] = "e" + i;
+         this.elements = elements;
+      }
+
+      /** Accepts (and ignores) the lexical handler of the Processor */
+      public void setProperty(String name, Object value)
+      {
+      }
+
+      public void parse(InputSource dummy)
+         throws SAXException
+      {
+         char[] data = "text".toCharArray();
+         AttributesImpl attrs = new AttributesImpl();
+         ContentHandler h = getContentHandler();
+         h.startDocument();
+         h.startElement("", "list", "list", attrs);
+         for (int i=0; i<elements; i++) {
+            String name = names[i % names.length];
+            h.startElement("", name, name, attrs);
+            h.characters(data, 0, data.length);
+            h.endElement("", name, name);
+         }
+         h.endElement("", "list", "list");
+         h.endDocument();
+         eventCount = 3L * elements + 4;
+      }
+   }
+}
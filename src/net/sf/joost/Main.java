@@ -25,6 +25,7 @@
 package net.sf.joost;
 
 import net.sf.joost.emitter.FOPEmitter;
+import net.sf.joost.emitter.MessageWriter;
 import net.sf.joost.emitter.StreamEmitter;
 import net.sf.joost.emitter.StxEmitter;
 import net.sf.joost.stx.ParseContext;
@@ -475,6 +476,13 @@ public class Main implements Constants
                // ignore
             }
          }
+         try {
+            // output the messages before the error
+            MessageWriter.getInstance().flush();
+         }
+         catch (IOException exx) {
+            // ignore
+         }
          Exception embedded = ex.getException();
          if (embedded != null) {
             if (embedded instanceof TransformerException) {
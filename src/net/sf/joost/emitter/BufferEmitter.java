@@ -25,55 +25,103 @@
 package net.sf.joost.emitter;
 
 //SAX2
-import java.util.Vector;
-
-import net.sf.joost.stx.SAXEvent;
-
 import org.xml.sax.Attributes;
 import org.xml.sax.Locator;
 import org.xml.sax.SAXException;
 
 
 /**
- * This class implements a buffer for storing SAX events.
+ * This class implements a buffer for storing SAX events. The events will
+ * be stored in a compact binary form (see {@link EventLog}), which will be
+ * written to a temporary file if it exceeds a threshold.
  * @version $Revision: 1.5 $ $Date: 2005/11/06 21:22:21 $
  * @author Oliver Becker
  */
 
 public class BufferEmitter extends StxEmitterBase {
 
-   /** the event buffer */
-   private Vector buffer = new Vector();
+   /** The default for the spill threshold: 64 MB */
+   public static final int DEFAULT_SPILL_THRESHOLD = 64 << 20;
+
+   /** the number of bytes kept in memory, see {@link #BufferEmitter(int)} */
+   private int spillThreshold;
+
+   /** the event store that is being filled */
+   private EventStore store;
 
-   /** the event array, the old contents remains valid until this buffer 
-       is completely new filled */
-   private SAXEvent[] eventArray = new SAXEvent[0];  // initial: empty
+   /** the completed events, the old contents remains valid until this
+       buffer is completely new filled */
+   private EventLog events;
 
    /** CDATA flag */
    private boolean insideCDATA = false;
 
-   /** characters flag, needed for detecting empty CDATA sections */
-   private boolean charsEmitted = false;
+   /**
+    * The contents of the current CDATA section, which will be stored as
+    * a single event (even if it was reported in several chunks)
+    */
+   private StringBuffer cdataBuffer = new StringBuffer();
 
 
-   /** @return an array of the events stored in this buffer */
-   public SAXEvent[] getEvents()
+   /**
+    * Constructs a buffer that keeps up to {@link #DEFAULT_SPILL_THRESHOLD}
+    * bytes in memory.
+    */
+   public BufferEmitter()
+   {
+      this(DEFAULT_SPILL_THRESHOLD);
+   }
+
+   /**
+    * Constructs a buffer.
+    * @param spillThreshold the number of bytes that will be kept in
+    *        memory; bigger contents will be written to a temporary file.
+    *        A negative value keeps all contents in memory.
+    */
+   public BufferEmitter(int spillThreshold)
    {
-      return eventArray;
+      this.spillThreshold = spillThreshold;
+      store = new EventStore(spillThreshold);
+      events = new EventLog(store, 0); // initial: empty
+   }
+
+   /**
+    * @return the events stored in this buffer; they remain valid until
+    *         the buffer has been cleared and filled again
+    */
+   public EventLog getEvents()
+   {
+      return events;
    }
 
    /** Clears the event buffer */
    public void clear()
    {
-      buffer.clear();
+      // the old store is still needed for the current events
+      if (store != events.getStore())
+         store.close();
+      store = new EventStore(spillThreshold);
    }
 
    /** Signals that the buffer is completely filled; makes its contents
        available to {@link #getEvents} */
    public void filled()
    {
-      eventArray = new SAXEvent[buffer.size()];
-      buffer.toArray(eventArray);
+      EventStore old = events.getStore();
+      events = new EventLog(store, store.size());
+      if (old != store)
+         old.close();
+   }
+
+   /**
+    * Releases the temporary file of this buffer. The buffer must not be
+    * used afterwards.
+    */
+   public void close()
+   {
+      if (store != events.getStore())
+         store.close();
+      events.getStore().close();
    }
 
 
@@ -98,40 +146,36 @@ public class BufferEmitter extends StxEmitterBase {
    public void startPrefixMapping(String prefix, String uri)
       throws SAXException
    {
-      buffer.addElement(SAXEvent.newMapping(prefix, uri));
+      store.startPrefixMapping(prefix, uri);
    }
 
    public void endPrefixMapping(String prefix)
       throws SAXException
    {
-      buffer.addElement(SAXEvent.newMapping(prefix, null)); 
+      store.endPrefixMapping(prefix);
    }
 
    public void startElement(String namespaceURI, String localName,
                             String qName, Attributes atts)
       throws SAXException
    {
-      buffer.addElement(SAXEvent.newElement(namespaceURI, localName,
-                                            qName, atts, true, null));
+      store.startElement(namespaceURI, localName, qName, atts);
    }
 
    public void endElement(String namespaceURI, String localName,
                           String qName)
       throws SAXException
    {
-      buffer.addElement(SAXEvent.newElement(namespaceURI, localName,
-                                            qName, null, true, null));
+      store.endElement(namespaceURI, localName, qName);
    }
 
    public void characters(char[] ch, int start, int length)
       throws SAXException
    {
-      if (insideCDATA) {
-         buffer.addElement(SAXEvent.newCDATA(new String(ch, start, length)));
-         charsEmitted = true;
-      }
+      if (insideCDATA)
+         cdataBuffer.append(ch, start, length);
       else
-         buffer.addElement(SAXEvent.newText(new String(ch, start, length)));
+         store.characters(ch, start, length);
    }
 
    /** not used */
@@ -144,7 +188,7 @@ public class BufferEmitter extends StxEmitterBase {
    public void processingInstruction(String target, String data)
       throws SAXException
    {
-      buffer.addElement(SAXEvent.newPI(target, data));
+      store.processingInstruction(target, data);
    }
 
    /** not used */
@@ -181,20 +225,19 @@ public class BufferEmitter extends StxEmitterBase {
       throws SAXException
    {
       insideCDATA = true;
-      charsEmitted = false;
+      cdataBuffer.setLength(0);
    }
 
    public void endCDATA()
       throws SAXException
    {
       insideCDATA = false;
-      if (!charsEmitted) // no characters event: empty CDATA section
-         buffer.addElement(SAXEvent.newCDATA(""));
+      store.cdata(cdataBuffer.toString());
    }
 
    public void comment(char[] ch, int start, int length)
       throws SAXException
    {
-      buffer.addElement(SAXEvent.newComment(new String(ch, start, length)));
+      store.comment(ch, start, length);
    }
 }
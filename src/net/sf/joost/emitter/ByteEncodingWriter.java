@@ -0,0 +1,325 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is agent.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+
+package net.sf.joost.emitter;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+
+/**
+ * A buffered writer that encodes characters directly into a byte array,
+ * without using a {@link java.nio.charset.CharsetEncoder}. Supported are
+ * the encodings UTF-8, ISO-8859-1 and US-ASCII (see {@link #isSupported}).
+ * The bytes are written either to an <code>OutputStream</code> or to a
+ * <code>WritableByteChannel</code>; the channel of a
+ * <code>FileOutputStream</code> will be used automatically.
+ * <p>
+ * Like an <code>OutputStreamWriter</code>, this writer outputs a
+ * <code>'?'</code> for characters that can't be represented in the
+ * encoding (including unpaired surrogates).
+ * @version $Revision$ $Date$
+ * @author agent
+ */
+public final class ByteEncodingWriter extends Writer
+{
+   /** The size of the byte buffer */
+   private static final int BUFFER_SIZE = 16384;
+
+   // the supported encodings
+   private static final int UTF_8 = 0;
+   private static final int ISO_8859_1 = 1;
+   private static final int US_ASCII = 2;
+
+   /** The encoding, one of the constants above */
+   private int encoding;
+
+   /** All characters below this code will be output as a single byte */
+   private char singleByteLimit;
+
+   /** The target stream, <code>null</code> if {@link #channel} is used */
+   private OutputStream out;
+
+   /** The target channel, <code>null</code> if {@link #out} is used */
+   private WritableByteChannel channel;
+
+   private byte[] bytes = new byte[BUFFER_SIZE];
+
+   /** The number of bytes in {@link #bytes} */
+   private int length = 0;
+
+   /** {@link #bytes} as <code>ByteBuffer</code> (for {@link #channel}) */
+   private ByteBuffer byteBuffer;
+
+   /** A high surrogate at the end of the last write operation, or 0 */
+   private char highSurrogate = 0;
+
+   /** Buffer for the characters of a string */
+   private char[] chars;
+
+
+   /**
+    * Constructs a writer for an output stream.
+    * @param out the output stream
+    * @param encoding the encoding, see {@link #isSupported}
+    */
+   public ByteEncodingWriter(OutputStream out, String encoding)
+   {
+      this(encoding);
+      if (out instanceof FileOutputStream)
+         setChannel(((FileOutputStream)out).getChannel());
+      else
+         this.out = out;
+   }
+
+
+   /**
+    * Constructs a writer for a channel.
+    * @param channel the channel
+    * @param encoding the encoding, see {@link #isSupported}
+    */
+   public ByteEncodingWriter(WritableByteChannel channel, String encoding)
+   {
+      this(encoding);
+      setChannel(channel);
+   }
+
+
+   private ByteEncodingWriter(String encoding)
+   {
+      String name = canonicalName(encoding);
+      if ("UTF-8".equals(name)) {
+         this.encoding = UTF_8;
+         singleByteLimit = '\u0080';
+      }
+      else if ("ISO-8859-1".equals(name)) {
+         this.encoding = ISO_8859_1;
+         singleByteLimit = '\u0100';
+      }
+      else if ("US-ASCII".equals(name)) {
+         this.encoding = US_ASCII;
+         singleByteLimit = '\u0080';
+      }
+      else
+         throw new IllegalArgumentException("Unsupported encoding " +
+                                            encoding);
+   }
+
+
+   private void setChannel(WritableByteChannel channel)
+   {
+      this.channel = channel;
+      byteBuffer = ByteBuffer.wrap(bytes);
+   }
+
+
+   /**
+    * Determines whether this class supports an encoding
+    * @param encoding the name of the encoding
+    * @return <code>true</code> if <code>encoding</code> is an alias for
+    *         UTF-8, ISO-8859-1 or US-ASCII
+    */
+   public static boolean isSupported(String encoding)
+   {
+      String name = canonicalName(encoding);
+      return "UTF-8".equals(name) || "ISO-8859-1".equals(name) ||
+             "US-ASCII".equals(name);
+   }
+
+
+   /** @return the canonical name of an encoding, or <code>null</code> */
+   private static String canonicalName(String encoding)
+   {
+      try {
+         return Charset.forName(encoding).name();
+      }
+      catch (IllegalArgumentException ex) {
+         // IllegalCharsetNameException, UnsupportedCharsetException
+         return null;
+      }
+   }
+
+
+   public void write(char[] cbuf, int off, int len)
+      throws IOException
+   {
+      int end = off + len;
+      int i = off;
+      if (highSurrogate != 0 && i < end) {
+         char c = highSurrogate;
+         highSurrogate = 0;
+         if (cbuf[i] >= '\uDC00' && cbuf[i] <= '\uDFFF')
+            encodePair(c, cbuf[i++]);
+         else
+            encodeUnmappable();
+      }
+      // work with local copies in the loops
+      byte[] b = bytes;
+      char limit = singleByteLimit;
+      while (i < end) {
+         // the longest UTF-8 sequence has 4 bytes
+         if (b.length - length < 8)
+            flushBuffer();
+         // single byte characters
+         int max = Math.min(end, i + b.length - length - 4);
+         int pos = length;
+         char c = 0;
+         while (i < max && (c = cbuf[i]) < limit) {
+            b[pos++] = (byte)c;
+            i++;
+         }
+         length = pos;
+         if (i == max)
+            continue;
+
+         i++;
+         if (c >= '\uD800' && c <= '\uDBFF') {
+            if (i == end) {
+               // the low surrogate may follow in the next call
+               highSurrogate = c;
+               return;
+            }
+            if (cbuf[i] >= '\uDC00' && cbuf[i] <= '\uDFFF')
+               encodePair(c, cbuf[i++]);
+            else
+               encodeUnmappable();
+         }
+         else if (encoding != UTF_8 || (c >= '\uDC00' && c <= '\uDFFF'))
+            encodeUnmappable();
+         else if (c < '\u0800') {
+            b[pos++] = (byte)(0xC0 | (c >> 6));
+            b[pos++] = (byte)(0x80 | (c & 0x3F));
+            length = pos;
+         }
+         else {
+            b[pos++] = (byte)(0xE0 | (c >> 12));
+            b[pos++] = (byte)(0x80 | ((c >> 6) & 0x3F));
+            b[pos++] = (byte)(0x80 | (c & 0x3F));
+            length = pos;
+         }
+      }
+   }
+
+
+   /** Encodes a surrogate pair */
+   private void encodePair(char high, char low)
+      throws IOException
+   {
+      if (encoding != UTF_8) {
+         encodeUnmappable();
+         return;
+      }
+      if (length + 4 > bytes.length)
+         flushBuffer();
+      int code = ((high - 0xD800) << 10) + (low - 0xDC00) + 0x10000;
+      bytes[length++] = (byte)(0xF0 | (code >> 18));
+      bytes[length++] = (byte)(0x80 | ((code >> 12) & 0x3F));
+      bytes[length++] = (byte)(0x80 | ((code >> 6) & 0x3F));
+      bytes[length++] = (byte)(0x80 | (code & 0x3F));
+   }
+
+
+   /** Outputs the replacement for a character that can't be encoded */
+   private void encodeUnmappable()
+      throws IOException
+   {
+      if (length == bytes.length)
+         flushBuffer();
+      bytes[length++] = (byte)'?';
+   }
+
+
+   public void write(String str, int off, int len)
+      throws IOException
+   {
+      if (chars == null)
+         chars = new char[1024];
+      while (len > 0) {
+         int n = Math.min(len, chars.length);
+         str.getChars(off, off + n, chars, 0);
+         write(chars, 0, n);
+         off += n;
+         len -= n;
+      }
+   }
+
+
+   public void write(int c)
+      throws IOException
+   {
+      if (c < singleByteLimit && highSurrogate == 0) {
+         if (length == bytes.length)
+            flushBuffer();
+         bytes[length++] = (byte)c;
+      }
+      else
+         write(new char[] { (char)c }, 0, 1);
+   }
+
+
+   /** Writes the contents of the byte buffer to the target */
+   private void flushBuffer()
+      throws IOException
+   {
+      if (length == 0)
+         return;
+      if (channel != null) {
+         byteBuffer.clear();
+         byteBuffer.limit(length);
+         while (byteBuffer.hasRemaining())
+            channel.write(byteBuffer);
+      }
+      else
+         out.write(bytes, 0, length);
+      length = 0;
+   }
+
+
+   public void flush()
+      throws IOException
+   {
+      flushBuffer();
+      if (out != null)
+         out.flush();
+   }
+
+
+   public void close()
+      throws IOException
+   {
+      if (highSurrogate != 0) {
+         highSurrogate = 0;
+         encodeUnmappable();
+      }
+      flushBuffer();
+      if (out != null)
+         out.close();
+      else
+         channel.close();
+   }
+}
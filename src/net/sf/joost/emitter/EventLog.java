@@ -0,0 +1,78 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is agent.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+
+package net.sf.joost.emitter;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+
+
+/**
+ * The completed contents of a {@link BufferEmitter}. The contents won't
+ * change if the buffer will be filled again.
+ * @version $Revision$ $Date$
+ * @author agent
+ */
+public final class EventLog
+{
+   /** The store that contains the events */
+   private EventStore store;
+
+   /** The size of {@link #store} when the events have been completed */
+   private long size;
+
+
+   EventLog(EventStore store, long size)
+   {
+      this.store = store;
+      this.size = size;
+   }
+
+
+   /** @return the store that contains the events */
+   EventStore getStore()
+   {
+      return store;
+   }
+
+
+   /** @return the number of bytes needed for storing the events */
+   public long getSize()
+   {
+      return size;
+   }
+
+
+   /**
+    * Emits the events.
+    * @param contH the content handler
+    * @param lexH the lexical handler, may be <code>null</code>
+    */
+   public void replay(ContentHandler contH, LexicalHandler lexH)
+      throws SAXException
+   {
+      store.replay(contH, lexH, size);
+   }
+}
@@ -0,0 +1,681 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is agent.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+
+package net.sf.joost.emitter;
+
+import net.sf.joost.OptionalLog;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.apache.commons.logging.Log;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.AttributesImpl;
+
+
+/**
+ * The storage of a {@link BufferEmitter}: an append-only binary log of
+ * SAX events. All names (URIs, local names, qualified names, attribute
+ * types, prefixes and PI targets) are stored once in a string table and
+ * referenced by their index; characters and integers are stored as
+ * variable-length quantities (7 bits per byte).
+ * <p>
+ * The bytes are kept in chunks. As soon as the size of the log exceeds a
+ * threshold, all completed chunks will be written to a temporary file,
+ * which will be memory-mapped for reading. Since the stored bytes never
+ * change, a reader may replay a prefix of the log while further events
+ * are being appended.
+ * @version $Revision$ $Date$
+ * @author agent
+ */
+final class EventStore
+{
+   // Log initialization
+   private static Log log = OptionalLog.getLog(EventStore.class);
+
+   // the event types
+   private static final byte ELEMENT = 0;
+   private static final byte ELEMENT_END = 1;
+   private static final byte TEXT = 2;
+   private static final byte CDATA = 3;
+   private static final byte PI = 4;
+   private static final byte COMMENT = 5;
+   private static final byte MAPPING = 6;
+   private static final byte MAPPING_END = 7;
+
+   /** The size of a chunk is 2^CHUNK_SHIFT bytes */
+   private static final int CHUNK_SHIFT = 16;
+   private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+   /** The initial size of the first chunk, which grows up to CHUNK_SIZE */
+   private static final int INITIAL_SIZE = 256;
+
+   /** The number of chunks that will be mapped at once (64 MB) */
+   private static final int REGION_CHUNKS = 1024;
+
+   /**
+    * The number of bytes that will be kept in memory, a negative value
+    * disables the spilling to a file
+    */
+   private long threshold;
+
+   /** The chunks, <code>null</code> entries have been written to the file */
+   private ArrayList chunks = new ArrayList();
+
+   /** The current chunk, always the last element of {@link #chunks} */
+   private byte[] chunk;
+
+   /** The number of bytes in {@link #chunk} */
+   private int pos;
+
+   /** The string table */
+   private ArrayList strings = new ArrayList();
+
+   /** The indexes of the strings in {@link #strings} (String -> Integer) */
+   private HashMap stringIndexes = new HashMap();
+
+   /** Buffer for the characters of a string */
+   private char[] stringChars = new char[64];
+
+   /** The temporary file, <code>null</code> if it couldn't be created */
+   private File file;
+
+   /** The channel of {@link #file}, <code>null</code> before spilling */
+   private FileChannel channel;
+
+   /** The number of chunks that have been written to the file */
+   private int spilledChunks;
+
+   /** The mapped regions of the file (MappedByteBuffer objects) */
+   private ArrayList regions;
+
+   /** The number of running replays */
+   private int readers;
+
+   /** Set by {@link #close} */
+   private boolean closed;
+
+
+   /**
+    * Constructs an empty store.
+    * @param threshold the number of bytes that will be kept in memory,
+    *        a negative value keeps all bytes in memory
+    */
+   EventStore(long threshold)
+   {
+      this.threshold = threshold;
+      chunk = new byte[INITIAL_SIZE];
+      chunks.add(chunk);
+   }
+
+
+   /** @return the number of bytes in this store */
+   long size()
+   {
+      return ((long)(chunks.size() - 1) << CHUNK_SHIFT) + pos;
+   }
+
+
+   //
+   // appending events
+   //
+
+   void startElement(String uri, String lName, String qName,
+                     Attributes attrs)
+      throws SAXException
+   {
+      writeByte(ELEMENT);
+      writeName(uri);
+      writeName(lName);
+      writeName(qName);
+      int length = attrs.getLength();
+      writeInt(length);
+      for (int i=0; i<length; i++) {
+         writeName(attrs.getURI(i));
+         writeName(attrs.getLocalName(i));
+         writeName(attrs.getQName(i));
+         writeName(attrs.getType(i));
+         writeString(attrs.getValue(i));
+      }
+   }
+
+
+   void endElement(String uri, String lName, String qName)
+      throws SAXException
+   {
+      writeByte(ELEMENT_END);
+      writeName(uri);
+      writeName(lName);
+      writeName(qName);
+   }
+
+
+   void characters(char[] ch, int start, int length)
+      throws SAXException
+   {
+      writeByte(TEXT);
+      writeChars(ch, start, length);
+   }
+
+
+   void cdata(String data)
+      throws SAXException
+   {
+      writeByte(CDATA);
+      writeString(data);
+   }
+
+
+   void processingInstruction(String target, String data)
+      throws SAXException
+   {
+      writeByte(PI);
+      writeName(target);
+      writeString(data);
+   }
+
+
+   void comment(char[] ch, int start, int length)
+      throws SAXException
+   {
+      writeByte(COMMENT);
+      writeChars(ch, start, length);
+   }
+
+
+   void startPrefixMapping(String prefix, String uri)
+      throws SAXException
+   {
+      writeByte(MAPPING);
+      writeName(prefix);
+      writeName(uri);
+   }
+
+
+   void endPrefixMapping(String prefix)
+      throws SAXException
+   {
+      writeByte(MAPPING_END);
+      writeName(prefix);
+   }
+
+
+   //
+   // encoding
+   //
+
+   private void writeByte(int b)
+      throws SAXException
+   {
+      if (pos == chunk.length)
+         nextChunk();
+      chunk[pos++] = (byte)b;
+   }
+
+
+   /** Writes a non-negative integer */
+   private void writeInt(int v)
+      throws SAXException
+   {
+      while ((v & ~0x7F) != 0) {
+         writeByte((v & 0x7F) | 0x80);
+         v >>>= 7;
+      }
+      writeByte(v);
+   }
+
+
+   /** Writes the index of a string in the string table */
+   private void writeName(String name)
+      throws SAXException
+   {
+      Integer index = (Integer)stringIndexes.get(name);
+      if (index == null) {
+         index = new Integer(strings.size());
+         strings.add(name);
+         stringIndexes.put(name, index);
+      }
+      writeInt(index.intValue());
+   }
+
+
+   /** Writes the length and the characters of a string */
+   private void writeString(String s)
+      throws SAXException
+   {
+      if (s == null)
+         s = "";
+      int length = s.length();
+      if (stringChars.length < length)
+         stringChars = new char[Math.max(length, stringChars.length * 2)];
+      s.getChars(0, length, stringChars, 0);
+      writeChars(stringChars, 0, length);
+   }
+
+
+   /** Writes the length and the characters of an array */
+   private void writeChars(char[] ch, int start, int length)
+      throws SAXException
+   {
+      writeInt(length);
+      int end = start + length;
+      while (start < end) {
+         // a character takes at most 3 bytes
+         int max = Math.min(end, start + (chunk.length - pos) / 3);
+         byte[] b = chunk;
+         int p = pos;
+         while (start < max) {
+            char c = ch[start++];
+            if (c < 0x80)
+               b[p++] = (byte)c;
+            else if (c < 0x4000) {
+               b[p++] = (byte)(c | 0x80);
+               b[p++] = (byte)(c >>> 7);
+            }
+            else {
+               b[p++] = (byte)(c | 0x80);
+               b[p++] = (byte)((c >>> 7) | 0x80);
+               b[p++] = (byte)(c >>> 14);
+            }
+         }
+         pos = p;
+         if (start < end) // at the end of the chunk
+            writeInt(ch[start++]);
+      }
+   }
+
+
+   /**
+    * Starts a new chunk after the current chunk has been filled
+    * completely. The first chunk grows until it reaches
+    * <code>CHUNK_SIZE</code>.
+    */
+   private void nextChunk()
+      throws SAXException
+   {
+      if (chunk.length < CHUNK_SIZE) {
+         // readers may still use the old array, its contents won't change
+         byte[] larger = new byte[Math.min(chunk.length * 2, CHUNK_SIZE)];
+         System.arraycopy(chunk, 0, larger, 0, pos);
+         chunk = larger;
+         chunks.set(0, chunk);
+         return;
+      }
+      if (threshold >= 0 && size() >= threshold)
+         spill();
+      chunk = new byte[CHUNK_SIZE];
+      chunks.add(chunk);
+      pos = 0;
+   }
+
+
+   /** Writes all completed chunks to the temporary file */
+   private void spill()
+      throws SAXException
+   {
+      if (channel == null && !createFile()) {
+         threshold = -1; // keep everything in memory
+         return;
+      }
+      try {
+         int count = chunks.size();
+         for (; spilledChunks < count; spilledChunks++) {
+            ByteBuffer bytes =
+               ByteBuffer.wrap((byte[])chunks.get(spilledChunks));
+            long offset = (long)spilledChunks << CHUNK_SHIFT;
+            while (bytes.hasRemaining())
+               offset += channel.write(bytes, offset);
+            chunks.set(spilledChunks, null);
+         }
+      }
+      catch (IOException ex) {
+         throw new SAXException("Can't write buffer to file " + file, ex);
+      }
+   }
+
+
+   /**
+    * Creates the temporary file and opens {@link #channel}.
+    * @return <code>false</code> if the file couldn't be created
+    */
+   private boolean createFile()
+   {
+      try {
+         file = File.createTempFile("joost", ".buf");
+         channel = new RandomAccessFile(file, "rw").getChannel();
+         // on most platforms an open file may be deleted immediately
+         if (!file.delete())
+            file.deleteOnExit();
+         regions = new ArrayList();
+         return true;
+      }
+      catch (Exception ex) { // IOException, SecurityException
+         if (log != null)
+            log.warn("Can't create a temporary file for a buffer, " +
+                     "keeping it in memory: " + ex);
+         return false;
+      }
+   }
+
+
+   /**
+    * Closes the temporary file and drops the mapped regions. A running
+    * replay will finish first. The store can't be read afterwards.
+    */
+   synchronized void close()
+   {
+      closed = true;
+      if (readers == 0)
+         release();
+   }
+
+
+   /** Releases the temporary file */
+   private void release()
+   {
+      if (channel == null)
+         return;
+      synchronized (regions) {
+         regions.clear(); // unmapped by the garbage collector
+      }
+      try {
+         channel.close();
+      }
+      catch (IOException ex) {
+         if (log != null)
+            log.warn("Can't close the buffer file " + file + ": " + ex);
+      }
+      file.delete();
+   }
+
+
+   /** Registers a new replay */
+   private synchronized void startReading()
+      throws SAXException
+   {
+      if (closed)
+         throw new SAXException("The buffer has already been released");
+      readers++;
+   }
+
+
+   /** Unregisters a finished replay */
+   private synchronized void stopReading()
+   {
+      if (--readers == 0 && closed)
+         release();
+   }
+
+
+   /**
+    * Returns the contents of a chunk for reading.
+    * @param index the number of the chunk
+    * @param copy an array of <code>CHUNK_SIZE</code> bytes, which receives
+    *        the contents if the chunk has been written to the file
+    * @return either the chunk itself or <code>copy</code>
+    */
+   private byte[] getChunk(int index, byte[] copy)
+      throws SAXException
+   {
+      byte[] b = (byte[])chunks.get(index);
+      if (b != null)
+         return b;
+
+      // map the region of the file that contains the chunk
+      int region = index / REGION_CHUNKS;
+      int offset = (index % REGION_CHUNKS) << CHUNK_SHIFT;
+      MappedByteBuffer mapped = null;
+      synchronized (regions) {
+         if (region < regions.size())
+            mapped = (MappedByteBuffer)regions.get(region);
+         else
+            while (regions.size() <= region)
+               regions.add(null);
+         if (mapped == null || mapped.capacity() < offset + CHUNK_SIZE) {
+            // the region may have been mapped before it was complete
+            int length = Math.min(REGION_CHUNKS,
+                                  spilledChunks - region * REGION_CHUNKS);
+            try {
+               mapped = channel.map(FileChannel.MapMode.READ_ONLY,
+                                    (long)region * REGION_CHUNKS
+                                       << CHUNK_SHIFT,
+                                    (long)length << CHUNK_SHIFT);
+            }
+            catch (IOException ex) {
+               throw new SAXException("Can't read buffer from file " +
+                                      file, ex);
+            }
+            regions.set(region, mapped);
+         }
+      }
+      ByteBuffer bytes = mapped.duplicate();
+      bytes.position(offset);
+      bytes.get(copy, 0, CHUNK_SIZE);
+      return copy;
+   }
+
+
+   //
+   // replaying events
+   //
+
+   /**
+    * Emits the first events of this store.
+    * @param contH the content handler
+    * @param lexH the lexical handler, may be <code>null</code>
+    * @param end the size of this store when the events have been
+    *        completed
+    */
+   void replay(ContentHandler contH, LexicalHandler lexH, long end)
+      throws SAXException
+   {
+      startReading();
+      try {
+         new Reader(end).replay(contH, lexH);
+      }
+      finally {
+         stopReading();
+      }
+   }
+
+
+   /** Reads the events of this store */
+   private final class Reader
+   {
+      /** The end position */
+      private long end;
+
+      /** The contents of the current chunk */
+      private byte[] data;
+
+      /** The number of the current chunk */
+      private int index;
+
+      /** The current position in {@link #data} */
+      private int pos;
+
+      /** The number of bytes in {@link #data} to be read */
+      private int limit;
+
+      /** The array for chunks that have been written to the file */
+      private byte[] copy;
+
+      /** The characters read by {@link #readChars} */
+      private char[] chars = new char[128];
+
+      Reader(long end)
+      {
+         this.end = end;
+         index = -1;
+      }
+
+
+      void replay(ContentHandler contH, LexicalHandler lexH)
+         throws SAXException
+      {
+         AttributesImpl attrs = new AttributesImpl();
+         while (hasMore()) {
+            switch (readByte()) {
+            case ELEMENT: {
+               String uri = readName();
+               String lName = readName();
+               String qName = readName();
+               attrs.clear();
+               for (int i=readInt(); i>0; i--)
+                  attrs.addAttribute(readName(), readName(), readName(),
+                                     readName(), readString());
+               contH.startElement(uri, lName, qName, attrs);
+               break;
+            }
+            case ELEMENT_END:
+               contH.endElement(readName(), readName(), readName());
+               break;
+            case TEXT: {
+               int length = readChars();
+               contH.characters(chars, 0, length);
+               break;
+            }
+            case CDATA: {
+               int length = readChars();
+               if (lexH != null) {
+                  lexH.startCDATA();
+                  contH.characters(chars, 0, length);
+                  lexH.endCDATA();
+               }
+               else
+                  contH.characters(chars, 0, length);
+               break;
+            }
+            case PI:
+               contH.processingInstruction(readName(), readString());
+               break;
+            case COMMENT: {
+               int length = readChars();
+               if (lexH != null)
+                  lexH.comment(chars, 0, length);
+               break;
+            }
+            case MAPPING:
+               contH.startPrefixMapping(readName(), readName());
+               break;
+            case MAPPING_END:
+               contH.endPrefixMapping(readName());
+               break;
+            }
+         }
+      }
+
+
+      private boolean hasMore()
+      {
+         return pos < limit || ((long)(index + 1) << CHUNK_SHIFT) < end;
+      }
+
+
+      /** Moves to the next chunk */
+      private void nextChunk()
+         throws SAXException
+      {
+         index++;
+         if (chunks.get(index) == null && copy == null)
+            copy = new byte[CHUNK_SIZE];
+         data = getChunk(index, copy);
+         pos = 0;
+         limit = (int)Math.min(CHUNK_SIZE,
+                               end - ((long)index << CHUNK_SHIFT));
+      }
+
+
+      private byte readByte()
+         throws SAXException
+      {
+         if (pos == limit)
+            nextChunk();
+         return data[pos++];
+      }
+
+
+      private int readInt()
+         throws SAXException
+      {
+         int v = 0, shift = 0;
+         byte b;
+         do {
+            b = readByte();
+            v |= (b & 0x7F) << shift;
+            shift += 7;
+         } while (b < 0);
+         return v;
+      }
+
+
+      private String readName()
+         throws SAXException
+      {
+         return (String)strings.get(readInt());
+      }
+
+
+      /**
+       * Reads characters into {@link #chars}.
+       * @return the number of characters
+       */
+      private int readChars()
+         throws SAXException
+      {
+         int length = readInt();
+         if (chars.length < length)
+            chars = new char[Math.max(length, chars.length * 2)];
+         char[] c = chars;
+         int i = 0;
+         while (i < length) {
+            // single byte characters
+            byte[] d = data;
+            int p = pos, l = limit;
+            while (i < length && p < l && d[p] >= 0)
+               c[i++] = (char)d[p++];
+            pos = p;
+            if (i < length)
+               c[i++] = (char)readInt();
+         }
+         return length;
+      }
+
+
+      private String readString()
+         throws SAXException
+      {
+         return new String(chars, 0, readChars());
+      }
+   }
+}
@@ -0,0 +1,287 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is agent.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+
+package net.sf.joost.emitter;
+
+import net.sf.joost.OptionalLog;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+import org.apache.commons.logging.Log;
+
+
+/**
+ * Writes complete messages of concurrent transformations to their target
+ * streams (usually standard error). The messages will be passed to a
+ * background thread via a bounded queue; the thread writes all queued
+ * messages at once and flushes the streams after each batch. A
+ * transformation that produces messages faster than they can be written
+ * will be blocked.
+ * <p>
+ * Every message belongs to an owner (the transformation), which may wait
+ * until its own messages have been written (see {@link #flush(Object)}).
+ * @version $Revision$ $Date$
+ * @author agent
+ */
+public final class MessageWriter
+{
+   // Log initialization
+   private static Log log = OptionalLog.getLog(MessageWriter.class);
+
+   /** The default capacity of the queue */
+   public static final int DEFAULT_CAPACITY = 1024;
+
+   /** The shared instance, see {@link #getInstance} */
+   private static final MessageWriter instance =
+      new MessageWriter(DEFAULT_CAPACITY);
+
+   /** The maximal number of queued messages */
+   private int capacity;
+
+   /** The queued messages */
+   private ArrayList queue = new ArrayList();
+
+   /**
+    * The number of queued messages that haven't been written yet
+    * (key=owner, value=int[1])
+    */
+   private IdentityHashMap pending = new IdentityHashMap();
+
+   /** The background thread, started with the first message */
+   private Thread thread;
+
+
+   /**
+    * Constructs a message writer.
+    * @param capacity the maximal number of queued messages
+    */
+   public MessageWriter(int capacity)
+   {
+      this.capacity = capacity;
+   }
+
+
+   /** @return the message writer shared by all transformations */
+   public static MessageWriter getInstance()
+   {
+      return instance;
+   }
+
+
+   /**
+    * Queues a message, waits if the queue is full.
+    * @param out the target stream, for example <code>System.err</code>
+    * @param message the complete encoded message
+    * @param owner the owner of the message
+    */
+   public synchronized void write(OutputStream out, byte[] message,
+                                  Object owner)
+      throws InterruptedIOException
+   {
+      if (thread == null)
+         startThread();
+      while (queue.size() >= capacity)
+         waitForWriter();
+      queue.add(new Message(out, message, owner));
+      int[] count = (int[])pending.get(owner);
+      if (count == null)
+         pending.put(owner, count = new int[1]);
+      count[0]++;
+      notifyAll();
+   }
+
+
+   /**
+    * Waits until the messages of an owner have been written, returns
+    * immediately if there are no such messages
+    * @param owner the owner of the messages
+    */
+   public synchronized void flush(Object owner)
+      throws InterruptedIOException
+   {
+      while (pending.containsKey(owner))
+         waitForWriter();
+   }
+
+
+   /** Waits until all queued messages have been written */
+   public synchronized void flush()
+      throws InterruptedIOException
+   {
+      while (!pending.isEmpty())
+         waitForWriter();
+   }
+
+
+   /** Waits for a notification from the background thread */
+   private void waitForWriter()
+      throws InterruptedIOException
+   {
+      try {
+         wait();
+      }
+      catch (InterruptedException ex) {
+         throw new InterruptedIOException(ex.toString());
+      }
+   }
+
+
+   /**
+    * Starts the background thread. Must be called within a block
+    * synchronized on this object.
+    */
+   private void startThread()
+   {
+      thread = new Thread("Joost message writer") {
+         public void run()
+         {
+            ArrayList batch = new ArrayList();
+            try {
+               writeMessages(batch);
+            }
+            finally {
+               threadTerminated(batch);
+            }
+         }
+      };
+      thread.setDaemon(true);
+      thread.start();
+   }
+
+
+   /**
+    * Called when the background thread terminates, possibly because of
+    * an Error. Drops the messages of the current batch, which may not
+    * have been written, and releases all waiting owners.
+    * @param batch the current batch
+    */
+   private synchronized void threadTerminated(ArrayList batch)
+   {
+      thread = null;
+      countWritten(batch);
+      // don't leave the remaining messages to the next write()
+      if (!queue.isEmpty())
+         startThread();
+   }
+
+
+   /**
+    * Removes written messages from the pending counts, notifies the
+    * waiting owners and clears the batch. Must be called within a block
+    * synchronized on this object.
+    * @param batch the written messages
+    */
+   private void countWritten(ArrayList batch)
+   {
+      for (int i=0; i<batch.size(); i++) {
+         Object owner = ((Message)batch.get(i)).owner;
+         int[] count = (int[])pending.get(owner);
+         if (--count[0] == 0)
+            pending.remove(owner);
+      }
+      batch.clear();
+      notifyAll();
+   }
+
+
+   /**
+    * The loop of the background thread
+    * @param batch an empty list for the messages being written
+    */
+   private void writeMessages(ArrayList batch)
+   {
+      ArrayList streams = new ArrayList();
+      while (true) {
+         synchronized (this) {
+            while (queue.isEmpty()) {
+               try {
+                  wait();
+               }
+               catch (InterruptedException ex) {
+                  return;
+               }
+            }
+            // move the messages, the batch remains known to run()
+            batch.addAll(queue);
+            queue.clear();
+            notifyAll(); // the queue has space again
+         }
+
+         for (int i=0; i<batch.size(); i++) {
+            Message message = (Message)batch.get(i);
+            try {
+               message.out.write(message.bytes);
+            }
+            catch (IOException ex) {
+               if (log != null)
+                  log.error("Can't write message: " + ex);
+            }
+            catch (RuntimeException ex) {
+               if (log != null)
+                  log.error("Can't write message: " + ex);
+            }
+            if (!streams.contains(message.out))
+               streams.add(message.out);
+         }
+         for (int i=0; i<streams.size(); i++) {
+            try {
+               ((OutputStream)streams.get(i)).flush();
+            }
+            catch (IOException ex) {
+               if (log != null)
+                  log.error("Can't write message: " + ex);
+            }
+            catch (RuntimeException ex) {
+               if (log != null)
+                  log.error("Can't write message: " + ex);
+            }
+         }
+         streams.clear();
+
+         synchronized (this) {
+            countWritten(batch);
+         }
+      }
+   }
+
+
+   /** A queued message */
+   private static final class Message
+   {
+      final OutputStream out;
+      final byte[] bytes;
+      final Object owner;
+
+      Message(OutputStream out, byte[] bytes, Object owner)
+      {
+         this.out = out;
+         this.bytes = bytes;
+         this.owner = owner;
+      }
+   }
+}
@@ -36,8 +36,11 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
 import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetEncoder;
+import java.util.Hashtable;
 import java.util.Properties;
 
 import javax.xml.transform.OutputKeys;
@@ -70,6 +73,35 @@ public abstract class StreamEmitter extends StxEmitterBase implements Constants
    /** Encoder for the chosen {@link #encoding} */
    protected CharsetEncoder charsetEncoder;
 
+   /** The default size of the output buffer {@link #outBuffer} */
+   protected static final int BUFFER_SIZE = 8192;
+
+   /**
+    * Reusable buffer for the output, <code>null</code> unless a subclass
+    * creates it. Subclasses that use it must call {@link #flushBuffer}
+    * before writing to {@link #writer} directly.
+    */
+   protected char[] outBuffer;
+
+   /** The number of characters in {@link #outBuffer} */
+   protected int outLength = 0;
+
+   /** All characters below this code can be represented in the encoding */
+   private char encodableLimit;
+
+   /** Set if the encoding can represent all characters (but surrogates) */
+   private boolean unicodeEncoding;
+
+   /**
+    * Results of {@link CharsetEncoder#canEncode(char)} for the characters
+    * from {@link #encodableLimit} on: 0 means unknown, 1 encodable,
+    * 2 not encodable. <code>null</code> for Unicode encodings.
+    */
+   private byte[] encodableTable;
+
+   /** Tables for {@link #encodableTable}: charset name -> byte[] */
+   private static Hashtable encodableTables = new Hashtable();
+
 
    //
    // Base constructor
@@ -79,7 +111,27 @@ public abstract class StreamEmitter extends StxEmitterBase implements Constants
    {
       this.writer = writer;
       this.encoding = encoding;
-      charsetEncoder = Charset.forName(encoding).newEncoder();
+      Charset charset = Charset.forName(encoding);
+      charsetEncoder = charset.newEncoder();
+
+      String name = charset.name();
+      if (name.startsWith("UTF-")) {
+         unicodeEncoding = true;
+         encodableLimit = '\uD800';
+      }
+      else {
+         if (name.equals("ISO-8859-1"))
+            encodableLimit = '\u0100';
+         else if (name.equals("US-ASCII"))
+            encodableLimit = '\u0080';
+         synchronized (encodableTables) {
+            encodableTable = (byte[])encodableTables.get(name);
+            if (encodableTable == null) {
+               encodableTable = new byte[0x10000];
+               encodableTables.put(name, encodableTable);
+            }
+         }
+      }
    }
 
 
@@ -138,6 +190,10 @@ public abstract class StreamEmitter extends StxEmitterBase implements Constants
     * property defines the encoding for to used. The value of the
     * <code>OutputKeys.METHOD</code> property determines the returned
     * emitter object.
+    * <p>
+    * For UTF-8, ISO-8859-1 and US-ASCII the characters will be encoded by
+    * a {@link ByteEncodingWriter}, otherwise by an
+    * <code>OutputStreamWriter</code>.
     * @param out An <code>OutputStream</code> for receiving the output.
     * @param outputProperties The set of output properties to be used.
     * @return a proper stream emitter object
@@ -148,13 +204,10 @@ public abstract class StreamEmitter extends StxEmitterBase implements Constants
                                           Properties outputProperties)
       throws UnsupportedEncodingException
    {
-      String encoding = null;
-      if (outputProperties != null)
-         encoding = outputProperties.getProperty(OutputKeys.ENCODING);
-      if (encoding != null)
-         encoding = encoding.toUpperCase();
-      else
-         encoding = DEFAULT_ENCODING;
+      String encoding = getEncoding(outputProperties);
+      if (ByteEncodingWriter.isSupported(encoding))
+         return newEmitter(new ByteEncodingWriter(out, encoding), encoding,
+                           outputProperties);
 
       OutputStreamWriter writer;
       try {
@@ -174,6 +227,44 @@ public abstract class StreamEmitter extends StxEmitterBase implements Constants
                         outputProperties);
    }
 
+   /**
+    * Creates an emitter using a given <code>WritableByteChannel</code> and a
+    * set of output properties. The value of the
+    * <code>OutputKeys.ENCODING</code> property defines the encoding for to
+    * used. The value of the <code>OutputKeys.METHOD</code> property
+    * determines the returned emitter object.
+    * @param channel A <code>WritableByteChannel</code> for receiving the
+    *        output.
+    * @param outputProperties The set of output properties to be used.
+    * @return a proper stream emitter object
+    * @throws UnsupportedEncodingException When <code>outputProperties</code>
+    * specifies an unsupported output encoding
+    */
+   public static StreamEmitter newEmitter(WritableByteChannel channel,
+                                          Properties outputProperties)
+      throws UnsupportedEncodingException
+   {
+      String encoding = getEncoding(outputProperties);
+      if (ByteEncodingWriter.isSupported(encoding))
+         return newEmitter(new ByteEncodingWriter(channel, encoding),
+                           encoding, outputProperties);
+      return newEmitter(Channels.newOutputStream(channel), outputProperties);
+   }
+
+   /**
+    * @return the value of the <code>OutputKeys.ENCODING</code> property
+    *         in upper case, or {@link #DEFAULT_ENCODING}
+    */
+   private static String getEncoding(Properties outputProperties)
+   {
+      String encoding = null;
+      if (outputProperties != null)
+         encoding = outputProperties.getProperty(OutputKeys.ENCODING);
+      if (encoding != null)
+         return encoding.toUpperCase();
+      return DEFAULT_ENCODING;
+   }
+
    /**
     * Creates an XML emitter using a given <code>Writer</code> and the default
     * output encoding ({@link #DEFAULT_ENCODING}).
@@ -231,6 +322,197 @@ public abstract class StreamEmitter extends StxEmitterBase implements Constants
    { }
 
 
+   /**
+    * Determines whether a character can be represented in the output
+    * encoding. The result for surrogate characters is always
+    * <code>false</code>.
+    * @param c the character
+    * @return <code>true</code> if <code>c</code> can be output literally
+    */
+   protected final boolean isEncodable(char c)
+   {
+      if (c < encodableLimit)
+         return true;
+      if (unicodeEncoding)
+         return c < '\uD800' || c > '\uDFFF';
+      // the table may be shared with other threads, however, they would
+      // compute the same value
+      byte state = encodableTable[c];
+      if (state == 0) {
+         state = charsetEncoder.canEncode(c) ? (byte)1 : (byte)2;
+         encodableTable[c] = state;
+      }
+      return state == 1;
+   }
+
+
+   /**
+    * Appends a character to {@link #outBuffer}
+    */
+   protected final void append(char c)
+      throws IOException
+   {
+      if (outLength == outBuffer.length)
+         flushBuffer();
+      outBuffer[outLength++] = c;
+   }
+
+
+   /**
+    * Appends a string to {@link #outBuffer}
+    */
+   protected final void append(String s)
+      throws IOException
+   {
+      int length = s.length();
+      if (outLength + length > outBuffer.length) {
+         flushBuffer();
+         if (length > outBuffer.length) {
+            writer.write(s);
+            return;
+         }
+      }
+      s.getChars(0, length, outBuffer, outLength);
+      outLength += length;
+   }
+
+
+   /**
+    * Appends the contents of a string buffer to {@link #outBuffer}
+    */
+   protected final void append(StringBuffer sb)
+      throws IOException
+   {
+      int length = sb.length();
+      if (outLength + length > outBuffer.length) {
+         flushBuffer();
+         if (length > outBuffer.length) {
+            writer.write(sb.toString());
+            return;
+         }
+      }
+      sb.getChars(0, length, outBuffer, outLength);
+      outLength += length;
+   }
+
+
+   /**
+    * Appends characters from an array to {@link #outBuffer}
+    */
+   protected final void append(char[] ch, int start, int length)
+      throws IOException
+   {
+      if (outLength + length > outBuffer.length) {
+         flushBuffer();
+         if (length > outBuffer.length) {
+            writer.write(ch, start, length);
+            return;
+         }
+      }
+      System.arraycopy(ch, start, outBuffer, outLength, length);
+      outLength += length;
+   }
+
+
+   /**
+    * Appends a character reference to {@link #outBuffer}
+    * @param code the code point of the character
+    */
+   protected final void appendCharRef(int code)
+      throws IOException
+   {
+      // at most 7 digits
+      if (outLength + 10 > outBuffer.length)
+         flushBuffer();
+      outBuffer[outLength++] = '&';
+      outBuffer[outLength++] = '#';
+      int digits = 1;
+      for (int c=code; c>=10; c/=10)
+         digits++;
+      for (int i=outLength+digits-1; i>=outLength; i--) {
+         outBuffer[i] = (char)('0' + code % 10);
+         code /= 10;
+      }
+      outLength += digits;
+      outBuffer[outLength++] = ';';
+   }
+
+
+   /**
+    * Appends characters to {@link #outBuffer} and escapes them if necessary.
+    * Runs of characters that need no escaping will be copied at once.
+    * @param ch the character array
+    * @param start the start index
+    * @param length the number of characters
+    * @param escapes replacements for characters below 128 that must be
+    *        escaped, <code>null</code> entries for all other characters
+    * @throws SAXException when there's no low surrogate
+    */
+   protected final void appendEscaped(char[] ch, int start, int length,
+                                      String[] escapes)
+      throws IOException, SAXException
+   {
+      int end = start + length;
+      int run = start; // start of the current run
+      for (int i=start; i<end; i++) {
+         char c = ch[i];
+         if (c < 0x80 && escapes[c] != null) {
+            append(ch, run, i - run);
+            append(escapes[c]);
+         }
+         else if (c < encodableLimit)
+            continue;
+         else if (c >= '\uD800' && c <= '\uDBFF') {
+            // found a high surrogate
+            append(ch, run, i - run);
+            i++;
+            if (i < end && ch[i] >= '\uDC00' && ch[i] <= '\uDFFF')
+               // found a low surrogate
+               // output the calculated code value
+               appendCharRef((ch[i - 1] - 0xD800) * 0x400 +
+                             (ch[i] - 0xDC00) + 0x10000);
+            else
+               throw new SAXException("Surrogate pair encoding error - "
+                     + "missing low surrogate after code "
+                     + (int) ch[i - 1]);
+         }
+         else if (isEncodable(c))
+            continue;
+         else {
+            append(ch, run, i - run);
+            appendCharRef(c);
+         }
+         run = i + 1;
+      }
+      append(ch, run, end - run);
+   }
+
+
+   /**
+    * Writes the contents of {@link #outBuffer} to {@link #writer}
+    */
+   protected final void flushBuffer()
+      throws IOException
+   {
+      if (outLength > 0) {
+         writer.write(outBuffer, 0, outLength);
+         outLength = 0;
+      }
+   }
+
+
+   /**
+    * Writes the buffered output to the writer and flushes the writer.
+    * A start tag will remain buffered until its attributes are complete.
+    */
+   public void flushWriter()
+      throws IOException
+   {
+      flushBuffer();
+      writer.flush();
+   }
+
+
    /**
     * Encode a character from a character array, respect surrogate pairs
     * @param chars the character array
@@ -75,12 +75,32 @@ public class XmlEmitter extends StreamEmitter
    /** flag indicating if disabled output escaping is active */
    private boolean disabledOutputEscaping = false;
 
+   /** replacements of the characters that must be escaped in text */
+   private static final String[] TEXT_ESCAPES = new String[128];
+
+   /** replacements of the characters that must be escaped in attributes */
+   private static final String[] ATTRIBUTE_ESCAPES = new String[128];
+
+   static {
+      TEXT_ESCAPES['&'] = ATTRIBUTE_ESCAPES['&'] = "&amp;";
+      TEXT_ESCAPES['<'] = ATTRIBUTE_ESCAPES['<'] = "&lt;";
+      TEXT_ESCAPES['>'] = ATTRIBUTE_ESCAPES['>'] = "&gt;";
+      ATTRIBUTE_ESCAPES['\"'] = "&quot;";
+      ATTRIBUTE_ESCAPES['\t'] = "&#x9;";
+      ATTRIBUTE_ESCAPES['\n'] = "&#xA;";
+      ATTRIBUTE_ESCAPES['\r'] = "&#xD;";
+   }
+
+   /** reusable array for the characters of an attribute value */
+   private char[] attChars = new char[64];
+
 
    /** Constructor */
    public XmlEmitter(Writer writer, String encoding,
                      Properties outputProperties)
    {
       super(writer, encoding);
+      outBuffer = new char[BUFFER_SIZE];
 
       if (outputProperties != null) {
          String val;
@@ -140,40 +160,33 @@ public class XmlEmitter extends StreamEmitter
    {
 
       if (lastQName != null) {
-         StringBuffer out = new StringBuffer("<");
-         out.append(lastQName);
-         out.append(nsDeclarations);
-         nsDeclarations.setLength(0);
-
-         // attributes
-         int length = lastAttrs.getLength();
-         for (int i=0; i<length; i++) {
-            out.append(' ').append(lastAttrs.getQName(i)).append("=\"");
-            char[] attChars = lastAttrs.getValue(i).toCharArray();
-
-            // output escaping
-            for (int j=0; j<attChars.length; j++)
-               switch (attChars[j]) {
-               case '&':  out.append("&amp;");  break;
-               case '<':  out.append("&lt;");   break;
-               case '>':  out.append("&gt;");   break;
-               case '\"': out.append("&quot;"); break;
-               case '\t': out.append("&#x9;");  break;
-               case '\n': out.append("&#xA;");  break;
-               case '\r': out.append("&#xD;");  break;
-               default:
-                  j = encodeCharacters(attChars, j, out);
-               }
-            out.append('\"');
-         }
-
-         out.append(end ? " />" : ">");
-
+         if (DEBUG)
+            log.debug("<" + lastQName);
          try {
-            // stream string to writer
-            writer.write(out.toString());
-            if (DEBUG)
-               log.debug(out);
+            append('<');
+            append(lastQName);
+            append(nsDeclarations);
+            nsDeclarations.setLength(0);
+
+            // attributes
+            int length = lastAttrs.getLength();
+            for (int i=0; i<length; i++) {
+               append(' ');
+               append(lastAttrs.getQName(i));
+               append('=');
+               append('\"');
+               String value = lastAttrs.getValue(i);
+               int valueLength = value.length();
+               if (valueLength > attChars.length)
+                  attChars = new char[Math.max(valueLength,
+                                               attChars.length * 2)];
+               value.getChars(0, valueLength, attChars, 0);
+               // output escaping
+               appendEscaped(attChars, 0, valueLength, ATTRIBUTE_ESCAPES);
+               append('\"');
+            }
+
+            append(end ? " />" : ">");
          }
          catch (IOException ex) {
             if (log != null)
@@ -188,6 +201,26 @@ public class XmlEmitter extends StreamEmitter
    }
 
 
+   /**
+    * Writes the contents of the output buffer to the writer. Each SAX
+    * callback ends with this method, because some clients (for example
+    * <code>stx:text markup="serialize"</code>) read the written
+    * characters without calling {@link #endDocument}.
+    */
+   private void flush()
+      throws SAXException
+   {
+      try {
+         flushBuffer();
+      }
+      catch (IOException ex) {
+         if (log != null)
+            log.error(ex);
+         throw new SAXException(ex);
+      }
+   }
+
+
    /**
     * SAX2-Callback - Outputs XML-Deklaration with encoding.
     */
@@ -197,13 +230,14 @@ public class XmlEmitter extends StreamEmitter
          return;
 
       try {
-         writer.write("<?xml version=\"");
-         writer.write(propVersion);
-         writer.write("\" encoding=\"");
-         writer.write(encoding);
+         append("<?xml version=\"");
+         append(propVersion);
+         append("\" encoding=\"");
+         append(encoding);
          if (propStandalone)
-            writer.write("\" standalone=\"yes");
-         writer.write("\"?>\n");
+            append("\" standalone=\"yes");
+         append("\"?>\n");
+         flushBuffer();
       }
       catch (IOException ex) {
          if (log != null)
@@ -221,7 +255,8 @@ public class XmlEmitter extends StreamEmitter
       processLastElement(false);
 
       try {
-         writer.write("\n");
+         append('\n');
+         flushBuffer();
          writer.flush();
       }
       catch (IOException ex) {
@@ -240,6 +275,7 @@ public class XmlEmitter extends StreamEmitter
       throws SAXException
    {
       processLastElement(false);
+      flush();
       this.lastQName = qName;
       this.lastAttrs = attrs;
    }
@@ -255,9 +291,9 @@ public class XmlEmitter extends StreamEmitter
       // something (here: empty element tag)
       if (processLastElement(true) == false) {
          try {
-            writer.write("</");
-            writer.write(qName);
-            writer.write(">");
+            append("</");
+            append(qName);
+            append(">");
          }
          catch (IOException ex) {
             if (log != null)
@@ -265,6 +301,7 @@ public class XmlEmitter extends StreamEmitter
             throw new SAXException(ex);
          }
       }
+      flush();
    }
 
 
@@ -280,29 +317,20 @@ public class XmlEmitter extends StreamEmitter
          if (insideCDATA || disabledOutputEscaping) {
             // check that the characters can be represented in the current
             // encoding (escaping not possible within CDATA)
-            for (int i=0; i<length; i++)
-               if (!charsetEncoder.canEncode(ch[start+i]))
+            for (int i=start; i<start+length; i++)
+               if (!isEncodable(ch[i]))
                   throw new SAXException(
                      "Cannot output character with code " +
-                     (int)ch[start+i] + " in the encoding '" + encoding +
+                     (int)ch[i] + " in the encoding '" + encoding +
                      "' within a CDATA section");
-            writer.write(ch, start, length);
+            append(ch, start, length);
          }
-         else {
-            StringBuffer out = new StringBuffer(length);
+         else
             // output escaping
-            for (int i=0; i<length; i++)
-               switch (ch[start+i]) {
-               case '&': out.append("&amp;"); break;
-               case '<': out.append("&lt;"); break;
-               case '>': out.append("&gt;"); break;
-               default:
-                  i = encodeCharacters(ch, start+i, out) - start;
-               }
-            writer.write(out.toString());
-         }
+            appendEscaped(ch, start, length, TEXT_ESCAPES);
          if (DEBUG)
             log.debug("'" + new String(ch, start, length) + "'");
+         flushBuffer();
       }
       catch (IOException ex) {
          if (log != null)
@@ -319,6 +347,7 @@ public class XmlEmitter extends StreamEmitter
       throws SAXException
    {
       processLastElement(false);
+      flush();
 
       if ("".equals(prefix))
          nsDeclarations.append(" xmlns=\"");
@@ -339,24 +368,27 @@ public class XmlEmitter extends StreamEmitter
       if (supportDisableOutputEscaping) {
          if (Result.PI_DISABLE_OUTPUT_ESCAPING.equals(target)) {
             disabledOutputEscaping = true;
+            flush();
             return;
          }
          else if (Result.PI_ENABLE_OUTPUT_ESCAPING.equals(target)) {
             disabledOutputEscaping = false;
+            flush();
             return;
          }
       }
 
       try {
-         writer.write("<?");
-         writer.write(target);
+         append("<?");
+         append(target);
 
          if (!data.equals("")) {
-            writer.write(" ");
-            writer.write(data);
+            append(" ");
+            append(data);
          }
 
-         writer.write("?>");
+         append("?>");
+         flushBuffer();
       }
       catch (IOException ex) {
          if (log != null)
@@ -375,7 +407,8 @@ public class XmlEmitter extends StreamEmitter
       processLastElement(false);
 
       try {
-         writer.write("<![CDATA[");
+         append("<![CDATA[");
+         flushBuffer();
       }
       catch (IOException ex) {
          if (log != null)
@@ -395,7 +428,8 @@ public class XmlEmitter extends StreamEmitter
    {
       insideCDATA = false;
       try {
-         writer.write("]]>");
+         append("]]>");
+         flushBuffer();
       }
       catch (IOException ex) {
          if (log != null)
@@ -414,9 +448,10 @@ public class XmlEmitter extends StreamEmitter
       processLastElement(false);
 
       try {
-         writer.write("<!--");
-         writer.write(ch, start, length);
-         writer.write("-->");
+         append("<!--");
+         append(ch, start, length);
+         append("-->");
+         flushBuffer();
       }
       catch (IOException ex) {
          if (log != null)
@@ -433,24 +468,25 @@ public class XmlEmitter extends StreamEmitter
       throws SAXException
    {
       try {
-         writer.write("<!DOCTYPE ");
-         writer.write(name);
+         append("<!DOCTYPE ");
+         append(name);
          if (publicId != null) {
-            writer.write(" PUBLIC \"");
-            writer.write(publicId);
-            writer.write("\" \"");
+            append(" PUBLIC \"");
+            append(publicId);
+            append("\" \"");
             if (systemId != null) {
-               writer.write(systemId);
+               append(systemId);
             }
-            writer.write("\"");
+            append("\"");
          }
          else if (systemId != null) {
-            writer.write(" SYSTEM \"");
-            writer.write(systemId);
-            writer.write("\"");
+            append(" SYSTEM \"");
+            append(systemId);
+            append("\"");
          }
          // internal subset not supported yet
-         writer.write(">\n");
+         append(">\n");
+         flushBuffer();
       }
       catch (IOException ex) {
          if (log != null)
@@ -0,0 +1,137 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is agent.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+
+package net.sf.joost.grammar;
+
+import net.sf.joost.grammar.tree.NumberOpTree;
+import net.sf.joost.grammar.tree.ValueTree;
+import net.sf.joost.stx.Value;
+
+import org.xml.sax.SAXException;
+
+
+/**
+ * Optimizes parsed STXPath expressions (optional, see
+ * {@link net.sf.joost.trax.TrAXConstants#COMPILE_EXPRESSIONS}).
+ * The compiler replaces constant subexpressions by their values and
+ * arithmetic and comparison operations on operands with the static
+ * type number by {@link NumberOpTree} nodes that compute with unboxed
+ * <code>double</code> values. All other parts of an expression (location
+ * paths, variables, sequences, ...) remain unchanged and will be
+ * interpreted as usual.
+ * @version $Revision$ $Date$
+ * @author agent
+ */
+public final class ExpressionCompiler
+{
+   private ExpressionCompiler()
+   {
+   }
+
+
+   /**
+    * Compiles an expression tree.
+    * @param tree the tree to be compiled, may be <code>null</code>
+    * @return the compiled tree (possibly <code>tree</code> itself with
+    *         replaced subtrees)
+    */
+   public static Tree compile(Tree tree)
+   {
+      if (tree == null)
+         return null;
+
+      switch (tree.type) {
+      case Tree.CHILD:
+      case Tree.DESC:
+      case Tree.UNION:
+      case Tree.PREDICATE:
+         // location paths: compile only the expressions in predicates
+         tree.left = compile(tree.left);
+         tree.right = compile(tree.right);
+         return tree;
+      case Tree.LIST:
+      case Tree.SEQ:
+      case Tree.FUNCTION:
+      case Tree.AND:
+      case Tree.OR:
+         tree.left = compile(tree.left);
+         tree.right = compile(tree.right);
+         break;
+      case Tree.ADD:
+      case Tree.SUB:
+      case Tree.MULT:
+      case Tree.DIV:
+      case Tree.MOD:
+      case Tree.EQ:
+      case Tree.NE:
+      case Tree.LT:
+      case Tree.LE:
+      case Tree.GT:
+      case Tree.GE:
+         tree.left = compile(tree.left);
+         tree.right = compile(tree.right);
+         if ((tree.left == null || tree.left.isNumber()) &&
+             tree.right.isNumber())
+            tree = new NumberOpTree(tree.type, tree.left, tree.right);
+         break;
+      default:
+         // leafs: nothing to compile
+         return tree;
+      }
+
+      // the parameter list of a function must be kept
+      if (tree.type != Tree.LIST && tree.isConstant()) {
+         Value v = evaluateConstant(tree);
+         if (v != null)
+            return new ValueTree(v);
+      }
+      return tree;
+   }
+
+
+   /**
+    * Evaluates a constant expression.
+    * @return the value of the expression, or <code>null</code> if the
+    *         expression doesn't evaluate to a single atomic value or its
+    *         evaluation failed (the error will be reported at run time)
+    */
+   private static Value evaluateConstant(Tree tree)
+   {
+      Value v;
+      try {
+         v = tree.evaluate(null, -1);
+      }
+      catch (SAXException e) {
+         return null;
+      }
+      catch (RuntimeException e) {
+         // e.g. a function that needs a context for reporting an error
+         return null;
+      }
+      if (v == null || v.next != null ||
+          v.type == Value.NODE || v.type == Value.OBJECT)
+         return null;
+      return v;
+   }
+}
@@ -29,6 +29,7 @@ import net.sf.joost.instruction.NodeBase;
 import net.sf.joost.stx.Context;
 import net.sf.joost.stx.Value;
 
+import java.io.Serializable;
 import java.util.HashMap;
 
 import org.xml.sax.SAXException;
@@ -39,7 +40,7 @@ import org.xml.sax.SAXException;
  * @version $Revision: 2.14 $ $Date: 2008/10/04 17:13:14 $
  * @author Oliver Becker
  */
-public abstract class Tree implements Cloneable
+public abstract class Tree implements Cloneable, Serializable
 {
    /** Node type constants for {@link #type} */
    public static final int
@@ -202,6 +203,91 @@ public abstract class Tree implements Cloneable
    }
 
 
+   /**
+    * Evaluates the current Tree for read-only access. The result may be
+    * shared (for example with the value of a variable) and must not be
+    * modified. Subclasses may override this method to avoid copying.
+    * @param context the current Context
+    * @param top the part of the stack to be considered for the evaluation
+    *            (the upper most element is at position top-1)
+    * @return the result, must not be modified
+    */
+   public Value evaluateShared(Context context, int top)
+      throws SAXException
+   {
+      return evaluate(context, top);
+   }
+
+
+   /**
+    * Evaluates the current Tree and converts the result into a boolean.
+    * @param context the current Context
+    * @param instruction the current instruction, needed for providing
+    *        locator information in the event of an error
+    * @return the boolean value of the result
+    */
+   public boolean evaluateBoolean(Context context, NodeBase instruction)
+      throws SAXException
+   {
+      context.currentInstruction = instruction;
+      return evaluateBoolean(context, context.ancestorStack.size());
+   }
+
+
+   /**
+    * Evaluates the current Tree and converts the result into a boolean.
+    * Subclasses may override this method to avoid the construction of
+    * {@link Value} objects.
+    * @param context the current Context
+    * @param top the part of the stack to be considered for the evaluation
+    *            (the upper most element is at position top-1)
+    * @return the boolean value of the result
+    */
+   public boolean evaluateBoolean(Context context, int top)
+      throws SAXException
+   {
+      return evaluate(context, top).getBooleanValue();
+   }
+
+
+   /**
+    * Evaluates the current Tree and converts the result into a number.
+    * Subclasses may override this method to avoid the construction of
+    * {@link Value} objects.
+    * @param context the current Context
+    * @param top the part of the stack to be considered for the evaluation
+    *            (the upper most element is at position top-1)
+    * @return the number value of the result
+    */
+   public double evaluateNumber(Context context, int top)
+      throws SAXException
+   {
+      return evaluate(context, top).getNumberValue();
+   }
+
+
+   /**
+    * @return whether the expression represented by this tree evaluates
+    *         always to exactly one number (i.e. its static type is known)
+    */
+   public boolean isNumber()
+   {
+      return false;
+   }
+
+
+   /**
+    * @return whether the expression represented by this tree needs the
+    *         context position (i.e. contains a predicate or calls
+    *         <code>position()</code>)
+    */
+   public boolean usesPosition()
+   {
+      return (left != null && left.usesPosition())
+                || (right != null && right.usesPosition());
+   }
+
+
    /** May be overridden to reconstruct the current tree */
    public Tree reverseAssociativity()
    {
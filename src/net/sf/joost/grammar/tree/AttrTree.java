@@ -75,7 +75,7 @@ final public class AttrTree extends Tree
        // an attribute requires at least two ancestors
        if (top < 3)
           return false;
-       SAXEvent e = (SAXEvent)context.ancestorStack.elementAt(top-1);
+       SAXEvent e = context.ancestorStack.elementAt(top-1);
        if (e.type != SAXEvent.ATTRIBUTE) 
           return false;
        if (setPosition)
@@ -131,7 +131,7 @@ final public class AttrTree extends Tree
       }
       else if (top > 0) { // use current node
          SAXEvent saxEvent = 
-            (SAXEvent)context.ancestorStack.elementAt(top-1);
+            context.ancestorStack.elementAt(top-1);
          Attributes a = saxEvent.attrs;
          int index = a.getIndex(uri, lName);
          if (index == -1) 
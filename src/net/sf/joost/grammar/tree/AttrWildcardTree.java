@@ -53,7 +53,7 @@ final public class AttrWildcardTree extends Tree
       // an attribute requires at least two ancestors
       if (top < 3)
          return false;
-      SAXEvent e = (SAXEvent)context.ancestorStack.elementAt(top-1);
+      SAXEvent e = context.ancestorStack.elementAt(top-1);
       if (e.type != SAXEvent.ATTRIBUTE) 
          return false;
       if (setPosition)
@@ -72,7 +72,7 @@ final public class AttrWildcardTree extends Tree
             return v1;
       }
       else if (top > 0) // use current node
-         v1 = new Value((SAXEvent)context.ancestorStack.elementAt(top-1));
+         v1 = new Value(context.ancestorStack.elementAt(top-1));
       else
          return Value.VAL_EMPTY;
 
@@ -48,12 +48,11 @@ final public class CDataTestTree extends Tree
    {
       if (top < 2)
          return false;
-      if (((SAXEvent)context.ancestorStack.elementAt(top-1)).type == 
+      if (context.ancestorStack.elementAt(top-1).type == 
                      SAXEvent.CDATA) {
          if (setPosition)
             context.position = 
-               ((SAXEvent)context.ancestorStack.elementAt(top-2))
-                                 .getPositionOfCDATA();
+               context.ancestorStack.elementAt(top-2).getPositionOfCDATA();
          return true;
       }
       return false;
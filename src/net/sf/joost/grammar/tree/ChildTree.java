@@ -27,7 +27,6 @@ package net.sf.joost.grammar.tree;
 import net.sf.joost.grammar.ReversableTree;
 import net.sf.joost.grammar.Tree;
 import net.sf.joost.stx.Context;
-import net.sf.joost.stx.SAXEvent;
 import net.sf.joost.stx.Value;
 
 import org.xml.sax.SAXException;
@@ -64,7 +63,7 @@ final public class ChildTree extends ReversableTree
             return right.evaluate(context, top+1);
          else 
             // last step, return node at position top+1
-            return new Value((SAXEvent)context.ancestorStack.elementAt(top));
+            return new Value(context.ancestorStack.elementAt(top));
       }
       else // path selects nothing
          return Value.VAL_EMPTY;
@@ -48,12 +48,11 @@ final public class CommentTestTree extends Tree
    {
       if (top < 2)
          return false;
-      if (((SAXEvent)context.ancestorStack.elementAt(top-1)).type == 
+      if (context.ancestorStack.elementAt(top-1).type == 
                      SAXEvent.COMMENT) {
          if (setPosition)
             context.position =
-               ((SAXEvent)context.ancestorStack.elementAt(top-2))
-                                 .getPositionOfComment();
+               context.ancestorStack.elementAt(top-2).getPositionOfComment();
          return true;
       }
       return false;
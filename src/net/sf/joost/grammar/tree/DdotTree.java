@@ -26,7 +26,6 @@ package net.sf.joost.grammar.tree;
 
 import net.sf.joost.grammar.ReversableTree;
 import net.sf.joost.stx.Context;
-import net.sf.joost.stx.SAXEvent;
 import net.sf.joost.stx.Value;
 
 import org.xml.sax.SAXException;
@@ -54,7 +53,7 @@ final public class DdotTree extends ReversableTree
          else
             // return the node at position top-1
             return 
-               new Value((SAXEvent)context.ancestorStack.elementAt(top-2));
+               new Value(context.ancestorStack.elementAt(top-2));
       }
       else
          // path selects nothing
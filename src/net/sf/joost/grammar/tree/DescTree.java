@@ -29,6 +29,8 @@ import net.sf.joost.grammar.Tree;
 import net.sf.joost.stx.Context;
 import net.sf.joost.stx.Value;
 
+import java.util.HashSet;
+
 import org.xml.sax.SAXException;
 
 /**
@@ -67,18 +69,20 @@ final public class DescTree extends ReversableTree
       throws SAXException
    {
       Value ret = null, last = null; // for constructing the result seq
+      HashSet nodes = null; // the nodes in ret, created on demand
       while (top < context.ancestorStack.size()) {
          Value v1 = right.evaluate(context, top++);
          if (v1.type == Value.NODE) {
             if (ret != null) {
+               if (nodes == null) {
+                  nodes = new HashSet();
+                  for (Value vj = ret; vj != null; vj = vj.next)
+                     nodes.add(vj.getNode());
+               }
                // skip duplicates
                Value vi = v1;
                while (vi != null) {
-                  Value vj;
-                  for (vj = ret; vj != null; vj = vj.next)
-                     if (vi.getNode() == vj.getNode())
-                        break;
-                  if (vj == null) { // vi not found in ret
+                  if (nodes.add(vi.getNode())) { // vi not found in ret
                      last.next = vi;
                      last = vi;
                   }
@@ -26,7 +26,6 @@ package net.sf.joost.grammar.tree;
 
 import net.sf.joost.grammar.ReversableTree;
 import net.sf.joost.stx.Context;
-import net.sf.joost.stx.SAXEvent;
 import net.sf.joost.stx.Value;
 
 import org.xml.sax.SAXException;
@@ -48,7 +47,7 @@ final public class DotTree extends ReversableTree
       throws SAXException
    {
       if (top > 0)
-         return new Value((SAXEvent)context.ancestorStack.elementAt(top-1));
+         return new Value(context.ancestorStack.elementAt(top-1));
       else
          return Value.VAL_EMPTY;
    }
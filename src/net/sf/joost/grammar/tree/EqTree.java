@@ -54,21 +54,26 @@ final public class EqTree extends Tree
       // sequences: find a pair such that the comparison is true
       for (Value vi = v1; vi != null; vi = vi.next) {
          for (Value vj = v2; vj != null; vj = vj.next) {
-            if (vi.type == Value.BOOLEAN || vj.type == Value.BOOLEAN) {
-               if (vi.getBooleanValue() == vj.getBooleanValue())
-                  return Value.VAL_TRUE;
-            }
-            else if (vi.type == Value.NUMBER || vj.type == Value.NUMBER) {
-               if (vi.getNumberValue() == vj.getNumberValue())
-                  return Value.VAL_TRUE;
-            }
-            else {
-               if (vi.getStringValue().equals(vj.getStringValue()))
-                  return Value.VAL_TRUE;
-            }
+            if (itemsEqual(vi, vj))
+               return Value.VAL_TRUE;
          } // for (vj ...
       } // for (vi ...
       // none of the item comparisons evaluated to true
       return Value.VAL_FALSE;
    }
+
+
+   /**
+    * Compares two items (the successors of both values will be ignored).
+    * @return <code>true</code> if the items are equal
+    */
+   public static boolean itemsEqual(Value vi, Value vj)
+   {
+      if (vi.type == Value.BOOLEAN || vj.type == Value.BOOLEAN)
+         return vi.getBooleanValue() == vj.getBooleanValue();
+      else if (vi.type == Value.NUMBER || vj.type == Value.NUMBER)
+         return vi.getNumberValue() == vj.getNumberValue();
+      else
+         return vi.getStringValue().equals(vj.getStringValue());
+   }
 }
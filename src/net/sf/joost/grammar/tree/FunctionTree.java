@@ -32,6 +32,8 @@ import net.sf.joost.stx.ParseContext;
 import net.sf.joost.stx.Value;
 import net.sf.joost.stx.function.FunctionFactory;
 
+import java.util.HashSet;
+
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
 
@@ -46,6 +48,21 @@ final public class FunctionTree extends Tree
    /*** the function instance */
    private FunctionFactory.Instance func;
 
+   /**
+    * Names of the functions that return always exactly one number
+    * (and don't report errors)
+    */
+   private static final HashSet NUMBER_FUNCTIONS = new HashSet();
+
+   /** Name of the function that returns the context position */
+   private static final String POSITION = FunctionFactory.FNSP + "position";
+
+   static {
+      NUMBER_FUNCTIONS.add(POSITION);
+      NUMBER_FUNCTIONS.add(FunctionFactory.FNSP + "count");
+      NUMBER_FUNCTIONS.add(FunctionFactory.FNSP + "string-length");
+   }
+
 
    /**
     * Constructs a FunctionTree object.
@@ -98,4 +115,14 @@ final public class FunctionTree extends Tree
    {
       return func.isConstant() && (left == null || left.isConstant());
    }
+
+   public boolean isNumber()
+   {
+      return NUMBER_FUNCTIONS.contains(func.getName());
+   }
+
+   public boolean usesPosition()
+   {
+      return POSITION.equals(func.getName()) || super.usesPosition();
+   }
 }
@@ -62,14 +62,13 @@ final public class LocalWildcardTree extends Tree
       if (top < 2)
          return false;
 
-      SAXEvent e = (SAXEvent)context.ancestorStack.elementAt(top-1);
+      SAXEvent e = context.ancestorStack.elementAt(top-1);
       if (e.type != SAXEvent.ELEMENT || !uri.equals(e.uri))
          return false;
       
       if (setPosition)
          context.position = 
-            ((SAXEvent)context.ancestorStack.elementAt(top-2))
-                                            .getPositionOf(uri, "*");
+            context.ancestorStack.elementAt(top-2).getPositionOf(uri, "*");
 
       return true;
    }
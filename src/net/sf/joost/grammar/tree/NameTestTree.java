@@ -70,15 +70,14 @@ final public class NameTestTree extends Tree
       if (top < 2)
          return false;
 
-      SAXEvent e = (SAXEvent)context.ancestorStack.elementAt(top-1);
+      SAXEvent e = context.ancestorStack.elementAt(top-1);
       if (e.type != SAXEvent.ELEMENT || 
           !(uri.equals(e.uri) && lName.equals(e.lName)))
          return false;
 
       if (setPosition)
          context.position = 
-            ((SAXEvent)context.ancestorStack.elementAt(top-2))
-                                            .getPositionOf(uri, lName);
+            context.ancestorStack.elementAt(top-2).getPositionOf(uri, lName);
 
       return true;
    }
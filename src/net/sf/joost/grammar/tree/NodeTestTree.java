@@ -49,14 +49,13 @@ final public class NodeTestTree extends Tree
       // the node must be a child of another node,
       // i.e. we need at least two nodes and it is no attribute node
       if (top < 2 ||
-          ((SAXEvent)context.ancestorStack.elementAt(top-1)).type == 
+          context.ancestorStack.elementAt(top-1).type == 
                      SAXEvent.ATTRIBUTE)
          return false;
 
       if (setPosition)
          context.position = 
-            ((SAXEvent)context.ancestorStack.elementAt(top-2))
-                                            .getPositionOfNode();
+            context.ancestorStack.elementAt(top-2).getPositionOfNode();
 
       return true; 
    }
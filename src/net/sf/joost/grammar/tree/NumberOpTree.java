@@ -0,0 +1,133 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is agent.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+
+package net.sf.joost.grammar.tree;
+
+import net.sf.joost.grammar.Tree;
+import net.sf.joost.stx.Context;
+import net.sf.joost.stx.Value;
+
+import org.xml.sax.SAXException;
+
+/**
+ * Objects of NumberOpTree represent arithmetic and comparison nodes whose
+ * operands are known to evaluate to exactly one number. They will be
+ * constructed by the {@link net.sf.joost.grammar.ExpressionCompiler} only
+ * and compute their results without intermediate {@link Value} objects.
+ * @version $Revision$ $Date$
+ * @author agent
+ */
+final public class NumberOpTree extends Tree
+{
+   /**
+    * Constructs a NumberOpTree.
+    * @param type one of the arithmetic or comparison node types
+    *        ({@link Tree#ADD} ... {@link Tree#MOD},
+    *        {@link Tree#EQ} ... {@link Tree#GE})
+    * @param left the left operand (<code>null</code> for a sign)
+    * @param right the right operand
+    */
+   public NumberOpTree(int type, Tree left, Tree right)
+   {
+      super(type, left, right);
+   }
+
+   public Value evaluate(Context context, int top)
+      throws SAXException
+   {
+      switch (type) {
+      case EQ: case NE: case LT: case LE: case GT: case GE:
+         return evaluateBoolean(context, top) ? Value.VAL_TRUE
+                                              : Value.VAL_FALSE;
+      default:
+         return new Value(evaluateNumber(context, top));
+      }
+   }
+
+   public double evaluateNumber(Context context, int top)
+      throws SAXException
+   {
+      switch (type) {
+      case ADD:
+         if (left == null) // positive sign
+            return right.evaluateNumber(context, top);
+         return left.evaluateNumber(context, top) +
+                right.evaluateNumber(context, top);
+      case SUB:
+         if (left == null) // negative sign
+            return -right.evaluateNumber(context, top);
+         return left.evaluateNumber(context, top) -
+                right.evaluateNumber(context, top);
+      case MULT:
+         return left.evaluateNumber(context, top) *
+                right.evaluateNumber(context, top);
+      case DIV:
+         return left.evaluateNumber(context, top) /
+                right.evaluateNumber(context, top);
+      case MOD:
+         return left.evaluateNumber(context, top) %
+                right.evaluateNumber(context, top);
+      default:
+         return evaluateBoolean(context, top) ? 1.0 : 0.0;
+      }
+   }
+
+   public boolean evaluateBoolean(Context context, int top)
+      throws SAXException
+   {
+      switch (type) {
+      case EQ:
+         return left.evaluateNumber(context, top) ==
+                right.evaluateNumber(context, top);
+      case NE:
+         return left.evaluateNumber(context, top) !=
+                right.evaluateNumber(context, top);
+      case LT:
+         return left.evaluateNumber(context, top) <
+                right.evaluateNumber(context, top);
+      case LE:
+         return left.evaluateNumber(context, top) <=
+                right.evaluateNumber(context, top);
+      case GT:
+         return left.evaluateNumber(context, top) >
+                right.evaluateNumber(context, top);
+      case GE:
+         return left.evaluateNumber(context, top) >=
+                right.evaluateNumber(context, top);
+      default:
+         // same conversion as in Value.getBooleanValue()
+         return evaluateNumber(context, top) != 0.0;
+      }
+   }
+
+   public boolean isNumber()
+   {
+      switch (type) {
+      case EQ: case NE: case LT: case LE: case GT: case GE:
+         return false;
+      default:
+         return true;
+      }
+   }
+}
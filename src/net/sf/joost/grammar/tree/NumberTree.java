@@ -52,8 +52,18 @@ final public class NumberTree extends Tree
       return theValue;
    }
 
+   public double evaluateNumber(Context context, int top)
+   {
+      return ((Double)value).doubleValue();
+   }
+
    public boolean isConstant()
    {
       return true;
    }
+
+   public boolean isNumber()
+   {
+      return true;
+   }
 }
@@ -46,10 +46,14 @@ final public class OrTree extends Tree
    public Value evaluate(Context context, int top)
       throws SAXException
    {
-      if (left.evaluate(context, top).getBooleanValue())
-         return Value.VAL_TRUE;
-      if (right.evaluate(context, top).getBooleanValue())
-         return Value.VAL_TRUE;
-      return Value.VAL_FALSE;
+      return evaluateBoolean(context, top) ? Value.VAL_TRUE
+                                          : Value.VAL_FALSE;
+   }
+
+   public boolean evaluateBoolean(Context context, int top)
+      throws SAXException
+   {
+      return left.evaluateBoolean(context, top) ||
+             right.evaluateBoolean(context, top);
    }
 }
@@ -70,14 +70,14 @@ final public class PiTestTree extends Tree
       if (top < 2)
          return false;
 
-      SAXEvent e = (SAXEvent)context.ancestorStack.elementAt(top-1);
+      SAXEvent e = context.ancestorStack.elementAt(top-1);
       if (e.type == SAXEvent.PI) {
          if (value != null && !value.equals(e.qName)) 
             return false;
          if (setPosition)
             context.position = 
-               ((SAXEvent)context.ancestorStack.elementAt(top-2))
-                                 .getPositionOfPI(piKeyName);
+               context.ancestorStack.elementAt(top-2)
+                  .getPositionOfPI(piKeyName);
          return true;
       }
       return false;
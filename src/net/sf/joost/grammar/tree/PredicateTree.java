@@ -73,4 +73,9 @@ final public class PredicateTree extends Tree
    {
       return false;
    }
+
+   public boolean usesPosition()
+   {
+      return true;
+   }
 }
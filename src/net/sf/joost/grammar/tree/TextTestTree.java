@@ -49,12 +49,11 @@ final public class TextTestTree extends Tree
       if (top < 2)
          return false;
 
-      int nodeType = ((SAXEvent)context.ancestorStack.elementAt(top-1)).type;
+      int nodeType = context.ancestorStack.elementAt(top-1).type;
       if (nodeType == SAXEvent.TEXT || nodeType == SAXEvent.CDATA) {
          if (setPosition)
             context.position = 
-               ((SAXEvent)context.ancestorStack.elementAt(top-2))
-                                               .getPositionOfText();
+               context.ancestorStack.elementAt(top-2).getPositionOfText();
          return true;
       }
       return false;
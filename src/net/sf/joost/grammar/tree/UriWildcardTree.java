@@ -56,14 +56,13 @@ final public class UriWildcardTree extends Tree
       if (top < 2)
          return false;
 
-      SAXEvent e = (SAXEvent)context.ancestorStack.elementAt(top-1);
+      SAXEvent e = context.ancestorStack.elementAt(top-1);
       if (e.type != SAXEvent.ELEMENT || !lName.equals(e.lName))
          return false;
       
       if (setPosition)
          context.position = 
-            ((SAXEvent)context.ancestorStack.elementAt(top-2))
-                                            .getPositionOf("*", lName);
+            context.ancestorStack.elementAt(top-2).getPositionOf("*", lName);
 
       return true;
    }
@@ -48,4 +48,10 @@ final public class ValueTree extends Tree
    {
       return (Value)value;
    }
+
+   public boolean isNumber()
+   {
+      Value v = (Value)value;
+      return v.type == Value.NUMBER && v.next == null;
+   }
 }
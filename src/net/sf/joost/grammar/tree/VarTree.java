@@ -25,16 +25,12 @@
 package net.sf.joost.grammar.tree;
 
 import net.sf.joost.grammar.Tree;
-import net.sf.joost.instruction.GroupBase;
+import net.sf.joost.instruction.VariableReference;
 import net.sf.joost.stx.Context;
 import net.sf.joost.stx.ParseContext;
 import net.sf.joost.stx.Value;
-import net.sf.joost.util.VariableNotFoundException;
-import net.sf.joost.util.VariableUtils;
 
 import java.util.HashMap;
-import java.util.Hashtable;
-import java.util.Stack;
 
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
@@ -50,8 +46,8 @@ final public class VarTree extends Tree
    /** The expanded name of the variable */
    private final String expName;
 
-   private boolean scopeDetermined = false;
-   private GroupBase groupScope = null;
+   /** The referenced variable */
+   private VariableReference variable;
 
    /*
     * Constructs a Tree object with a String value. If the type is a
@@ -80,35 +76,48 @@ final public class VarTree extends Tree
          lName = value;
       }
       expName = "{" + uri + "}" + lName;
+      variable = new VariableReference(expName, context.currentNode);
    }
 
 
    public Value evaluate(Context context, int top)
       throws SAXException
    {
-      if (!scopeDetermined) {
-         try {
-            groupScope = VariableUtils.findVariableScope(context, expName);
-         }
-         catch (VariableNotFoundException e) {
-            context.errorHandler.error("Undeclared variable '" + value + "'",
-                  context.currentInstruction.publicId,
-                  context.currentInstruction.systemId,
-                  context.currentInstruction.lineNo,
-                  context.currentInstruction.colNo);
-            // if the errorHandler decides to continue ...
-            return Value.VAL_EMPTY;
-         }
-         scopeDetermined = true;
+      Value v1 = evaluateShared(context, top);
+      // create a copy if the result is a sequence
+      return v1.next == null ? v1 : v1.copy();
+   }
+
+
+   /** Returns the value of the variable without copying it */
+   public Value evaluateShared(Context context, int top)
+      throws SAXException
+   {
+      Value v1 = (Value)variable.getValue(context);
+      if (v1 == null) {
+         context.errorHandler.error("Undeclared variable '" + value + "'",
+               context.currentInstruction.publicId,
+               context.currentInstruction.systemId,
+               context.currentInstruction.lineNo,
+               context.currentInstruction.colNo);
+         // if the errorHandler decides to continue ...
+         return Value.VAL_EMPTY;
       }
+      return v1;
+   }
 
-      Hashtable vars = (groupScope == null)
-         ? context.localVars
-         : (Hashtable)((Stack)context.groupVars.get(groupScope)).peek();
 
-      Value v1 = (Value)vars.get(expName);
-      // create a copy if the result is a sequence
-      return v1.next == null ? v1 : v1.copy();
+   public boolean evaluateBoolean(Context context, int top)
+      throws SAXException
+   {
+      return evaluateShared(context, top).getBooleanValue();
+   }
+
+
+   public double evaluateNumber(Context context, int top)
+      throws SAXException
+   {
+      return evaluateShared(context, top).getNumberValue();
    }
 
 
@@ -121,9 +130,7 @@ final public class VarTree extends Tree
    public Tree deepCopy(HashMap copies)
    {
       VarTree copy = (VarTree) super.deepCopy(copies);
-      if (scopeDetermined && groupScope != null) {
-         copy.groupScope = (GroupBase) groupScope.deepCopy(copies);
-      }
+      copy.variable = variable.deepCopy(copies);
       return copy;
    }
 }
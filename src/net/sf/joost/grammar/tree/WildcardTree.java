@@ -49,13 +49,13 @@ final public class WildcardTree extends Tree
       if (top < 2)
          return false;
 
-      SAXEvent e = (SAXEvent)context.ancestorStack.elementAt(top-1);
+      SAXEvent e = context.ancestorStack.elementAt(top-1);
       if (e.type != SAXEvent.ELEMENT)
          return false;
 
       if (setPosition)
-         context.position = ((SAXEvent)context.ancestorStack.elementAt(top-2))
-                                              .getPositionOf("*", "*");
+         context.position =
+            context.ancestorStack.elementAt(top-2).getPositionOf("*", "*");
       
       return true;
    }
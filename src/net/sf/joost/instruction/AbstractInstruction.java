@@ -26,6 +26,7 @@ package net.sf.joost.instruction;
 
 import net.sf.joost.stx.Context;
 
+import java.io.Serializable;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Hashtable;
@@ -42,7 +43,7 @@ import org.xml.sax.SAXException;
  * @version $Revision: 2.3 $ $Date: 2008/10/04 17:13:14 $
  * @author Oliver Becker
  */
-public abstract class AbstractInstruction implements Cloneable
+public abstract class AbstractInstruction implements Cloneable, Serializable
 {
    /**
     * The next instruction in the chain. The subtree of nodes in a
@@ -28,7 +28,6 @@ import net.sf.joost.grammar.EvalException;
 import net.sf.joost.grammar.Tree;
 import net.sf.joost.stx.Context;
 import net.sf.joost.stx.ParseContext;
-import net.sf.joost.util.regex.JRegularExpression;
 
 import java.util.HashMap;
 import java.util.HashSet;
@@ -50,15 +49,6 @@ import org.xml.sax.SAXParseException;
 
 final public class AnalyzeTextFactory extends FactoryBase
 {
-   /**
-    * Name of a special pseudo-variable that contains the values for
-    * the regex-group function. (Note: "normal" variables start always
-    * with a namespace in curly braces like '<code>{uri}name</code>')
-    * @see net.sf.joost.stx.function.RegexGroup
-    */
-   public static String REGEX_GROUP = "%REGEX-GROUP";
-
-
    /** allowed attributes for this element */
    private HashSet attrNames;
 
@@ -160,7 +150,6 @@ final public class AnalyzeTextFactory extends FactoryBase
 
       /**
        * Check if there is at least one <code>stx:match</code> child
-       * and establish a loop
        */
       public boolean compile(int pass, ParseContext context)
          throws SAXParseException
@@ -179,23 +168,11 @@ final public class AnalyzeTextFactory extends FactoryBase
          mVector = null; // for garbage collection
 
          successor = nodeEnd.next;
-         nodeEnd.next = this; // loop
 
          return false;
       }
 
 
-      // needed to detect recursive invocations
-      private boolean continued = false;
-
-      /**
-       * For the regex-group function (accessed from the stx:match and
-       * stx:no-match children, so they cannot be private)
-       * @see net.sf.joost.stx.function.RegexGroup
-       */
-      protected String[] capSubstr, noMatchStr;
-
-
       /**
        * Evaluate the expression given in the <code>select</code> attribute;
        * find and process the child with the matching regular expression
@@ -203,46 +180,64 @@ final public class AnalyzeTextFactory extends FactoryBase
       public short process(Context context)
          throws SAXException
       {
-         String text;
-         int lastIndex;
-         Matcher[] matchers;
-
-         if (continued) {
-            // restore previous values
-            text = (String)localFieldStack.pop();
-            lastIndex = ((Integer)localFieldStack.pop()).intValue();
-            matchers = (Matcher[])localFieldStack.pop();
-            continued = false; // in case there will be an stx:process-xxx
-         }
-         else { // this is a new invocation
-            text = select.evaluate(context, this).getStringValue();
-            lastIndex = 0;
-            // create a pseudo variable for regex-group()
-            if (context.localVars.get(REGEX_GROUP) == null)
-               context.localVars.put(REGEX_GROUP, new Stack());
-            matchers = new Matcher[matchChildren.length];
-            for (int i=0; i<matchChildren.length; i++) {
-               String re =
-                  matchChildren[i].regex.evaluate(context,
-                                                  matchChildren[i]).getString();
-
-               String flags = matchChildren[i].flags != null
-                  ? matchChildren[i].flags.evaluate(context,
-                                                    matchChildren[i]).getString()
-                  : "";
-               try {
-                  matchers[i] =
-                     new JRegularExpression(re, true, flags).matcher(text);
-               }
-               catch (EvalException e) {
-                  context.errorHandler.fatalError(e.getMessage(),
-                                                  publicId, systemId,
-                                                  lineNo, colNo, e);
-                  return PR_ERROR;
-               }
+         String text = select.evaluate(context, this).getStringValue();
+         // create a pseudo variable for regex-group()
+         if (context.getLocalVar(REGEX_GROUP_SLOT) == null)
+            context.setLocalVar(REGEX_GROUP_SLOT, new Stack());
+         Matcher[] matchers = new Matcher[matchChildren.length];
+         for (int i=0; i<matchChildren.length; i++) {
+            if (matchChildren[i].precompiledRegex != null) {
+               matchers[i] = matchChildren[i].precompiledRegex.matcher(text);
+               continue;
+            }
+
+            String re =
+               matchChildren[i].regex.evaluate(context,
+                                               matchChildren[i]).getString();
+
+            String flags = matchChildren[i].flags != null
+               ? matchChildren[i].flags.evaluate(context,
+                                                 matchChildren[i]).getString()
+               : "";
+            try {
+               matchers[i] = context.regexCache.get(re, flags).matcher(text);
+            }
+            catch (EvalException e) {
+               context.errorHandler.fatalError(e.getMessage(),
+                                               publicId, systemId,
+                                               lineNo, colNo, e);
+               return PR_ERROR;
             }
          }
 
+         return processNextMatch(new State(text, matchers), context);
+      }
+
+
+      /**
+       * Called after the processing of a <code>stx:match</code> or
+       * <code>stx:no-match</code> child: continue with the next match.
+       */
+      public short processEnd(Context context)
+         throws SAXException
+      {
+         return processNextMatch((State)context.getLocalFieldStack(this).pop(),
+                                 context);
+      }
+
+
+      /**
+       * Finds the next match in the text and determines the child to be
+       * processed. The state will be stored in the local field stack of
+       * this instruction if a child needs to be processed; the children
+       * access it from there.
+       */
+      private short processNextMatch(State state, Context context)
+      {
+         String text = state.text;
+         int lastIndex = state.lastIndex;
+         Matcher[] matchers = state.matchers;
+
          if (text.length() != lastIndex) {
             int newIndex = text.length();
             int maxSubstringLength = 0;
@@ -272,55 +267,48 @@ final public class AnalyzeTextFactory extends FactoryBase
                }
             }
 
-            noMatchStr = new String[1];
+            state.noMatchStr = new String[1];
+            state.pendingMatch = null;
             if (matchIndex != -1) { // found an stx:match
-               capSubstr = new String[matchers[matchIndex].groupCount() + 1];
+               String[] capSubstr =
+                  new String[matchers[matchIndex].groupCount() + 1];
                for (int i=0; i<capSubstr.length; i++)
                   capSubstr[i] = matchers[matchIndex].group(i);
-               noMatchStr[0] = text.substring(lastIndex, newIndex);
-               localFieldStack.push(matchers);
-               localFieldStack.push(new Integer(newIndex + maxSubstringLength));
-               localFieldStack.push(text);
+               state.capSubstr = capSubstr;
+               state.noMatchStr[0] = text.substring(lastIndex, newIndex);
+               state.lastIndex = newIndex + maxSubstringLength;
+               context.getLocalFieldStack(this).push(state);
                if (noMatchChild != null && newIndex != lastIndex) {
                   // invoke stx:no-match before stx:match
-                  next = noMatchChild;
-                  noMatchChild.nodeEnd.next = matchChildren[matchIndex];
+                  state.pendingMatch = matchChildren[matchIndex];
+                  context.nextInstruction = noMatchChild;
                }
                else
-                  next = matchChildren[matchIndex];
+                  context.nextInstruction = matchChildren[matchIndex];
             }
             else { // no matching regex found
                if (noMatchChild != null) {
-                  noMatchStr[0] = text.substring(lastIndex);
-                  next = noMatchChild;
+                  state.noMatchStr[0] = text.substring(lastIndex);
                   // leave stx:analyze-text after stx:no-match
-                  noMatchChild.nodeEnd.next = successor;
+                  state.lastIndex = text.length();
+                  context.getLocalFieldStack(this).push(state);
+                  context.nextInstruction = noMatchChild;
                }
-               else
-                  next = successor; // leave stx:analyze-text instantly
+               else // leave stx:analyze-text instantly
+                  context.nextInstruction = successor;
             }
          }
          else // text.length() == lastIndex, we're done
-            next = successor;
+            context.nextInstruction = successor;
 
          return PR_CONTINUE;
       }
 
 
-      public short processEnd(Context context)
-         throws SAXException
-      {
-         continued = true;
-         return PR_CONTINUE;
-      }
-
-
       protected void onDeepCopy(AbstractInstruction copy, HashMap copies)
       {
          super.onDeepCopy(copy, copies);
          Instance theCopy = (Instance) copy;
-         theCopy.continued = false;
-         theCopy.capSubstr = theCopy.noMatchStr = null;
          if (matchChildren != null) {
             theCopy.matchChildren =
                new MatchFactory.Instance[matchChildren.length];
@@ -338,4 +326,41 @@ final public class AnalyzeTextFactory extends FactoryBase
       }
 
    }
+
+
+   /**
+    * The state of an <code>stx:analyze-text</code> invocation, stored in
+    * the local field stack of the instruction while its children are
+    * being processed.
+    */
+   static final class State
+   {
+      /** The text to be analyzed */
+      String text;
+
+      /** The index in {@link #text} where to search the next match */
+      int lastIndex;
+
+      /** The matchers for the <code>stx:match</code> children */
+      Matcher[] matchers;
+
+      /**
+       * For the regex-group function (accessed from the stx:match and
+       * stx:no-match children)
+       * @see net.sf.joost.stx.function.RegexGroup
+       */
+      String[] capSubstr, noMatchStr;
+
+      /**
+       * The <code>stx:match</code> child that has to be processed after
+       * the current <code>stx:no-match</code> child (if any)
+       */
+      AbstractInstruction pendingMatch;
+
+      State(String text, Matcher[] matchers)
+      {
+         this.text = text;
+         this.matchers = matchers;
+      }
+   }
 }
@@ -29,13 +29,9 @@ import net.sf.joost.grammar.Tree;
 import net.sf.joost.stx.Context;
 import net.sf.joost.stx.ParseContext;
 import net.sf.joost.stx.Value;
-import net.sf.joost.util.VariableNotFoundException;
-import net.sf.joost.util.VariableUtils;
 
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Hashtable;
-import java.util.Stack;
 
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
@@ -78,6 +74,8 @@ final public class AssignFactory extends FactoryBase
       Tree selectExpr = parseExpr(attrs.getValue("select"), context);
 
       checkAttributes(qName, attrs, attrNames, context);
+      if (context.transformNode != null)
+         context.transformNode.addAssignedVariable(varName);
       return new Instance(qName, parent, context, nameAtt, varName,
                           selectExpr);
    }
@@ -90,8 +88,8 @@ final public class AssignFactory extends FactoryBase
       private Tree select;
       private String errorMessage;
 
-      private boolean scopeDetermined = false;
-      private GroupBase groupScope = null;
+      /** The assigned variable */
+      private VariableReference variable;
 
       protected Instance(String qName, NodeBase parent, ParseContext context,
                          String varName, String expName, Tree select)
@@ -103,6 +101,7 @@ final public class AssignFactory extends FactoryBase
          this.expName = expName;
          this.select = select;
          this.errorMessage = "('" + qName + "' started in line " + lineNo + ")";
+         variable = new VariableReference(expName, parent);
       }
 
 
@@ -154,25 +153,11 @@ final public class AssignFactory extends FactoryBase
       private void processVar(Value v, Context context)
          throws SAXException
       {
-         if (!scopeDetermined) {
-            try {
-               groupScope = VariableUtils.findVariableScope(context, expName);
-            }
-            catch (VariableNotFoundException e) {
-               context.errorHandler.error(
-                  "Can't assign to undeclared variable '" + varName + "'",
-                  publicId, systemId, lineNo, colNo);
-               return; // if the errorHandler returns
-            }
-            scopeDetermined = true;
-         }
-
-         Hashtable vars = (groupScope == null)
-            ? context.localVars
-            : (Hashtable)((Stack)context.groupVars.get(groupScope)).peek();
-
          // assign new value
-         vars.put(expName, v);
+         if (!variable.setValue(context, v.escape()))
+            context.errorHandler.error(
+               "Can't assign to undeclared variable '" + varName + "'",
+               publicId, systemId, lineNo, colNo);
       }
 
 
@@ -180,8 +165,7 @@ final public class AssignFactory extends FactoryBase
       {
          super.onDeepCopy(copy, copies);
          Instance theCopy = (Instance) copy;
-         if (groupScope != null)
-            theCopy.groupScope = (GroupBase) groupScope.deepCopy(copies);
+         theCopy.variable = variable.deepCopy(copies);
          if (select != null)
             theCopy.select = select.deepCopy(copies);
       }
@@ -32,6 +32,7 @@ import net.sf.joost.stx.ParseContext;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.Stack;
 
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
@@ -86,7 +87,7 @@ final public class AttributeFactory extends FactoryBase
    {
       private Tree name, namespace, select;
       private Hashtable nsSet;
-      private StringEmitter strEmitter;
+      private String errorInfo;
 
       protected Instance(String elementName, NodeBase parent,
                          ParseContext context,
@@ -99,14 +100,7 @@ final public class AttributeFactory extends FactoryBase
          this.name = name;
          this.namespace = namespace;
          this.select = select;
-         init();
-      }
-
-
-      private void init()
-      {
-         strEmitter = new StringEmitter(new StringBuffer(),
-               "('" + qName + "' started in line " + lineNo + ")");
+         errorInfo = "('" + qName + "' started in line " + lineNo + ")";
       }
 
 
@@ -119,7 +113,10 @@ final public class AttributeFactory extends FactoryBase
          throws SAXException
       {
          // check for nesting of this stx:attribute
-         if (context.emitter.isEmitterActive(strEmitter)) {
+         Stack localFieldStack = context.getLocalFieldStack(this);
+         if (!localFieldStack.empty() &&
+             context.emitter.isEmitterActive(
+                (StringEmitter)localFieldStack.peek())) {
             context.errorHandler.error(
                "Can't create nested attribute",
                publicId, systemId, lineNo, colNo);
@@ -128,8 +125,6 @@ final public class AttributeFactory extends FactoryBase
          if (select == null) {
             // contents and end instruction present
             super.process(context);
-            strEmitter.getBuffer().setLength(0);
-            context.pushEmitter(strEmitter);
          }
 
          String attName, attUri, attLocal;
@@ -186,6 +181,10 @@ final public class AttributeFactory extends FactoryBase
             localFieldStack.push(attUri);
             localFieldStack.push(attLocal);
             localFieldStack.push(attName);
+            StringEmitter strEmitter =
+               new StringEmitter(new StringBuffer(), errorInfo);
+            localFieldStack.push(strEmitter);
+            context.pushEmitter(strEmitter);
          }
 
          return PR_CONTINUE;
@@ -199,10 +198,12 @@ final public class AttributeFactory extends FactoryBase
       public short processEnd(Context context)
          throws SAXException
       {
+         context.popEmitter();
+         Stack localFieldStack = context.getLocalFieldStack(this);
+         StringEmitter strEmitter = (StringEmitter)localFieldStack.pop();
          String attName = (String)localFieldStack.pop();
          String attLocal = (String)localFieldStack.pop();
          String attUri = (String)localFieldStack.pop();
-         context.popEmitter();
          context.emitter.addAttribute(attUri, attName, attLocal,
                                       strEmitter.getBuffer().toString(),
                                       this);
@@ -214,7 +215,6 @@ final public class AttributeFactory extends FactoryBase
       {
          super.onDeepCopy(copy, copies);
          Instance theCopy = (Instance) copy;
-         theCopy.init();
          if (name != null)
             theCopy.name = name.deepCopy(copies);
          if (namespace != null)
@@ -28,9 +28,7 @@ import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
 
-import java.util.Hashtable;
 import java.util.HashSet;
-import java.util.Stack;
 
 import net.sf.joost.emitter.BufferEmitter;
 import net.sf.joost.stx.Context;
@@ -98,27 +96,16 @@ final public class BufferFactory extends FactoryBase
          throws SAXException
       {
          super.process(context);
-         Hashtable varTable;
-         if (parent instanceof GroupBase) // group scope
-            varTable = (Hashtable)((Stack)context.groupVars.get(parent))
-                                          .peek();
-         
-         else
-            varTable = context.localVars;
-
-         if (varTable.get(expName) != null) {
+         if (getValue(context) != null) {
             context.errorHandler.error(
                "Buffer '" + varName + "' already declared",
                publicId, systemId, lineNo, colNo);
             return PR_CONTINUE; // if the errorHandler returns
          }
 
-         BufferEmitter buffer = new BufferEmitter();
+         BufferEmitter buffer = new BufferEmitter(context.bufferSpillThreshold);
          context.pushEmitter(buffer);
-         varTable.put(expName, context.emitter);
-
-         if (varTable == context.localVars)
-            parent.declareVariable(expName);
+         setValue(context, context.emitter);
 
          return PR_CONTINUE;
       }
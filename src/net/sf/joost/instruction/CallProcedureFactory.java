@@ -136,26 +136,17 @@ public class CallProcedureFactory extends FactoryBase
 
 
       /**
-       * Adjust the return address of the procedure.
+       * Pass the return address to the procedure.
        */
       public short process(Context context)
          throws SAXException
       {
          super.process(context);
 
-         localFieldStack.push(procedure.nodeEnd.next);
-         procedure.nodeEnd.next = nodeEnd;
+         context.getLocalFieldStack(procedure).push(nodeEnd);
          return PR_CONTINUE;
       }
 
-      public short processEnd(Context context)
-         throws SAXException
-      {
-         procedure.nodeEnd.next =
-            (AbstractInstruction)localFieldStack.pop();
-         return super.processEnd(context);
-      }
-
       protected void onDeepCopy(AbstractInstruction copy, HashMap copies)
       {
          super.onDeepCopy(copy, copies);
@@ -29,7 +29,7 @@ import net.sf.joost.stx.Context;
 import net.sf.joost.stx.Emitter;
 import net.sf.joost.stx.ParseContext;
 
-import java.util.HashMap;
+import java.util.Stack;
 
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
@@ -63,21 +63,12 @@ final public class CdataFactory extends FactoryBase
    /** The inner Instance class */
    public class Instance extends NodeBase
    {
-      private StringEmitter strEmitter;
-      private StringBuffer buffer;
+      private String errorInfo;
 
       public Instance(String qName, NodeBase parent, ParseContext context)
       {
          super(qName, parent, context, true);
-         init();
-      }
-
-
-      private void init()
-      {
-         buffer = new StringBuffer();
-         strEmitter = new StringEmitter(buffer,
-                         "('" + qName + "' started in line " + lineNo + ")");
+         errorInfo = "('" + qName + "' started in line " + lineNo + ")";
       }
 
 
@@ -87,14 +78,19 @@ final public class CdataFactory extends FactoryBase
       public short process(Context context)
          throws SAXException
       {
-         if (context.emitter.isEmitterActive(strEmitter)) {
+         Stack localFieldStack = context.getLocalFieldStack(this);
+         if (!localFieldStack.empty() &&
+             context.emitter.isEmitterActive(
+                (StringEmitter)localFieldStack.peek())) {
             context.errorHandler.error(
                "Can't create nested CDATA section here",
                publicId, systemId, lineNo, colNo);
             return PR_CONTINUE; // if the errorHandler returns
          }
          super.process(context);
-         buffer.setLength(0);
+         StringEmitter strEmitter =
+            new StringEmitter(new StringBuffer(), errorInfo);
+         localFieldStack.push(strEmitter);
          context.pushEmitter(strEmitter);
          return PR_CONTINUE;
       }
@@ -107,6 +103,9 @@ final public class CdataFactory extends FactoryBase
          throws SAXException
       {
          context.popEmitter();
+         StringBuffer buffer =
+            ((StringEmitter)context.getLocalFieldStack(this).pop())
+                                                            .getBuffer();
          Emitter emitter = context.emitter;
          emitter.startCDATA(this);
          emitter.characters(buffer.toString().toCharArray(),
@@ -115,13 +114,5 @@ final public class CdataFactory extends FactoryBase
          return super.processEnd(context);
       }
 
-
-      protected void onDeepCopy(AbstractInstruction copy, HashMap copies)
-      {
-         super.onDeepCopy(copy, copies);
-         Instance theCopy = (Instance) copy;
-         theCopy.init();
-      }
-
    }
 }
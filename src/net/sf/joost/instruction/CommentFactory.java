@@ -31,6 +31,7 @@ import net.sf.joost.stx.ParseContext;
 
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Stack;
 
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
@@ -76,8 +77,7 @@ public class CommentFactory extends FactoryBase
    public class Instance extends NodeBase
    {
       private Tree select;
-      private StringEmitter strEmitter;
-      private StringBuffer buffer;
+      private String errorInfo;
 
       public Instance(String qName, NodeBase parent, ParseContext context,
                       Tree select)
@@ -86,15 +86,7 @@ public class CommentFactory extends FactoryBase
                // this element must be empty if there is a select attribute
                select == null);
          this.select = select;
-         init();
-      }
-
-
-      private void init()
-      {
-         buffer = new StringBuffer();
-         strEmitter = new StringEmitter(buffer,
-                         "('" + qName + "' started in line " + lineNo + ")");
+         errorInfo = "('" + qName + "' started in line " + lineNo + ")";
       }
 
 
@@ -109,13 +101,18 @@ public class CommentFactory extends FactoryBase
             // we have contents to be processed
             super.process(context);
             // check for nesting of this stx:comment instructions
-            if (context.emitter.isEmitterActive(strEmitter)) {
+            Stack localFieldStack = context.getLocalFieldStack(this);
+            if (!localFieldStack.empty() &&
+                context.emitter.isEmitterActive(
+                   (StringEmitter)localFieldStack.peek())) {
                context.errorHandler.error(
       	          "Can't create nested comment here",
                   publicId, systemId, lineNo, colNo);
                return PR_CONTINUE; // if the errorHandler returns
             }
-            buffer.setLength(0);
+            StringEmitter strEmitter =
+               new StringEmitter(new StringBuffer(), errorInfo);
+            localFieldStack.push(strEmitter);
             context.pushEmitter(strEmitter);
          }
          else {
@@ -145,12 +142,9 @@ public class CommentFactory extends FactoryBase
       {
          context.popEmitter();
 
-         emitComment(buffer, context);
-
-         // It would be sensible to clear the buffer here,
-         // but setLength(0) doesn't really free any memory ...
-         // So it's more logical to "clear" the buffer at the beginning
-         // of the processing.
+         emitComment(((StringEmitter)context.getLocalFieldStack(this).pop())
+                                                               .getBuffer(),
+                     context);
 
          return super.processEnd(context);
       }
@@ -194,7 +188,6 @@ public class CommentFactory extends FactoryBase
       {
          super.onDeepCopy(copy, copies);
          Instance theCopy = (Instance) copy;
-         theCopy.init();
          if (select != null)
             theCopy.select = select.deepCopy(copies);
       }
@@ -130,17 +130,17 @@ final public class CopyFactory extends FactoryBase
       public short process(Context context)
          throws SAXException
       {
-         SAXEvent event = (SAXEvent)context.ancestorStack.peek();
+         SAXEvent event = context.ancestorStack.peek();
          switch(event.type) {
          case SAXEvent.ROOT:
             super.process(context);
-            next = contents;
+            context.nextInstruction = contents;
             break;
          case SAXEvent.ELEMENT: {
             super.process(context);
             Attributes attList = attrWildcard ? event.attrs : emptyAttList;
             context.emitter.startElement(event.uri, event.lName, event.qName,
-                                         attList, event.namespaces, this);
+                                         attList, event.getNamespaces(), this);
             if (attPattern != null && !attrWildcard) {
                // attribute pattern present, but no wildcard (@*)
                int attrNum = event.attrs.getLength();
@@ -151,45 +151,44 @@ final public class CopyFactory extends FactoryBase
                   if (attPattern.matches(context,
                                          context.ancestorStack.size(),
                                          false)) {
-                     SAXEvent attrEvent =
-                        (SAXEvent)context.ancestorStack.peek();
+                     SAXEvent attrEvent = context.ancestorStack.peek();
                      context.emitter.addAttribute(
                         attrEvent.uri, attrEvent.qName, attrEvent.lName,
-                        attrEvent.value, this);
+                        attrEvent.getValue(), this);
                   }
                   // remove attribute
                   context.ancestorStack.pop();
                }
             }
-            next = contents;
+            context.nextInstruction = contents;
             break;
          }
          case SAXEvent.TEXT:
-            context.emitter.characters(event.value.toCharArray(),
-                                       0, event.value.length(), this);
-            next = successor;
+            context.emitter.characters(event.getCharArray(),
+                                       0, event.getLength(), this);
+            context.nextInstruction = successor;
             break;
          case SAXEvent.CDATA:
             context.emitter.startCDATA(this);
-            context.emitter.characters(event.value.toCharArray(),
-                                       0, event.value.length(), this);
+            context.emitter.characters(event.getCharArray(),
+                                       0, event.getLength(), this);
             context.emitter.endCDATA();
-            next = successor;
+            context.nextInstruction = successor;
             break;
          case SAXEvent.PI:
-            context.emitter.processingInstruction(event.qName, event.value,
-                                                  this);
-            next = successor;
+            context.emitter.processingInstruction(event.qName,
+                                                  event.getValue(), this);
+            context.nextInstruction = successor;
             break;
          case SAXEvent.COMMENT:
-            context.emitter.comment(event.value.toCharArray(),
-                                    0, event.value.length(), this);
-            next = successor;
+            context.emitter.comment(event.getCharArray(),
+                                    0, event.getLength(), this);
+            context.nextInstruction = successor;
             break;
          case SAXEvent.ATTRIBUTE:
             context.emitter.addAttribute(event.uri, event.qName, event.lName,
-                                         event.value, this);
-            next = successor;
+                                         event.getValue(), this);
+            context.nextInstruction = successor;
             break;
          default:
             if (log != null)
@@ -207,7 +206,7 @@ final public class CopyFactory extends FactoryBase
       public short processEnd(Context context)
          throws SAXException
       {
-         SAXEvent event = (SAXEvent)context.ancestorStack.peek();
+         SAXEvent event = context.ancestorStack.peek();
          if (event.type == SAXEvent.ELEMENT)
             context.emitter.endElement(event.uri, event.lName, event.qName,
                                        this);
@@ -31,6 +31,7 @@ import net.sf.joost.stx.ParseContext;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.Stack;
 
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
@@ -144,6 +145,7 @@ final public class ElementFactory extends FactoryBase
 
          context.emitter.startElement(elUri, elLocal, elName,
                                       new AttributesImpl(), null, this);
+         Stack localFieldStack = context.getLocalFieldStack(this);
          localFieldStack.push(elUri);
          localFieldStack.push(elLocal);
          localFieldStack.push(elName);
@@ -158,6 +160,7 @@ final public class ElementFactory extends FactoryBase
       public short processEnd(Context context)
          throws SAXException
       {
+         Stack localFieldStack = context.getLocalFieldStack(this);
          String elName = (String)localFieldStack.pop();
          String elLocal = (String)localFieldStack.pop();
          String elUri = (String)localFieldStack.pop();
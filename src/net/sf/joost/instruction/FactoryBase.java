@@ -24,11 +24,13 @@
 
 package net.sf.joost.instruction;
 
+import java.io.Serializable;
 import java.io.StringReader;
 import java.util.HashSet;
 
 import net.sf.joost.Constants;
 import net.sf.joost.grammar.ExprParser;
+import net.sf.joost.grammar.ExpressionCompiler;
 import net.sf.joost.grammar.PatternParser;
 import net.sf.joost.grammar.Sym;
 import net.sf.joost.grammar.Tree;
@@ -50,7 +52,7 @@ import org.xml.sax.SAXParseException;
  * @author Oliver Becker
  */
 
-public abstract class FactoryBase implements Constants
+public abstract class FactoryBase implements Constants, Serializable
 {
    /** @return the local name of this STX element */
    public abstract String getName();
@@ -255,6 +257,10 @@ public abstract class FactoryBase implements Constants
                e.getMessage() + "Found '" + lexer.last.value + "'.",
                context.locator);
       }
+      if (context.transformNode != null && pattern.usesPosition())
+         context.transformNode.enablePositionCounting();
+      if (context.compileExpressions)
+         pattern = ExpressionCompiler.compile(pattern);
       return pattern;
    }
 
@@ -324,6 +330,10 @@ public abstract class FactoryBase implements Constants
                e.getMessage() + "Found '" + lexer.last.value + "'.",
                context.locator);
       }
+      if (context.transformNode != null && expr.usesPosition())
+         context.transformNode.enablePositionCounting();
+      if (context.compileExpressions)
+         expr = ExpressionCompiler.compile(expr);
       return expr;
    }
 
@@ -31,8 +31,6 @@ import net.sf.joost.stx.Value;
 
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Stack;
-import java.util.Vector;
 
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
@@ -83,28 +81,15 @@ final public class ForEachFactory extends FactoryBase
    /** Represents an instance of the <code>for-each-item</code> element. */
    final public class Instance extends NodeBase
    {
-      private String varName, expName;
+      private String varName;
       private Tree select;
 
-      /**
-       * Stack that stores the remaining sequence of the select attribute
-       * in case this for-each-item was interrupted via
-       * <code>stx:process-<em>xxx</em></code>
-       */
-      private Stack resultStack = new Stack();
+      /** The slot of the declared variable */
+      private int slot;
 
       private AbstractInstruction contents, successor;
 
 
-      /**
-       * Determines whether this instruction is encountered the first time
-       * (<code>false</code>; i.e. the <code>select</code> attribute needs
-       * to be evaluated) or during the processing (<code>true</code>;
-       * i.e. this is part of the loop)
-       */
-      private boolean continued = false;
-
-
       // Constructor
       protected Instance(final String qName, NodeBase parent,
                          ParseContext context,
@@ -112,16 +97,16 @@ final public class ForEachFactory extends FactoryBase
       {
          super(qName, parent, context, true);
          this.varName = varName;
-         this.expName = expName;
          this.select = select;
 
          // this instruction declares a local variable
-         scopedVariables = new Vector();
+         declareVariable(expName, this);
+         slot = getFrameOwner().getLocalSlot(expName);
       }
 
 
       /**
-       * Create the loop by connecting the end with the start
+       * Store pointers to the contents and the successor
        */
       public boolean compile(int pass, ParseContext context)
       {
@@ -130,66 +115,69 @@ final public class ForEachFactory extends FactoryBase
 
          contents = next;
          successor = nodeEnd.next;
-         nodeEnd.next = this; // loop
          return false;
       }
 
 
       /**
-       * If {@link #continued} is <code>true</code> then take the next
-       * item from a previously computed sequence, otherwise evaluate
-       * the <code>select</code> attribute and take the first item.
+       * Evaluate the <code>select</code> attribute and take the first item.
        */
       public short process(Context context)
          throws SAXException
       {
-         Value selectResult;
-         if (continued) {
-            selectResult = (Value)resultStack.pop();
-            continued = false;
-         }
-         else {
-            // perform this check only once per for-each-item
-            if (context.localVars.get(expName) != null) {
-               context.errorHandler.fatalError(
-                  "Variable '" + varName + "' already declared",
-                  publicId, systemId, lineNo, colNo);
-               return PR_ERROR;// if the errorHandler returns
-            }
-
-            selectResult = select.evaluate(context, this);
+         // perform this check only once per for-each-item
+         if (context.getLocalVar(slot) != null) {
+            context.errorHandler.fatalError(
+               "Variable '" + varName + "' already declared",
+               publicId, systemId, lineNo, colNo);
+            return PR_ERROR;// if the errorHandler returns
          }
 
+         return processItem(select.evaluate(context, this), context);
+      }
+
+
+      /**
+       * Take the next item from the previously computed sequence (loop).
+       */
+      public short processEnd(Context context)
+         throws SAXException
+      {
+         super.processEnd(context);
+         return processItem((Value)context.getLocalFieldStack(this).pop(),
+                            context);
+      }
+
+
+      /**
+       * Assigns the first item of a sequence to the variable and continues
+       * with the contents of this instruction. The remaining sequence
+       * will be stored in the local field stack of this instruction
+       * (the contents may be interrupted via
+       * <code>stx:process-<em>xxx</em></code>).
+       * If the sequence is empty then continue with the successor.
+       */
+      private short processItem(Value selectResult, Context context)
+         throws SAXException
+      {
          if (selectResult == null || selectResult.type == Value.EMPTY) {
             // for-each-item finished (empty sequence left)
-            next = successor;
+            context.nextInstruction = successor;
             return PR_CONTINUE;
          }
          else {
             super.process(context); // enter new scope for local variables
-            resultStack.push(selectResult.next);
+            context.getLocalFieldStack(this).push(selectResult.next);
             selectResult.next = null;
 
-            context.localVars.put(expName, selectResult);
-            declareVariable(expName);
+            context.setLocalVar(slot, selectResult.escape());
 
-            next = contents;
+            context.nextInstruction = contents;
             return PR_CONTINUE;
          }
       }
 
 
-      /**
-       * Sets {@link #continued} to <code>true</code> to signal the loop.
-       */
-      public short processEnd(Context context)
-         throws SAXException
-      {
-         continued = true;
-         return super.processEnd(context);
-      }
-
-
       protected void onDeepCopy(AbstractInstruction copy, HashMap copies)
       {
          super.onDeepCopy(copy, copies);
@@ -200,8 +188,6 @@ final public class ForEachFactory extends FactoryBase
             theCopy.successor = successor.deepCopy(copies);
          if (select != null)
             theCopy.select = select.deepCopy(copies);
-         theCopy.continued = false;
-         theCopy.resultStack = new Stack();
       }
 
    }
@@ -32,7 +32,7 @@ import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Hashtable;
-import java.util.Stack;
+import java.util.Set;
 import java.util.Vector;
 
 import org.xml.sax.SAXException;
@@ -94,6 +94,12 @@ abstract public class GroupBase extends NodeBase
    /** The templates from {@link #containedGroupTemplates} as array */
    public TemplateFactory.Instance[] groupTemplates;
 
+   /** The dispatch index for {@link #visibleTemplates} */
+   public TemplateIndex visibleIndex;
+
+   /** The dispatch index for {@link #groupTemplates} */
+   public TemplateIndex groupIndex;
+
    /**
     * Table of all contained public and global procedures in this group
     * Used only temporarily during compiling the transformation sheet.
@@ -128,6 +134,21 @@ abstract public class GroupBase extends NodeBase
    /** Group variables  */
    private VariableBase[] groupVariables;
 
+   /**
+    * The slots of the group variables in a frame of this group
+    * (key=expanded name, value=Integer)
+    */
+   private HashMap groupSlots = new HashMap();
+
+   /**
+    * The number of this group in the transformation sheet, used as index
+    * for {@link Context#groupVars}
+    */
+   public final int groupNumber;
+
+   /** The number of groups, maintained in the root group */
+   private int groupCount;
+
    /** Expanded name of this group */
    public String groupName;
 
@@ -156,6 +177,10 @@ abstract public class GroupBase extends NodeBase
          namedGroups = parentGroup.namedGroups;
          globalProcedures = parentGroup.globalProcedures;
       }
+      GroupBase root = this;
+      while (root.parentGroup != null)
+         root = root.parentGroup;
+      groupNumber = root.groupCount++;
    }
 
 
@@ -169,7 +194,7 @@ abstract public class GroupBase extends NodeBase
 
    /**
     * Determines the visible templates for this group in pass 0 and the
-    * array of group templates in pass 1.
+    * array of group templates as well as the dispatch indexes in pass 1.
     * @exception SAXException if conflicts were encountered
     */
    public boolean compile(int pass, ParseContext context)
@@ -182,6 +207,8 @@ abstract public class GroupBase extends NodeBase
          containedGroupTemplates.toArray(groupTemplates);
          Arrays.sort(groupTemplates);
          containedGroupTemplates = null; // for garbage collection
+         visibleIndex = new TemplateIndex(visibleTemplates);
+         groupIndex = new TemplateIndex(groupTemplates);
          return false; // done
       }
 
@@ -337,6 +364,35 @@ abstract public class GroupBase extends NodeBase
    }
 
 
+   /**
+    * Returns the slot of a group variable in a frame of this group. All
+    * variables with the same name share one slot.
+    * @param expName the expanded name of the variable
+    * @return the slot, allocated if necessary
+    */
+   int getGroupSlot(String expName)
+   {
+      Integer slot = (Integer)groupSlots.get(expName);
+      if (slot == null) {
+         slot = new Integer(groupSlots.size());
+         groupSlots.put(expName, slot);
+      }
+      return slot.intValue();
+   }
+
+
+   /**
+    * @param expName the expanded name of a variable
+    * @return the slot of the group variable in a frame of this group, or
+    *         -1 if there is no such variable
+    */
+   int findGroupSlot(String expName)
+   {
+      Integer slot = (Integer)groupSlots.get(expName);
+      return slot == null ? -1 : slot.intValue();
+   }
+
+
    /**
     * Enters a recursion level by creating a new set of group variable
     * instances.
@@ -345,26 +401,36 @@ abstract public class GroupBase extends NodeBase
       throws SAXException
    {
       // shadowed variables, needed if keep-value="yes"
-      Hashtable shadowed = null;
-      if (context.ancestorStack.isEmpty())
-         context.groupVars.put(this, new Stack());
-      else
-         shadowed = (Hashtable)((Stack)context.groupVars.get(this)).peek();
+      Object[] shadowed = null;
+      if (!context.ancestorStack.isEmpty())
+         shadowed = context.getGroupVars(this);
+      context.getLocalFieldStack(this).push(shadowed);
 
       // new variable instances
-      Hashtable varTable = new Hashtable();
-      ((Stack)context.groupVars.get(this)).push(varTable);
+      Object[] frame = new Object[groupSlots.size()];
+      context.setGroupVars(this, frame);
+
+      // the contents of group variables use their own local variables
+      Object[] localVars = context.getLocalVars();
+      context.newLocalVars(getFrameSize());
 
       context.currentGroup = this;
       for (int i=0; i<groupVariables.length; i++)
          if (groupVariables[i].keepValue && shadowed !=null)
-            varTable.put(groupVariables[i].expName,
-                         shadowed.get(groupVariables[i].expName));
+            frame[groupVariables[i].slot] = shadowed[groupVariables[i].slot];
          else {
-            for (AbstractInstruction inst = groupVariables[i];
-                 inst != null; inst = inst.next)
+            AbstractInstruction inst = groupVariables[i];
+            while (inst != null) {
                inst.process(context);
+               if (context.nextInstruction == null)
+                  inst = inst.next;
+               else {
+                  inst = context.nextInstruction;
+                  context.nextInstruction = null;
+               }
+            }
          }
+      context.setLocalVars(localVars);
    }
 
 
@@ -374,7 +440,28 @@ abstract public class GroupBase extends NodeBase
     */
    public void exitRecursionLevel(Context context)
    {
-      ((Stack)context.groupVars.get(this)).pop();
+      context.setGroupVars(this,
+         (Object[])context.getLocalFieldStack(this).pop());
+   }
+
+
+   /**
+    * Determines whether the group variables of this group or of one of
+    * its sub-groups may change while processing, i.e. whether there are
+    * group buffers or group variables that are the target of an
+    * <code>stx:assign</code> instruction.
+    * @param assignedNames the expanded names of all assigned variables
+    */
+   protected boolean hasMutableVariables(Set assignedNames)
+   {
+      for (int i=0; i<groupVariables.length; i++)
+         if (groupVariables[i] instanceof BufferFactory.Instance ||
+             assignedNames.contains(groupVariables[i].expName))
+            return true;
+      for (int i=0; i<containedGroups.length; i++)
+         if (containedGroups[i].hasMutableVariables(assignedNames))
+            return true;
+      return false;
    }
 
 
@@ -440,6 +527,19 @@ abstract public class GroupBase extends NodeBase
    }
 
 
+   /**
+    * Adds all templates that are visible in this group or in one of its
+    * sub-groups to a set.
+    */
+   public void collectTemplates(Set templates)
+   {
+      templates.addAll(Arrays.asList(visibleTemplates));
+      templates.addAll(Arrays.asList(groupTemplates));
+      for (int i=0; i<containedGroups.length; i++)
+         containedGroups[i].collectTemplates(templates);
+   }
+
+
    public boolean processable()
    {
       return false;
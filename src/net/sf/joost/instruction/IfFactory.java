@@ -114,18 +114,18 @@ final public class IfFactory extends FactoryBase
 
       /**
        * Evaluates the expression given in the test attribute and
-       * change the value of the <code>next</code> instruction.
+       * chooses the next instruction to be executed.
        */
       public short process(Context context)
          throws SAXException
       {
-         if (test.evaluate(context, this).getBooleanValue()) {
+         if (test.evaluateBoolean(context, this)) {
             super.process(context);
-            next = trueNext;
+            context.nextInstruction = trueNext;
          }
          else {
             // skip if instruction
-            next = falseNext;
+            context.nextInstruction = falseNext;
          }
          return PR_CONTINUE;
       }
@@ -107,6 +107,9 @@ final public class IncludeFactory extends FactoryBase
                new URL(new URL(pContext.locator.getSystemId()), hrefAtt)
                   .toExternalForm());
          }
+         if (pContext.includedSheets != null)
+            pContext.includedSheets.addElement(
+               new String[] { hrefAtt, pContext.locator.getSystemId() });
          if (reader == null)
             reader = Processor.createXMLReader();
          reader.setContentHandler(stxParser);
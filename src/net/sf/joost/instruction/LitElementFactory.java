@@ -29,6 +29,10 @@ import net.sf.joost.grammar.Tree;
 import net.sf.joost.stx.Context;
 import net.sf.joost.stx.ParseContext;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Hashtable;
@@ -47,7 +51,7 @@ import org.xml.sax.helpers.NamespaceSupport;
  * @author Oliver Becker
 */
 
-final public class LitElementFactory
+final public class LitElementFactory implements Serializable
 {
    public NodeBase createNode(NodeBase parent, String uri, String lName,
                               String qName, Attributes attrs,
@@ -86,10 +90,12 @@ final public class LitElementFactory
    {
       private String uri;
       private String lName;
-      private AttributesImpl attrs;
+      // AttributesImpl is not serializable, see writeObject
+      private transient AttributesImpl attrs;
       private Tree[] avtList;
       // the namespaces that possibly need a declaration in the output
-      private Hashtable namespaces;
+      // (serialized in the order of their declaration, see writeObject)
+      private transient Hashtable namespaces;
       private Hashtable namespaceAliases;
 
       protected Instance(String uri, String lName, String qName,
@@ -226,16 +232,19 @@ final public class LitElementFactory
          throws SAXException
       {
          super.process(context);
-         // attrs is not cloned at the moment (see onDeepCopy(..)), so a
-         // synchronization is necessary
-         synchronized (attrs) {
+         Attributes attList = attrs;
+         if (avtList.length != 0) {
+            // attrs is shared by all transformers, so the computed
+            // attribute values must be stored in a copy
+            AttributesImpl attCopy = new AttributesImpl(attrs);
             for (int i=0; i<avtList.length; i++)
                if (avtList[i] != null)
-                  attrs.setValue(i, avtList[i].evaluate(context, this)
-                                              .getString());
-            context.emitter.startElement(uri, lName, qName, attrs, namespaces,
-                                         this);
+                  attCopy.setValue(i, avtList[i].evaluate(context, this)
+                                                .getString());
+            attList = attCopy;
          }
+         context.emitter.startElement(uri, lName, qName, attList, namespaces,
+                                      this);
          return PR_CONTINUE;
       }
 
@@ -271,6 +280,87 @@ final public class LitElementFactory
       }
 
 
+      /** Serializes the attributes and the namespaces */
+      private void writeObject(ObjectOutputStream out)
+         throws IOException
+      {
+         out.defaultWriteObject();
+         if (namespaces != null) {
+            out.writeInt(namespaces.size());
+            for (Enumeration e = namespaces.keys(); e.hasMoreElements(); ) {
+               Object prefix = e.nextElement();
+               out.writeObject(prefix);
+               out.writeObject(namespaces.get(prefix));
+            }
+         }
+         else
+            out.writeInt(-1);
+         int length = attrs.getLength();
+         out.writeInt(length);
+         for (int i=0; i<length; i++) {
+            out.writeObject(attrs.getURI(i));
+            out.writeObject(attrs.getLocalName(i));
+            out.writeObject(attrs.getQName(i));
+            out.writeObject(attrs.getType(i));
+            out.writeObject(attrs.getValue(i));
+         }
+      }
+
+
+      /** Deserializes the attributes and the namespaces */
+      private void readObject(ObjectInputStream in)
+         throws IOException, ClassNotFoundException
+      {
+         in.defaultReadObject();
+         int count = in.readInt();
+         if (count != -1) {
+            Object[] prefixes = new Object[count];
+            Object[] uris = new Object[count];
+            for (int i=0; i<count; i++) {
+               prefixes[i] = in.readObject();
+               uris[i] = in.readObject();
+            }
+            namespaces = createTable(prefixes, uris);
+         }
+         attrs = new AttributesImpl();
+         for (int i=in.readInt(); i>0; i--)
+            attrs.addAttribute((String)in.readObject(),
+                               (String)in.readObject(),
+                               (String)in.readObject(),
+                               (String)in.readObject(),
+                               (String)in.readObject());
+      }
+
+
+      /**
+       * Creates a table that enumerates its keys in a given order. The
+       * capacity of a Hashtable won't be serialized, but it determines
+       * the order of the keys, and thereby the order of the namespace
+       * declarations in the result. So we try the capacities of a growing
+       * Hashtable until the order matches.
+       */
+      private Hashtable createTable(Object[] keys, Object[] values)
+      {
+         Hashtable table = null;
+         for (int capacity = 11; capacity < 100000;
+              capacity = capacity * 2 + 1) {
+            if (keys.length > capacity * 3 / 4)
+               continue; // the table would be rehashed
+            // a new key will be enumerated before the keys of its bucket
+            table = new Hashtable(capacity);
+            for (int i=keys.length-1; i>=0; i--)
+               table.put(keys[i], values[i]);
+            Enumeration e = table.keys();
+            int i = 0;
+            while (i < keys.length && keys[i].equals(e.nextElement()))
+               i++;
+            if (i == keys.length)
+               break;
+         }
+         return table;
+      }
+
+
       //
       // for debugging
       //
@@ -27,6 +27,8 @@ package net.sf.joost.instruction;
 import net.sf.joost.grammar.Tree;
 import net.sf.joost.stx.Context;
 import net.sf.joost.stx.ParseContext;
+import net.sf.joost.util.regex.JRegularExpression;
+import net.sf.joost.util.regex.RegularExpression;
 
 import java.util.HashMap;
 import java.util.HashSet;
@@ -100,6 +102,12 @@ final public class MatchFactory extends FactoryBase
        */
       protected Tree flags;
 
+      /**
+       * The compiled regular expression if <code>regex</code> and
+       * <code>flags</code> are constant, otherwise <code>null</code>
+       */
+      protected RegularExpression precompiledRegex;
+
       /** The parent */
       private AnalyzeTextFactory.Instance analyzeText;
 
@@ -118,6 +126,17 @@ final public class MatchFactory extends FactoryBase
          throws SAXException
       {
          nodeEnd.next = analyzeText.nodeEnd; // back to stx:analyze-text
+
+         if (regex.isConstant() && (flags == null || flags.isConstant())) {
+            try {
+               precompiledRegex = new JRegularExpression(
+                  regex.evaluate(null, -1).getString(), true,
+                  flags != null ? flags.evaluate(null, -1).getString() : "");
+            }
+            catch (Exception e) {
+               // will be reported when stx:analyze-text gets processed
+            }
+         }
          return false;
       }
 
@@ -127,8 +146,10 @@ final public class MatchFactory extends FactoryBase
       {
          super.process(context);
          // store value for the regex-group function
-         ((Stack)context.localVars.get(AnalyzeTextFactory.REGEX_GROUP))
-                                  .push(analyzeText.capSubstr);
+         AnalyzeTextFactory.State state = (AnalyzeTextFactory.State)
+            context.getLocalFieldStack(analyzeText).peek();
+         ((Stack)context.getLocalVar(REGEX_GROUP_SLOT))
+                                  .push(state.capSubstr);
          return PR_CONTINUE;
       }
 
@@ -136,7 +157,7 @@ final public class MatchFactory extends FactoryBase
       public short processEnd(Context context)
          throws SAXException
       {
-         ((Stack)context.localVars.get(AnalyzeTextFactory.REGEX_GROUP)).pop();
+         ((Stack)context.getLocalVar(REGEX_GROUP_SLOT)).pop();
          return super.processEnd(context);
       }
 
@@ -25,6 +25,8 @@
 package net.sf.joost.instruction;
 
 import net.sf.joost.OptionalLog;
+import net.sf.joost.emitter.BufferEmitter;
+import net.sf.joost.emitter.MessageWriter;
 import net.sf.joost.emitter.StreamEmitter;
 import net.sf.joost.emitter.StxEmitter;
 import net.sf.joost.grammar.Tree;
@@ -32,6 +34,8 @@ import net.sf.joost.stx.Context;
 import net.sf.joost.stx.ParseContext;
 import net.sf.joost.trax.SourceLocatorImpl;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.StringWriter;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -113,10 +117,6 @@ final public class MessageFactory extends FactoryBase
       private Log log;
       private int level;
 
-      private StringBuffer buffer; // used only when log != null
-
-      private StxEmitter emitter; // initialized on first processing
-
 
       protected Instance(String qName, NodeBase parent, ParseContext context,
                          Tree select, Tree terminate, int level, String logger)
@@ -134,53 +134,78 @@ final public class MessageFactory extends FactoryBase
 
 
       /**
-       * Activate the object {@link Context#messageEmitter} for the contents
-       * of this element. If this object is <code>null</code> this method
-       * first creates a {@link StreamEmitter} object that writes to stderr
-       * and saves it in {@link Context#messageEmitter} for other
-       * <code>stx:message</code> instructions.
+       * Activate an emitter for the contents of this element, which
+       * collects the message of the current transformation.
+       * If there is a logger or if {@link Context#messageEmitter} is
+       * <code>null</code> then this is a {@link StreamEmitter} that writes
+       * into a buffer (see {@link Context#messageTextEmitter}). For stderr
+       * this emitter encodes the message using the output properties of
+       * the transformation sheet. Otherwise the message will be recorded
+       * in a {@link BufferEmitter}, see {@link #processMessage}.
        */
       public short process(Context context)
          throws SAXException
       {
-         if (emitter == null) {
-            // create proper StreamEmitter only once
-            try {
+         StxEmitter emitter;
+         // the buffer for the message: StringBuffer for the logger,
+         // ByteArrayOutputStream for stderr, null for a BufferEmitter
+         Object buffer = null;
+         if (log != null || context.messageEmitter == null) {
+            if (context.messageTextEmitter != null &&
+                (log != null ? context.messageText
+                             : (Object)context.messageBytes) != null) {
+               // reuse the emitter of the previous message
+               emitter = context.messageTextEmitter;
                if (log != null) {
-                  // Create emitter with a StringWriter
-                  StringWriter writer = new StringWriter();
-                  buffer = writer.getBuffer();
-                  StreamEmitter se = StreamEmitter.newEmitter(
-                     writer,
-                     // Note: encoding parameter is irrelevant here
-                     DEFAULT_ENCODING,
-                     context.currentProcessor.outputProperties);
-                  se.setOmitXmlDeclaration(true);
-                  emitter = se;
+                  context.messageText.setLength(0);
+                  buffer = context.messageText;
                }
-               else if (context.messageEmitter == null) {
-                  // create global message emitter using stderr
-                  StreamEmitter se = StreamEmitter.newEmitter(
-                     System.err, context.currentProcessor.outputProperties);
-                  se.setOmitXmlDeclaration(true);
-                  context.messageEmitter = emitter = se;
+               else {
+                  context.messageBytes.reset();
+                  buffer = context.messageBytes;
                }
-               else
-                  // use global message emitter
-                  emitter = context.messageEmitter;
+               context.messageTextEmitter = null; // in use
+            }
+            else if (log != null) {
+               // Create emitter with a StringWriter
+               StringWriter writer = new StringWriter();
+               buffer = writer.getBuffer();
+               StreamEmitter se = StreamEmitter.newEmitter(
+                  writer,
+                  // Note: encoding parameter is irrelevant here
+                  DEFAULT_ENCODING,
+                  context.currentProcessor.outputProperties);
+               se.setOmitXmlDeclaration(true);
+               emitter = se;
             }
-            catch (java.io.IOException ex) {
-               context.errorHandler.fatalError(ex.toString(),
-                                               publicId, systemId,
-                                               lineNo, colNo,
-                                               ex);
-               return PR_CONTINUE; // if the errorHandler returns
+            else {
+               // Create emitter for stderr
+               ByteArrayOutputStream out = new ByteArrayOutputStream();
+               buffer = out;
+               StreamEmitter se;
+               try {
+                  se = StreamEmitter.newEmitter(
+                     out, context.currentProcessor.outputProperties);
+               }
+               catch (IOException ex) {
+                  context.errorHandler.fatalError(ex.toString(),
+                                                  publicId, systemId,
+                                                  lineNo, colNo,
+                                                  ex);
+                  return PR_CONTINUE; // if the errorHandler returns
+               }
+               se.setOmitXmlDeclaration(true);
+               emitter = se;
             }
          }
+         else
+            // record the message for the global message emitter
+            emitter = new BufferEmitter(-1);
 
          if (select == null) {
             super.process(context);
             emitter.startDocument();
+            context.getLocalFieldStack(this).push(buffer);
             context.pushEmitter(emitter);
          }
          else {
@@ -189,7 +214,7 @@ final public class MessageFactory extends FactoryBase
             emitter.characters(msg.toCharArray(),
                                               0, msg.length());
             emitter.endDocument();
-            processMessage(context);
+            processMessage(context, emitter, buffer);
          }
 
 
@@ -204,46 +229,91 @@ final public class MessageFactory extends FactoryBase
       public short processEnd(Context context)
          throws SAXException
       {
-         context.popEmitter().endDocument(); // flushes stderr
-         processMessage(context);
+         StxEmitter emitter = context.popEmitter();
+         emitter.endDocument(); // flushes the buffer
+         processMessage(context, emitter,
+                        context.getLocalFieldStack(this).pop());
          return super.processEnd(context);
       }
 
 
       /**
-       * Process the message: use the logger if it is available and
-       * evaluate the optional 'terminate' attribute
+       * Process the message: use the logger if it is available, otherwise
+       * pass the message to the shared {@link MessageWriter} for stderr
+       * or replay it to the global message emitter (locked, because
+       * this emitter may be shared by concurrent transformations).
+       * Finally evaluate the optional 'terminate' attribute
+       * @param emitter the emitter that received the message
+       * @param buffer the buffer that contains the message (see
+       *        {@link #process}), or <code>null</code> if the message has
+       *        been recorded in a {@link BufferEmitter}
        * @throws SAXException when the transformation shall terminate
        */
-      private void processMessage(Context context)
+      private void processMessage(Context context, StxEmitter emitter,
+                                  Object buffer)
          throws SAXException
       {
-         if (log != null) {
-            // include locator info for logging
-            StringBuffer sb =
-               new StringBuffer(systemId).append(':').append(lineNo)
-                                         .append(':').append(colNo)
-                                         .append(": ").append(buffer);
-            switch (level) {
-            case TRACE_LEVEL: log.trace(sb.toString()); break;
-            case DEBUG_LEVEL: log.debug(sb.toString()); break;
-            case INFO_LEVEL:  log.info(sb.toString());  break;
-            case WARN_LEVEL:  log.warn(sb.toString());  break;
-            case ERROR_LEVEL: log.error(sb.toString()); break;
-            case FATAL_LEVEL: log.fatal(sb.toString()); break;
+         if (buffer == null) {
+            BufferEmitter be = (BufferEmitter)emitter;
+            be.filled();
+            StxEmitter target = context.messageEmitter;
+            synchronized (target) {
+               target.startDocument();
+               be.getEvents().replay(target, target);
+               target.endDocument();
+            }
+         }
+         else {
+            // the emitter may be used for the next message
+            context.messageTextEmitter = (StreamEmitter)emitter;
+
+            if (log == null) {
+               context.messageBytes = (ByteArrayOutputStream)buffer;
+               context.messageText = null;
+               try {
+                  MessageWriter.getInstance().write(
+                     System.err, context.messageBytes.toByteArray(),
+                     context.messageOwner);
+               }
+               catch (IOException ex) {
+                  throw new SAXException(ex);
+               }
+            }
+            else {
+               context.messageText = (StringBuffer)buffer;
+               context.messageBytes = null;
+               String text = buffer.toString();
+               // include locator info for logging
+               StringBuffer sb =
+                  new StringBuffer(systemId).append(':').append(lineNo)
+                                            .append(':').append(colNo)
+                                            .append(": ").append(text);
+               switch (level) {
+               case TRACE_LEVEL: log.trace(sb.toString()); break;
+               case DEBUG_LEVEL: log.debug(sb.toString()); break;
+               case INFO_LEVEL:  log.info(sb.toString());  break;
+               case WARN_LEVEL:  log.warn(sb.toString());  break;
+               case ERROR_LEVEL: log.error(sb.toString()); break;
+               case FATAL_LEVEL: log.fatal(sb.toString()); break;
+               }
             }
-            buffer.setLength(0);
          }
 
          if (terminate == null)
             return;
 
          String terminateValue = terminate.evaluate(context, this).getString();
-         if (terminateValue.equals("yes"))
+         if (terminateValue.equals("yes")) {
+            try {
+               // emit all messages before the error
+               MessageWriter.getInstance().flush(context.messageOwner);
+            }
+            catch (IOException ex) { }
             throw new SAXException(
                new TransformerException("Transformation terminated",
                   new SourceLocatorImpl(publicId, systemId,
                                         lineNo, colNo)));
+         }
 
          if (!terminateValue.equals("no"))
             context.errorHandler.fatalError(
@@ -257,8 +327,6 @@ final public class MessageFactory extends FactoryBase
       {
          super.onDeepCopy(copy, copies);
          Instance theCopy = (Instance) copy;
-         theCopy.buffer = null;
-         theCopy.emitter = null;
          if (select != null)
             theCopy.select = select.deepCopy(copies);
          if (terminate != null)
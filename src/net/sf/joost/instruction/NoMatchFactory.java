@@ -77,18 +77,23 @@ public class NoMatchFactory extends FactoryBase
       }
 
 
+      public boolean compile(int pass, ParseContext context)
+         throws SAXException
+      {
+         nodeEnd.next = analyzeText.nodeEnd; // back to stx:analyze-text
+         return false;
+      }
+
+
       public short process(Context context)
          throws SAXException
       {
          super.process(context);
+         AnalyzeTextFactory.State state = (AnalyzeTextFactory.State)
+            context.getLocalFieldStack(analyzeText).peek();
          // store value for the regex-group function
-         ((Stack)context.localVars.get(AnalyzeTextFactory.REGEX_GROUP))
-                                  .push(analyzeText.noMatchStr);
-         // The next instruction has been set in stx:analyze-text, but
-         // this stx:no-match may be interrupted by stx:process-xxx,
-         // i.e. we need to store the info of a following stx:match here:
-         localFieldStack.push(nodeEnd.next);
-         localFieldStack.push(analyzeText.capSubstr);
+         ((Stack)context.getLocalVar(REGEX_GROUP_SLOT))
+                                  .push(state.noMatchStr);
          return PR_CONTINUE;
       }
 
@@ -96,10 +101,13 @@ public class NoMatchFactory extends FactoryBase
       public short processEnd(Context context)
          throws SAXException
       {
-         ((Stack)context.localVars.get(AnalyzeTextFactory.REGEX_GROUP)).pop();
-         // restore the values for the following stx:match
-         analyzeText.capSubstr = (String[])localFieldStack.pop();
-         nodeEnd.next = (AbstractInstruction)localFieldStack.pop();
+         ((Stack)context.getLocalVar(REGEX_GROUP_SLOT)).pop();
+         // continue with a following stx:match (determined in
+         // stx:analyze-text), otherwise return to stx:analyze-text
+         AnalyzeTextFactory.State state = (AnalyzeTextFactory.State)
+            context.getLocalFieldStack(analyzeText).peek();
+         if (state.pendingMatch != null)
+            context.nextInstruction = state.pendingMatch;
          return super.processEnd(context);
       }
 
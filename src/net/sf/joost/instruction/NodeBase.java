@@ -25,11 +25,12 @@
 package net.sf.joost.instruction;
 
 import net.sf.joost.Constants;
+import net.sf.joost.emitter.BufferEmitter;
 import net.sf.joost.stx.Context;
+import net.sf.joost.stx.Emitter;
 import net.sf.joost.stx.ParseContext;
 
 import java.util.HashMap;
-import java.util.Stack;
 import java.util.Vector;
 
 import org.xml.sax.SAXException;
@@ -145,8 +146,23 @@ public abstract class NodeBase
        available only if this node has stx:variable children */
    protected Vector scopedVariables;
 
-   /** Stack for storing local fields from this or derived classes */
-   protected Stack localFieldStack = new Stack();
+   /** The nodes that declare the variables in {@link #scopedVariables} */
+   private Vector scopedDeclarations;
+
+   /** The slots of the variables in {@link #scopedVariables} */
+   private int[] scopedSlots;
+
+   /**
+    * The slots of the local variables (key=expanded name, value=Integer),
+    * present only if this node owns a frame (see {@link #getFrameOwner})
+    */
+   private HashMap localSlots;
+
+   /**
+    * The first slot of a frame is reserved for the captured substrings
+    * of <code>stx:analyze-text</code> (see {@link AnalyzeTextFactory})
+    */
+   public static final int REGEX_GROUP_SLOT = 0;
 
 
 
@@ -222,9 +238,10 @@ public abstract class NodeBase
       // adjust lastChild
       lastChild = newLast;
 
-      // create vector for variable names if necessary
-      if (node instanceof VariableBase && scopedVariables == null)
-         scopedVariables = new Vector();
+      // store the names of local variables that must be removed
+      // at the end of this node
+      if (node instanceof VariableBase)
+         declareVariable(((VariableBase)node).expName, node);
    }
 
 
@@ -281,12 +298,97 @@ public abstract class NodeBase
 
 
    /**
-    * Store the name of a variable as local for this node.
+    * Store the name of a variable as local for this node. This happens
+    * while parsing the transformation sheet, the variable will be removed
+    * in {@link #processEnd(Context)}.
     * @param name the variable name
+    * @param declaration the node that declares the variable
     */
-   protected final void declareVariable(String name)
+   protected final void declareVariable(String name, NodeBase declaration)
    {
+      int slot = getFrameOwner().getLocalSlot(name);
+      if (scopedVariables == null) {
+         scopedVariables = new Vector();
+         scopedDeclarations = new Vector();
+         scopedSlots = new int[1];
+      }
+      else if (scopedSlots.length == scopedVariables.size()) {
+         int[] tmp = new int[scopedSlots.length * 2];
+         System.arraycopy(scopedSlots, 0, tmp, 0, scopedSlots.length);
+         scopedSlots = tmp;
+      }
+      scopedSlots[scopedVariables.size()] = slot;
       scopedVariables.addElement(name);
+      scopedDeclarations.addElement(declaration);
+   }
+
+
+   /**
+    * Returns the node that owns the frame for the local variables of this
+    * node, i.e. the enclosing template or procedure, or the group for
+    * the contents of group variables.
+    */
+   protected final NodeBase getFrameOwner()
+   {
+      NodeBase node = this;
+      while (!(node instanceof TemplateBase || node instanceof GroupBase))
+         node = node.parent;
+      return node;
+   }
+
+
+   /**
+    * Returns the slot of a local variable in the frame owned by this
+    * node. All variables with the same name share one slot (a local
+    * variable can't shadow another local variable).
+    * @param expName the expanded name of the variable
+    * @return the slot, allocated if necessary
+    */
+   final int getLocalSlot(String expName)
+   {
+      if (localSlots == null)
+         localSlots = new HashMap();
+      Integer slot = (Integer)localSlots.get(expName);
+      if (slot == null) {
+         // slot 0 is reserved, see REGEX_GROUP_SLOT
+         slot = new Integer(localSlots.size() + 1);
+         localSlots.put(expName, slot);
+      }
+      return slot.intValue();
+   }
+
+
+   /**
+    * @return the size of the frame for the local variables, if this node
+    *         is a frame owner (see {@link #getFrameOwner})
+    */
+   public final int getFrameSize()
+   {
+      return localSlots == null ? 1 : localSlots.size() + 1;
+   }
+
+
+   /**
+    * Determines the slot of a local variable that is visible for the
+    * children of this node.
+    * @param expName the expanded name of the variable
+    * @return the slot, or -1 if there is no such local variable
+    */
+   final int findLocalSlot(String expName)
+   {
+      NodeBase child = null;
+      for (NodeBase node = this; node != null;
+           child = node, node = node.parent) {
+         if (node.scopedVariables != null)
+            for (int i=node.scopedVariables.size()-1; i>=0; i--)
+               // a variable isn't visible in its own declaration
+               if (node.scopedDeclarations.elementAt(i) != child &&
+                   expName.equals(node.scopedVariables.elementAt(i)))
+                  return node.scopedSlots[i];
+         if (node instanceof TemplateBase || node instanceof GroupBase)
+            break;
+      }
+      return -1;
    }
 
 
@@ -301,18 +403,14 @@ public abstract class NodeBase
 
 
    /**
-    * Save local variables if needed.
+    * Called when the start tag will be processed. This instance does
+    * nothing.
     * @return {@link Constants#PR_CONTINUE}
     * @exception SAXException if an error occurs (in a derived class)
     */
    public short process(Context context)
       throws SAXException
    {
-      if (scopedVariables != null) {
-         // store list of local variables (from another instantiation)
-         localFieldStack.push(scopedVariables.clone());
-         scopedVariables.clear();
-      }
       return PR_CONTINUE;
    }
 
@@ -328,10 +426,15 @@ public abstract class NodeBase
    {
       if (scopedVariables != null) {
          // remove all local variables
-         Object[] objs = scopedVariables.toArray();
-         for (int i=0; i<objs.length; i++)
-            context.localVars.remove(objs[i]);
-         scopedVariables = (Vector)localFieldStack.pop();
+         for (int i=scopedVariables.size()-1; i>=0; i--) {
+            if (((String)scopedVariables.elementAt(i)).charAt(0) == '@') {
+               // a buffer (see BufferFactory), release its temporary file
+               Emitter buffer = (Emitter)context.getLocalVar(scopedSlots[i]);
+               if (buffer != null)
+                  ((BufferEmitter)buffer.contH).close();
+            }
+            context.setLocalVar(scopedSlots[i], null);
+         }
       }
       return PR_CONTINUE;
    }
@@ -349,19 +452,12 @@ public abstract class NodeBase
    {
       super.onDeepCopy(copy, copies);
       NodeBase theCopy = (NodeBase) copy;
-      theCopy.localFieldStack = (Stack) copies.get(localFieldStack);
-      if (theCopy.localFieldStack == null) {
-         theCopy.localFieldStack = new Stack();
-         copies.put(localFieldStack, theCopy.localFieldStack);
-      }
       if (lastChild != null)
          theCopy.lastChild = lastChild.deepCopy(copies);
       if (nodeEnd != null)
          theCopy.nodeEnd = nodeEnd.deepCopy(copies);
       if (parent != null)
          theCopy.parent = (NodeBase) parent.deepCopy(copies);
-      if (scopedVariables != null)
-         theCopy.scopedVariables = new Vector();
    }
 
 
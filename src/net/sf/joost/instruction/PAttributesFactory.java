@@ -99,7 +99,7 @@ public class PAttributesFactory extends FactoryBase
          // no need to call super.processEnd(), there are no local
          // variable declarations
 
-         SAXEvent event = (SAXEvent)context.ancestorStack.peek();
+         SAXEvent event = context.ancestorStack.peek();
 
          if (event.type != SAXEvent.ELEMENT || event.attrs.getLength() == 0)
             return PR_CONTINUE;
@@ -26,11 +26,9 @@ package net.sf.joost.instruction;
 
 import net.sf.joost.stx.BufferReader;
 import net.sf.joost.stx.Context;
+import net.sf.joost.stx.Emitter;
 import net.sf.joost.stx.ParseContext;
 import net.sf.joost.stx.Processor;
-import net.sf.joost.stx.SAXEvent;
-import net.sf.joost.util.VariableNotFoundException;
-import net.sf.joost.util.VariableUtils;
 
 import java.util.HashMap;
 import java.util.HashSet;
@@ -108,9 +106,10 @@ public class PBufferFactory extends FactoryBase
    /** The inner Instance class */
    public class Instance extends ProcessBase
    {
-      private String bufName, expName;
-      private boolean scopeDetermined = false;
-      private GroupBase groupScope = null;
+      private String bufName;
+
+      /** The referenced buffer */
+      private VariableReference bufVar;
 
       // Constructor
       public Instance(String qName, NodeBase parent, ParseContext context,
@@ -120,13 +119,13 @@ public class PBufferFactory extends FactoryBase
       {
          super(qName, parent, context, groupQName, method, src);
          this.bufName = bufName;
-         this.expName = expName;
+         bufVar = new VariableReference(expName, parent);
       }
 
 
       public short process(Context context) throws SAXException
       {
-         this.localFieldStack.push(context.targetGroup);
+         context.getLocalFieldStack(this).push(context.targetGroup);
          return super.process(context);
       }
 
@@ -139,21 +138,16 @@ public class PBufferFactory extends FactoryBase
       {
          context.currentInstruction = this;
 
-         if (!scopeDetermined) {
-            try {
-               groupScope = VariableUtils.findVariableScope(context, expName);
-            }
-            catch (VariableNotFoundException e) {
-               context.errorHandler.error(
-                  "Can't process an undeclared buffer '" + bufName + "'",
-                  publicId, systemId, lineNo, colNo);
-               // if the error handler returns
-               return PR_ERROR;
-            }
-            scopeDetermined = true;
+         Emitter buffer = (Emitter)bufVar.getValue(context);
+         if (buffer == null) {
+            context.errorHandler.error(
+               "Can't process an undeclared buffer '" + bufName + "'",
+               publicId, systemId, lineNo, colNo);
+            // if the error handler returns
+            return PR_ERROR;
          }
 
-         BufferReader br = new BufferReader(context, expName, groupScope,
+         BufferReader br = new BufferReader(context, buffer,
                                             publicId, systemId);
 
          if (filter != null) {
@@ -195,7 +189,7 @@ public class PBufferFactory extends FactoryBase
 
             // ensure, that position counters on the top most event are
             // available
-            ((SAXEvent)context.ancestorStack.peek()).enableChildNodes(false);
+            context.ancestorStack.peek().enableChildNodes(false);
 
             Processor proc = context.currentProcessor;
             proc.startInnerProcessing();
@@ -208,7 +202,8 @@ public class PBufferFactory extends FactoryBase
             // restore current group
             context.currentGroup = prevGroup;
          }
-         context.targetGroup = (GroupBase) localFieldStack.pop();
+         context.targetGroup =
+            (GroupBase) context.getLocalFieldStack(this).pop();
 
          return super.processEnd(context);
       }
@@ -218,8 +213,7 @@ public class PBufferFactory extends FactoryBase
       {
          super.onDeepCopy(copy, copies);
          Instance theCopy = (Instance) copy;
-         if (groupScope != null)
-            theCopy.groupScope = (GroupBase) groupScope.deepCopy(copies);
+         theCopy.bufVar = bufVar.deepCopy(copies);
       }
 
    }
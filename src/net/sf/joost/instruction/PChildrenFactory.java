@@ -113,7 +113,7 @@ public class PChildrenFactory extends FactoryBase
       {
          // no need to call super.processEnd(), there are no local
          // variable declarations
-         SAXEvent event = (SAXEvent)context.ancestorStack.peek();
+         SAXEvent event = context.ancestorStack.peek();
          if (event.type == SAXEvent.ELEMENT || 
              event.type == SAXEvent.ROOT) {
             if (filter != null) {
@@ -27,11 +27,13 @@ package net.sf.joost.instruction;
 import net.sf.joost.OptionalLog;
 import net.sf.joost.grammar.Tree;
 import net.sf.joost.stx.Context;
+import net.sf.joost.stx.DocumentCache;
 import net.sf.joost.stx.ParseContext;
 import net.sf.joost.stx.Processor;
 import net.sf.joost.stx.Value;
 import net.sf.joost.trax.TrAXHelper;
 
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -220,8 +222,17 @@ public class PDocumentFactory extends FactoryBase
                else {
                   // construct href relatively to base
                   // (base must be an absolut URI)
-                  iSource = new InputSource(
-                     new URL(new URL(base), hrefURI).toExternalForm());
+                  String docURI =
+                     new URL(new URL(base), hrefURI).toExternalForm();
+                  DocumentCache cache = context.documentCache;
+                  if (cache != null) {
+                     if (context.uriResolver == null)
+                        prefetch(cache, nextVal, base);
+                     cache.process(docURI, context.errorHandler, contH, lexH);
+                     v = nextVal;
+                     continue;
+                  }
+                  iSource = new InputSource(docURI);
                   reader = defaultReader;
                }
 
@@ -264,6 +275,24 @@ public class PDocumentFactory extends FactoryBase
       }
 
 
+      /**
+       * Starts parsing the following documents of a sequence ahead of
+       * time, at most one for each prefetch thread of the cache.
+       */
+      private void prefetch(DocumentCache cache, Value v, String base)
+      {
+         for (int i=cache.getThreads(); i>0 && v != null; i--, v=v.next) {
+            try {
+               cache.prefetch(new URL(new URL(base),
+                                      v.getStringValue()).toExternalForm());
+            }
+            catch (MalformedURLException ex) {
+               // will be reported when this document is processed
+            }
+         }
+      }
+
+
       protected void onDeepCopy(AbstractInstruction copy, HashMap copies)
       {
          super.onDeepCopy(copy, copies);
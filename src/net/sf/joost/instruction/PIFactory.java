@@ -31,6 +31,7 @@ import net.sf.joost.stx.ParseContext;
 
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Stack;
 
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
@@ -83,9 +84,7 @@ final public class PIFactory extends FactoryBase
    final public class Instance extends NodeBase
    {
       private Tree name, select;
-      private StringEmitter strEmitter;
-      private StringBuffer buffer;
-      private String piName;
+      private String errorInfo;
 
       protected Instance(String qName, NodeBase parent, ParseContext context,
                          Tree name, Tree select)
@@ -95,15 +94,7 @@ final public class PIFactory extends FactoryBase
                select == null);
          this.name = name;
          this.select = select;
-         init();
-      }
-
-
-      private void init()
-      {
-         buffer = new StringBuffer();
-         strEmitter = new StringEmitter(buffer,
-                         "('" + qName + "' started in line " + lineNo + ")");
+         errorInfo = "('" + qName + "' started in line " + lineNo + ")";
       }
 
 
@@ -113,19 +104,25 @@ final public class PIFactory extends FactoryBase
       public short process(Context context)
          throws SAXException
       {
-         piName = name.evaluate(context, this).getString();
+         String piName = name.evaluate(context, this).getString();
          // TO DO: is this piName valid?
 
          if (select == null) {
             super.process(context);
             // check for nesting of this stx:processing-instruction
-            if (context.emitter.isEmitterActive(strEmitter)) {
+            Stack localFieldStack = context.getLocalFieldStack(this);
+            if (!localFieldStack.empty() &&
+                context.emitter.isEmitterActive(
+                   (StringEmitter)localFieldStack.peek())) {
                context.errorHandler.error(
                   "Can't create nested processing instruction here",
                   publicId, systemId, lineNo, colNo);
                return PR_CONTINUE; // if the errorHandler returns
             }
-            buffer.setLength(0);
+            StringEmitter strEmitter =
+               new StringEmitter(new StringBuffer(), errorInfo);
+            localFieldStack.push(piName);
+            localFieldStack.push(strEmitter);
             context.pushEmitter(strEmitter);
          }
          else {
@@ -151,6 +148,10 @@ final public class PIFactory extends FactoryBase
          throws SAXException
       {
          context.popEmitter();
+         Stack localFieldStack = context.getLocalFieldStack(this);
+         StringBuffer buffer =
+            ((StringEmitter)localFieldStack.pop()).getBuffer();
+         String piName = (String)localFieldStack.pop();
          int index = buffer.length();
          if (index != 0) {
             // are there any "?>" in the pi data?
@@ -168,7 +169,6 @@ final public class PIFactory extends FactoryBase
       {
          super.onDeepCopy(copy, copies);
          Instance theCopy = (Instance) copy;
-         theCopy.init();
          if (name != null)
             theCopy.name = name.deepCopy(copies);
          if (select != null)
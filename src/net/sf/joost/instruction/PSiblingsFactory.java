@@ -76,6 +76,8 @@ public class PSiblingsFactory extends FactoryBase
       Tree untilPattern = parsePattern(attrs.getValue("until"), context);
 
       checkAttributes(qName, attrs, attrNames, context);
+      if (context.transformNode != null)
+         context.transformNode.enableSiblingsProcessing();
 
       return new Instance(qName, parent, context, groupAtt,
                           whilePattern, untilPattern);
@@ -114,7 +116,7 @@ public class PSiblingsFactory extends FactoryBase
       {
          // no need to call super.processEnd(), there are no local
          // variable declarations
-         SAXEvent event = (SAXEvent)context.ancestorStack.peek();
+         SAXEvent event = context.ancestorStack.peek();
          if (event.type == SAXEvent.ATTRIBUTE ||
              event.type == SAXEvent.ROOT) {
             // These nodes don't have siblings, keep processing.
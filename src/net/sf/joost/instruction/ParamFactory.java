@@ -32,8 +32,6 @@ import net.sf.joost.stx.Value;
 
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Hashtable;
-import java.util.Stack;
 
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
@@ -159,7 +157,7 @@ final public class ParamFactory extends FactoryBase
             }
             else {
                // use contents
-               next = contents;
+               context.nextInstruction = contents;
                super.process(context);
                context.pushEmitter(
                   new StringEmitter(new StringBuffer(),
@@ -170,7 +168,7 @@ final public class ParamFactory extends FactoryBase
          processParam(v, context);
          if (nodeEnd != null) {
             // skip contents, the parameter value is already available
-            next = successor;
+            context.nextInstruction = successor;
          }
          return PR_CONTINUE;
       }
@@ -191,25 +189,14 @@ final public class ParamFactory extends FactoryBase
       public void processParam(Value v, Context context)
          throws SAXException
       {
-         // determine scope
-         Hashtable varTable;
-         if (parent instanceof GroupBase) // global parameter
-            varTable = (Hashtable)((Stack)context.groupVars.get(parent))
-                                          .peek();
-         else
-            varTable = context.localVars;
-
-         if (varTable.get(expName) != null) {
+         if (getValue(context) != null) {
             context.errorHandler.error(
                "Param '" + varName + "' already declared",
                publicId, systemId, lineNo, colNo);
             return; // if the errorHandler returns
          }
 
-         varTable.put(expName, v);
-
-         if (varTable == context.localVars)
-            parent.declareVariable(expName);
+         setValue(context, v.escape());
       }
 
 
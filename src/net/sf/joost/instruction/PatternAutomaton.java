@@ -0,0 +1,413 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is agent.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+
+package net.sf.joost.instruction;
+
+import net.sf.joost.grammar.Tree;
+import net.sf.joost.stx.EventStack;
+import net.sf.joost.stx.SAXEvent;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+
+
+/**
+ * A non-deterministic automaton that matches the ancestors of the current
+ * node against the match patterns of all templates of a transformation
+ * sheet at once. Each step of a pattern except the last one is
+ * represented by a bit; the state for an ancestor is the set of steps
+ * that match this ancestor (the <em>self</em> bits) together with the
+ * set of steps that match this ancestor or one of its ancestors (the
+ * <em>descendant</em> bits). The state of an element will be computed
+ * from the state of its parent and the name of the element, and will be
+ * stored in the element event ({@link SAXEvent#matchState}), thus it
+ * will be computed at most once for every element, regardless of the
+ * number of templates and the depth of the document.
+ * <p>
+ * Only patterns whose steps are connected by <code>/</code> or
+ * <code>//</code>, and whose steps except the last one are element tests
+ * without predicates can be compiled. The last step will still be
+ * matched by its {@link Tree} object.
+ * @version $Revision$ $Date$
+ * @author agent
+ */
+public final class PatternAutomaton implements Serializable
+{
+   /** The state of the root node */
+   private State rootState;
+
+   /** The number of words in a bit set */
+   private int words;
+
+   /** The steps that must match a child of their predecessor */
+   private long[] childMask;
+
+   /** The steps that must match a descendant of their predecessor */
+   private long[] descMask;
+
+   /**
+    * The steps that match an element with a given name (including the
+    * matching wildcards): URI -&gt; (local name -&gt; long[])
+    */
+   private HashMap nameMasks = new HashMap();
+
+   /** The steps <code>prefix:*</code> and {@link #anyMask}: URI -&gt; long[] */
+   private HashMap uriMasks = new HashMap();
+
+   /**
+    * The steps <code>*:lname</code> and {@link #anyMask}:
+    * local name -&gt; long[]
+    */
+   private HashMap localMasks = new HashMap();
+
+   /**
+    * The steps that match every element (<code>*</code> and
+    * <code>node()</code>), <code>null</code> if there are no such steps
+    */
+   private long[] anyMask;
+
+
+   /**
+    * Compiles the match patterns of a collection of templates and assigns
+    * the resulting automaton to those templates whose pattern could be
+    * compiled.
+    * @param templates the {@link TemplateFactory.Instance} objects
+    */
+   public static void compile(Collection templates)
+   {
+      ArrayList instances = new ArrayList();
+      ArrayList prefixes = new ArrayList();
+      int bits = 0;
+      for (Iterator it = templates.iterator(); it.hasNext(); ) {
+         TemplateFactory.Instance template =
+            (TemplateFactory.Instance)it.next();
+         Tree[] prefix = getPrefix(template.getMatchPattern());
+         if (prefix != null) {
+            instances.add(template);
+            prefixes.add(prefix);
+            bits += prefix.length;
+         }
+      }
+      if (bits != 0)
+         new PatternAutomaton(bits, instances, prefixes);
+   }
+
+
+   /**
+    * Determines the steps of a pattern that will be matched by the
+    * automaton.
+    * @param pattern the match pattern
+    * @return the connecting CHILD or DESC nodes of all steps except the
+    *         last one; the first entry is the RootTree of an absolute
+    *         pattern, <code>null</code> for a relative pattern;
+    *         <code>null</code> if the pattern can't be compiled
+    */
+   private static Tree[] getPrefix(Tree pattern)
+   {
+      if (pattern.type != Tree.CHILD && pattern.type != Tree.DESC)
+         return null;
+      ArrayList steps = new ArrayList();
+      Tree tree = pattern.left;
+      while (tree.type == Tree.CHILD || tree.type == Tree.DESC) {
+         if (!isElementTest(tree.right))
+            return null;
+         steps.add(0, tree);
+         tree = tree.left;
+      }
+      if (tree.type == Tree.ROOT) {
+         // the grammar inserts the root only with a CHILD connection
+         Tree first = steps.isEmpty() ? pattern : (Tree)steps.get(0);
+         if (first.type != Tree.CHILD)
+            return null;
+         steps.add(0, tree);
+      }
+      else if (isElementTest(tree)) {
+         steps.add(0, tree);
+         steps.add(0, null);
+      }
+      else
+         return null;
+      Tree[] prefix = new Tree[steps.size()];
+      steps.toArray(prefix);
+      return prefix;
+   }
+
+
+   /** @return whether a step may match an ancestor element */
+   private static boolean isElementTest(Tree step)
+   {
+      switch (step.type) {
+      case Tree.NAME_TEST:
+      case Tree.WILDCARD:
+      case Tree.URI_WILDCARD:
+      case Tree.LOCAL_WILDCARD:
+      case Tree.NODE_TEST:
+         return true;
+      default:
+         return false;
+      }
+   }
+
+
+   /**
+    * Constructs the automaton. For each template the first bit represents
+    * the start of its pattern, which is set in the root state (the start
+    * of a relative pattern remains set in the descendant bits of every
+    * state).
+    */
+   private PatternAutomaton(int bits, ArrayList instances,
+                            ArrayList prefixes)
+   {
+      words = (bits + 63) >>> 6;
+      childMask = new long[words];
+      descMask = new long[words];
+      long[] startMask = new long[words];
+
+      int bit = 0;
+      for (int i=0; i<instances.size(); i++) {
+         Tree[] prefix = (Tree[])prefixes.get(i);
+         setBit(startMask, bit);
+         for (int j=1; j<prefix.length; j++) {
+            int stepBit = bit + j;
+            // a relative pattern starts with a null entry followed by its
+            // first step, which may match at any depth
+            Tree step = prefix[j].type == Tree.CHILD ||
+                        prefix[j].type == Tree.DESC ? prefix[j].right
+                                                    : prefix[j];
+            setBit(prefix[j].type == Tree.CHILD ? childMask : descMask,
+                   stepBit);
+            switch (step.type) {
+            case Tree.NAME_TEST:
+               setBit(getMask(getNames(step.uri), step.lName), stepBit);
+               break;
+            case Tree.LOCAL_WILDCARD: // prefix:*
+               setBit(getMask(uriMasks, step.uri), stepBit);
+               break;
+            case Tree.URI_WILDCARD: // *:lname
+               setBit(getMask(localMasks, step.lName), stepBit);
+               break;
+            default: // * or node()
+               if (anyMask == null)
+                  anyMask = new long[words];
+               setBit(anyMask, stepBit);
+            }
+         }
+         TemplateFactory.Instance template =
+            (TemplateFactory.Instance)instances.get(i);
+         template.automaton = this;
+         template.prefixState = bit + prefix.length - 1;
+         bit += prefix.length;
+      }
+
+      // add the matching wildcards to the masks
+      for (Iterator it = uriMasks.values().iterator(); it.hasNext(); )
+         or((long[])it.next(), anyMask);
+      for (Iterator it = localMasks.values().iterator(); it.hasNext(); )
+         or((long[])it.next(), anyMask);
+      for (Iterator it = nameMasks.keySet().iterator(); it.hasNext(); ) {
+         Object uri = it.next();
+         HashMap names = (HashMap)nameMasks.get(uri);
+         for (Iterator ni = names.keySet().iterator(); ni.hasNext(); ) {
+            Object lName = ni.next();
+            long[] mask = (long[])names.get(lName);
+            or(mask, anyMask);
+            or(mask, (long[])uriMasks.get(uri));
+            or(mask, (long[])localMasks.get(lName));
+         }
+      }
+
+      rootState = new State(this, startMask, startMask);
+   }
+
+
+   /** @return the map of local names to masks for a namespace URI */
+   private HashMap getNames(String uri)
+   {
+      HashMap names = (HashMap)nameMasks.get(uri);
+      if (names == null) {
+         names = new HashMap();
+         nameMasks.put(uri, names);
+      }
+      return names;
+   }
+
+
+   /** @return the mask stored in a map, created on demand */
+   private long[] getMask(HashMap map, String key)
+   {
+      long[] mask = (long[])map.get(key);
+      if (mask == null) {
+         mask = new long[words];
+         map.put(key, mask);
+      }
+      return mask;
+   }
+
+
+   private static void setBit(long[] set, int bit)
+   {
+      set[bit >>> 6] |= 1L << (bit & 63);
+   }
+
+
+   private static boolean testBit(long[] set, int bit)
+   {
+      return set != null && (set[bit >>> 6] & (1L << (bit & 63))) != 0;
+   }
+
+
+   /** Adds the bits of <code>src</code> (may be <code>null</code>) */
+   private static void or(long[] dest, long[] src)
+   {
+      if (src != null)
+         for (int i=0; i<dest.length; i++)
+            dest[i] |= src[i];
+   }
+
+
+   /** @return the steps that match an element, <code>null</code> for none */
+   private long[] getNameMask(String uri, String lName)
+   {
+      HashMap names = (HashMap)nameMasks.get(uri);
+      if (names != null) {
+         long[] mask = (long[])names.get(lName);
+         if (mask != null)
+            return mask;
+      }
+      long[] uriMask = (long[])uriMasks.get(uri);
+      long[] localMask = (long[])localMasks.get(lName);
+      if (uriMask == null)
+         return localMask != null ? localMask : anyMask;
+      if (localMask == null)
+         return uriMask;
+      // prefix:* and *:lname match both; the automaton is shared,
+      // so don't store the combined mask
+      long[] mask = new long[words];
+      or(mask, uriMask);
+      or(mask, localMask);
+      return mask;
+   }
+
+
+   /**
+    * Determines whether the ancestors of the current node match the
+    * pattern of a template without its last step.
+    * @param stack the ancestor stack
+    * @param index the position of the parent of the current node
+    * @param prefixState the bit of the template
+    * @param descendant <code>true</code> if the last step is connected
+    *        by <code>//</code>
+    */
+   boolean matches(EventStack stack, int index, int prefixState,
+                   boolean descendant)
+   {
+      State state = getState(stack, index);
+      return testBit(descendant ? state.desc : state.self, prefixState);
+   }
+
+
+   /**
+    * @return the state of a node on the ancestor stack, computed from
+    *         the nearest ancestor whose state is already known
+    */
+   private State getState(EventStack stack, int index)
+   {
+      State state = rootState;
+      int i = index;
+      for (; i > 0; i--) {
+         Object known = stack.elementAt(i).matchState;
+         if (known instanceof State && ((State)known).automaton == this) {
+            state = (State)known;
+            break;
+         }
+      }
+      while (i < index) {
+         SAXEvent e = stack.elementAt(++i);
+         state = nextState(state, e);
+         e.matchState = state;
+      }
+      return state;
+   }
+
+
+   /** @return the state of an element, given the state of its parent */
+   private State nextState(State parent, SAXEvent e)
+   {
+      long[] mask = e.type == SAXEvent.ELEMENT ? getNameMask(e.uri, e.lName)
+                                               : null;
+      long[] self = null;
+      if (mask != null) {
+         long[] pSelf = parent.self, pDesc = parent.desc;
+         long selfCarry = 0, descCarry = 0;
+         for (int i=0; i<words; i++) {
+            long s = pSelf != null ? pSelf[i] : 0, d = pDesc[i];
+            long bits = mask[i] &
+                        (((s << 1) | selfCarry) & childMask[i] |
+                         ((d << 1) | descCarry) & descMask[i]);
+            selfCarry = s >>> 63;
+            descCarry = d >>> 63;
+            if (bits != 0) {
+               if (self == null)
+                  self = new long[words];
+               self[i] = bits;
+            }
+         }
+      }
+      if (self == null)
+         return parent.inherited;
+      long[] desc = new long[words];
+      for (int i=0; i<words; i++)
+         desc[i] = parent.desc[i] | self[i];
+      return new State(this, self, desc);
+   }
+
+
+   /** A state of the automaton */
+   private static final class State implements Serializable
+   {
+      /** The automaton this state belongs to */
+      final PatternAutomaton automaton;
+
+      /** The self bits, <code>null</code> if empty */
+      final long[] self;
+
+      /** The descendant bits */
+      final long[] desc;
+
+      /** The state of a child without self bits */
+      final State inherited;
+
+      State(PatternAutomaton automaton, long[] self, long[] desc)
+      {
+         this.automaton = automaton;
+         this.self = self;
+         this.desc = desc;
+         inherited = self == null ? this
+                                  : new State(automaton, null, desc);
+      }
+   }
+}
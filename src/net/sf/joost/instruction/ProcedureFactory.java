@@ -25,7 +25,7 @@
 package net.sf.joost.instruction;
 
 import java.util.HashSet;
-import java.util.Hashtable;
+import java.util.Stack;
 
 import net.sf.joost.stx.Context;
 import net.sf.joost.stx.ParseContext;
@@ -138,10 +138,11 @@ public final class ProcedureFactory extends FactoryBase
       public short process(Context context)
          throws SAXException
       {
+         Stack localFieldStack = context.getLocalFieldStack(this);
          localFieldStack.push(context.currentGroup);
          // save and reset local variables
-         localFieldStack.push(context.localVars.clone());
-         context.localVars.clear();
+         localFieldStack.push(context.getLocalVars());
+         context.newLocalVars(getFrameSize());
          return super.process(context);
       }
 
@@ -151,8 +152,11 @@ public final class ProcedureFactory extends FactoryBase
       {
          super.processEnd(context);
          // restore local variables
-         context.localVars = (Hashtable)localFieldStack.pop();
+         Stack localFieldStack = context.getLocalFieldStack(this);
+         context.setLocalVars((Object[])localFieldStack.pop());
          context.currentGroup = (GroupBase)localFieldStack.pop();
+         // return to the calling stx:call-procedure
+         context.nextInstruction = (AbstractInstruction)localFieldStack.pop();
          return PR_CONTINUE;
       }
 
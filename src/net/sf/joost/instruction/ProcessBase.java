@@ -28,13 +28,11 @@ import net.sf.joost.emitter.EmitterAdapter;
 import net.sf.joost.grammar.Tree;
 import net.sf.joost.stx.BufferReader;
 import net.sf.joost.stx.Context;
+import net.sf.joost.stx.Emitter;
 import net.sf.joost.stx.ParseContext;
-import net.sf.joost.util.VariableNotFoundException;
-import net.sf.joost.util.VariableUtils;
 
 import java.util.HashMap;
 import java.util.Hashtable;
-import java.util.Stack;
 import java.util.Vector;
 
 import javax.xml.transform.sax.SAXResult;
@@ -51,7 +49,10 @@ import org.xml.sax.SAXParseException;
  */
 public class ProcessBase extends NodeBase
 {
-   /** Instruction the clears the parameter stack */
+   /**
+    * Instruction the clears the parameter stack. Its local field stack
+    * (see {@link Context#getLocalFieldStack}) holds the saved parameters.
+    */
    private class ProcessEnd extends AbstractInstruction {
       private ProcessBase node;
 
@@ -67,7 +68,7 @@ public class ProcessBase extends NodeBase
 
       public short process(Context ctx)
       {
-         ctx.passedParameters = (Hashtable)node.paramStack.pop();
+         ctx.passedParameters = (Hashtable)ctx.getLocalFieldStack(this).pop();
          return PR_CONTINUE;
       }
 
@@ -81,8 +82,8 @@ public class ProcessBase extends NodeBase
 
 
 
-   // stack for parameters, used in the subclasses
-   private Stack paramStack = new Stack();
+   // the instruction that restores the parameters
+   private ProcessEnd processEnd;
 
    protected Vector children = new Vector();
 
@@ -96,8 +97,7 @@ public class ProcessBase extends NodeBase
    protected String useBufQName, useBufExpName;
    protected Tree filter;
    private Tree hrefTree;
-   private boolean bufScopeDetermined = false;
-   private GroupBase bufGroupScope = null;
+   private VariableReference useBufVar;
 
    // Constructor
    public ProcessBase(String qName, NodeBase parent,
@@ -110,7 +110,7 @@ public class ProcessBase extends NodeBase
 
       // insert instruction that clears the parameter stack when
       // continuing the processing
-      next.next = new ProcessEnd(this);
+      next.next = processEnd = new ProcessEnd(this);
 
       this.groupQName = groupQName;
       if (groupQName != null)
@@ -136,6 +136,7 @@ public class ProcessBase extends NodeBase
             useBufQName = src.substring(7, src.length()-1).trim();
             useBufExpName = "@" +
                             FactoryBase.getExpandedName(useBufQName, context);
+            useBufVar = new VariableReference(useBufExpName, parent);
          }
          else
             throw new SAXParseException(
@@ -236,7 +237,7 @@ public class ProcessBase extends NodeBase
    {
       context.targetGroup = targetGroup;
 
-      paramStack.push(context.passedParameters);
+      context.getLocalFieldStack(processEnd).push(context.passedParameters);
       context.passedParameters = new Hashtable();
       return PR_CONTINUE;
    }
@@ -255,16 +256,18 @@ public class ProcessBase extends NodeBase
       TransformerHandler handler;
       try {
          if (useBufExpName != null) {
-            if (!bufScopeDetermined) {
-               bufGroupScope =
-                  VariableUtils.findVariableScope(context, useBufExpName);
-               bufScopeDetermined = true;
+            Emitter buffer = (Emitter)useBufVar.getValue(context);
+            if (buffer == null) {
+               context.errorHandler.error(
+                  "Can't process an undeclared buffer '" + useBufQName + "'",
+                  publicId, systemId, lineNo, colNo);
+               // if the error handler returns
+               return null;
             }
             handler =
                context.defaultTransformerHandlerResolver.resolve(
                      filterMethod,
-                     new BufferReader(context, useBufExpName, bufGroupScope,
-                                      publicId, systemId),
+                     new BufferReader(context, buffer, publicId, systemId),
                      context.uriResolver,
                      context.errorHandler.errorListener,
                      context.passedParameters);
@@ -298,13 +301,6 @@ public class ProcessBase extends NodeBase
                                          e);
          return null;
       }
-      catch (VariableNotFoundException e) {
-         context.errorHandler.error(
-               "Can't process an undeclared buffer '" + useBufQName + "'",
-               publicId, systemId, lineNo, colNo);
-            // if the error handler returns
-         return null;
-      }
 
       EmitterAdapter adapter = new EmitterAdapter(context.emitter, this);
       handler.setResult(new SAXResult(adapter));
@@ -316,9 +312,9 @@ public class ProcessBase extends NodeBase
    {
       super.onDeepCopy(copy, copies);
       ProcessBase theCopy = (ProcessBase) copy;
-      theCopy.paramStack = new Stack();
-      if (bufGroupScope != null)
-         theCopy.bufGroupScope = (GroupBase) bufGroupScope.deepCopy(copies);
+      theCopy.processEnd = (ProcessEnd) processEnd.deepCopy(copies);
+      if (useBufVar != null)
+         theCopy.useBufVar = useBufVar.deepCopy(copies);
       if (targetGroup != null)
          theCopy.targetGroup = (GroupBase) targetGroup.deepCopy(copies);
       theCopy.children = new Vector();
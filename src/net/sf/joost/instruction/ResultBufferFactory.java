@@ -24,9 +24,8 @@
 
 package net.sf.joost.instruction;
 
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Hashtable;
-import java.util.Stack;
 
 import net.sf.joost.emitter.BufferEmitter;
 import net.sf.joost.stx.Context;
@@ -85,16 +84,19 @@ final public class ResultBufferFactory extends FactoryBase
    /** Represents an instance of the <code>result-buffer</code> element. */
    final public class Instance extends NodeBase
    {
-      private String bufName, expName;
+      private String bufName;
       private boolean clear;
 
+      /** The referenced buffer */
+      private VariableReference bufVar;
+
       protected Instance(String qName, NodeBase parent, ParseContext context,
                          String bufName, String expName, boolean clear)
       {
          super(qName, parent, context, true);
          this.bufName = bufName;
-         this.expName = expName;
          this.clear = clear;
+         bufVar = new VariableReference(expName, parent);
       }
       
 
@@ -106,15 +108,7 @@ final public class ResultBufferFactory extends FactoryBase
          throws SAXException
       {
          super.process(context);
-         Object emitter = context.localVars.get(expName);
-         if (emitter == null) {
-            GroupBase group = context.currentGroup;
-            while (emitter == null && group != null) {
-               emitter = ((Hashtable)((Stack)context.groupVars.get(group))
-                                            .peek()).get(expName);
-               group = group.parentGroup;
-            }
-         }
+         Object emitter = bufVar.getValue(context);
          if (emitter == null) {
             context.errorHandler.error(
                "Can't fill an undeclared buffer '" + bufName + "'",
@@ -144,5 +138,13 @@ final public class ResultBufferFactory extends FactoryBase
          ((BufferEmitter)context.popEmitter()).filled();
          return super.processEnd(context);
       }
+
+
+      protected void onDeepCopy(AbstractInstruction copy, HashMap copies)
+      {
+         super.onDeepCopy(copy, copies);
+         Instance theCopy = (Instance) copy;
+         theCopy.bufVar = bufVar.deepCopy(copies);
+      }
    }
 }
@@ -130,15 +130,16 @@ final public class ResultDocumentFactory extends FactoryBase
          throws SAXException
       {
          super.process(context);
-         if (encoding == null) // no encoding attribute specified
+         String resultEncoding = encoding;
+         if (resultEncoding == null) // no encoding attribute specified
             // use global encoding att
-            encoding = context.currentProcessor.getOutputEncoding();
+            resultEncoding = context.currentProcessor.getOutputEncoding();
 
          String filename = href.evaluate(context, this).getString();
 
          Properties props =
             (Properties)context.currentProcessor.outputProperties.clone();
-         props.setProperty(OutputKeys.ENCODING, encoding);
+         props.setProperty(OutputKeys.ENCODING, resultEncoding);
          if (method != null)
             props.setProperty(OutputKeys.METHOD, method);
 
@@ -160,20 +161,21 @@ final public class ResultDocumentFactory extends FactoryBase
                   if (append && (emitter instanceof StreamEmitter)) {
                      ((StreamEmitter) emitter).setOmitXmlDeclaration(true);
                   }
-                  localFieldStack.push(result);
+                  context.getLocalFieldStack(this).push(result);
                }
             }
 
             if (emitter == null) {
                // either there's no outputUriResolver or it returned null
                Writer osw = context.emitter.getResultWriter(
-                               filename, encoding,
+                               filename, resultEncoding,
                                publicId, systemId, lineNo, colNo, append);
 
-               StreamEmitter se = StreamEmitter.newEmitter(osw, encoding, props);
+               StreamEmitter se =
+                  StreamEmitter.newEmitter(osw, resultEncoding, props);
                if (append)
                   se.setOmitXmlDeclaration(true);
-               localFieldStack.push(osw);
+               context.getLocalFieldStack(this).push(osw);
                emitter = se;
             }
          }
@@ -204,7 +206,7 @@ final public class ResultDocumentFactory extends FactoryBase
       {
          context.emitter.endDocument(nodeEnd);
          context.popEmitter();
-         Object object = localFieldStack.pop();
+         Object object = context.getLocalFieldStack(this).pop();
          try {
             if (object instanceof Writer) {
                ((Writer)object).close();
@@ -133,6 +133,16 @@ public final class TemplateFactory extends FactoryBase
       /** The priority of this template */
       private double priority;
 
+      /**
+       * The automaton that matches the pattern in {@link #match} without
+       * its last step, <code>null</code> if the pattern hasn't been
+       * compiled (see {@link PatternAutomaton#compile})
+       */
+      PatternAutomaton automaton;
+
+      /** The bit that represents this template in {@link #automaton} */
+      int prefixState;
+
 
       //
       // Constructor
@@ -162,8 +172,14 @@ public final class TemplateFactory extends FactoryBase
       {
          context.currentInstruction = this;
          context.currentGroup = parentGroup;
-         return match.matches(context, context.ancestorStack.size(),
-                              setPosition);
+         int top = context.ancestorStack.size();
+         if (automaton != null)
+            // check the ancestors first, then the last step
+            return top >= 2 &&
+                   automaton.matches(context.ancestorStack, top-2,
+                                     prefixState, match.type == Tree.DESC) &&
+                   match.right.matches(context, top, setPosition);
+         return match.matches(context, top, setPosition);
       }
 
 
@@ -0,0 +1,340 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is agent.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+
+package net.sf.joost.instruction;
+
+import net.sf.joost.grammar.Tree;
+import net.sf.joost.stx.SAXEvent;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+
+/**
+ * A dispatch index for an array of templates (sorted in descending
+ * priority order). The index maps the node kind and the name of a
+ * node to the positions of those templates whose match pattern might
+ * match this node. This position list is determined by the last step
+ * of the match pattern; templates with a pattern whose last step doesn't
+ * restrict the name (wildcards, <code>node()</code>, ...) are part
+ * of every candidate list for the appropriate node kinds.
+ * <p>
+ * The index contains only array positions (not the template objects
+ * themselves), thus the same index can be used for deep copies of the
+ * template array.
+ * @version $Revision$ $Date$
+ * @author agent
+ */
+public final class TemplateIndex implements Serializable
+{
+   /** Number of node kinds (event types from ROOT to ATTRIBUTE) */
+   private static final int KINDS = SAXEvent.ATTRIBUTE + 1;
+
+   /** Bit mask that contains all node kinds */
+   private static final int ALL_KINDS = (1 << KINDS) - 1;
+
+   /**
+    * Candidates for each node kind (the array index is the event type),
+    * used if the name of the node isn't indexed
+    */
+   private int[][] kindCandidates = new int[KINDS][];
+
+   /** Candidates for elements: uri -> (local name -> int[]) */
+   private HashMap elementCandidates = new HashMap();
+
+   /** Candidates for attributes: uri -> (local name -> int[]) */
+   private HashMap attributeCandidates = new HashMap();
+
+   /** Candidates for processing instructions: target -> int[] */
+   private HashMap piCandidates = new HashMap();
+
+   /** Positions of all templates, used for unknown event types */
+   private int[] allCandidates;
+
+
+   /**
+    * Constructs a dispatch index for an array of templates.
+    * @param templates the templates, sorted in descending priority order
+    */
+   public TemplateIndex(TemplateFactory.Instance[] templates)
+   {
+      int length = templates.length;
+      Tree[] steps = new Tree[length];
+      int[] kinds = new int[length];
+      allCandidates = new int[length];
+
+      // pass 1: classify the templates, create all named buckets
+      for (int i=0; i<length; i++) {
+         allCandidates[i] = i;
+         Tree step = steps[i] = lastStep(templates[i].getMatchPattern());
+         kinds[i] = getKindMask(step);
+         if (isNamed(step)) {
+            switch (step.type) {
+            case Tree.NAME_TEST:
+               getNameTable(elementCandidates, step.uri)
+                  .put(step.lName, new Bucket());
+               break;
+            case Tree.ATTR:
+               getNameTable(attributeCandidates, step.uri)
+                  .put(step.lName, new Bucket());
+               break;
+            case Tree.PI_TEST:
+               piCandidates.put(step.value, new Bucket());
+               break;
+            }
+         }
+      }
+
+      // pass 2: distribute the templates (in ascending order)
+      Bucket[] kindBuckets = new Bucket[KINDS];
+      for (int k=0; k<KINDS; k++)
+         kindBuckets[k] = new Bucket();
+      for (int i=0; i<length; i++) {
+         if (isNamed(steps[i])) {
+            switch (steps[i].type) {
+            case Tree.NAME_TEST:
+               ((Bucket)getNameTable(elementCandidates, steps[i].uri)
+                  .get(steps[i].lName)).add(i);
+               break;
+            case Tree.ATTR:
+               ((Bucket)getNameTable(attributeCandidates, steps[i].uri)
+                  .get(steps[i].lName)).add(i);
+               break;
+            case Tree.PI_TEST:
+               ((Bucket)piCandidates.get(steps[i].value)).add(i);
+               break;
+            }
+            continue;
+         }
+         // unnamed: add to all buckets of the matching kinds
+         for (int k=0; k<KINDS; k++) {
+            if ((kinds[i] & (1 << k)) != 0)
+               kindBuckets[k].add(i);
+         }
+         if ((kinds[i] & (1 << SAXEvent.ELEMENT)) != 0)
+            addToNamedBuckets(elementCandidates, i);
+         if ((kinds[i] & (1 << SAXEvent.ATTRIBUTE)) != 0)
+            addToNamedBuckets(attributeCandidates, i);
+         if ((kinds[i] & (1 << SAXEvent.PI)) != 0)
+            addToBuckets(piCandidates, i);
+      }
+
+      // replace the buckets by their arrays
+      for (int k=0; k<KINDS; k++)
+         kindCandidates[k] = kindBuckets[k].toArray();
+      freezeNamedBuckets(elementCandidates);
+      freezeNamedBuckets(attributeCandidates);
+      freezeBuckets(piCandidates);
+   }
+
+
+   /**
+    * Determines the candidate templates for an event.
+    * @param event the event (normally the top most event on the ancestor
+    *              stack)
+    * @return the ascending positions of all templates that might match
+    *         the event
+    */
+   public int[] getCandidates(SAXEvent event)
+   {
+      Object candidates;
+      switch (event.type) {
+      case SAXEvent.ELEMENT:
+         candidates = elementCandidates.get(event.uri);
+         if (candidates != null)
+            candidates = ((HashMap)candidates).get(event.lName);
+         break;
+      case SAXEvent.ATTRIBUTE:
+         candidates = attributeCandidates.get(event.uri);
+         if (candidates != null)
+            candidates = ((HashMap)candidates).get(event.lName);
+         break;
+      case SAXEvent.PI:
+         candidates = piCandidates.get(event.qName);
+         break;
+      default:
+         if (event.type >= 0 && event.type < KINDS)
+            return kindCandidates[event.type];
+         return allCandidates;
+      }
+      if (candidates != null)
+         return (int[])candidates;
+      return kindCandidates[event.type];
+   }
+
+
+   /**
+    * Determines the last step of a match pattern, i.e. the node test
+    * for the node that will be matched.
+    */
+   private static Tree lastStep(Tree pattern)
+   {
+      Tree step = pattern;
+      while (step != null) {
+         switch (step.type) {
+         case Tree.CHILD:
+         case Tree.DESC:
+            step = step.right;
+            break;
+         case Tree.PREDICATE:
+            step = step.left;
+            break;
+         default:
+            return step;
+         }
+      }
+      return null;
+   }
+
+
+   /**
+    * @return <code>true</code> if the step selects nodes with a
+    *         specific name only
+    */
+   private static boolean isNamed(Tree step)
+   {
+      if (step == null)
+         return false;
+      switch (step.type) {
+      case Tree.NAME_TEST:
+      case Tree.ATTR:
+         return step.uri != null && step.lName != null;
+      case Tree.PI_TEST:
+         return step.value != null;
+      default:
+         return false;
+      }
+   }
+
+
+   /**
+    * @return a bit mask of the node kinds (event types) that might be
+    *         matched by the step
+    */
+   private static int getKindMask(Tree step)
+   {
+      if (step == null)
+         return ALL_KINDS;
+      switch (step.type) {
+      case Tree.ROOT:
+         return 1 << SAXEvent.ROOT;
+      case Tree.NAME_TEST:
+      case Tree.WILDCARD:
+      case Tree.URI_WILDCARD:
+      case Tree.LOCAL_WILDCARD:
+         return 1 << SAXEvent.ELEMENT;
+      case Tree.TEXT_TEST:
+         return (1 << SAXEvent.TEXT) | (1 << SAXEvent.CDATA);
+      case Tree.CDATA_TEST:
+         return 1 << SAXEvent.CDATA;
+      case Tree.COMMENT_TEST:
+         return 1 << SAXEvent.COMMENT;
+      case Tree.PI_TEST:
+         return 1 << SAXEvent.PI;
+      case Tree.ATTR:
+      case Tree.ATTR_WILDCARD:
+      case Tree.ATTR_URI_WILDCARD:
+      case Tree.ATTR_LOCAL_WILDCARD:
+         return 1 << SAXEvent.ATTRIBUTE;
+      case Tree.NODE_TEST:
+         // node() doesn't match the root and attributes
+         return ALL_KINDS & ~(1 << SAXEvent.ROOT)
+                          & ~(1 << SAXEvent.ATTRIBUTE);
+      default:
+         // unknown: might match everything
+         return ALL_KINDS;
+      }
+   }
+
+
+   /** @return the (local name -> bucket) table for a URI */
+   private static HashMap getNameTable(HashMap uriTable, String uri)
+   {
+      HashMap names = (HashMap)uriTable.get(uri);
+      if (names == null) {
+         names = new HashMap();
+         uriTable.put(uri, names);
+      }
+      return names;
+   }
+
+
+   private static void addToNamedBuckets(HashMap uriTable, int pos)
+   {
+      for (Iterator it = uriTable.values().iterator(); it.hasNext(); )
+         addToBuckets((HashMap)it.next(), pos);
+   }
+
+
+   private static void addToBuckets(HashMap table, int pos)
+   {
+      for (Iterator it = table.values().iterator(); it.hasNext(); )
+         ((Bucket)it.next()).add(pos);
+   }
+
+
+   private static void freezeNamedBuckets(HashMap uriTable)
+   {
+      for (Iterator it = uriTable.values().iterator(); it.hasNext(); )
+         freezeBuckets((HashMap)it.next());
+   }
+
+
+   private static void freezeBuckets(HashMap table)
+   {
+      for (Iterator it = table.entrySet().iterator(); it.hasNext(); ) {
+         Map.Entry entry = (Map.Entry)it.next();
+         entry.setValue(((Bucket)entry.getValue()).toArray());
+      }
+   }
+
+
+   // -----------------------------------------------------------------------
+
+   /** A growable list of template positions, used while building the index */
+   private static final class Bucket implements Serializable
+   {
+      private int[] positions = new int[4];
+      private int size = 0;
+
+      void add(int pos)
+      {
+         if (size == positions.length) {
+            int[] tmp = new int[size << 1];
+            System.arraycopy(positions, 0, tmp, 0, size);
+            positions = tmp;
+         }
+         positions[size++] = pos;
+      }
+
+      int[] toArray()
+      {
+         int[] result = new int[size];
+         System.arraycopy(positions, 0, result, 0, size);
+         return result;
+      }
+   }
+}
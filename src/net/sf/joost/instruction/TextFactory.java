@@ -31,8 +31,8 @@ import net.sf.joost.stx.Context;
 import net.sf.joost.stx.ParseContext;
 
 import java.io.StringWriter;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Stack;
 
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
@@ -87,60 +87,55 @@ public class TextFactory extends FactoryBase
    /** The inner Instance class */
    public class Instance extends NodeBase
    {
-      /** a StreamEmitter or a StringEmitter */
-      private StxEmitter stxEmitter;
-
-      /** the buffer of the StringWriter or the StringEmitter resp. */
-      private StringBuffer buffer;
-
-      /** levels of recursive calls */
-      private int recursionLevel;
-
       private int markup;
 
+      /** error info for the StringEmitter */
+      private String errorInfo;
+
 
       public Instance(String qName, NodeBase parent, ParseContext context,
                       int markup)
       {
          super(qName, parent, context, true);
          this.markup = markup;
-         init();
-      }
-
-
-      private void init()
-      {
-         if (markup == SERIALIZE_MARKUP) {
-            // use our StreamEmitter with a StringWriter
-            StringWriter w = new StringWriter();
-            buffer = w.getBuffer();
-            stxEmitter = StreamEmitter.newXMLEmitter(w);
-         }
-         else {
-            // use our StringEmitter
-            buffer = new StringBuffer();
-            stxEmitter = new StringEmitter(
-               buffer,
-               markup == NO_MARKUP
-                  ? "('" + qName +
-                    "' with the 'markup' attribute set to '" +
-                    MARKUP_VALUES[NO_MARKUP] + "' started in line " +
-                    lineNo + ")"
-                  : null);
-         }
-         recursionLevel = 0;
+         if (markup == NO_MARKUP)
+            errorInfo = "('" + qName +
+                        "' with the 'markup' attribute set to '" +
+                        MARKUP_VALUES[NO_MARKUP] + "' started in line " +
+                        lineNo + ")";
       }
 
 
 
+      /**
+       * Activates a new emitter for the outermost invocation. The local
+       * field stack contains the buffer of this emitter once for each
+       * level of recursive calls.
+       */
       public short process(Context context)
          throws SAXException
       {
          super.process(context);
-         if (recursionLevel++ == 0) { // outermost invocation
-            buffer.setLength(0);
+         Stack localFieldStack = context.getLocalFieldStack(this);
+         if (localFieldStack.empty()) { // outermost invocation
+            StringBuffer buffer;
+            StxEmitter stxEmitter;
+            if (markup == SERIALIZE_MARKUP) {
+               // use our StreamEmitter with a StringWriter
+               StringWriter w = new StringWriter();
+               buffer = w.getBuffer();
+               stxEmitter = StreamEmitter.newXMLEmitter(w);
+            }
+            else {
+               // use our StringEmitter
+               buffer = new StringBuffer();
+               stxEmitter = new StringEmitter(buffer, errorInfo);
+            }
+            localFieldStack.push(buffer);
             context.pushEmitter(stxEmitter);
          }
+         else
+            localFieldStack.push(localFieldStack.peek());
          return PR_CONTINUE;
       }
 
@@ -148,21 +143,14 @@ public class TextFactory extends FactoryBase
       public short processEnd(Context context)
          throws SAXException
       {
-         if (--recursionLevel == 0) { // outermost invocation
+         Stack localFieldStack = context.getLocalFieldStack(this);
+         StringBuffer buffer = (StringBuffer)localFieldStack.pop();
+         if (localFieldStack.empty()) { // outermost invocation
             context.popEmitter();
             context.emitter.characters(buffer.toString().toCharArray(),
                                        0, buffer.length(), this);
          }
          return super.processEnd(context);
       }
-
-
-      protected void onDeepCopy(AbstractInstruction copy, HashMap copies)
-      {
-         super.onDeepCopy(copy, copies);
-         Instance theCopy = (Instance) copy;
-         theCopy.init();
-      }
-
    }
 }
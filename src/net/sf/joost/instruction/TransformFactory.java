@@ -31,6 +31,7 @@ import java.util.Vector;
 
 import net.sf.joost.stx.ParseContext;
 import net.sf.joost.stx.Processor;
+import net.sf.joost.util.regex.RegexCache;
 
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXParseException;
@@ -195,6 +196,9 @@ public class TransformFactory extends FactoryBase
       public String stxpathDefaultNamespace;
       public HashSet excludedNamespaces;
 
+      /** cache for dynamically computed regular expressions */
+      public RegexCache regexCache;
+
       // used to transfer the list of compilable nodes from an included
       // STX sheet to the calling Parser object
       public Vector compilableNodes;
@@ -212,6 +216,7 @@ public class TransformFactory extends FactoryBase
             namedGroups = new Hashtable(); // shared with all sub-groups
             globalProcedures = new Hashtable(); // also shared
             namespaceAliases = new Hashtable(); // also shared
+            regexCache = new RegexCache(); // also shared
          }
          else {
             // use global parameters of the including STX sheet
@@ -222,6 +227,7 @@ public class TransformFactory extends FactoryBase
                parent = parent.parent;
             namespaceAliases = 
                ((TransformFactory.Instance)parent).namespaceAliases;
+            regexCache = ((TransformFactory.Instance)parent).regexCache;
          }
 
          this.outputEncoding = 
@@ -238,6 +244,89 @@ public class TransformFactory extends FactoryBase
       }
 
 
+      /**
+       * Position counting is needed if at least one expression or pattern
+       * in this sheet or in one of the included sheets uses the context
+       * position. This flag will be set in the root transform element only.
+       */
+      private boolean countPositions;
+
+
+      /** Enables position counting for the whole transformation sheet */
+      public void enablePositionCounting()
+      {
+         getRoot().countPositions = true;
+      }
+
+
+      /**
+       * @return <code>true</code> if the position of the nodes need to be
+       *         counted while processing
+       */
+      public boolean countsPositions()
+      {
+         return countPositions;
+      }
+
+
+      /**
+       * The expanded names of all variables that are the target of an
+       * <code>stx:assign</code> instruction. This set will be used in the
+       * root transform element only.
+       */
+      private HashSet assignedVariables = new HashSet();
+
+      /**
+       * Whether this sheet or one of the included sheets contains an
+       * <code>stx:process-siblings</code> instruction. This flag will be set
+       * in the root transform element only.
+       */
+      private boolean processesSiblings;
+
+
+      /** @return the root transform element */
+      private TransformFactory.Instance getRoot()
+      {
+         NodeBase node = this;
+         while (node.parent != null)
+            node = node.parent;
+         return (TransformFactory.Instance)node;
+      }
+
+
+      /**
+       * Registers the target of an <code>stx:assign</code> instruction
+       * @param expName the expanded name of the assigned variable
+       */
+      public void addAssignedVariable(String expName)
+      {
+         getRoot().assignedVariables.add(expName);
+      }
+
+
+      /** Registers the presence of <code>stx:process-siblings</code> */
+      public void enableSiblingsProcessing()
+      {
+         getRoot().processesSiblings = true;
+      }
+
+
+      /**
+       * Determines whether subtrees of the input can be transformed
+       * independently of each other (see
+       * {@link Processor#setSplitPattern}). This is not possible if the
+       * sheet changes the values of group variables (by assignments or
+       * group buffers), or if it uses <code>stx:process-siblings</code>.
+       * @return <code>true</code> if the transformation of subtrees is
+       *         free of side effects on other subtrees
+       */
+      public boolean allowsSplitting()
+      {
+         return !processesSiblings &&
+                !hasMutableVariables(assignedVariables);
+      }
+
+
       /** @return all top level elements of the transformation sheet */
       public Vector getChildren()
       {
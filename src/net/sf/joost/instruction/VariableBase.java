@@ -24,6 +24,7 @@
 
 package net.sf.joost.instruction;
 
+import net.sf.joost.stx.Context;
 import net.sf.joost.stx.ParseContext;
 
 
@@ -37,6 +38,15 @@ public class VariableBase extends NodeBase
    protected String expName;
    protected boolean keepValue;
 
+   /**
+    * The slot of this variable, either in the frame of the parent group
+    * (if {@link #isGroupVar} is set) or in the frame of the local variables
+    */
+   protected final int slot;
+
+   /** <code>true</code> if this is a group variable */
+   protected final boolean isGroupVar;
+
    public VariableBase(String qName, NodeBase parent, ParseContext context,
                        String expName, boolean keepValue,
                        boolean mayHaveChildren)
@@ -44,5 +54,26 @@ public class VariableBase extends NodeBase
       super(qName, parent, context, mayHaveChildren);
       this.expName = expName;
       this.keepValue = keepValue;
+      isGroupVar = parent instanceof GroupBase;
+      slot = isGroupVar ? ((GroupBase)parent).getGroupSlot(expName)
+                        : getFrameOwner().getLocalSlot(expName);
+   }
+
+
+   /** @return the current value of this variable */
+   protected final Object getValue(Context context)
+   {
+      return isGroupVar ? context.getGroupVars((GroupBase)parent)[slot]
+                        : context.getLocalVar(slot);
+   }
+
+
+   /** Sets the value of this variable */
+   protected final void setValue(Context context, Object value)
+   {
+      if (isGroupVar)
+         context.getGroupVars((GroupBase)parent)[slot] = value;
+      else
+         context.setLocalVar(slot, value);
    }
 }
@@ -32,8 +32,6 @@ import net.sf.joost.stx.Value;
 
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Hashtable;
-import java.util.Stack;
 
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
@@ -98,7 +96,6 @@ final public class VariableFactory extends FactoryBase
       private String varName;
       private Tree select;
       private String errorMessage;
-      private final boolean isGroupVar;
 
 
       protected Instance(String qName, ParseContext context, String varName,
@@ -113,7 +110,6 @@ final public class VariableFactory extends FactoryBase
          this.keepValue = keepValue;
          this.errorMessage =
             "('" + qName + "' started in line " + lineNo + ")";
-         this.isGroupVar = parent instanceof GroupBase;
       }
 
 
@@ -154,23 +150,13 @@ final public class VariableFactory extends FactoryBase
       private void processVar(Value v, Context context)
          throws SAXException
       {
-         // determine scope
-         Hashtable varTable;
-         if (isGroupVar)
-            varTable = (Hashtable)((Stack)context.groupVars.get(parent))
-                                          .peek();
-         else {
-            varTable = context.localVars;
-            parent.declareVariable(expName);
-         }
-
-         if (varTable.get(expName) != null) {
+         if (getValue(context) != null) {
             context.errorHandler.error(
                "Variable '" + varName + "' already declared",
                publicId, systemId, lineNo, colNo);
             return; // if the errorHandler returns
          }
-         varTable.put(expName, v);
+         setValue(context, v.escape());
       }
 
 
@@ -0,0 +1,160 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is agent.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+
+package net.sf.joost.instruction;
+
+import net.sf.joost.stx.Context;
+
+import java.io.Serializable;
+import java.util.HashMap;
+
+
+/**
+ * A reference to a variable, resolved to the slot of a local variable or
+ * to a group and the slot of a group variable. Local variables will be
+ * resolved while parsing the transformation sheet; group variables will
+ * be resolved on first access, because a group variable may be declared
+ * after its use.
+ * @version $Revision$ $Date$
+ * @author agent
+ */
+public final class VariableReference implements Serializable
+{
+   /** The expanded name of the variable */
+   private final String expName;
+
+   /** The slot of the local variable, -1 if there is no such variable */
+   private final int localSlot;
+
+   /**
+    * The innermost group that contains the reference, <code>null</code>
+    * if the reference doesn't occur in a transformation sheet
+    */
+   private final GroupBase scopeGroup;
+
+   /** Set when {@link #group} and {@link #groupSlot} have been determined */
+   private volatile boolean groupResolved;
+
+   /** The group that declares the variable */
+   private GroupBase group;
+
+   /** The slot of the variable in the frame of {@link #group} */
+   private int groupSlot;
+
+
+   /**
+    * Constructs a reference.
+    * @param expName the expanded name of the variable
+    * @param node the parent of the referencing node, may be
+    *        <code>null</code>
+    */
+   public VariableReference(String expName, NodeBase node)
+   {
+      this.expName = expName;
+      localSlot = node != null ? node.findLocalSlot(expName) : -1;
+      while (node != null && !(node instanceof GroupBase))
+         node = node.parent;
+      scopeGroup = (GroupBase)node;
+   }
+
+
+   /**
+    * @return the current value of the variable, <code>null</code> if the
+    *         variable hasn't been declared
+    */
+   public Object getValue(Context context)
+   {
+      if (localSlot != -1) {
+         Object value = context.getLocalVar(localSlot);
+         if (value != null)
+            return value;
+      }
+      if (groupResolved)
+         return group != null ? context.getGroupVars(group)[groupSlot]
+                              : null;
+      GroupBase g = resolveGroup(context);
+      return g != null ? context.getGroupVars(g)[g.findGroupSlot(expName)]
+                       : null;
+   }
+
+
+   /**
+    * Sets the value of the variable.
+    * @return <code>false</code> if the variable hasn't been declared
+    */
+   public boolean setValue(Context context, Object value)
+   {
+      if (localSlot != -1 && context.getLocalVar(localSlot) != null) {
+         context.setLocalVar(localSlot, value);
+         return true;
+      }
+      GroupBase g = groupResolved ? group : resolveGroup(context);
+      if (g == null)
+         return false;
+      context.getGroupVars(g)[g.findGroupSlot(expName)] = value;
+      return true;
+   }
+
+
+   /**
+    * Determines the group that declares the variable. The result will be
+    * stored in {@link #group} if the reference has a scope; a reference
+    * without scope may be evaluated in different groups.
+    * @return the group, <code>null</code> if there is no such variable
+    */
+   private GroupBase resolveGroup(Context context)
+   {
+      GroupBase g = scopeGroup != null ? scopeGroup : context.currentGroup;
+      while (g != null && g.findGroupSlot(expName) == -1)
+         g = g.parentGroup;
+      if (scopeGroup != null) {
+         group = g;
+         if (g != null)
+            groupSlot = g.findGroupSlot(expName);
+         groupResolved = true;
+      }
+      return g;
+   }
+
+
+   /**
+    * Creates a copy of this reference that refers to the copied groups.
+    * @param copies the map of already copied objects
+    */
+   public VariableReference deepCopy(HashMap copies)
+   {
+      return new VariableReference(expName, localSlot,
+         scopeGroup != null ? (GroupBase)scopeGroup.deepCopy(copies) : null);
+   }
+
+
+   /** Constructor for {@link #deepCopy} */
+   private VariableReference(String expName, int localSlot,
+                             GroupBase scopeGroup)
+   {
+      this.expName = expName;
+      this.localSlot = localSlot;
+      this.scopeGroup = scopeGroup;
+   }
+}
@@ -119,12 +119,12 @@ final public class WhenFactory extends FactoryBase
       public short process(Context context)
          throws SAXException
       {
-         if (test.evaluate(context, this).getBooleanValue()) {
+         if (test.evaluateBoolean(context, this)) {
             super.process(context);
-            next = trueNext;
+            context.nextInstruction = trueNext;
          }
          else
-            next = falseNext;
+            context.nextInstruction = falseNext;
          return PR_CONTINUE;
       }
 
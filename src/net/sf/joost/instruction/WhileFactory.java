@@ -109,12 +109,12 @@ final public class WhileFactory extends FactoryBase
       public short process(Context context)
          throws SAXException
       {
-         if (test.evaluate(context, this).getBooleanValue()) {
+         if (test.evaluateBoolean(context, this)) {
             super.process(context);
-            next = contents;
+            context.nextInstruction = contents;
          }
          else
-            next = successor;
+            context.nextInstruction = successor;
          return PR_CONTINUE;
       }
 
@@ -129,7 +129,7 @@ final public class WithParamFactory extends FactoryBase
          else
             context.passedParameters.put(
                expName,
-               select.evaluate(context, this));
+               select.evaluate(context, this).escape());
 
          return PR_CONTINUE;
       }
@@ -24,12 +24,9 @@
 
 package net.sf.joost.stx;
 
-import java.util.Hashtable;
-import java.util.Stack;
-
 import net.sf.joost.Constants;
 import net.sf.joost.emitter.BufferEmitter;
-import net.sf.joost.instruction.GroupBase;
+import net.sf.joost.emitter.EventLog;
 
 import org.xml.sax.ContentHandler;
 import org.xml.sax.DTDHandler;
@@ -58,8 +55,8 @@ public class BufferReader implements XMLReader, Constants
    /** the content handler object */
    private ContentHandler contH;
 
-   /** the array of events to be feed into the external SAX processor */
-   private SAXEvent[] events;
+   /** the events to be feed into the external SAX processor */
+   private EventLog events;
    
    private String publicId, systemId;
    
@@ -67,20 +64,15 @@ public class BufferReader implements XMLReader, Constants
    /**
     * Constructs a new <code>BufferReader</code> object.
     * @param context the current context
-    * @param bufExpName the internal expanded name
-    * @param groupScope the scope of the buffer
+    * @param emitter the emitter of the buffer
     * @param publicId the public identifier to be used for the buffer
     * @param systemId the system identifier to be used for the buffer
-    * @exception SAXException if there's no such buffer
+    * @exception SAXException if the buffer contents is not well-formed
     */
-   public BufferReader(Context context, String bufExpName, GroupBase groupScope,
+   public BufferReader(Context context, Emitter emitter,
                        String publicId, String systemId)
       throws SAXException
    {
-      Emitter emitter = (Emitter) ((groupScope == null) 
-         ? context.localVars.get(bufExpName)
-         : ((Hashtable)((Stack)context.groupVars.get(groupScope))
-               .peek()).get(bufExpName));
       // endDocument() doesn't add a event to the buffer.
       // However, it checks that the buffer contents is well-formed
       emitter.endDocument(context.currentInstruction);
@@ -90,6 +82,17 @@ public class BufferReader implements XMLReader, Constants
    }
 
 
+   /**
+    * Constructs a new <code>BufferReader</code> object for the events
+    * that have been filled into a {@link BufferEmitter}.
+    * @param events the events
+    */
+   BufferReader(EventLog events)
+   {
+      this.events = events;
+   }
+
+
    public void setFeature(String name, boolean state)
       throws SAXNotRecognizedException,
              SAXNotSupportedException
@@ -226,46 +229,6 @@ public class BufferReader implements XMLReader, Constants
    public void parse(ContentHandler contH, LexicalHandler lexH)
       throws SAXException
    {
-      // generate events
-      for (int i=0; i<events.length; i++) {
-         SAXEvent ev = events[i];
-         switch (ev.type) {
-         case SAXEvent.ELEMENT:
-            contH.startElement(ev.uri, ev.lName, ev.qName, ev.attrs);
-            break;
-         case SAXEvent.ELEMENT_END:
-            contH.endElement(ev.uri, ev.lName, ev.qName);
-            break;
-         case SAXEvent.TEXT:
-            contH.characters(ev.value.toCharArray(), 
-                             0, ev.value.length());
-            break;
-         case SAXEvent.CDATA:
-            if (lexH != null) {
-               lexH.startCDATA();
-               contH.characters(ev.value.toCharArray(), 
-                                0, ev.value.length());
-               lexH.endCDATA();
-            }
-            else
-               contH.characters(ev.value.toCharArray(), 
-                                0, ev.value.length());
-            break;
-         case SAXEvent.PI:
-            contH.processingInstruction(ev.qName, ev.value);
-            break;
-         case SAXEvent.COMMENT:
-            if (lexH != null)
-               lexH.comment(ev.value.toCharArray(), 
-                            0, ev.value.length());
-            break;
-         case SAXEvent.MAPPING:
-            contH.startPrefixMapping(ev.qName, ev.value);
-            break;
-         case SAXEvent.MAPPING_END:
-            contH.endPrefixMapping(ev.qName);
-            break;
-         }
-      }
+      events.replay(contH, lexH);
    }
 }
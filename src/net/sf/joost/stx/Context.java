@@ -25,12 +25,18 @@
 package net.sf.joost.stx;
 
 import net.sf.joost.OutputURIResolver;
+import net.sf.joost.emitter.BufferEmitter;
+import net.sf.joost.emitter.StreamEmitter;
 import net.sf.joost.emitter.StxEmitter;
+import net.sf.joost.instruction.AbstractInstruction;
 import net.sf.joost.instruction.GroupBase;
 import net.sf.joost.instruction.NodeBase;
 import net.sf.joost.instruction.PSiblingsFactory;
+import net.sf.joost.util.regex.RegexCache;
 
+import java.io.ByteArrayOutputStream;
 import java.util.Hashtable;
+import java.util.IdentityHashMap;
 import java.util.Stack;
 
 import javax.xml.transform.URIResolver;
@@ -42,6 +48,12 @@ import org.xml.sax.Locator;
 /**
  * Instances of this class provide context information while processing
  * an input document.
+ * <p>
+ * The compiled transformation sheet (the graph of instructions) is never
+ * modified during a transformation, thus it can be shared among any number
+ * of concurrent transformations. All run-time data of the instructions is
+ * kept in the context instead (see {@link #getLocalFieldStack} and
+ * {@link #nextInstruction}).
  * @version $Revision: 2.21 $ $Date: 2008/12/07 19:10:40 $
  * @author Oliver Becker
  */
@@ -54,7 +66,7 @@ public final class Context implements Cloneable
    public Emitter emitter;
 
    /** The current ancestor stack */
-   public Stack ancestorStack = new Stack();
+   public EventStack ancestorStack = new EventStack();
 
    /** The position of the current node. */
    public long position;
@@ -62,6 +74,15 @@ public final class Context implements Cloneable
    /** The currently processed statement in the transformation sheet */
    public NodeBase currentInstruction;
 
+   /**
+    * The instruction that has to be processed next, if it differs from the
+    * <code>next</code> field of the currently processed instruction.
+    * Instructions that change the control flow (conditions and loops)
+    * set this field instead of modifying the (shared) instruction chain.
+    * It will be reset to <code>null</code> by the processing loop.
+    */
+   public AbstractInstruction nextInstruction;
+
    /** The group, the current template is a child of */
    public GroupBase currentGroup;
 
@@ -75,12 +96,26 @@ public final class Context implements Cloneable
    /** Encountered <code>stx:process-siblings</code> instruction */
    public PSiblingsFactory.Instance psiblings;
 
-   /** Hashtable for Stacks of group variables
-       (key=group instance, value=Stack of Hashtables). */
-   public Hashtable groupVars = new Hashtable();
+   /**
+    * The current frames of the group variables, indexed by
+    * {@link GroupBase#groupNumber}; each frame is indexed by the slots of
+    * the variables (see {@link GroupBase#enterRecursionLevel})
+    */
+   public Object[][] groupVars = new Object[0][];
 
-   /** Local defined variables of a template. */
-   public Hashtable localVars = new Hashtable();
+   /** An empty frame */
+   private static final Object[] EMPTY_FRAME = new Object[0];
+
+   /**
+    * The frame of the local variables of the current template, indexed by
+    * the slots of the variables. A frame will be handed over to the
+    * {@link Processor} when the template suspends, thus it is never
+    * copied.
+    */
+   private Object[] localVars = EMPTY_FRAME;
+
+   /** The expected size of {@link #localVars} */
+   private int frameSize;
 
    /** External parameters passed to the transformation */
    public Hashtable globalParameters = new Hashtable();
@@ -106,14 +141,201 @@ public final class Context implements Cloneable
    public OutputURIResolver outputUriResolver;
 
    /**
-    * The message emitter for <code>stx:message</code>,
-    * either explicitely set by {@link Processor#setMessageEmitter} or
-    * automatically created in the first
-    * {@link net.sf.joost.instruction.MessageFactory.Instance#process}
-    * invocation.
+    * The message emitter for <code>stx:message</code>, explicitely set by
+    * {@link Processor#setMessageEmitter}. If this emitter is
+    * <code>null</code> then the messages will be written to stderr by the
+    * {@link net.sf.joost.emitter.MessageWriter}.
     */
    public StxEmitter messageEmitter;
 
+   /**
+    * The emitter that renders the text of <code>stx:message</code> into
+    * {@link #messageText} or {@link #messageBytes}, reused for all
+    * messages of the current transformation; <code>null</code> while in
+    * use
+    */
+   public StreamEmitter messageTextEmitter;
+
+   /**
+    * The buffer that receives the output of {@link #messageTextEmitter}
+    * if the messages will be logged
+    */
+   public StringBuffer messageText;
+
+   /**
+    * The stream that receives the encoded output of
+    * {@link #messageTextEmitter} if the messages will be written to stderr
+    */
+   public ByteArrayOutputStream messageBytes;
+
+   /**
+    * Identifies the messages of the current transformation in the
+    * {@link net.sf.joost.emitter.MessageWriter}. The worker copies of a
+    * Processor in split mode use the object of the main Processor.
+    */
+   public Object messageOwner = this;
+
+   /**
+    * The cache for regular expressions that are computed at run time,
+    * shared by all transformers of the same transformation sheet
+    */
+   public RegexCache regexCache;
+
+   /**
+    * The number of bytes a buffer keeps in memory before its contents
+    * will be written to a temporary file (see
+    * {@link Processor#setBufferSpillThreshold})
+    */
+   public int bufferSpillThreshold = BufferEmitter.DEFAULT_SPILL_THRESHOLD;
+
+   /**
+    * The cache for documents processed by <code>stx:process-document</code>,
+    * <code>null</code> if disabled (see {@link Processor#setDocumentCache})
+    */
+   public DocumentCache documentCache;
+
+   /**
+    * The scripting engines used by this transformer
+    * (key=script, value=engine), see
+    * {@link net.sf.joost.stx.function.ScriptFunction}
+    */
+   public IdentityHashMap scriptEngines = new IdentityHashMap();
+
+   /**
+    * Stacks for storing local fields of the instructions during this
+    * transformation (key=instruction, value=Stack)
+    */
+   private IdentityHashMap localFieldStacks = new IdentityHashMap();
+
+
+   /**
+    * Returns the stack for storing local fields of an instruction in this
+    * context (for example values that are needed in its end instruction).
+    * The stack will be created on demand.
+    * @param instruction the instruction that owns the stack
+    * @return the stack of this instruction
+    */
+   public Stack getLocalFieldStack(AbstractInstruction instruction)
+   {
+      Stack stack = (Stack)localFieldStacks.get(instruction);
+      if (stack == null) {
+         stack = new Stack();
+         localFieldStacks.put(instruction, stack);
+      }
+      return stack;
+   }
+
+
+   /**
+    * Removes the local fields of all instructions, called at the begin of
+    * a new transformation (remainders of an aborted transformation may
+    * still be present)
+    */
+   public void clearLocalFields()
+   {
+      localFieldStacks.clear();
+      nextInstruction = null;
+   }
+
+
+   /**
+    * Starts a new empty frame for local variables. The frame will be
+    * created on demand.
+    * @param size the expected size of the frame
+    */
+   public void newLocalVars(int size)
+   {
+      localVars = EMPTY_FRAME;
+      frameSize = size;
+   }
+
+   /** @return the current frame of local variables */
+   public Object[] getLocalVars()
+   {
+      return localVars;
+   }
+
+   /**
+    * Sets the current frame of local variables
+    * @param frame a frame previously obtained from {@link #getLocalVars}
+    */
+   public void setLocalVars(Object[] frame)
+   {
+      localVars = frame;
+   }
+
+   /**
+    * @param slot the slot of the variable
+    * @return the value of a local variable, <code>null</code> if the
+    *         variable hasn't been declared
+    */
+   public Object getLocalVar(int slot)
+   {
+      return slot < localVars.length ? localVars[slot] : null;
+   }
+
+   /**
+    * Sets the value of a local variable.
+    * @param slot the slot of the variable
+    * @param value the new value, <code>null</code> removes the variable
+    */
+   public void setLocalVar(int slot, Object value)
+   {
+      if (slot >= localVars.length) {
+         if (value == null)
+            return;
+         Object[] frame = new Object[Math.max(frameSize, slot + 1)];
+         System.arraycopy(localVars, 0, frame, 0, localVars.length);
+         localVars = frame;
+      }
+      localVars[slot] = value;
+   }
+
+   /**
+    * @param group a group
+    * @return the current frame of the variables of this group
+    */
+   public Object[] getGroupVars(GroupBase group)
+   {
+      return groupVars[group.groupNumber];
+   }
+
+   /**
+    * Sets the current frame of the variables of a group.
+    * @param group a group
+    * @param frame the frame
+    */
+   public void setGroupVars(GroupBase group, Object[] frame)
+   {
+      int index = group.groupNumber;
+      if (index >= groupVars.length) {
+         Object[][] tmp = new Object[index + 1][];
+         System.arraycopy(groupVars, 0, tmp, 0, groupVars.length);
+         groupVars = tmp;
+      }
+      groupVars[index] = frame;
+   }
+
+   /**
+    * Resets the state of a transformation (see {@link Processor#reset}).
+    * @param transformNode the root node of the transformation sheet
+    */
+   void reset(GroupBase transformNode)
+   {
+      while (emitter.prev != null)
+         emitter = emitter.prev;
+      emitter.reset();
+      position = 0;
+      currentInstruction = null;
+      currentGroup = targetGroup = transformNode;
+      psiblings = null;
+      localVars = EMPTY_FRAME;
+      passedParameters.clear();
+      targetHandler = null;
+      messageTextEmitter = null;
+      clearLocalFields();
+   }
+
    /** Instantiate a new emitter object for a new result event stream */
    public void pushEmitter(StxEmitter stxEmitter)
    {
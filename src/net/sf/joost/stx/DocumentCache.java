@@ -0,0 +1,481 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is agent.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+
+package net.sf.joost.stx;
+
+import net.sf.joost.emitter.BufferEmitter;
+import net.sf.joost.emitter.EventLog;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.LocatorImpl;
+
+
+/**
+ * A cache of the documents processed by <code>stx:process-document</code>
+ * (see {@link Processor#setDocumentCache}). The key of a document is its
+ * resolved system identifier, the parsed document will be kept in memory
+ * as a compact {@link EventLog}, which can be replayed concurrently by
+ * several transformers. When full, the least recently used document will
+ * be evicted. A cached document won't be parsed again, even if it has
+ * been modified in the meantime.
+ * <p>
+ * A number of worker threads parse documents ahead of time (see
+ * {@link #prefetch}), for example the remaining documents of a sequence
+ * passed to <code>stx:process-document</code> while the current one is
+ * being processed. The workers are started on demand; an idle worker
+ * terminates after a timeout, so an unused cache doesn't keep threads
+ * alive. Errors and warnings of the parser are recorded and reported to
+ * the error handler of the thread that processes the document.
+ * @version $Revision$ $Date$
+ * @author agent
+ */
+public final class DocumentCache
+{
+   /**
+    * The default time in milliseconds an idle worker thread waits for a
+    * new document before it terminates
+    */
+   public static final long IDLE_TIMEOUT = 10000;
+
+   /** The parsed documents (key=system identifier, value=EventLog) */
+   private Documents documents;
+
+   /**
+    * The documents being parsed or waiting for a worker thread
+    * (key=system identifier, value=Entry)
+    */
+   private HashMap pending = new HashMap();
+
+   /** The entries waiting for a worker thread */
+   private LinkedList jobs = new LinkedList();
+
+   /** The maximal number of cached documents */
+   private int maxSize;
+
+   /** The maximal number of worker threads */
+   private int maxThreads;
+
+   /** The number of started worker threads */
+   private int threads;
+
+   /** The idle timeout of the worker threads in milliseconds */
+   private long idleTimeout;
+
+   /** Set when the worker threads have to terminate */
+   private boolean shutdown;
+
+   /** Statistics */
+   private long hits, misses;
+
+
+   /**
+    * Constructs a cache.
+    * @param maxSize the maximal number of cached documents
+    * @param threads the maximal number of threads that parse documents
+    *        ahead of time, 0 disables {@link #prefetch}
+    */
+   public DocumentCache(int maxSize, int threads)
+   {
+      this(maxSize, threads, IDLE_TIMEOUT);
+   }
+
+
+   /**
+    * Constructs a cache.
+    * @param maxSize the maximal number of cached documents
+    * @param threads the maximal number of threads that parse documents
+    *        ahead of time, 0 disables {@link #prefetch}
+    * @param idleTimeout the time in milliseconds an idle worker thread
+    *        waits for a new document before it terminates
+    */
+   public DocumentCache(int maxSize, int threads, long idleTimeout)
+   {
+      this.maxSize = maxSize;
+      maxThreads = threads;
+      this.idleTimeout = idleTimeout;
+      documents = new Documents(maxSize);
+   }
+
+
+   /**
+    * Processes a document: replays its cached events, waits for a
+    * pending {@link #prefetch}, or parses the document in the calling
+    * thread and adds it to this cache.
+    * @param systemId the resolved system identifier of the document
+    * @param errorHandler the handler for the errors and warnings of the
+    *        XML parser, which will be reported in the calling thread
+    * @param contH the content handler
+    * @param lexH the lexical handler
+    */
+   public void process(String systemId, ErrorHandler errorHandler,
+                       ContentHandler contH, LexicalHandler lexH)
+      throws SAXException, IOException
+   {
+      EventLog events = getEvents(systemId, errorHandler);
+      LocatorImpl locator = new LocatorImpl();
+      locator.setSystemId(systemId);
+      contH.setDocumentLocator(locator);
+      contH.startDocument();
+      events.replay(contH, lexH);
+      contH.endDocument();
+   }
+
+
+   /**
+    * Starts parsing a document in a worker thread, unless it is already
+    * cached or being parsed. Further documents will wait until one of the
+    * {@link #maxThreads} workers becomes available. Errors won't be
+    * reported before the document will be processed.
+    * @param systemId the resolved system identifier of the document
+    */
+   public void prefetch(String systemId)
+   {
+      synchronized (this) {
+         if (maxThreads == 0 || shutdown ||
+             documents.containsKey(systemId) ||
+             pending.containsKey(systemId))
+            return;
+         Entry entry = new Entry(systemId);
+         pending.put(systemId, entry);
+         jobs.addLast(entry);
+         notifyAll();
+         if (threads == maxThreads)
+            return; // one of the workers will take this job
+         threads++;
+      }
+      Thread t = new Worker();
+      t.setDaemon(true);
+      t.start();
+   }
+
+
+   /**
+    * @return the events of a document, either from this cache or parsed
+    *         in the calling thread; the errors of the parser will be
+    *         reported to <code>errorHandler</code>
+    */
+   private EventLog getEvents(String systemId, ErrorHandler errorHandler)
+      throws SAXException, IOException
+   {
+      Entry entry;
+      synchronized (this) {
+         EventLog events = (EventLog)documents.get(systemId);
+         if (events != null) {
+            hits++;
+            return events;
+         }
+         misses++;
+         entry = (Entry)pending.get(systemId);
+         if (entry == null) {
+            entry = new Entry(systemId);
+            pending.put(systemId, entry);
+         }
+         else if (!jobs.remove(entry)) {
+            // a worker is parsing this document
+            while (!entry.done) {
+               try {
+                  wait();
+               }
+               catch (InterruptedException ex) {
+                  throw new SAXException(ex);
+               }
+            }
+         }
+      }
+      if (!entry.done) // no worker has started this job, parse it here
+         parse(entry, null);
+      // report the errors outside of the lock
+      return entry.getEvents(errorHandler);
+   }
+
+
+   /**
+    * Parses the document of an entry and adds it to this cache
+    * @param entry the entry
+    * @param reader the XML parser, <code>null</code> for a new one
+    * @return the XML parser used, <code>null</code> if it couldn't be
+    *         created
+    */
+   private XMLReader parse(Entry entry, XMLReader reader)
+   {
+      BufferEmitter buffer = new BufferEmitter(-1); // keep in memory
+      Exception error = new SAXException("Abnormal termination while " +
+                                         "parsing " + entry.systemId);
+      try {
+         if (reader == null)
+            reader = Processor.createXMLReader();
+         reader.setErrorHandler(entry);
+         reader.setContentHandler(buffer);
+         try {
+            reader.setProperty(
+               "http://xml.org/sax/properties/lexical-handler", buffer);
+         }
+         catch (SAXException ex) {
+            // no comments and CDATA sections
+         }
+         reader.parse(new InputSource(entry.systemId));
+         buffer.filled();
+         error = null;
+      }
+      catch (Exception ex) {
+         error = ex;
+      }
+      finally {
+         synchronized (this) {
+            pending.remove(entry.systemId);
+            if (error == null) {
+               entry.events = buffer.getEvents();
+               documents.put(entry.systemId, entry.events);
+            }
+            entry.error = error;
+            entry.done = true;
+            notifyAll();
+         }
+      }
+      return reader;
+   }
+
+
+   /** Terminates the worker threads, {@link #prefetch} won't work anymore */
+   public synchronized void shutdown()
+   {
+      shutdown = true;
+      jobs.clear();
+      notifyAll();
+   }
+
+
+   /** @return the maximal number of cached documents */
+   public int getMaxSize()
+   {
+      return maxSize;
+   }
+
+
+   /** @return the maximal number of worker threads */
+   public int getThreads()
+   {
+      return maxThreads;
+   }
+
+
+   /** @return the number of cached documents */
+   public synchronized int getSize()
+   {
+      return documents.size();
+   }
+
+
+   /** @return the number of documents that have been found in the cache */
+   public synchronized long getHits()
+   {
+      return hits;
+   }
+
+
+   /** @return the number of documents that haven't been cached */
+   public synchronized long getMisses()
+   {
+      return misses;
+   }
+
+
+   /** Removes all documents from this cache */
+   public synchronized void clear()
+   {
+      documents.clear();
+   }
+
+
+   public String toString()
+   {
+      return "DocumentCache[size=" + getSize() + "/" + maxSize +
+             ", hits=" + getHits() + ", misses=" + getMisses() + "]";
+   }
+
+
+   /** The map of parsed documents, ordered by their last access */
+   private static final class Documents extends LinkedHashMap
+   {
+      /** The maximal number of entries */
+      private int capacity;
+
+      Documents(int capacity)
+      {
+         super(16, 0.75f, true);
+         this.capacity = capacity;
+      }
+
+      protected boolean removeEldestEntry(Map.Entry eldest)
+      {
+         return size() > capacity;
+      }
+   }
+
+
+   /**
+    * A document being parsed. As error handler of the parser it records
+    * the errors and warnings, which will be reported later by the thread
+    * that processes the document.
+    */
+   private static final class Entry implements ErrorHandler
+   {
+      private static final Integer WARNING = new Integer(0),
+                                   ERROR = new Integer(1),
+                                   FATAL_ERROR = new Integer(2);
+
+      final String systemId;
+
+      /** the parsed events, set when {@link #done} */
+      EventLog events;
+
+      /** an exception that occurred while parsing */
+      Exception error;
+
+      boolean done;
+
+      /**
+       * the reports of the parser, each one a kind ({@link #WARNING},
+       * {@link #ERROR}, {@link #FATAL_ERROR}) followed by the exception
+       */
+      private ArrayList reports = new ArrayList();
+
+      Entry(String systemId)
+      {
+         this.systemId = systemId;
+      }
+
+      public void warning(SAXParseException ex)
+      {
+         reports.add(WARNING);
+         reports.add(ex);
+      }
+
+      public void error(SAXParseException ex)
+      {
+         reports.add(ERROR);
+         reports.add(ex);
+      }
+
+      public void fatalError(SAXParseException ex)
+      {
+         reports.add(FATAL_ERROR);
+         reports.add(ex);
+      }
+
+      /**
+       * Reports the recorded errors and warnings to an error handler.
+       * @return the events, or throws the exception of the parser
+       */
+      EventLog getEvents(ErrorHandler errorHandler)
+         throws SAXException, IOException
+      {
+         if (errorHandler != null) {
+            for (int i=0; i<reports.size(); i+=2) {
+               Object kind = reports.get(i);
+               SAXParseException ex = (SAXParseException)reports.get(i+1);
+               if (kind == WARNING)
+                  errorHandler.warning(ex);
+               else if (kind == ERROR)
+                  errorHandler.error(ex);
+               else
+                  errorHandler.fatalError(ex);
+            }
+         }
+         if (error instanceof SAXException)
+            throw (SAXException)error;
+         if (error instanceof IOException)
+            throw (IOException)error;
+         if (error != null)
+            throw new SAXException(error);
+         return events;
+      }
+   }
+
+
+   /** A worker thread */
+   private final class Worker extends Thread
+   {
+      Worker()
+      {
+         super("Joost document prefetch");
+      }
+
+      public void run()
+      {
+         try {
+            work();
+         }
+         finally {
+            // also reached if an Error (e.g. OutOfMemoryError) occurred
+            synchronized (DocumentCache.this) {
+               threads--;
+            }
+         }
+      }
+
+      /**
+       * Parses documents until this thread has been idle for
+       * {@link #idleTimeout} milliseconds or the cache has been shut down
+       */
+      private void work()
+      {
+         XMLReader reader = null;
+         while (true) {
+            Entry entry;
+            synchronized (DocumentCache.this) {
+               long idleEnd = System.currentTimeMillis() + idleTimeout;
+               while (jobs.isEmpty() && !shutdown) {
+                  long timeout = idleEnd - System.currentTimeMillis();
+                  if (timeout <= 0)
+                     return;
+                  try {
+                     DocumentCache.this.wait(timeout);
+                  }
+                  catch (InterruptedException ex) {
+                     return;
+                  }
+               }
+               if (shutdown)
+                  return;
+               entry = (Entry)jobs.removeFirst();
+            }
+            reader = parse(entry, reader);
+         }
+      }
+   }
+}
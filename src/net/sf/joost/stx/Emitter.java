@@ -68,6 +68,13 @@ public class Emitter implements Constants
    private Stack nsStack;
    private String nsDefault;
 
+   /**
+    * The namespace tables of the opened elements whose entries are all
+    * declared, <code>null</code> if unknown. An element that shares the
+    * table of its parent needs no further namespace checks.
+    */
+   private Stack nsTables;
+
    /** Stack for emitted start events, allows well-formedness check */
    private Stack openedElements;
 
@@ -89,6 +96,7 @@ public class Emitter implements Constants
       nsSupport = new NamespaceSupport();
       nsDefault = "";
       nsStack = new Stack();
+      nsTables = new Stack();
 
       openedElements = new Stack();
       this.errorHandler = errorHandler;
@@ -121,6 +129,24 @@ public class Emitter implements Constants
       return new Emitter(this, handler);
    }
 
+   /**
+    * Discards the state of an aborted result event stream, such that this
+    * emitter can be used for a new stream.
+    */
+   public void reset()
+   {
+      nsSupport.reset();
+      nsDefault = "";
+      nsStack.clear();
+      nsTables.clear();
+      openedElements.clear();
+      lastAttrs = null;
+      lastInstruction = null;
+      insideCDATA = false;
+      dtdAllowed = true;
+   }
+
+
    public void setContentHandler(ContentHandler handler)
    {
       contH = handler;
@@ -191,6 +217,9 @@ public class Emitter implements Constants
                nsSupport.declarePrefix(prefix, uri);
                nsStack.push(prefix);
                contH.startPrefixMapping(prefix, uri);
+               // the table of this element may be overridden now
+               if (!nsTables.empty())
+                  nsTables.set(nsTables.size() - 1, null);
             }
          }
       }
@@ -274,7 +303,9 @@ public class Emitter implements Constants
          lastQName = qName;
          lastAttrs = new MutableAttributesImpl(attrs);
 
-         if (namespaces != null) {
+         Object parentTable = nsTables.empty() ? null : nsTables.peek();
+         if (namespaces != null &&
+             (namespaces != parentTable || nsStack.peek() != null)) {
             // does #namespaces contain undeclared namespaces?
             for (Enumeration e = namespaces.keys(); e.hasMoreElements(); ) {
                String thePrefix = (String)e.nextElement();
@@ -296,6 +327,7 @@ public class Emitter implements Constants
          }
          // else: happens for dynamically created elements
          // e.g. <stx:start-element name="foo" />
+         nsTables.push(namespaces);
 
          lastInstruction = instruction;
       }
@@ -346,6 +378,7 @@ public class Emitter implements Constants
 
          // send endPrefixMapping events, prefixes are on #nsStack
          nsSupport.popContext();
+         nsTables.pop();
          String thePrefix = (String)nsStack.pop();
          while (thePrefix != null) { // null is the marker for a new context
             contH.endPrefixMapping(thePrefix);
@@ -375,19 +408,17 @@ public class Emitter implements Constants
             processLastElement();
          try {
             if (insideCDATA) { // prevent output of "]]>" in this CDATA section
-               String str = new String(ch, start, length);
-               int index = str.indexOf("]]>");
-               while (index != -1) {
-                  // "]]>" found; split between "]]" and ">"
-                  index += 2;
-                  contH.characters(str.substring(0,index).toCharArray(),
-                                   0, index);
-                  lexH.endCDATA();   // #lexH will be != null,
-                  lexH.startCDATA(); // because #insideCDATA was true
-                  str = str.substring(index);
-                  index = str.indexOf("]]>");
+               int end = start + length;
+               for (int i=start; i<end-2; i++) {
+                  if (ch[i] == ']' && ch[i+1] == ']' && ch[i+2] == '>') {
+                     // "]]>" found; split between "]]" and ">"
+                     contH.characters(ch, start, i + 2 - start);
+                     lexH.endCDATA();   // #lexH will be != null,
+                     lexH.startCDATA(); // because #insideCDATA was true
+                     start = i + 2;
+                  }
                }
-               contH.characters(str.toCharArray(), 0, str.length());
+               contH.characters(ch, start, end - start);
             }
             else
                contH.characters(ch, start, length);
@@ -0,0 +1,150 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is agent.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+
+package net.sf.joost.stx;
+
+import net.sf.joost.stx.helpers.MutableAttributesImpl;
+import net.sf.joost.util.om.FastStringBuffer;
+
+import org.xml.sax.Attributes;
+
+/**
+ * A pool of {@link SAXEvent} objects that have been removed from the
+ * ancestor stack of a {@link Processor}. The factory methods of this class
+ * reuse such an event if one is available, otherwise they create a new one.
+ * Events that are marked as {@link SAXEvent#escaped escaped} won't be
+ * recycled.
+ * @version $Revision$ $Date$
+ * @author agent
+ */
+final class EventPool
+{
+   /** The maximal number of pooled events */
+   private static final int MAX_SIZE = 64;
+
+   private SAXEvent[] events = new SAXEvent[MAX_SIZE];
+
+   private int size = 0;
+
+
+   /**
+    * Returns an event to the pool.
+    * @param event the event, no longer referenced from the ancestor stack
+    */
+   void release(SAXEvent event)
+   {
+      if (event.escaped || size == MAX_SIZE)
+         return;
+      event.recycle();
+      events[size++] = event;
+   }
+
+
+   /** @return a recycled element event */
+   SAXEvent newElement(String uri, String lName, String qName,
+                       Attributes attrs, NamespaceScope inScopeNamespaces)
+   {
+      if (size == 0)
+         return SAXEvent.newElement(uri, lName, qName, attrs, false,
+                                    inScopeNamespaces);
+      SAXEvent event = events[--size];
+      events[size] = null;
+      event.type = SAXEvent.ELEMENT;
+      event.uri = uri;
+      event.lName = lName;
+      event.qName = qName;
+      if (event.spareAttrs instanceof MutableAttributesImpl) {
+         ((MutableAttributesImpl)event.spareAttrs).setAttributes(attrs);
+         event.attrs = event.spareAttrs;
+      }
+      else
+         event.attrs = new MutableAttributesImpl(attrs);
+      event.namespaces = inScopeNamespaces;
+      return event;
+   }
+
+
+   /** @return a recycled text event */
+   SAXEvent newText(FastStringBuffer chars)
+   {
+      if (size == 0)
+         return SAXEvent.newText(chars);
+      SAXEvent event = reuse(SAXEvent.TEXT, null, null);
+      event.setChars(chars);
+      return event;
+   }
+
+
+   /** @return a recycled CDATA event */
+   SAXEvent newCDATA(FastStringBuffer chars)
+   {
+      if (size == 0)
+         return SAXEvent.newCDATA(chars);
+      SAXEvent event = reuse(SAXEvent.CDATA, null, null);
+      event.setChars(chars);
+      return event;
+   }
+
+
+   /** @return a recycled comment event */
+   SAXEvent newComment(String value)
+   {
+      if (size == 0)
+         return SAXEvent.newComment(value);
+      return reuse(SAXEvent.COMMENT, null, value);
+   }
+
+
+   /** @return a recycled processing instruction event */
+   SAXEvent newPI(String target, String data)
+   {
+      if (size == 0)
+         return SAXEvent.newPI(target, data);
+      return reuse(SAXEvent.PI, target, data);
+   }
+
+
+   /** @return a recycled attribute event */
+   SAXEvent newAttribute(Attributes attrs, int index)
+   {
+      if (size == 0)
+         return SAXEvent.newAttribute(attrs, index);
+      SAXEvent event = reuse(SAXEvent.ATTRIBUTE, attrs.getQName(index),
+                             attrs.getValue(index));
+      event.uri = attrs.getURI(index);
+      event.lName = attrs.getLocalName(index);
+      return event;
+   }
+
+
+   private SAXEvent reuse(int type, String qName, String value)
+   {
+      SAXEvent event = events[--size];
+      events[size] = null;
+      event.type = type;
+      event.qName = qName;
+      event.setValue(value);
+      return event;
+   }
+}
@@ -0,0 +1,134 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is agent.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+
+package net.sf.joost.stx;
+
+import java.util.Stack;
+
+
+/**
+ * The stack of ancestor events used by the {@link Processor} (see
+ * {@link Context#ancestorStack}). Unlike <code>java.util.Stack</code>
+ * this stack is not synchronized and returns {@link SAXEvent} objects
+ * without the need for a cast. The element at position 0 is the
+ * document node.
+ * @version $Revision$ $Date$
+ * @author agent
+ */
+public final class EventStack
+{
+   /** The events, the top-most event is at position size-1 */
+   private SAXEvent[] events = new SAXEvent[32];
+
+   /** The number of events on this stack */
+   private int size;
+
+
+   /** Pushes an event on top of this stack */
+   public void push(SAXEvent event)
+   {
+      if (size == events.length) {
+         SAXEvent[] tmp = new SAXEvent[size << 1];
+         System.arraycopy(events, 0, tmp, 0, size);
+         events = tmp;
+      }
+      events[size++] = event;
+   }
+
+
+   /** Removes the top-most event from this stack and returns it */
+   public SAXEvent pop()
+   {
+      SAXEvent event = events[--size];
+      events[size] = null;
+      return event;
+   }
+
+
+   /** @return the top-most event without removing it */
+   public SAXEvent peek()
+   {
+      return events[size-1];
+   }
+
+
+   /**
+    * @param index the position on this stack (0 for the document node)
+    * @return the event at this position
+    */
+   public SAXEvent elementAt(int index)
+   {
+      return events[index];
+   }
+
+
+   /** @return the number of events on this stack */
+   public int size()
+   {
+      return size;
+   }
+
+
+   /** @return whether this stack is empty */
+   public boolean isEmpty()
+   {
+      return size == 0;
+   }
+
+
+   /** Removes all events from this stack */
+   public void clear()
+   {
+      while (size > 0)
+         events[--size] = null;
+   }
+
+
+   /**
+    * @return a <code>java.util.Stack</code> that contains the events
+    *         currently on this stack; these events won't be recycled
+    *         (see {@link SAXEvent#escaped})
+    */
+   public Stack toStack()
+   {
+      Stack stack = new Stack();
+      for (int i=0; i<size; i++) {
+         events[i].escaped = true; // the caller may keep the events
+         stack.push(events[i]);
+      }
+      return stack;
+   }
+
+
+   public String toString()
+   {
+      StringBuffer sb = new StringBuffer("[");
+      for (int i=0; i<size; i++) {
+         if (i > 0)
+            sb.append(", ");
+         sb.append(events[i]);
+      }
+      return sb.append(']').toString();
+   }
+}
@@ -0,0 +1,181 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is agent.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+
+package net.sf.joost.stx;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Assigns int ids to the keys of the position counters in {@link SAXEvent}.
+ * Such a key is either one of the node kinds, an expanded element name
+ * (that may contain <code>*</code> as URI or local name), or the target of a
+ * processing instruction. Each {@link Processor} has its own name pool.
+ * @version $Revision$ $Date$
+ * @author agent
+ */
+public final class NamePool
+{
+   /** The id for all nodes (<code>node()</code>) */
+   public static final int NODE = 0;
+
+   /** The id for all text nodes (<code>text()</code>) */
+   public static final int TEXT = 1;
+
+   /** The id for CDATA nodes (<code>cdata()</code>) */
+   public static final int CDATA = 2;
+
+   /** The id for comments (<code>comment()</code>) */
+   public static final int COMMENT = 3;
+
+   /** The id for all elements (<code>*</code>) */
+   public static final int ELEMENT = 4;
+
+   /** The id for all processing instructions */
+   public static final int PI = 5;
+
+   /** Element names: uri -> (local name -> int[]) */
+   private HashMap elementIds = new HashMap();
+
+   /** Processing instructions: target -> Integer */
+   private HashMap piIds = new HashMap();
+
+   /** The next id to be assigned */
+   private int nextId = PI + 1;
+
+
+   public NamePool()
+   {
+      HashMap names = new HashMap();
+      names.put("*", new int[] { ELEMENT });
+      elementIds.put("*", names);
+      piIds.put("", new Integer(PI));
+   }
+
+
+   /**
+    * Creates a copy of this pool that assigns the same ids to the names
+    * registered so far. Both pools can be used independently afterwards.
+    * @return the copy
+    */
+   public NamePool copy()
+   {
+      NamePool pool = new NamePool();
+      for (Iterator it = elementIds.entrySet().iterator(); it.hasNext(); ) {
+         Map.Entry entry = (Map.Entry)it.next();
+         // the int[] arrays won't be changed, see getElementIds()
+         pool.elementIds.put(entry.getKey(),
+                             ((HashMap)entry.getValue()).clone());
+      }
+      pool.piIds.putAll(piIds);
+      pool.nextId = nextId;
+      return pool;
+   }
+
+
+   /**
+    * Determines the ids needed for counting an element.
+    * @param uri the namespace URI of the element
+    * @param lName the local name of the element
+    * @return an array containing the ids for the expanded name, for
+    *         <code>*:lName</code> and for <code>{uri}*</code>
+    */
+   public int[] getElementIds(String uri, String lName)
+   {
+      HashMap names = getNames(uri);
+      int[] ids = (int[])names.get(lName);
+      if (ids == null || ids.length == 1) {
+         int id = ids != null ? ids[0] : nextId++;
+         ids = new int[] { id,
+                           getWildcardId("*", lName),
+                           getWildcardId(uri, "*") };
+         names.put(lName, ids);
+      }
+      return ids;
+   }
+
+
+   /**
+    * @return the id for an element name (that may contain <code>*</code>
+    *         as URI or local name), or -1 if this name hasn't been
+    *         registered yet
+    */
+   public int lookupElementId(String uri, String lName)
+   {
+      HashMap names = (HashMap)elementIds.get(uri);
+      if (names == null)
+         return -1;
+      int[] ids = (int[])names.get(lName);
+      return ids != null ? ids[0] : -1;
+   }
+
+
+   /** @return the id for a processing instruction target */
+   public int getPIId(String target)
+   {
+      Integer id = (Integer)piIds.get(target);
+      if (id == null) {
+         id = new Integer(nextId++);
+         piIds.put(target, id);
+      }
+      return id.intValue();
+   }
+
+
+   /**
+    * @return the id for a processing instruction target, or -1 if this
+    *         target hasn't been registered yet
+    */
+   public int lookupPIId(String target)
+   {
+      Integer id = (Integer)piIds.get(target);
+      return id != null ? id.intValue() : -1;
+   }
+
+
+   /** @return the (local name -> int[]) map for a URI */
+   private HashMap getNames(String uri)
+   {
+      HashMap names = (HashMap)elementIds.get(uri);
+      if (names == null) {
+         names = new HashMap();
+         elementIds.put(uri, names);
+      }
+      return names;
+   }
+
+
+   /** @return the id of a name that contains a <code>*</code> */
+   private int getWildcardId(String uri, String lName)
+   {
+      HashMap names = getNames(uri);
+      int[] ids = (int[])names.get(lName);
+      if (ids == null) {
+         ids = new int[] { nextId++ };
+         names.put(lName, ids);
+      }
+      return ids[0];
+   }
+}
@@ -0,0 +1,175 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is agent.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+
+package net.sf.joost.stx;
+
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Map;
+
+import org.xml.sax.helpers.NamespaceSupport;
+
+
+/**
+ * The in-scope namespaces of an element. A scope is immutable: declaring
+ * a prefix creates a new scope that is linked to its parent, so declaring
+ * is cheap and elements without own namespace declarations simply share
+ * the scope of their parent.
+ * <p>
+ * The complete mapping of a scope is computed once on demand and cached
+ * (see {@link #getNamespaces}), thus a scope may be shared by several
+ * threads.
+ * @version $Revision$ $Date$
+ * @author agent
+ */
+public final class NamespaceScope
+{
+   /** The initial scope, contains only the <code>xml</code> prefix */
+   public static final NamespaceScope XML =
+      new NamespaceScope(null, "xml", NamespaceSupport.XMLNS);
+
+   /** The enclosing scope, <code>null</code> for {@link #XML} */
+   private NamespaceScope parent;
+
+   /** The prefix declared in this scope */
+   private String prefix;
+
+   /** The declared URI, the empty string undeclares {@link #prefix} */
+   private String uri;
+
+   /** The cached mapping from prefixes to URIs */
+   private Hashtable namespaces;
+
+
+   private NamespaceScope(NamespaceScope parent, String prefix, String uri)
+   {
+      this.parent = parent;
+      this.prefix = prefix;
+      this.uri = uri;
+   }
+
+
+   /**
+    * Creates a new scope from a table of namespaces.
+    * @param namespaces a mapping from prefixes to URIs, may be
+    *        <code>null</code>
+    * @return the scope, or <code>null</code> if <code>namespaces</code>
+    *         is <code>null</code>
+    */
+   public static NamespaceScope create(Map namespaces)
+   {
+      if (namespaces == null)
+         return null;
+      NamespaceScope scope = null;
+      Object[] entries = namespaces.entrySet().toArray();
+      for (int i=0; i<entries.length; i++) {
+         Map.Entry e = (Map.Entry)entries[i];
+         scope = new NamespaceScope(scope, (String)e.getKey(),
+                                    (String)e.getValue());
+      }
+      return scope != null ? scope : new NamespaceScope(null, "", "");
+   }
+
+
+   /**
+    * Declares a prefix.
+    * @param prefix the prefix
+    * @param uri the URI, the empty string undeclares the prefix
+    * @return the new scope that contains this declaration
+    */
+   public NamespaceScope declare(String prefix, String uri)
+   {
+      return new NamespaceScope(this, prefix, uri);
+   }
+
+
+   /**
+    * @param prefix a prefix
+    * @return the URI that is bound to <code>prefix</code>, or
+    *         <code>null</code> if the prefix is not declared
+    */
+   public String getURI(String prefix)
+   {
+      return (String)getNamespaces().get(prefix);
+   }
+
+
+   /** @return an enumeration of all declared prefixes */
+   public Enumeration getPrefixes()
+   {
+      return getNamespaces().keys();
+   }
+
+
+   /**
+    * Returns all namespaces of this scope. The returned table is shared
+    * and must not be modified.
+    * @return a mapping from prefixes to URIs
+    */
+   public synchronized Hashtable getNamespaces()
+   {
+      if (namespaces == null) {
+         // find the nearest scope with a cached table, the scopes in
+         // between (from several declarations of one element) won't be
+         // cached
+         int count = 1;
+         Hashtable base = null;
+         for (NamespaceScope s = parent; s != null; s = s.parent) {
+            base = s.getCachedNamespaces();
+            if (base != null)
+               break;
+            count++;
+         }
+         NamespaceScope[] scopes = new NamespaceScope[count];
+         NamespaceScope s = this;
+         for (int i=count-1; i>=0; i--) {
+            scopes[i] = s;
+            s = s.parent;
+         }
+         Hashtable table =
+            base != null ? (Hashtable)base.clone() : new Hashtable();
+         for (int i=0; i<count; i++) {
+            if (scopes[i].uri.equals(""))
+               table.remove(scopes[i].prefix);
+            else
+               table.put(scopes[i].prefix, scopes[i].uri);
+         }
+         namespaces = table;
+      }
+      return namespaces;
+   }
+
+
+   /** @return the cached table, or <code>null</code> */
+   private synchronized Hashtable getCachedNamespaces()
+   {
+      return namespaces;
+   }
+
+
+   public String toString()
+   {
+      return getNamespaces().toString();
+   }
+}
@@ -25,10 +25,12 @@
 package net.sf.joost.stx;
 
 import java.util.Hashtable;
+import java.util.Vector;
 
 import javax.xml.transform.ErrorListener;
 import javax.xml.transform.URIResolver;
 
+import net.sf.joost.instruction.NodeBase;
 import net.sf.joost.instruction.TransformFactory;
 import net.sf.joost.stx.function.FunctionFactory;
 
@@ -59,12 +61,31 @@ public final class ParseContext
    /** An optional ParserListener for <code>stx:include</code> instructions */
    public ParserListener parserListener;
 
+   /**
+    * Receives the <code>href</code> attribute and the base URI (as
+    * <code>String[2]</code>) of all sheets included via
+    * <code>stx:include</code>, <code>null</code> if they won't be recorded
+    */
+   public Vector includedSheets;
+
    /** The root element of the transform sheet */
    public TransformFactory.Instance transformNode;
+
+   /**
+    * The parent of the element that is currently being parsed, determines
+    * the variables that are visible in its expressions
+    */
+   public NodeBase currentNode;
    
    /** Are calls on Java extension functions allowed? */
    public boolean allowExternalFunctions = true;
 
+   /**
+    * Shall STXPath expressions be optimized?
+    * @see net.sf.joost.grammar.ExpressionCompiler
+    */
+   public boolean compileExpressions = false;
+
    /** 
     * The function table for maintaining function definitions, especially of
     * the script functions
@@ -85,7 +106,9 @@ public final class ParseContext
       errorHandler = pContext.errorHandler;
       uriResolver = pContext.uriResolver;
       parserListener = pContext.parserListener;
+      includedSheets = pContext.includedSheets;
       allowExternalFunctions = pContext.allowExternalFunctions;
+      compileExpressions = pContext.compileExpressions;
    }
    
    
@@ -320,6 +320,8 @@ public class Parser implements Constants, ContentHandler // , ErrorHandler
 
          NodeBase newNode;
          pContext.nsSet = getInScopeNamespaces();
+         pContext.currentNode = currentNode != null ? currentNode
+                                                    : includingGroup;
          if (STX_NS.equals(uri)) {
             FactoryBase fac = (FactoryBase)stxFactories.get(lName);
             if (fac == null) 
@@ -28,20 +28,25 @@ import net.sf.joost.Constants;
 import net.sf.joost.OptionalLog;
 import net.sf.joost.OutputURIResolver;
 import net.sf.joost.TransformerHandlerResolver;
+import net.sf.joost.emitter.BufferEmitter;
+import net.sf.joost.emitter.MessageWriter;
 import net.sf.joost.emitter.StxEmitter;
 import net.sf.joost.grammar.EvalException;
 import net.sf.joost.instruction.AbstractInstruction;
 import net.sf.joost.instruction.GroupBase;
 import net.sf.joost.instruction.NodeBase;
 import net.sf.joost.instruction.PSiblingsFactory;
+import net.sf.joost.instruction.PatternAutomaton;
 import net.sf.joost.instruction.ProcessBase;
 import net.sf.joost.instruction.TemplateFactory;
+import net.sf.joost.instruction.TemplateIndex;
 import net.sf.joost.instruction.TransformFactory;
+import net.sf.joost.util.om.FastStringBuffer;
 
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Enumeration;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Properties;
 import java.util.Stack;
@@ -62,7 +67,7 @@ import org.xml.sax.SAXNotSupportedException;
 import org.xml.sax.XMLReader;
 import org.xml.sax.ext.DeclHandler;
 import org.xml.sax.ext.LexicalHandler;
-import org.xml.sax.helpers.NamespaceSupport;
+import org.xml.sax.helpers.LocatorImpl;
 import org.xml.sax.helpers.XMLFilterImpl;
 import org.xml.sax.helpers.XMLReaderFactory;
 
@@ -100,9 +105,73 @@ public class Processor extends XMLFilterImpl
     */
    private TemplateFactory.Instance[] globalTemplates;
 
+   /** The dispatch index for {@link #globalTemplates} */
+   private TemplateIndex globalTemplateIndex;
+
    /** The Context object */
    private Context context;
 
+   /**
+    * The XML parser created by this Processor, <code>null</code> if the
+    * parser has always been provided from outside
+    */
+   private XMLReader defaultParser;
+
+   /**
+    * Whether the positions of the nodes need to be counted, i.e. the
+    * transformation sheet uses the context position
+    */
+   private boolean countPositions;
+
+   /** The name pool for the position counters */
+   private NamePool namePool;
+
+   /**
+    * Whether events removed from the event stack will be reused for
+    * subsequent nodes
+    */
+   private boolean recycleEvents = false;
+
+   /** The pool for recycled events (used as factory for all events) */
+   private EventPool eventPool = new EventPool();
+
+   /**
+    * The pattern for the subtrees that will be transformed in parallel,
+    * <code>null</code> if the split mode is disabled
+    */
+   private String splitPattern;
+
+   /** The number of worker threads in split mode */
+   private int splitThreads = Runtime.getRuntime().availableProcessors();
+
+   /**
+    * The warning that will be reported at the begin of a transformation
+    * if the split mode had to be disabled, see {@link #setSplitPattern}
+    */
+   private String splitWarning;
+
+   /**
+    * Transforms the subtrees in split mode, <code>null</code> if the
+    * split mode hasn't been used yet. The worker threads will be reused
+    * for subsequent transformations.
+    */
+   private SplitMerger splitMerger;
+
+   /**
+    * Depth in the subtree that is collected for a worker in split mode;
+    * increased by startElement and decreased by endElement.
+    */
+   private int splitDepth = 0;
+
+   /**
+    * Collects the events of a subtree in split mode, will be passed
+    * to the worker with {@link #splitTask}
+    */
+   private BufferEmitter splitBuffer;
+
+   /** The task for the subtree in {@link #splitBuffer} */
+   private SplitMerger.Task splitTask;
+
    /**
     * Depth in the subtree to be skipped; increased by startElement
     * and decreased by endElement.
@@ -121,14 +190,24 @@ public class Processor extends XMLFilterImpl
     */
    private boolean insideDTD = false;
 
+   /** The initial capacity of {@link #collectedCharacters} */
+   private static final int CHARACTERS_SIZE = 64;
+
    /** Buffer for collecting character data into single text nodes */
-   private StringBuffer collectedCharacters = new StringBuffer();
+   private FastStringBuffer collectedCharacters =
+      new FastStringBuffer(CHARACTERS_SIZE);
+
+   /**
+    * Set if {@link #collectedCharacters} has been passed to an event
+    * and therefore must not be changed any more
+    */
+   private boolean charactersShared = false;
 
    /** Last event (this Processor uses one look-ahead) */
    private SAXEvent lastElement = null;
 
    /** The namespaces of the current scope */
-   private Hashtable inScopeNamespaces;
+   private NamespaceScope inScopeNamespaces;
 
    /** The namespace context as a stack */
    private Stack namespaceContext = new Stack();
@@ -145,7 +224,7 @@ public class Processor extends XMLFilterImpl
     * needed for matching and for position counting within the parent of
     * each event.
     */
-   private Stack eventStack;
+   private EventStack eventStack;
 
    /**
     * Stack needed for inner processing (buffers, documents).
@@ -193,8 +272,8 @@ public class Processor extends XMLFilterImpl
       /** Next group in the processing, contains the visible templates */
       private GroupBase targetGroup;
 
-      /** current table of local variables in {@link #template} */
-      private Hashtable localVars;
+      /** current frame of local variables in {@link #template} */
+      private Object[] localVars;
 
       /** passed parameters to {@link #template} (only for the debugging) */
       private Hashtable passedParams;
@@ -221,10 +300,13 @@ public class Processor extends XMLFilterImpl
          currentGroup = c.currentGroup;
          contextPosition = c.position;
          targetGroup = c.targetGroup;
-         localVars = (Hashtable)c.localVars.clone();
+         localVars = c.getLocalVars();
          passedParams = pp;
          psiblings = c.psiblings;
          sibEvent = se;
+         // the event will be needed after its removal from the event stack
+         if (se != null)
+            se.escaped = true;
       }
 
       /** Constructor for "descendant or self" processing */
@@ -237,7 +319,7 @@ public class Processor extends XMLFilterImpl
          currentGroup = c.currentGroup;
          contextPosition = c.position;
          targetGroup = c.targetGroup;
-         localVars = (Hashtable)c.localVars.clone();
+         localVars = c.getLocalVars();
          passedParams = pp;
       }
 
@@ -272,7 +354,7 @@ public class Processor extends XMLFilterImpl
       }
 
        /** returns the value of {@link #localVars} */
-      public Hashtable getLocalVars() {
+      public Object[] getLocalVars() {
          return localVars;
       }
 
@@ -307,6 +389,12 @@ public class Processor extends XMLFilterImpl
       private Data[] stack = new Data[32];
       private int objCount = 0;
 
+      void clear()
+      {
+         while (objCount > 0)
+            stack[--objCount] = null;
+      }
+
       void push(Data d)
       {
          if (objCount == stack.length) {
@@ -421,23 +509,45 @@ public class Processor extends XMLFilterImpl
    public Processor(Parser stxParser)
       throws SAXException
    {
-      init(stxParser.getTransformNode());
-      setParent(createXMLReader());
+      this(stxParser.getTransformNode());
+   }
+
+
+   /**
+    * Constructs a new Processor instance from the root node of a compiled
+    * transformation sheet, for example a precompiled sheet read from a
+    * file. The node must not have been used by another Processor before.
+    * @param transformNode the root node of the transformation sheet
+    * @throws SAXException if {@link #createXMLReader} fails
+    */
+   public Processor(TransformFactory.Instance transformNode)
+      throws SAXException
+   {
+      init(transformNode);
+      setDefaultParent();
    }
 
 
    /**
-    * Constructs a copy of the given Processor.
+    * Constructs a copy of the given Processor. The compiled transformation
+    * sheet won't be modified while processing, so the copy shares it with
+    * the original Processor; only a new {@link Context} will be created.
+    * The XML parser for the copy will be created on demand when
+    * {@link #parse(InputSource)} is called without a parent.
     * @param proc the original Processor object
     * @throws SAXException if the construction of a new XML parser fails
     */
    public Processor(Processor proc) throws SAXException
    {
-      HashMap copies = new HashMap();
-      globalTemplates =
-         AbstractInstruction.deepTemplateArrayCopy(proc.globalTemplates, copies);
-      init((TransformFactory.Instance) proc.transformNode.deepCopy(copies));
-      setParent(createXMLReader());
+      globalTemplates = proc.globalTemplates;
+      globalTemplateIndex = proc.globalTemplateIndex;
+      init(proc.transformNode);
+      recycleEvents = proc.recycleEvents;
+      splitPattern = proc.splitPattern;
+      splitWarning = proc.splitWarning;
+      splitThreads = proc.splitThreads;
+      context.bufferSpillThreshold = proc.context.bufferSpillThreshold;
+      context.documentCache = proc.context.documentCache;
       setTransformerHandlerResolver(
          proc.context.defaultTransformerHandlerResolver.customResolver);
       setOutputURIResolver(proc.context.outputUriResolver);
@@ -540,6 +650,11 @@ public class Processor extends XMLFilterImpl
       context.currentProcessor = this;
       context.currentGroup = context.targetGroup = transformNode =
          pTransformNode;
+      context.regexCache = transformNode.regexCache;
+
+      countPositions = transformNode.countsPositions();
+      if (countPositions)
+         namePool = new NamePool();
 
       // first Data frame; needed for the first target group
       dataStack.push(new Data(context));
@@ -554,18 +669,23 @@ public class Processor extends XMLFilterImpl
          globalTemplates = new TemplateFactory.Instance[tempVec.size()];
          tempVec.toArray(globalTemplates);
          Arrays.sort(globalTemplates);
+         globalTemplateIndex = new TemplateIndex(globalTemplates);
+
+         // compile the match patterns of all templates in this sheet
+         HashSet templates = new HashSet(tempVec);
+         transformNode.collectTemplates(templates);
+         PatternAutomaton.compile(templates);
       }
       initOutputProperties();
    }
 
 
    /**
-    * Create a fresh namespace hashtable
+    * Create a fresh namespace scope
     */
    private void initNamespaces()
    {
-      inScopeNamespaces = new Hashtable();
-      inScopeNamespaces.put("xml", NamespaceSupport.XMLNS);
+      inScopeNamespaces = NamespaceScope.XML;
    }
 
 
@@ -620,6 +740,78 @@ public class Processor extends XMLFilterImpl
    }
 
 
+   /**
+    * Parses the input document. Creates an XML parser if this Processor
+    * doesn't have a parent yet (see {@link #Processor(Processor)}).
+    */
+   public void parse(InputSource input)
+      throws SAXException, IOException
+   {
+      if (getParent() == null)
+         setDefaultParent();
+      try {
+         super.parse(input);
+      }
+      finally {
+         // terminate the worker threads if the transformation failed
+         abortSplitMode();
+      }
+   }
+
+
+   /**
+    * Makes the XML parser owned by this Processor its parent, for example
+    * after the transformation of a source that came with its own parser.
+    * The parser will be created on the first invocation.
+    * @throws SAXException if the construction of a new XML parser fails
+    */
+   public void setDefaultParent()
+      throws SAXException
+   {
+      if (defaultParser == null)
+         defaultParser = createXMLReader();
+      if (getParent() != defaultParser)
+         setParent(defaultParser);
+   }
+
+
+   /**
+    * Resets the state of the transformation, such that this Processor
+    * can be reused for the next document even if the previous
+    * transformation has been aborted. The configuration (parameters,
+    * output properties, resolvers) remains unchanged.
+    */
+   public void reset()
+   {
+      abortSplitMode();
+      splitDepth = 0;
+      if (splitBuffer != null) {
+         splitBuffer.close();
+         splitBuffer = null;
+      }
+      closeGroupBuffers();
+      splitTask = null;
+      skipDepth = 0;
+      insideCDATA = false;
+      insideDTD = false;
+      if (charactersShared)
+         collectedCharacters = new FastStringBuffer(CHARACTERS_SIZE);
+      else
+         collectedCharacters.setLength(0);
+      charactersShared = false;
+      lastElement = null;
+      initNamespaces();
+      namespaceContext.clear();
+      nsContextActive = false;
+      innerProcStack.clear();
+      eventStack = context.ancestorStack;
+      eventStack.clear();
+      dataStack.clear();
+      dataStack.push(new Data(context));
+      context.reset(transformNode);
+   }
+
+
    /**
     * Registers a content handler.
     */
@@ -761,6 +953,324 @@ public class Processor extends XMLFilterImpl
    }
 
 
+   /**
+    * Enables or disables the recycling of events. If enabled, the objects
+    * that represent the nodes of the input will be reused after the
+    * processing of the nodes has been finished, unless they are still
+    * referenced from a variable or parameter.
+    * @param recycle <code>true</code> for enabling the recycling
+    */
+   public void setRecycleEvents(boolean recycle)
+   {
+      recycleEvents = recycle;
+   }
+
+
+   /** @return whether the recycling of events has been enabled */
+   public boolean getRecycleEvents()
+   {
+      return recycleEvents;
+   }
+
+
+   /**
+    * Enables the split mode: all subtrees whose root element matches the
+    * split pattern will be transformed in parallel by several threads.
+    * The results will be emitted in document order. The split pattern is
+    * an absolute path of element names, for example
+    * <code>/root/record</code>; every step is either <code>*</code>, a
+    * local name, or an expanded name in the form
+    * <code>{uri}local-name</code>.
+    * <p>
+    * The transformation of the subtrees must not depend on each other.
+    * Thus the split mode will be disabled (with a warning reported to the
+    * error listener at the begin of the transformation) if the
+    * transformation sheet changes group variables (via
+    * <code>stx:assign</code> or group buffers) or contains
+    * <code>stx:process-siblings</code>. Moreover, subtrees won't be split
+    * within <code>stx:process-document</code> or
+    * <code>stx:process-buffer</code>.
+    * @param pattern the split pattern, <code>null</code> disables the
+    *        split mode
+    * @exception IllegalArgumentException if the pattern is invalid
+    */
+   public void setSplitPattern(String pattern)
+   {
+      splitWarning = null;
+      if (pattern != null) {
+         checkSplitPattern(pattern);
+         if (!transformNode.allowsSplitting()) {
+            splitWarning = "Split mode disabled, because the " +
+                           "transformation sheet changes group " +
+                           "variables or uses stx:process-siblings";
+            pattern = null;
+         }
+      }
+      splitPattern = pattern;
+   }
+
+
+   /**
+    * Checks the syntax of a split pattern (see {@link #setSplitPattern}).
+    * @param pattern the split pattern
+    * @exception IllegalArgumentException if the pattern is invalid
+    */
+   public static void checkSplitPattern(String pattern)
+   {
+      SplitMerger.checkPattern(pattern);
+   }
+
+
+   /** @return the split pattern, see {@link #setSplitPattern} */
+   public String getSplitPattern()
+   {
+      return splitPattern;
+   }
+
+
+   /**
+    * Sets the number of threads used in split mode (see
+    * {@link #setSplitPattern}). The default is the number of available
+    * processors.
+    * @param threads the number of threads
+    */
+   public void setSplitThreads(int threads)
+   {
+      if (threads < 1)
+         throw new IllegalArgumentException(
+            "Invalid number of threads: " + threads);
+      splitThreads = threads;
+   }
+
+
+   /** @return the number of threads used in split mode */
+   public int getSplitThreads()
+   {
+      return splitThreads;
+   }
+
+
+   /**
+    * Sets the number of bytes a buffer (<code>stx:buffer</code>, or the
+    * subtrees collected in split mode) keeps in memory. The contents of a
+    * bigger buffer will be written to a temporary file that will be
+    * memory-mapped for reading.
+    * @param threshold the number of bytes, a negative value keeps all
+    *        buffers in memory
+    */
+   public void setBufferSpillThreshold(int threshold)
+   {
+      context.bufferSpillThreshold = threshold;
+   }
+
+
+   /** @return the buffer spill threshold, see
+    *          {@link #setBufferSpillThreshold} */
+   public int getBufferSpillThreshold()
+   {
+      return context.bufferSpillThreshold;
+   }
+
+
+   /**
+    * Sets a cache for the documents processed by
+    * <code>stx:process-document</code>. Documents that are provided by
+    * the URI resolver won't be cached.
+    * @param cache the cache, <code>null</code> disables caching
+    */
+   public void setDocumentCache(DocumentCache cache)
+   {
+      context.documentCache = cache;
+   }
+
+
+   /** @return the document cache, see {@link #setDocumentCache} */
+   public DocumentCache getDocumentCache()
+   {
+      return context.documentCache;
+   }
+
+
+   /**
+    * Creates a copy of this Processor for the transformation of the
+    * subtrees in split mode
+    */
+   Processor newSplitWorker()
+      throws SAXException
+   {
+      Processor worker = new Processor(this);
+      worker.splitPattern = null;
+      worker.splitWarning = null;
+      initSplitWorker(worker);
+      return worker;
+   }
+
+
+   /**
+    * Passes the settings of the current transformation to a worker copy
+    * of this Processor (see {@link #newSplitWorker}).
+    * @param worker the worker copy
+    */
+   void initSplitWorker(Processor worker)
+   {
+      worker.context.globalParameters = context.globalParameters;
+      worker.context.uriResolver = context.uriResolver;
+      worker.context.messageEmitter = context.messageEmitter;
+      worker.context.messageOwner = context.messageOwner;
+      worker.context.errorHandler.errorListener =
+         context.errorHandler.errorListener;
+   }
+
+
+   /**
+    * Starts the split mode at the begin of a transformation. The worker
+    * threads of a previous transformation will be reused.
+    */
+   private void startSplitMode()
+   {
+      if (splitMerger != null &&
+          !splitMerger.accepts(splitPattern, splitThreads)) {
+         splitMerger.shutdown();
+         splitMerger = null;
+      }
+      if (splitMerger == null)
+         splitMerger = new SplitMerger(splitPattern, this, splitThreads);
+      splitDepth = 0;
+      context.emitter = splitMerger.start(context.emitter);
+   }
+
+
+   /**
+    * Terminates the split mode of an aborted transformation: stops the
+    * worker threads and restores the emitter of this Processor.
+    */
+   private void abortSplitMode()
+   {
+      if (splitMerger != null && splitMerger.isActive())
+         context.emitter = splitMerger.abort();
+   }
+
+
+   /** Releases the temporary files of the buffers of all groups */
+   private void closeGroupBuffers()
+   {
+      for (int i=0; i<context.groupVars.length; i++) {
+         Object[] frame = context.groupVars[i];
+         if (frame == null)
+            continue;
+         for (int j=0; j<frame.length; j++)
+            if (frame[j] instanceof Emitter &&
+                ((Emitter)frame[j]).contH instanceof BufferEmitter)
+               ((BufferEmitter)((Emitter)frame[j]).contH).close();
+      }
+   }
+
+
+   /**
+    * Starts collecting the events of a subtree in split mode
+    */
+   private void startSplit(String uri, String lName, String qName,
+                           Attributes attrs)
+      throws SAXException
+   {
+      splitTask = new SplitMerger.Task();
+      splitTask.namespaces = inScopeNamespaces;
+      if (!nsContextActive)
+         namespaceContext.push(inScopeNamespaces);
+      nsContextActive = false;
+
+      // the worker needs a copy of the current processing state
+      int size = eventStack.size();
+      NamePool pool = countPositions ? namePool.copy() : null;
+      splitTask.ancestors = new SAXEvent[size];
+      for (int i=0; i<size; i++)
+         splitTask.ancestors[i] =
+            eventStack.elementAt(i).copy(pool);
+      splitTask.namePool = pool;
+      splitTask.targetGroup = dataStack.peek().targetGroup;
+      splitTask.currentGroup = context.currentGroup;
+      splitTask.passedParameters =
+         (Hashtable)context.passedParameters.clone();
+      splitTask.groupVars = context.groupVars.clone();
+      if (context.locator != null)
+         splitTask.locator = new LocatorImpl(context.locator);
+
+      if (countPositions)
+         eventStack.peek().countElement(namePool, uri, lName);
+
+      splitBuffer = new BufferEmitter(context.bufferSpillThreshold);
+      splitBuffer.startElement(uri, lName, qName, attrs);
+      splitDepth = 1;
+   }
+
+
+   /**
+    * Passes a collected subtree to the workers in split mode
+    */
+   private void endSplit()
+      throws SAXException
+   {
+      splitBuffer.filled();
+      splitTask.events = splitBuffer;
+      splitBuffer = null; // closed by the worker
+      inScopeNamespaces = (NamespaceScope)namespaceContext.pop();
+      SplitMerger.Task task = splitTask;
+      splitTask = null;
+      splitMerger.submit(task);
+   }
+
+
+   /**
+    * Transforms a subtree in split mode. This method will be invoked
+    * on a worker copy of the main Processor (see {@link #newSplitWorker}).
+    * @param task the task containing the subtree
+    * @param emitter the emitter for the result
+    */
+   void processSplitTask(SplitMerger.Task task, Emitter emitter)
+      throws SAXException
+   {
+      // initialize the processing state from the task
+      context.clearLocalFields();
+      context.emitter = emitter;
+      context.locator = task.locator;
+      context.groupVars = task.groupVars;
+      context.passedParameters = task.passedParameters;
+      context.newLocalVars(1);
+      context.currentGroup = task.currentGroup;
+      context.targetGroup = task.targetGroup;
+      context.psiblings = null;
+      context.targetHandler = null;
+      eventStack = context.ancestorStack = new EventStack();
+      for (int i=0; i<task.ancestors.length; i++)
+         eventStack.push(task.ancestors[i]);
+      namePool = task.namePool;
+      dataStack = new DataStack();
+      dataStack.push(new Data(context));
+      dataStack.peek().currentGroup = task.currentGroup;
+      innerProcStack = new Stack();
+      namespaceContext = new Stack();
+      inScopeNamespaces = task.namespaces;
+      nsContextActive = false;
+      lastElement = null;
+      skipDepth = 0;
+      insideCDATA = false;
+      clearCharacters();
+
+      new BufferReader(task.events.getEvents()).parse(this, this);
+   }
+
+
+   /**
+    * Puts an event that has been removed from the event stack back into
+    * the pool if recycling is enabled.
+    */
+   private void releaseEvent(SAXEvent event)
+   {
+      if (recycleEvents)
+         eventPool.release(event);
+   }
+
+
    /**
     * Registers a message emitter for <code>stx:message</code>
     * @param emitter the emitter object to be registered
@@ -779,8 +1289,9 @@ public class Processor extends XMLFilterImpl
    public void startInnerProcessing()
    {
       // there might be characters already read
-      innerProcStack.push(collectedCharacters.toString());
-      collectedCharacters.setLength(0);
+      innerProcStack.push(collectedCharacters);
+      collectedCharacters = new FastStringBuffer(CHARACTERS_SIZE);
+      charactersShared = false;
       innerProcStack.push(inScopeNamespaces);
       initNamespaces();
       // possible jump to another group (changed visibleTemplates)
@@ -805,9 +1316,12 @@ public class Processor extends XMLFilterImpl
       clearProcessSiblings();
 
       // remove Data object from startInnerProcessing()
-      context.localVars = dataStack.pop().localVars;
-      inScopeNamespaces = (Hashtable)innerProcStack.pop();
-      collectedCharacters.append(innerProcStack.pop());
+      context.setLocalVars(dataStack.pop().localVars);
+      inScopeNamespaces = (NamespaceScope)innerProcStack.pop();
+      // collectedCharacters is empty now, continue with the saved buffer
+      // (that may have been shared with the last element)
+      collectedCharacters = (FastStringBuffer)innerProcStack.pop();
+      charactersShared = true;
    }
 
 
@@ -839,58 +1353,69 @@ public class Processor extends XMLFilterImpl
    private TemplateFactory.Instance findMatchingTemplate()
       throws SAXException
    {
-      TemplateFactory.Instance found = null;
-      TemplateFactory.Instance[] category = null;
-      int tempIndex = -1;
-
       Data top = dataStack.peek();
+      SAXEvent event = eventStack.peek();
 
       // Is the previous instruction not an stx:process-self?
       // used for performance (to prevent calling foundUnprocessedTemplate())
       boolean notSelf = (top.lastProcStatus != PR_SELF);
 
-      // the three precedence categories
-      TemplateFactory.Instance precCats[][] = {
-         top.targetGroup.visibleTemplates,
-         top.targetGroup.groupTemplates,
-         globalTemplates
-      };
-
-      // look up for a matching template in the categories
-      for (int i=0; i<precCats.length && category == null; i++)
-         for (int j=0; j<precCats[i].length; j++)
-            if (precCats[i][j].matches(context, true) &&
-                (notSelf || foundUnprocessedTemplate(precCats[i][j]))) {
-               // bingo!
-               category = precCats[i];
-               tempIndex = j;
-               break;
-            }
+      // look up for a matching template in the three precedence categories
+      GroupBase tg = top.targetGroup;
+      TemplateFactory.Instance found =
+         findMatchingTemplate(tg.visibleTemplates, tg.visibleIndex,
+                              event, notSelf);
+      if (found == null)
+         found = findMatchingTemplate(tg.groupTemplates, tg.groupIndex,
+                                      event, notSelf);
+      if (found == null)
+         found = findMatchingTemplate(globalTemplates, globalTemplateIndex,
+                                      event, notSelf);
+      return found;
+   }
 
-      if (category != null) { // means, we found a template
-         found = category[tempIndex];
-         double priority = found.getPriority();
-         // look for more templates with the same priority in the same
-         // category
-         if (++tempIndex < category.length &&
-             priority == category[tempIndex].getPriority()) {
-            for (; tempIndex<category.length &&
-                   priority == category[tempIndex].getPriority();
-                 tempIndex++) {
-               if (category[tempIndex].matches(context, false))
+
+   /**
+    * Looks for the matching template in one precedence category.
+    * Only the candidates determined by the dispatch index of this category
+    * will be tested.
+    * @param category the templates of this category
+    * @param index the dispatch index for <code>category</code>
+    * @param event the current event
+    * @param notSelf <code>false</code> if the previous instruction was an
+    *        <code>stx:process-self</code>
+    * @return the matching template or <code>null</code>
+    */
+   private TemplateFactory.Instance findMatchingTemplate(
+         TemplateFactory.Instance[] category, TemplateIndex index,
+         SAXEvent event, boolean notSelf)
+      throws SAXException
+   {
+      int[] candidates = index.getCandidates(event);
+      for (int i=0; i<candidates.length; i++) {
+         TemplateFactory.Instance found = category[candidates[i]];
+         if (found.matches(context, true) &&
+             (notSelf || foundUnprocessedTemplate(found))) {
+            // bingo!
+            double priority = found.getPriority();
+            // look for more templates with the same priority in the same
+            // category
+            for (int j=i+1; j<candidates.length &&
+                            priority == category[candidates[j]].getPriority();
+                 j++) {
+               TemplateFactory.Instance other = category[candidates[j]];
+               if (other.matches(context, false))
                   context.errorHandler.error(
                      "Ambigous template rule with priority " + priority +
                      ", found matching template rule already in line " +
                      found.lineNo,
-                     category[tempIndex].publicId,
-                     category[tempIndex].systemId,
-                     category[tempIndex].lineNo,
-                     category[tempIndex].colNo);
+                     other.publicId, other.systemId,
+                     other.lineNo, other.colNo);
             }
+            return found;
          }
       }
-
-      return found;
+      return null;
    }
 
 
@@ -924,7 +1449,12 @@ public class Processor extends XMLFilterImpl
                      log.debug(inst.lineNo + ": " + inst);
 
                processStatus = inst.process(context);
-               inst = inst.next;
+               if (context.nextInstruction == null)
+                  inst = inst.next;
+               else {
+                  inst = context.nextInstruction;
+                  context.nextInstruction = null;
+               }
             }
          }
          // otherwise: this is a derived class
@@ -935,7 +1465,12 @@ public class Processor extends XMLFilterImpl
                   processStatus = inst.process(context);
                else
                   processStatus = processInstruction(inst, event);
-               inst = inst.next;
+               if (context.nextInstruction == null)
+                  inst = inst.next;
+               else {
+                  inst = context.nextInstruction;
+                  context.nextInstruction = null;
+               }
             }
          }
 
@@ -972,11 +1507,11 @@ public class Processor extends XMLFilterImpl
    private void processEvent()
       throws SAXException
    {
-      SAXEvent event = (SAXEvent)eventStack.peek();
+      SAXEvent event = eventStack.peek();
       if (DEBUG)
          if (log.isDebugEnabled()) {
             log.debug(event);
-            log.debug(context.localVars);
+            log.debug(Arrays.asList(context.getLocalVars()));
          }
 
       if (dataStack.peek().lastProcStatus == PR_SIBLINGS)
@@ -985,7 +1520,7 @@ public class Processor extends XMLFilterImpl
       TemplateFactory.Instance temp = findMatchingTemplate();
       if (temp != null) {
          AbstractInstruction inst = temp;
-         context.localVars.clear();
+         context.newLocalVars(temp.getFrameSize());
          Hashtable currentParams = context.passedParameters;
 
          inst = doProcessLoop(inst, event, false);
@@ -993,7 +1528,7 @@ public class Processor extends XMLFilterImpl
          if (DEBUG)
             if (log.isDebugEnabled()) {
                log.debug("stop " + processStatus);
-               log.debug(context.localVars);
+               log.debug(Arrays.asList(context.getLocalVars()));
             }
 
          switch (processStatus) {
@@ -1001,7 +1536,7 @@ public class Processor extends XMLFilterImpl
             if (event.type == SAXEvent.ELEMENT ||
                 event.type == SAXEvent.ROOT) {
                skipDepth = 1;
-               collectedCharacters.setLength(0); // clear text
+               clearCharacters(); // clear text
                insideCDATA = false; // reset if there was a CDATA section
             }
             break;
@@ -1015,9 +1550,9 @@ public class Processor extends XMLFilterImpl
                startExternDocument();
                if (collectedCharacters.length() > 0) {
                   context.targetHandler.characters(
-                     collectedCharacters.toString().toCharArray(),
+                     collectedCharacters.getCharArray(),
                      0, collectedCharacters.length());
-                  collectedCharacters.setLength(0);
+                  clearCharacters();
                }
                skipDepth = 1;
             }
@@ -1039,7 +1574,7 @@ public class Processor extends XMLFilterImpl
                case SAXEvent.TEXT:
                   startExternDocument();
                   context.targetHandler.characters(
-                     event.value.toCharArray(), 0, event.value.length());
+                     event.getCharArray(), 0, event.getLength());
                   endExternDocument();
                   break;
 
@@ -1047,7 +1582,7 @@ public class Processor extends XMLFilterImpl
                   startExternDocument();
                   context.targetHandler.startCDATA();
                   context.targetHandler.characters(
-                     event.value.toCharArray(), 0, event.value.length());
+                     event.getCharArray(), 0, event.getLength());
                   context.targetHandler.endCDATA();
                   endExternDocument();
                   break;
@@ -1055,14 +1590,14 @@ public class Processor extends XMLFilterImpl
                case SAXEvent.PI:
                   startExternDocument();
                   context.targetHandler.processingInstruction(
-                     event.qName, event.value);
+                     event.qName, event.getValue());
                   endExternDocument();
                   break;
 
                case SAXEvent.COMMENT:
                   startExternDocument();
                   context.targetHandler.comment(
-                     event.value.toCharArray(), 0, event.value.length());
+                     event.getCharArray(), 0, event.getLength());
                   endExternDocument();
                   break;
 
@@ -1128,7 +1663,7 @@ public class Processor extends XMLFilterImpl
                 event.type == SAXEvent.ROOT) {
                // end of template reached, skip contents
                skipDepth = 1;
-               collectedCharacters.setLength(0); // clear text
+               clearCharacters(); // clear text
             }
             dataStack.push(
                new Data(PR_SIBLINGS, temp, inst, currentParams,
@@ -1161,41 +1696,42 @@ public class Processor extends XMLFilterImpl
          case SAXEvent.ELEMENT:
             if ((tg.passThrough & PASS_THROUGH_ELEMENT) != 0)
                emitter.startElement(event.uri, event.lName, event.qName,
-                                    event.attrs, event.namespaces, tg);
+                                    event.attrs, event.getNamespaces(), tg);
             dataStack.push(new Data(dataStack.peek()));
             break;
 
          case SAXEvent.TEXT:
             if ((tg.passThrough & PASS_THROUGH_TEXT) != 0) {
-               emitter.characters(event.value.toCharArray(),
-                                  0, event.value.length(), tg);
+               emitter.characters(event.getCharArray(),
+                                  0, event.getLength(), tg);
             }
             break;
 
          case SAXEvent.CDATA:
             if ((tg.passThrough & PASS_THROUGH_TEXT) != 0) {
                emitter.startCDATA(tg);
-               emitter.characters(event.value.toCharArray(),
-                                  0, event.value.length(), tg);
+               emitter.characters(event.getCharArray(),
+                                  0, event.getLength(), tg);
                emitter.endCDATA();
             }
             break;
 
          case SAXEvent.COMMENT:
             if ((tg.passThrough & PASS_THROUGH_COMMENT) != 0)
-               emitter.comment(event.value.toCharArray(),
-                               0, event.value.length(), tg);
+               emitter.comment(event.getCharArray(),
+                               0, event.getLength(), tg);
             break;
 
          case SAXEvent.PI:
             if ((tg.passThrough & PASS_THROUGH_PI) != 0)
-               emitter.processingInstruction(event.qName, event.value, tg);
+               emitter.processingInstruction(event.qName, event.getValue(),
+                                             tg);
             break;
 
          case SAXEvent.ATTRIBUTE:
             if ((tg.passThrough & PASS_THROUGH_ATTRIBUTE) != 0)
                emitter.addAttribute(event.uri, event.qName, event.lName,
-                                    event.value, tg);
+                                    event.getValue(), tg);
             break;
 
          default:
@@ -1220,21 +1756,21 @@ public class Processor extends XMLFilterImpl
             log.debug(lastElement);
 
       // determine if the look-ahead is a text node
-      String s = collectedCharacters.toString();
-      if (s.length() == 0 ||
-          (context.targetGroup.stripSpace && s.trim().length() == 0)) {
+      if (collectedCharacters.length() == 0 ||
+          (context.targetGroup.stripSpace && isWhitespace())) {
          if (hasChildren)
             lastElement.enableChildNodes(true);
       }
       else {
          // set string value of the last element
-         lastElement.value = s;
+         lastElement.setChars(shareCharacters());
          lastElement.enableChildNodes(true);
       }
 
       // put last element on the event stack
-      ((SAXEvent)eventStack.peek()).countElement(lastElement.uri,
-                                                 lastElement.lName);
+      if (countPositions)
+         eventStack.peek().countElement(namePool, lastElement.uri,
+                                        lastElement.lName);
       eventStack.push(lastElement);
 
       lastElement = null;
@@ -1249,44 +1785,87 @@ public class Processor extends XMLFilterImpl
    private void processCharacters()
       throws SAXException
    {
-      String s = collectedCharacters.toString();
-
       if (DEBUG)
          if (log.isDebugEnabled())
-            log.debug("'" + s + "'");
+            log.debug("'" + collectedCharacters + "'");
 
       if (skipDepth > 0 && context.targetHandler != null) {
+         char[] ch = collectedCharacters.getCharArray();
+         int length = collectedCharacters.length();
          if (insideCDATA) {
             context.targetHandler.startCDATA();
-            context.targetHandler.characters(s.toCharArray(), 0, s.length());
+            context.targetHandler.characters(ch, 0, length);
             context.targetHandler.endCDATA();
          }
          else
-            context.targetHandler.characters(s.toCharArray(), 0, s.length());
-         collectedCharacters.setLength(0);
+            context.targetHandler.characters(ch, 0, length);
+         clearCharacters();
          return;
       }
 
-      if (context.targetGroup.stripSpace && s.trim().length() == 0) {
-         collectedCharacters.setLength(0);
+      if (context.targetGroup.stripSpace && isWhitespace()) {
+         clearCharacters();
          return; // white-space only characters found, do nothing
       }
 
       SAXEvent ev;
       if (insideCDATA) {
-         ((SAXEvent)eventStack.peek()).countCDATA();
-         ev = SAXEvent.newCDATA(s);
+         if (countPositions)
+            eventStack.peek().countCDATA(namePool);
+         ev = eventPool.newCDATA(shareCharacters());
       }
       else {
-         ((SAXEvent)eventStack.peek()).countText();
-         ev = SAXEvent.newText(s);
+         if (countPositions)
+            eventStack.peek().countText(namePool);
+         ev = eventPool.newText(shareCharacters());
       }
 
       eventStack.push(ev);
       processEvent();
-      eventStack.pop();
+      releaseEvent(eventStack.pop());
 
-      collectedCharacters.setLength(0);
+      clearCharacters();
+   }
+
+
+   /**
+    * Passes {@link #collectedCharacters} to an event. The buffer won't
+    * be changed afterwards.
+    * @return the buffer
+    */
+   private FastStringBuffer shareCharacters()
+   {
+      charactersShared = true;
+      return collectedCharacters;
+   }
+
+
+   /**
+    * Clears {@link #collectedCharacters}, or creates a new buffer if the
+    * current one has been shared with an event.
+    */
+   private void clearCharacters()
+   {
+      if (charactersShared) {
+         collectedCharacters = new FastStringBuffer(CHARACTERS_SIZE);
+         charactersShared = false;
+      }
+      else
+         collectedCharacters.setLength(0);
+   }
+
+
+   /**
+    * @return <code>true</code> if {@link #collectedCharacters} contains
+    *         only white-space (in the sense of {@link String#trim})
+    */
+   private boolean isWhitespace()
+   {
+      char[] ch = collectedCharacters.getCharArray();
+      for (int i=collectedCharacters.length()-1; i>=0; i--)
+         if (ch[i] > ' ')
+            return false;
+      return true;
    }
 
 
@@ -1306,10 +1885,10 @@ public class Processor extends XMLFilterImpl
          if (DEBUG)
             if (log.isDebugEnabled())
                log.debug(attrs.getQName(i));
-         SAXEvent ev = SAXEvent.newAttribute(attrs, i);
+         SAXEvent ev = eventPool.newAttribute(attrs, i);
          eventStack.push(ev);
          processEvent();
-         eventStack.pop();
+         releaseEvent(eventStack.pop());
          if (DEBUG)
             if (log.isDebugEnabled())
                log.debug("done " + attrs.getQName(i));
@@ -1318,7 +1897,7 @@ public class Processor extends XMLFilterImpl
       // restore position, current group and variables
       context.position = d.contextPosition;
       context.currentGroup = d.currentGroup;
-      context.localVars = d.localVars;
+      context.setLocalVars(d.localVars);
    }
 
 
@@ -1336,17 +1915,17 @@ public class Processor extends XMLFilterImpl
          // terminates
          int stackPos = dataStack.size()-1;
          Data data = dataStack.peek();
-         Hashtable storedVars = context.localVars;
+         Object[] storedVars = context.getLocalVars();
          stopData = null;
          do {
-            context.localVars = data.localVars;
+            context.setLocalVars(data.localVars);
             if (!data.psiblings.matches(context)) {
                stopData = data;
                stopPos = stackPos;
             }
             data = dataStack.elementAt(--stackPos);
          } while (data.lastProcStatus == PR_SIBLINGS);
-         context.localVars = storedVars;
+         context.setLocalVars(storedVars);
          if (stopData != null) // the first of the non-matching process-sibs
             clearProcessSiblings(stopData, false);
          // If after clearing the process siblings instructions there is
@@ -1390,30 +1969,30 @@ public class Processor extends XMLFilterImpl
       throws SAXException
    {
       // replace top-most event and local variables
-      Object topEvent = null;
+      SAXEvent topEvent = null;
       // if clearLast==true then there's no event to remove,
       // because the end of of the parent has been encountered
       if (clearLast)
          topEvent = eventStack.peek();
       else
          topEvent = eventStack.pop();
-      Hashtable storedVars = context.localVars;
+      Object[] storedVars = context.getLocalVars();
       Data data;
       do {
          data = dataStack.pop();
          // put back stored event
          eventStack.push(data.sibEvent);
          context.position = data.contextPosition; // restore position
-         context.localVars = data.localVars;      // restore variables
+         context.setLocalVars(data.localVars);      // restore variables
          AbstractInstruction inst = data.instruction;
 
          do {
-            inst = doProcessLoop(inst, (SAXEvent)topEvent, false);
+            inst = doProcessLoop(inst, topEvent, false);
 
             if (DEBUG)
                if (log.isDebugEnabled()) {
                   log.debug("stop " + processStatus);
-                  log.debug(context.localVars);
+                  log.debug(Arrays.asList(context.getLocalVars()));
                }
 
             switch (processStatus) {
@@ -1443,8 +2022,8 @@ public class Processor extends XMLFilterImpl
             // there might have been a group attribute
             stopData.targetGroup = context.targetGroup;
             stopData.psiblings = context.psiblings;
-            stopData.localVars = context.localVars;
-            context.localVars = storedVars;
+            stopData.localVars = context.getLocalVars();
+            context.setLocalVars(storedVars);
             dataStack.push(stopData);
          }
          // remove this event
@@ -1461,10 +2040,13 @@ public class Processor extends XMLFilterImpl
          // will remove it
          namespaceContext.push(namespaceContext.peek());
          // postpone the processing of character data
-         StringBuffer postponedCharacters = collectedCharacters;
-         collectedCharacters = new StringBuffer();
+         FastStringBuffer postponedCharacters = collectedCharacters;
+         boolean postponedShared = charactersShared;
+         collectedCharacters = new FastStringBuffer(CHARACTERS_SIZE);
+         charactersShared = false;
          endElement(selfEvent.uri, selfEvent.lName, selfEvent.qName);
          collectedCharacters = postponedCharacters;
+         charactersShared = postponedShared;
       }
 
       // restore old event stack
@@ -1485,12 +2067,12 @@ public class Processor extends XMLFilterImpl
          context.targetHandler.startDocument();
 
          // declare current namespaces
-         for (Enumeration e = inScopeNamespaces.keys();
-              e.hasMoreElements(); ) {
+         Hashtable namespaces = inScopeNamespaces.getNamespaces();
+         for (Enumeration e = namespaces.keys(); e.hasMoreElements(); ) {
             String prefix = (String)e.nextElement();
             if (!prefix.equals("xml"))
                context.targetHandler.startPrefixMapping(
-                  prefix, (String)inScopeNamespaces.get(prefix));
+                  prefix, (String)namespaces.get(prefix));
          }
 
 // If the Map interface would be used:
@@ -1528,7 +2110,7 @@ public class Processor extends XMLFilterImpl
    {
       try {
          // undeclare current namespaces
-         for (Enumeration e = inScopeNamespaces.keys();
+         for (Enumeration e = inScopeNamespaces.getPrefixes();
               e.hasMoreElements(); ) {
             String prefix = (String)e.nextElement();
             if (!prefix.equals("xml"))
@@ -1572,13 +2154,21 @@ public class Processor extends XMLFilterImpl
       // perform this only at the begin of a transformation,
       // not at the begin of processing another document
       if (innerProcStack.empty()) {
+         // remainder of an aborted transformation
+         abortSplitMode();
+         context.clearLocalFields();
          // initialize all group stx:variables
          transformNode.initGroupVariables(context);
          context.emitter.startDocument();
+         if (splitWarning != null)
+            context.errorHandler.warning(splitWarning, context.locator,
+                                         null);
+         if (splitPattern != null)
+            startSplitMode();
       }
       else { // stx:process-document
          innerProcStack.push(eventStack);
-         context.ancestorStack = eventStack = new Stack();
+         context.ancestorStack = eventStack = new EventStack();
       }
 
       eventStack.push(SAXEvent.newRoot());
@@ -1612,9 +2202,9 @@ public class Processor extends XMLFilterImpl
          }
          else if (prStatus == PR_CHILDREN || prStatus == PR_SELF) {
             context.position = data.contextPosition; // restore position
-            context.localVars = data.localVars;
+            context.setLocalVars(data.localVars);
             AbstractInstruction inst = data.instruction;
-            inst = doProcessLoop(inst, (SAXEvent)eventStack.peek(), true);
+            inst = doProcessLoop(inst, eventStack.peek(), true);
 
             switch (processStatus) {
             case PR_CHILDREN:
@@ -1655,12 +2245,23 @@ public class Processor extends XMLFilterImpl
             eventStack.pop();
 
             if (innerProcStack.empty()) {
+               closeGroupBuffers();
                transformNode.exitRecursionLevel(context);
                context.emitter.endDocument(transformNode);
+               if (splitMerger != null && splitMerger.isActive())
+                  context.emitter = splitMerger.finish();
+               context.messageTextEmitter = null;
+               try {
+                  // stx:message output is written asynchronously
+                  MessageWriter.getInstance().flush(context.messageOwner);
+               }
+               catch (IOException ex) {
+                  throw new SAXException(ex);
+               }
             }
             else
                eventStack = context.ancestorStack =
-                            (Stack)innerProcStack.pop();
+                            (EventStack)innerProcStack.pop();
          }
       }
       else
@@ -1683,6 +2284,12 @@ public class Processor extends XMLFilterImpl
             log.debug("dataStack: " + dataStack);
          }
 
+      if (splitDepth > 0) {
+         splitDepth++;
+         splitBuffer.startElement(uri, lName, qName, attrs);
+         return;
+      }
+
       // look-ahead mechanism
       if (lastElement != null)
          processLastElement(true);
@@ -1697,13 +2304,20 @@ public class Processor extends XMLFilterImpl
          return;
       }
 
-      lastElement = SAXEvent.newElement(uri, lName, qName, attrs, false,
-                                        inScopeNamespaces);
+      if (splitMerger != null && splitMerger.isActive() &&
+          innerProcStack.empty() &&
+          splitMerger.matches(eventStack, uri, lName)) {
+         startSplit(uri, lName, qName, attrs);
+         return;
+      }
+
+      lastElement = eventPool.newElement(uri, lName, qName, attrs,
+                                         inScopeNamespaces);
 
-      if (!nsContextActive) {
+      // scopes are immutable: without own namespace declarations this
+      // element shares the scope of its parent
+      if (!nsContextActive)
          namespaceContext.push(inScopeNamespaces);
-         inScopeNamespaces = (Hashtable)inScopeNamespaces.clone();
-      }
       nsContextActive = false;
    }
 
@@ -1718,6 +2332,13 @@ public class Processor extends XMLFilterImpl
             // log.debug("dataStack: " + dataStack.toString());
          }
 
+      if (splitDepth > 0) {
+         splitBuffer.endElement(uri, lName, qName);
+         if (--splitDepth == 0)
+            endSplit();
+         return;
+      }
+
       if (lastElement != null)
          processLastElement(false);
 
@@ -1748,9 +2369,9 @@ public class Processor extends XMLFilterImpl
          }
          else if (prStatus == PR_CHILDREN || prStatus == PR_SELF) {
             context.position = data.contextPosition; // restore position
-            context.localVars = data.localVars;
+            context.setLocalVars(data.localVars);
             AbstractInstruction inst = data.instruction;
-            inst = doProcessLoop(inst, (SAXEvent)eventStack.peek(), true);
+            inst = doProcessLoop(inst, eventStack.peek(), true);
 
             if (DEBUG)
                if (log.isDebugEnabled())
@@ -1772,7 +2393,7 @@ public class Processor extends XMLFilterImpl
                dataStack.push(
                   new Data(PR_SIBLINGS, data.template, inst,
                            data.passedParams, context,
-                           (SAXEvent)eventStack.peek()));
+                           eventStack.peek()));
                break;
 
             // case PR_ATTRIBUTES: won't happen
@@ -1803,8 +2424,8 @@ public class Processor extends XMLFilterImpl
             endElement(uri, lName, qName); // recurse (process-self)
          }
          else {
-            eventStack.pop();
-            inScopeNamespaces = (Hashtable)namespaceContext.pop();
+            releaseEvent(eventStack.pop());
+            inScopeNamespaces = (NamespaceScope)namespaceContext.pop();
          }
       }
    }
@@ -1813,11 +2434,23 @@ public class Processor extends XMLFilterImpl
    public void characters(char[] ch, int start, int length)
       throws SAXException
    {
+      if (splitDepth > 0) {
+         splitBuffer.characters(ch, start, length);
+         return;
+      }
       if (skipDepth > 0) {
          if (context.targetHandler != null)
             context.targetHandler.characters(ch, start, length);
          return;
       }
+      if (charactersShared) {
+         // copy on write
+         FastStringBuffer chars = new FastStringBuffer(
+            Math.max(CHARACTERS_SIZE, collectedCharacters.length() + length));
+         chars.append(collectedCharacters);
+         collectedCharacters = chars;
+         charactersShared = false;
+      }
       collectedCharacters.append(ch, start, length);
    }
 
@@ -1835,6 +2468,11 @@ public class Processor extends XMLFilterImpl
       if (insideDTD)
          return;
 
+      if (splitDepth > 0) {
+         splitBuffer.processingInstruction(target, data);
+         return;
+      }
+
       if (lastElement != null)
          processLastElement(true);
 
@@ -1848,19 +2486,25 @@ public class Processor extends XMLFilterImpl
       }
 
       // don't modify the event stack after process-self
-      ((SAXEvent)eventStack.peek()).countPI(target);
+      if (countPositions)
+         eventStack.peek().countPI(namePool, target);
 
-      eventStack.push(SAXEvent.newPI(target, data));
+      eventStack.push(eventPool.newPI(target, data));
 
       processEvent();
 
-      eventStack.pop();
+      releaseEvent(eventStack.pop());
    }
 
 
    public void startPrefixMapping(String prefix, String uri)
       throws SAXException
    {
+      if (splitDepth > 0) {
+         splitBuffer.startPrefixMapping(prefix, uri);
+         return;
+      }
+
       if (lastElement != null)
          processLastElement(true);
 
@@ -1872,20 +2516,19 @@ public class Processor extends XMLFilterImpl
 
       if (!nsContextActive) {
          namespaceContext.push(inScopeNamespaces);
-         inScopeNamespaces = (Hashtable)inScopeNamespaces.clone();
          nsContextActive = true;
       }
-      if (uri.equals("")) // undeclare namespace
-         inScopeNamespaces.remove(prefix);
-      else
-         inScopeNamespaces.put(prefix, uri);
+      // an empty uri undeclares the namespace
+      inScopeNamespaces = inScopeNamespaces.declare(prefix, uri);
    }
 
 
    public void endPrefixMapping(String prefix)
       throws SAXException
    {
-      if (context.targetHandler != null)
+      if (splitDepth > 0)
+         splitBuffer.endPrefixMapping(prefix);
+      else if (context.targetHandler != null)
          context.targetHandler.endPrefixMapping(prefix);
    }
 
@@ -1931,6 +2574,11 @@ public class Processor extends XMLFilterImpl
    public void startCDATA()
       throws SAXException
    {
+      if (splitDepth > 0) {
+         splitBuffer.startCDATA();
+         return;
+      }
+
       if (!context.targetGroup.recognizeCdata)
          return;
 
@@ -1961,6 +2609,11 @@ public class Processor extends XMLFilterImpl
    public void endCDATA()
       throws SAXException
    {
+      if (splitDepth > 0) {
+         splitBuffer.endCDATA();
+         return;
+      }
+
       if (!context.targetGroup.recognizeCdata)
          return;
 
@@ -1989,6 +2642,11 @@ public class Processor extends XMLFilterImpl
       if (insideDTD)
          return;
 
+      if (splitDepth > 0) {
+         splitBuffer.comment(ch, start, length);
+         return;
+      }
+
       if (lastElement != null)
          processLastElement(true);
 
@@ -2002,13 +2660,14 @@ public class Processor extends XMLFilterImpl
       }
 
       // don't modify the event stack after process-self
-      ((SAXEvent)eventStack.peek()).countComment();
+      if (countPositions)
+         eventStack.peek().countComment(namePool);
 
-      eventStack.push(SAXEvent.newComment(new String(ch, start, length)));
+      eventStack.push(eventPool.newComment(new String(ch, start, length)));
 
       processEvent();
 
-      eventStack.pop();
+      releaseEvent(eventStack.pop());
    }
 
 
@@ -2017,11 +2676,12 @@ public class Processor extends XMLFilterImpl
     //
 
     /**
-     * Returns a reference to the event stack.
-     * @return the event stack
+     * Returns the events of the event stack.
+     * @return a copy of the event stack
+     * @see EventStack#toStack
      */
     public Stack getEventStack() {
-        return this.eventStack;
+        return this.eventStack.toStack();
     }
 
     /**
@@ -0,0 +1,360 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is agent.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+
+package net.sf.joost.stx;
+
+import net.sf.joost.emitter.StxEmitter;
+import net.sf.joost.instruction.AbstractInstruction;
+import net.sf.joost.instruction.NodeBase;
+
+import java.io.Writer;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Hashtable;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+
+/**
+ * An emitter that records the invocations of its methods, so that they
+ * can be replayed later on another emitter. If no list for recording
+ * is set, the invocations will be passed directly to the target emitter.
+ * <p>
+ * This class is used for the split mode of the {@link Processor} (see
+ * {@link SplitMerger}): the workers record the results of their subtrees,
+ * and the main Processor records its own results as long as the results
+ * of preceding subtrees are still missing.
+ * @version $Revision$ $Date$
+ * @author agent
+ */
+final class RecordingEmitter extends Emitter
+{
+   // the recorded methods
+   private static final byte START_DOCUMENT = 0;
+   private static final byte END_DOCUMENT = 1;
+   private static final byte START_ELEMENT = 2;
+   private static final byte END_ELEMENT = 3;
+   private static final byte ADD_ATTRIBUTE = 4;
+   private static final byte CHARACTERS = 5;
+   private static final byte PI = 6;
+   private static final byte COMMENT = 7;
+   private static final byte START_CDATA = 8;
+   private static final byte END_CDATA = 9;
+   private static final byte CREATE_DTD = 10;
+
+   /** A recorded method invocation */
+   private static final class Call
+   {
+      byte method;
+      String s1, s2, s3, s4;
+      Attributes attrs;
+      Hashtable namespaces;
+      char[] chars;
+      /** either a NodeBase or an AbstractInstruction object */
+      Object instruction;
+
+      Call(byte method, Object instruction)
+      {
+         this.method = method;
+         this.instruction = instruction;
+      }
+   }
+
+   /** The emitter that finally receives the invocations */
+   private Emitter target;
+
+   /** The list for recording, <code>null</code> if not recording */
+   private ArrayList calls;
+
+
+   /**
+    * Constructs a new emitter.
+    * @param target the target emitter; it will be used also for creating
+    *        new emitters (see {@link #pushEmitter}) and result writers
+    * @param calls the list for recording, may be <code>null</code>
+    */
+   RecordingEmitter(Emitter target, ArrayList calls, ErrorHandlerImpl eh)
+   {
+      super(eh);
+      this.target = target;
+      this.calls = calls;
+   }
+
+
+   /** @return the target emitter */
+   Emitter getTarget()
+   {
+      return target;
+   }
+
+
+   /**
+    * Sets the list for recording.
+    * @param calls the list, <code>null</code> causes all invocations to be
+    *        passed directly to the target emitter
+    */
+   void setRecording(ArrayList calls)
+   {
+      this.calls = calls;
+   }
+
+
+   /**
+    * Performs the invocations recorded in a list.
+    * @param calls the list of invocations
+    * @param emitter the emitter to be invoked
+    */
+   static void replay(ArrayList calls, Emitter emitter)
+      throws SAXException
+   {
+      int size = calls.size();
+      for (int i=0; i<size; i++) {
+         Call c = (Call)calls.get(i);
+         switch (c.method) {
+         case START_DOCUMENT:
+            emitter.startDocument();
+            break;
+         case END_DOCUMENT:
+            emitter.endDocument((AbstractInstruction)c.instruction);
+            break;
+         case START_ELEMENT:
+            emitter.startElement(c.s1, c.s2, c.s3, c.attrs, c.namespaces,
+                                 (NodeBase)c.instruction);
+            break;
+         case END_ELEMENT:
+            emitter.endElement(c.s1, c.s2, c.s3,
+                               (AbstractInstruction)c.instruction);
+            break;
+         case ADD_ATTRIBUTE:
+            emitter.addAttribute(c.s1, c.s2, c.s3, c.s4,
+                                 (NodeBase)c.instruction);
+            break;
+         case CHARACTERS:
+            emitter.characters(c.chars, 0, c.chars.length,
+                               (NodeBase)c.instruction);
+            break;
+         case PI:
+            emitter.processingInstruction(c.s1, c.s2,
+                                          (NodeBase)c.instruction);
+            break;
+         case COMMENT:
+            emitter.comment(c.chars, 0, c.chars.length,
+                            (NodeBase)c.instruction);
+            break;
+         case START_CDATA:
+            emitter.startCDATA((NodeBase)c.instruction);
+            break;
+         case END_CDATA:
+            emitter.endCDATA();
+            break;
+         case CREATE_DTD:
+            emitter.createDTD((NodeBase)c.instruction, c.s1, c.s2, c.s3);
+            break;
+         }
+      }
+   }
+
+
+   public Emitter pushEmitter(StxEmitter handler)
+   {
+      Emitter emitter = target.pushEmitter(handler);
+      emitter.prev = this;
+      return emitter;
+   }
+
+
+   public void addAttribute(String uri, String qName, String lName,
+                            String value, NodeBase instruction)
+      throws SAXException
+   {
+      if (calls == null) {
+         target.addAttribute(uri, qName, lName, value, instruction);
+         return;
+      }
+      Call c = new Call(ADD_ATTRIBUTE, instruction);
+      c.s1 = uri;
+      c.s2 = qName;
+      c.s3 = lName;
+      c.s4 = value;
+      calls.add(c);
+   }
+
+
+   public void startDocument() throws SAXException
+   {
+      if (calls == null)
+         target.startDocument();
+      else
+         calls.add(new Call(START_DOCUMENT, null));
+   }
+
+
+   public void endDocument(AbstractInstruction instruction)
+      throws SAXException
+   {
+      if (calls == null)
+         target.endDocument(instruction);
+      else
+         calls.add(new Call(END_DOCUMENT, instruction));
+   }
+
+
+   public void startElement(String uri, String lName, String qName,
+                            Attributes attrs, Hashtable namespaces,
+                            NodeBase instruction)
+      throws SAXException
+   {
+      if (calls == null) {
+         target.startElement(uri, lName, qName, attrs, namespaces,
+                             instruction);
+         return;
+      }
+      Call c = new Call(START_ELEMENT, instruction);
+      c.s1 = uri;
+      c.s2 = lName;
+      c.s3 = qName;
+      // the attributes object may be reused by the caller
+      if (attrs != null)
+         c.attrs = new AttributesImpl(attrs);
+      c.namespaces = namespaces;
+      calls.add(c);
+   }
+
+
+   public void endElement(String uri, String lName, String qName,
+                          AbstractInstruction instruction)
+      throws SAXException
+   {
+      if (calls == null) {
+         target.endElement(uri, lName, qName, instruction);
+         return;
+      }
+      Call c = new Call(END_ELEMENT, instruction);
+      c.s1 = uri;
+      c.s2 = lName;
+      c.s3 = qName;
+      calls.add(c);
+   }
+
+
+   public void characters(char[] ch, int start, int length,
+                          NodeBase instruction)
+      throws SAXException
+   {
+      if (calls == null) {
+         target.characters(ch, start, length, instruction);
+         return;
+      }
+      if (length == 0)
+         return;
+      Call c = new Call(CHARACTERS, instruction);
+      c.chars = new char[length];
+      System.arraycopy(ch, start, c.chars, 0, length);
+      calls.add(c);
+   }
+
+
+   public void processingInstruction(String target, String data,
+                                     NodeBase instruction)
+      throws SAXException
+   {
+      if (calls == null) {
+         this.target.processingInstruction(target, data, instruction);
+         return;
+      }
+      Call c = new Call(PI, instruction);
+      c.s1 = target;
+      c.s2 = data;
+      calls.add(c);
+   }
+
+
+   public void comment(char[] ch, int start, int length,
+                       NodeBase instruction)
+      throws SAXException
+   {
+      if (calls == null) {
+         target.comment(ch, start, length, instruction);
+         return;
+      }
+      Call c = new Call(COMMENT, instruction);
+      c.chars = new char[length];
+      System.arraycopy(ch, start, c.chars, 0, length);
+      calls.add(c);
+   }
+
+
+   public void startCDATA(NodeBase instruction)
+      throws SAXException
+   {
+      if (calls == null)
+         target.startCDATA(instruction);
+      else
+         calls.add(new Call(START_CDATA, instruction));
+   }
+
+
+   public void endCDATA()
+      throws SAXException
+   {
+      if (calls == null)
+         target.endCDATA();
+      else
+         calls.add(new Call(END_CDATA, null));
+   }
+
+
+   public void createDTD(NodeBase instruction, String name,
+                         String publicId, String systemId)
+      throws SAXException
+   {
+      if (calls == null) {
+         target.createDTD(instruction, name, publicId, systemId);
+         return;
+      }
+      Call c = new Call(CREATE_DTD, instruction);
+      c.s1 = name;
+      c.s2 = publicId;
+      c.s3 = systemId;
+      calls.add(c);
+   }
+
+
+   public boolean isEmitterActive(StxEmitter emitter)
+   {
+      return target.isEmitterActive(emitter);
+   }
+
+
+   public Writer getResultWriter(String href, String encoding,
+                                 String publicId, String systemId,
+                                 int lineNo, int colNo, boolean append)
+      throws java.io.IOException, SAXException, URISyntaxException
+   {
+      return target.getResultWriter(href, encoding, publicId, systemId,
+                                    lineNo, colNo, append);
+   }
+}
@@ -24,11 +24,12 @@
 
 package net.sf.joost.stx;
 
-import java.util.HashMap;
 import java.util.Hashtable;
 
 import net.sf.joost.stx.helpers.MutableAttributes;
 import net.sf.joost.stx.helpers.MutableAttributesImpl;
+import net.sf.joost.util.om.FastStringBuffer;
+import net.sf.joost.util.om.IntCounterMap;
 
 import org.xml.sax.Attributes;
 
@@ -58,14 +59,46 @@ final public class SAXEvent
    public String lName;
    public String qName; // PI->target, MAPPING->prefix
    public MutableAttributes attrs;
-   public Hashtable namespaces;
-   public String value = ""; 
-      // PI->data, MAPPING->uri, TEXT, ATTRIBUTES as usual
-      // ELEMENT->text look-ahead
+   public NamespaceScope namespaces;
+   /**
+    * The value of this node (PI-&gt;data, MAPPING-&gt;uri, TEXT, ATTRIBUTE
+    * as usual, ELEMENT-&gt;text look-ahead), <code>null</code> if the
+    * value is still stored in {@link #chars}; use {@link #getValue} for
+    * reading
+    */
+   private String value = "";
+
+   /**
+    * The character data of a text node or the text look-ahead of an
+    * element as received from the parser, <code>null</code> if the
+    * value has been given as a string. The contents of this buffer won't
+    * be changed any more.
+    */
+   private FastStringBuffer chars;
    public boolean hasChildNodes = false;
 
-   /** contains the position counters */
-   private HashMap posHash;
+   /** contains the position counters (name id -> position) */
+   private IntCounterMap positions;
+
+   /** the name pool that provides the keys for {@link #positions} */
+   private NamePool namePool;
+
+   /**
+    * Set if this event is referenced from a variable, a parameter, or
+    * any other structure that outlives its presence on the ancestor stack.
+    * Such an event must not be recycled by an {@link EventPool}.
+    */
+   public boolean escaped;
+
+   /** attributes object of a recycled element, will be reused */
+   MutableAttributes spareAttrs;
+
+   /**
+    * The state of the pattern automaton for this node on the ancestor
+    * stack, computed on demand
+    * (see {@link net.sf.joost.instruction.PatternAutomaton})
+    */
+   public Object matchState;
 
 
 
@@ -85,7 +118,7 @@ final public class SAXEvent
    /** Create a new element node */
    public static SAXEvent newElement(String uri, String lName, String qName,
                                      Attributes attrs, boolean mutable,
-                                     Hashtable inScopeNamespaces)
+                                     NamespaceScope inScopeNamespaces)
    {
       SAXEvent event = new SAXEvent();
       event.type = attrs != null ? ELEMENT : ELEMENT_END;
@@ -102,6 +135,64 @@ final public class SAXEvent
       return event;
    }
 
+   /**
+    * @return the in-scope namespaces of this element as a table that must
+    *         not be modified, or <code>null</code> if not available
+    */
+   public Hashtable getNamespaces()
+   {
+      return namespaces != null ? namespaces.getNamespaces() : null;
+   }
+
+   /**
+    * Creates a copy of this event that doesn't share any changeable
+    * objects with this event, thus the copy may be used in another thread.
+    * @param pool the name pool for the copied position counters, must be
+    *        a copy of the name pool used for this event
+    * @return the copy
+    */
+   SAXEvent copy(NamePool pool)
+   {
+      SAXEvent event = new SAXEvent();
+      event.type = type;
+      event.uri = uri;
+      event.lName = lName;
+      event.qName = qName;
+      if (attrs != null)
+         event.attrs = new MutableAttributesImpl(attrs);
+      event.namespaces = namespaces;
+      event.value = value;
+      event.chars = chars;
+      event.hasChildNodes = hasChildNodes;
+      if (positions != null) {
+         event.positions = positions.copy();
+         event.namePool = pool;
+      }
+      return event;
+   }
+
+   /**
+    * Prepares this event for its reuse by an {@link EventPool}: releases
+    * all references, but keeps the attributes object and the position
+    * counters.
+    */
+   void recycle()
+   {
+      if (attrs != null) {
+         spareAttrs = attrs;
+         attrs = null;
+      }
+      uri = lName = qName = null;
+      namespaces = null;
+      value = "";
+      chars = null;
+      hasChildNodes = false;
+      matchState = null;
+      if (positions != null)
+         positions.clear();
+   }
+
+
    /** Create a new text node */
    public static SAXEvent newText(String value)
    {
@@ -112,6 +203,16 @@ final public class SAXEvent
    }
 
 
+   /** Create a new text node from a character buffer */
+   public static SAXEvent newText(FastStringBuffer chars)
+   {
+      SAXEvent event = new SAXEvent();
+      event.type = TEXT;
+      event.setChars(chars);
+      return event;
+   }
+
+
    /** Create a new CDATA node */
    public static SAXEvent newCDATA(String value)
    {
@@ -122,6 +223,16 @@ final public class SAXEvent
    }
 
 
+   /** Create a new CDATA node from a character buffer */
+   public static SAXEvent newCDATA(FastStringBuffer chars)
+   {
+      SAXEvent event = new SAXEvent();
+      event.type = CDATA;
+      event.setChars(chars);
+      return event;
+   }
+
+
    /** Create a root node */
    public static SAXEvent newRoot()
    {
@@ -190,202 +301,170 @@ final public class SAXEvent
 
 
    /**
-    * Enables the counting of child nodes.
-    * @param hasChildNodes <code>true</code>, if there are really child nodes;
-    *                      <code>false</code>, if only the counting has to be
-    *                      supported (e.g. in <code>stx:process-buffer</code>)
+    * Sets the value of this node to the contents of a character buffer.
+    * The string value will be created only if it is requested by
+    * {@link #getValue}.
+    * @param chars the buffer, must not be changed afterwards
     */
-   public void enableChildNodes(boolean hasChildNodes)
+   void setChars(FastStringBuffer chars)
    {
-      if (hasChildNodes) {
-         posHash = new HashMap();
-         this.hasChildNodes = true;
-      }
-      else
-         if (posHash == null)
-            posHash = new HashMap();
+      this.chars = chars;
+      value = null;
    }
 
 
+   /** Sets the value of this node to a string */
+   void setValue(String value)
+   {
+      this.value = value;
+      chars = null;
+   }
 
-   // *******************************************************************
 
-   /** 
-    * This class replaces java.lang.Long for counting because I need to 
-    * change the wrapped value and want to avoid the creation of a new
-    * object in each increment. Is this really better (faster)?
-    */
-   private final class Counter
+   /** @return the (string) value of this node */
+   public String getValue()
    {
-      public long value;
-      public Counter()
-      {
-         value = 1;
-      }
+      if (value == null)
+         value = chars.toString();
+      return value;
    }
 
-   // *******************************************************************
 
    /**
-    * This class acts as a wrapper for a pair of {@link String} objects.
-    * Such a pair is needed as a key for a hashtable.
+    * @return an array that contains the characters of the value of this
+    *         node, starting at index 0. The caller must not modify this
+    *         array.
+    * @see #getLength
     */
-   private static final class DoubleString
-   {
-      private String s1, s2;
-      private int hashValue;
-      public DoubleString(String s1, String s2)
-      {
-         this.s1 = s1;
-         this.s2 = s2;
-         hashValue = (s1.hashCode() << 1) ^ s2.hashCode();
-      }
+   public char[] getCharArray()
+   {
+      return chars != null ? chars.getCharArray() : value.toCharArray();
+   }
 
-      public int hashCode()
-      {
-         return hashValue;
-      }
 
-      public boolean equals(Object o)
-      {
-         if (!(o instanceof DoubleString))
-            return false;
-         DoubleString ds = (DoubleString)o;
-         return s1.equals(ds.s1) && s2.equals(ds.s2);
-      }
+   /** @return the length of the value of this node */
+   public int getLength()
+   {
+      return chars != null ? chars.length() : value.length();
    }
 
-   // *******************************************************************
 
+   /**
+    * Enables the counting of child nodes.
+    * @param hasChildNodes <code>true</code>, if there are really child nodes;
+    *                      <code>false</code>, if only the counting has to be
+    *                      supported (e.g. in <code>stx:process-buffer</code>)
+    */
+   public void enableChildNodes(boolean hasChildNodes)
+   {
+      // the counters will be created on demand
+      if (hasChildNodes)
+         this.hasChildNodes = true;
+   }
+
+
+   /** @return the position counters, created if necessary */
+   private IntCounterMap getPositions(NamePool pool)
+   {
+      if (positions == null)
+         positions = new IntCounterMap();
+      // a recycled event may have been counted with another pool before
+      namePool = pool;
+      return positions;
+   }
 
-   private static final DoubleString GENERIC_ELEMENT = 
-      new DoubleString("*", "*");
    /**
     * Increments the associated counters for an element.
     */
-   public void countElement(String uri, String lName)
+   public void countElement(NamePool pool, String uri, String lName)
    {
-      Object[] keys = { "node()", GENERIC_ELEMENT,  
-                        new DoubleString(uri, lName),
-                        new DoubleString("*", lName),
-                        new DoubleString(uri, "*") };
-      _countPosition(keys);
+      IntCounterMap counters = getPositions(pool);
+      int[] ids = pool.getElementIds(uri, lName);
+      counters.increment(NamePool.NODE);
+      counters.increment(NamePool.ELEMENT);
+      counters.increment(ids[0]);
+      counters.increment(ids[1]);
+      counters.increment(ids[2]);
    }
 
    /**
     * Increments the associated counters for a text node.
     */
-   public void countText()
+   public void countText(NamePool pool)
    {
-      String[] keys = { "node()", "text()" };
-      _countPosition(keys);
+      IntCounterMap counters = getPositions(pool);
+      counters.increment(NamePool.NODE);
+      counters.increment(NamePool.TEXT);
    }
 
    /**
     * Increments the associated counters for a text CDATA node.
     */
-   public void countCDATA()
+   public void countCDATA(NamePool pool)
    {
-      String[] keys = { "node()", "text()", "cdata()" };
-      _countPosition(keys);
+      IntCounterMap counters = getPositions(pool);
+      counters.increment(NamePool.NODE);
+      counters.increment(NamePool.TEXT);
+      counters.increment(NamePool.CDATA);
    }
 
    /**
     * Increments the associated counters for a comment node.
     */
-   public void countComment()
+   public void countComment(NamePool pool)
    {
-      String[] keys = { "node()", "comment()" };
-      _countPosition(keys);
+      IntCounterMap counters = getPositions(pool);
+      counters.increment(NamePool.NODE);
+      counters.increment(NamePool.COMMENT);
    }
 
-   private static final DoubleString GENERIC_PI = 
-      new DoubleString("pi()", "");
    /**
     * Increment the associated counters for a processing instruction node.
     */
-   public void countPI(String target)
+   public void countPI(NamePool pool, String target)
    {
-      Object[] keys = { "node()", GENERIC_PI, 
-                        new DoubleString("pi()", target) };
-      _countPosition(keys);
+      IntCounterMap counters = getPositions(pool);
+      counters.increment(NamePool.NODE);
+      counters.increment(NamePool.PI);
+      counters.increment(pool.getPIId(target));
    }
 
-   /**
-    * Performs the real counting. Will be used by the count* functions.
-    */
-   private void _countPosition(Object[] keys)
-   {
-      Counter c;
-      for (int i=0; i<keys.length; i++) {
-         c = (Counter)posHash.get(keys[i]);
-         if (c == null)
-            posHash.put(keys[i], new Counter());
-         else
-            c.value++;
-         // posHash.put(keys[i], new Long(l.longValue()+1));
-      }
-   }
 
+   // The following methods return 0 if the position counting has been
+   // disabled (see Processor#countPositions)
 
    public long getPositionOf(String uri, String lName)
    {
-      Counter c = (Counter)posHash.get(new DoubleString(uri, lName));
-      if (c == null) {
-         // Shouldn't happen
-         throw new NullPointerException();
-      }
-      return c.value;
+      if (positions == null)
+         return 0;
+      return positions.get(namePool.lookupElementId(uri, lName));
    }
 
    public long getPositionOfNode()
    {
-      Counter c = (Counter)posHash.get("node()");
-      if (c == null) {
-         // Shouldn't happen
-         throw new NullPointerException();
-      }
-      return c.value;
+      return positions != null ? positions.get(NamePool.NODE) : 0;
    }
 
    public long getPositionOfText()
    {
-      Counter c = (Counter)posHash.get("text()");
-      if (c == null) {
-         // Shouldn't happen
-         throw new NullPointerException();
-      }
-      return c.value;
+      return positions != null ? positions.get(NamePool.TEXT) : 0;
    }
 
    public long getPositionOfCDATA()
    {
-      Counter c = (Counter)posHash.get("cdata()");
-      if (c == null) {
-         // Shouldn't happen
-         throw new NullPointerException();
-      }
-      return c.value;
+      return positions != null ? positions.get(NamePool.CDATA) : 0;
    }
 
    public long getPositionOfComment()
    {
-      Counter c = (Counter)posHash.get("comment()");
-      if (c == null) {
-         // Shouldn't happen
-         throw new NullPointerException();
-      }
-      return c.value;
+      return positions != null ? positions.get(NamePool.COMMENT) : 0;
    }
 
    public long getPositionOfPI(String target)
    {
-      Counter c = (Counter)posHash.get(new DoubleString("pi()", target));
-      if (c == null) {
-         // Shouldn't happen
-         throw new NullPointerException();
-      }
-      return c.value;
+      if (positions == null)
+         return 0;
+      return positions.get(namePool.lookupPIId(target));
    }
 
    public Object clone() {
@@ -409,9 +488,9 @@ final public class SAXEvent
       case ELEMENT_END:
          return ret + "</" + qName + ">";
       case TEXT:
-         return ret + "'" + value + "'";
+         return ret + "'" + getValue() + "'";
       case CDATA:
-         return ret + "<![CDATA[" + value + "]]>";
+         return ret + "<![CDATA[" + getValue() + "]]>";
       case COMMENT:
          return ret + "<!--" + value + "-->";
       case PI:
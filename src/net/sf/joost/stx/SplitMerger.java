@@ -0,0 +1,537 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is agent.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+
+package net.sf.joost.stx;
+
+import net.sf.joost.emitter.BufferEmitter;
+import net.sf.joost.instruction.GroupBase;
+
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.LinkedList;
+
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+
+
+/**
+ * Transforms subtrees of the input in parallel (split mode of the
+ * {@link Processor}). The main Processor collects the events of each
+ * subtree that matches the split pattern and passes them as a
+ * {@link Task} to this object. A number of worker threads transform
+ * these subtrees, each using its own copy of the main Processor.
+ * The results will be recorded and finally passed in document order to
+ * the emitter of the main Processor.
+ * <p>
+ * The worker threads will be started on demand and reused for subsequent
+ * transformations of the main Processor. An idle worker terminates after
+ * {@link #IDLE_TIMEOUT} milliseconds, an aborted transformation
+ * terminates all workers (see {@link #abort}).
+ * <p>
+ * A split pattern is an absolute path of element names, for example
+ * <code>/root/record</code>. Each step is either <code>*</code>, a local
+ * name (of an element without namespace), or an expanded name in the
+ * form <code>{uri}local-name</code>.
+ * @version $Revision$ $Date$
+ * @author agent
+ */
+final class SplitMerger
+{
+   /**
+    * The data needed for transforming a subtree. All fields will be set
+    * by the main Processor, the worker adds its result.
+    */
+   static final class Task
+   {
+      /** the events of the subtree, closed after processing this task */
+      BufferEmitter events;
+
+      /** copies of the ancestors of the subtree, starting with the root */
+      SAXEvent[] ancestors;
+
+      /** a copy of the name pool used for {@link #ancestors} */
+      NamePool namePool;
+
+      /** the namespaces in scope of the subtree root */
+      NamespaceScope namespaces;
+
+      /** the target group and the current group */
+      GroupBase targetGroup, currentGroup;
+
+      /** the parameters passed to the template of the subtree */
+      Hashtable passedParameters;
+
+      /** the current frames of the group variables */
+      Object[][] groupVars;
+
+      /** a copy of the locator of the main Processor */
+      Locator locator;
+
+      /** the recorded result of the transformation */
+      ArrayList result = new ArrayList();
+
+      /**
+       * the recorded results of the main Processor that follow the result
+       * of this task
+       */
+      ArrayList following = new ArrayList();
+
+      /** set by the worker after processing this task */
+      boolean done;
+
+      /** an exception that occurred while processing this task */
+      Exception error;
+   }
+
+
+   /**
+    * The time in milliseconds an idle worker thread waits for a new task
+    * before it terminates
+    */
+   static final long IDLE_TIMEOUT = 10000;
+
+   /** The split pattern */
+   private String pattern;
+
+   /** The local names of the steps, <code>null</code> for * */
+   private String[] lNames;
+
+   /** The namespace URIs of the steps, <code>null</code> for * */
+   private String[] uris;
+
+   /** The main Processor */
+   private Processor main;
+
+   /** The emitter of the main Processor */
+   private RecordingEmitter emitter;
+
+   /** The tasks in document order whose results haven't been emitted */
+   private LinkedList pending = new LinkedList();
+
+   /** The tasks waiting for a worker thread */
+   private LinkedList jobs = new LinkedList();
+
+   /** The maximal size of {@link #pending} */
+   private int maxPending;
+
+   /** The maximal number of worker threads */
+   private int maxThreads;
+
+   /** The number of running worker threads */
+   private int threads;
+
+   /** The copies of the main Processor without a worker thread */
+   private LinkedList processors = new LinkedList();
+
+   /**
+    * The number of the current transformation, tells the workers to
+    * update the settings of their Processor
+    */
+   private int generation;
+
+   /** Set while a transformation is running */
+   private boolean active;
+
+   /** Set when the worker threads have to terminate */
+   private boolean shutdown;
+
+
+   /**
+    * Constructs a new <code>SplitMerger</code>. The worker threads will be
+    * started by {@link #submit}.
+    * @param pattern the split pattern
+    * @param main the main Processor
+    * @param threads the maximal number of worker threads
+    */
+   SplitMerger(String pattern, Processor main, int threads)
+   {
+      parsePattern(pattern);
+      this.pattern = pattern;
+      this.main = main;
+      maxThreads = threads;
+      maxPending = threads * 4;
+   }
+
+
+   /**
+    * Checks the syntax of a split pattern.
+    * @param pattern the split pattern
+    * @exception IllegalArgumentException if the pattern is invalid
+    */
+   static void checkPattern(String pattern)
+   {
+      new SplitMerger().parsePattern(pattern);
+   }
+
+
+   /** Constructor for {@link #checkPattern} */
+   private SplitMerger()
+   { }
+
+
+   /** Initializes {@link #lNames} and {@link #uris} */
+   private void parsePattern(String pattern)
+   {
+      ArrayList steps = new ArrayList();
+      int pos = 0, length = pattern.length();
+      while (pos < length && pattern.charAt(pos) == '/') {
+         int start = ++pos;
+         if (pos < length && pattern.charAt(pos) == '{') {
+            pos = pattern.indexOf('}', pos);
+            if (pos == -1)
+               break;
+         }
+         pos = pattern.indexOf('/', pos);
+         if (pos == -1)
+            pos = length;
+         steps.add(pattern.substring(start, pos));
+      }
+      if (pos != length || steps.isEmpty())
+         throw new IllegalArgumentException("Invalid split pattern '" +
+                                            pattern + "'");
+
+      lNames = new String[steps.size()];
+      uris = new String[steps.size()];
+      for (int i=0; i<lNames.length; i++) {
+         String step = (String)steps.get(i);
+         if (step.equals("*"))
+            continue; // null matches every element
+         String uri = "";
+         if (step.startsWith("{")) {
+            int end = step.indexOf('}');
+            uri = step.substring(1, end);
+            step = step.substring(end + 1);
+         }
+         if (step.length() == 0 || step.indexOf(':') != -1 ||
+             step.indexOf('*') != -1)
+            throw new IllegalArgumentException("Invalid step '" + step +
+                                               "' in split pattern '" +
+                                               pattern + "'");
+         lNames[i] = step;
+         uris[i] = uri;
+      }
+   }
+
+
+   /**
+    * Determines whether this object can be reused for a transformation
+    * @param pattern the split pattern
+    * @param threads the number of worker threads
+    */
+   boolean accepts(String pattern, int threads)
+   {
+      return this.pattern.equals(pattern) && maxThreads == threads;
+   }
+
+
+   /**
+    * Starts the split mode for a new transformation.
+    * @param target the emitter of the main Processor, which will receive
+    *        all results
+    * @return the emitter for the main Processor
+    */
+   synchronized Emitter start(Emitter target)
+   {
+      emitter = new RecordingEmitter(target, null,
+                                     main.getContext().errorHandler);
+      pending.clear();
+      jobs.clear();
+      generation++;
+      shutdown = false;
+      active = true;
+      return emitter;
+   }
+
+
+   /** @return whether a transformation is running */
+   boolean isActive()
+   {
+      return active;
+   }
+
+
+   /**
+    * Determines whether a new element matches the split pattern.
+    * @param eventStack the ancestor stack (starting with the root node)
+    * @param uri the namespace URI of the element
+    * @param lName the local name of the element
+    */
+   boolean matches(EventStack eventStack, String uri, String lName)
+   {
+      int depth = lNames.length;
+      if (eventStack.size() != depth || !matches(depth-1, uri, lName))
+         return false;
+      for (int i=depth-1; i>0; i--) {
+         SAXEvent e = eventStack.elementAt(i);
+         if (!matches(i-1, e.uri, e.lName))
+            return false;
+      }
+      return true;
+   }
+
+
+   /** Determines whether a step matches an element name */
+   private boolean matches(int step, String uri, String lName)
+   {
+      return lNames[step] == null ||
+             (lNames[step].equals(lName) && uris[step].equals(uri));
+   }
+
+
+   /**
+    * Passes a task to the worker threads. The subsequent results of the
+    * main Processor will be recorded until the result of this task has
+    * been emitted.
+    * @param task the task
+    */
+   void submit(Task task)
+      throws SAXException
+   {
+      Processor processor = null;
+      boolean newThread;
+      synchronized (this) {
+         pending.addLast(task);
+         jobs.addLast(task);
+         notifyAll();
+         newThread = threads < maxThreads;
+         if (newThread) {
+            threads++;
+            if (!processors.isEmpty())
+               processor = (Processor)processors.removeFirst();
+         }
+      }
+      if (newThread)
+         startWorker(processor);
+      emitter.setRecording(task.following);
+      // emit finished results; wait if there are too many pending tasks
+      emitResults(pending.size() > maxPending);
+   }
+
+
+   /**
+    * Starts a new worker thread
+    * @param processor the copy of the main Processor for this thread,
+    *        <code>null</code> for a new copy
+    * @exception SAXException if a copy of the Processor can't be created
+    */
+   private void startWorker(Processor processor)
+      throws SAXException
+   {
+      try {
+         if (processor == null)
+            processor = main.newSplitWorker();
+         else
+            main.initSplitWorker(processor);
+      }
+      catch (SAXException ex) {
+         synchronized (this) {
+            threads--;
+         }
+         throw ex;
+      }
+      Thread t = new Worker(processor, generation);
+      t.setDaemon(true);
+      t.start();
+   }
+
+
+   /**
+    * Waits for all tasks and emits their results. The worker threads
+    * remain available for the next transformation.
+    * @return the emitter of the main Processor
+    */
+   Emitter finish()
+      throws SAXException
+   {
+      while (!pending.isEmpty())
+         emitResults(true);
+      active = false;
+      return emitter.getTarget();
+   }
+
+
+   /**
+    * Terminates the split mode of an aborted transformation and the
+    * worker threads.
+    * @return the emitter of the main Processor
+    */
+   synchronized Emitter abort()
+   {
+      shutdown();
+      pending.clear();
+      active = false;
+      return emitter.getTarget();
+   }
+
+
+   /** Terminates the worker threads */
+   synchronized void shutdown()
+   {
+      shutdown = true;
+      while (!jobs.isEmpty())
+         ((Task)jobs.removeFirst()).events.close();
+      notifyAll();
+   }
+
+
+   /**
+    * Emits the results of finished tasks in document order.
+    * @param wait <code>true</code> if this method should wait for the
+    *        first pending task
+    */
+   private void emitResults(boolean wait)
+      throws SAXException
+   {
+      while (true) {
+         Task task;
+         synchronized (this) {
+            if (pending.isEmpty())
+               return;
+            task = (Task)pending.getFirst();
+            while (wait && !task.done) {
+               if (threads == 0 && !jobs.isEmpty()) {
+                  // the last worker died, the queued tasks need a new one
+                  threads++;
+                  startWorker(processors.isEmpty()
+                                 ? null
+                                 : (Processor)processors.removeFirst());
+               }
+               try {
+                  wait();
+               }
+               catch (InterruptedException ex) {
+                  shutdown();
+                  throw new SAXException(ex);
+               }
+            }
+            if (!task.done)
+               return;
+            pending.removeFirst();
+         }
+         wait = false;
+         if (task.error != null) {
+            shutdown();
+            if (task.error instanceof SAXException)
+               throw (SAXException)task.error;
+            throw new SAXException(task.error);
+         }
+         Emitter target = emitter.getTarget();
+         RecordingEmitter.replay(task.result, target);
+         RecordingEmitter.replay(task.following, target);
+         if (pending.isEmpty()) // no more recording necessary
+            emitter.setRecording(null);
+      }
+   }
+
+
+   /** A worker thread */
+   private final class Worker extends Thread
+   {
+      /** The processor for the subtrees */
+      private Processor processor;
+
+      /** The transformation the settings of {@link #processor} belong to */
+      private int generation;
+
+      Worker(Processor processor, int generation)
+      {
+         super("Joost split worker");
+         this.processor = processor;
+         this.generation = generation;
+      }
+
+      public void run()
+      {
+         boolean reusable = false;
+         try {
+            work();
+            reusable = true;
+         }
+         finally {
+            // also reached if an Error (e.g. OutOfMemoryError) killed this
+            // thread; its Processor may be inconsistent then
+            synchronized (SplitMerger.this) {
+               threads--;
+               if (reusable)
+                  processors.addLast(processor);
+               SplitMerger.this.notifyAll();
+            }
+         }
+      }
+
+      /**
+       * Processes tasks until this thread has been idle for
+       * {@link #IDLE_TIMEOUT} milliseconds or the workers have to terminate
+       */
+      private void work()
+      {
+         while (true) {
+            Task task;
+            Emitter target;
+            synchronized (SplitMerger.this) {
+               long idleEnd = System.currentTimeMillis() + IDLE_TIMEOUT;
+               while (jobs.isEmpty() && !shutdown) {
+                  long timeout = idleEnd - System.currentTimeMillis();
+                  if (timeout <= 0)
+                     return;
+                  try {
+                     SplitMerger.this.wait(timeout);
+                  }
+                  catch (InterruptedException ex) {
+                     return;
+                  }
+               }
+               if (shutdown)
+                  return;
+               task = (Task)jobs.removeFirst();
+               if (generation != SplitMerger.this.generation) {
+                  main.initSplitWorker(processor);
+                  generation = SplitMerger.this.generation;
+               }
+               target = emitter.getTarget();
+            }
+            Exception error =
+               new SAXException("Abnormal termination of " + getName());
+            try {
+               processor.processSplitTask(task,
+                  new RecordingEmitter(target, task.result,
+                                       processor.getContext().errorHandler));
+               error = null;
+            }
+            catch (Exception ex) {
+               error = ex;
+            }
+            finally {
+               synchronized (SplitMerger.this) {
+                  task.error = error;
+                  task.done = true;
+                  task.events.close(); // not needed any more
+                  task.events = null;
+                  SplitMerger.this.notifyAll();
+               }
+            }
+         }
+      }
+   }
+}
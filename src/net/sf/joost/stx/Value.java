@@ -26,6 +26,7 @@ package net.sf.joost.stx;
 
 import net.sf.joost.grammar.EvalException;
 
+import java.io.Serializable;
 import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.List;
@@ -37,7 +38,7 @@ import java.util.Locale;
  * @version $Revision: 1.27 $ $Date: 2010/01/24 20:27:13 $
  * @author Oliver Becker
  */
-public class Value implements Cloneable
+public class Value implements Cloneable, Serializable
 {
    // number format for number to string conversion
    private static NumberFormat numberFormat;
@@ -96,6 +97,15 @@ public class Value implements Cloneable
     */
    public Value next;
 
+   /**
+    * The items of the sequence that starts with this value, created by
+    * {@link #escape} for sequences that will be stored in a variable.
+    * Such a sequence may be shared by all readers of the variable (see
+    * {@link net.sf.joost.grammar.Tree#evaluateShared}) and must not be
+    * modified.
+    */
+   private Value[] items;
+
    //
    // Constructors
    //
@@ -197,6 +207,31 @@ public class Value implements Cloneable
       return event;
    }
 
+   /**
+    * Marks all nodes in this sequence as {@link SAXEvent#escaped escaped}.
+    * Must be invoked before the value will be stored in a variable or
+    * a parameter.
+    * @return this value
+    */
+   public Value escape()
+   {
+      int count = 0;
+      for (Value v=this; v!=null; v=v.next) {
+         if (v.type == NODE)
+            v.event.escaped = true;
+         count++;
+      }
+      // provide indexed access for sequences
+      if (count > 1 && items == null) {
+         Value[] array = new Value[count];
+         count = 0;
+         for (Value v=this; v!=null; v=v.next)
+            array[count++] = v;
+         items = array;
+      }
+      return this;
+   }
+
    public Object getObject()
    {
       return object;
@@ -245,7 +280,7 @@ public class Value implements Cloneable
       case STRING:
          return string;
       case NODE:
-         return event.value;
+         return event.getValue();
       case EMPTY:
          return "";
       case BOOLEAN:
@@ -304,16 +339,90 @@ public class Value implements Cloneable
     */
    public Value copy()
    {
-   	Value ret = new Value();
-   	ret.bool = bool;
-   	ret.event = event;
-   	ret.number = number;
-   	ret.object = object;
-   	ret.string = string;
-   	ret.type = type;
-   	if (next != null)
-           ret.next = next.copy();
-   	return ret;
+      Value ret = copyItem(), last = ret;
+      for (Value v=next; v!=null; v=v.next)
+         last = last.next = v.copyItem();
+      return ret;
+   }
+
+   /** Returns a copy of this value without its successors */
+   private Value copyItem()
+   {
+      Value ret = new Value();
+      ret.bool = bool;
+      ret.event = event;
+      ret.number = number;
+      ret.object = object;
+      ret.string = string;
+      ret.type = type;
+      return ret;
+   }
+
+   /**
+    * @return the number of items in the sequence represented by this
+    *         value
+    */
+   public int size()
+   {
+      if (items != null)
+         return items.length;
+      if (type == EMPTY)
+         return 0;
+      int count = 1;
+      for (Value v=next; v!=null; v=v.next)
+         count++;
+      return count;
+   }
+
+   /**
+    * Returns an item of the sequence represented by this value.
+    * @param index the index of the item, starting with 0
+    * @return the item (its successors must be ignored), or
+    *         <code>null</code> if <code>index</code> is out of bounds
+    */
+   public Value itemAt(int index)
+   {
+      if (items != null)
+         return index >= 0 && index < items.length ? items[index] : null;
+      if (type == EMPTY || index < 0)
+         return null;
+      Value v = this;
+      while (v != null && index-- > 0)
+         v = v.next;
+      return v;
+   }
+
+   /**
+    * @return the items of the sequence represented by this value (their
+    *         successors must be ignored); the array must not be modified
+    */
+   public Value[] toArray()
+   {
+      if (items != null)
+         return items;
+      Value[] array = new Value[size()];
+      int i = 0;
+      for (Value v=this; i<array.length; v=v.next)
+         array[i++] = v;
+      return array;
+   }
+
+   /**
+    * Creates a new sequence from copies of some items.
+    * @param items the items (their successors will be ignored)
+    * @param begin the index of the first item
+    * @param end the index after the last item
+    * @return the new sequence, the empty sequence if
+    *         <code>begin &gt;= end</code>
+    */
+   public static Value sequence(Value[] items, int begin, int end)
+   {
+      if (begin >= end)
+         return VAL_EMPTY;
+      Value ret = items[begin].copyItem(), last = ret;
+      for (int i=begin+1; i<end; i++)
+         last = last.next = items[i].copyItem();
+      return ret;
    }
 
    /**
@@ -344,6 +453,7 @@ public class Value implements Cloneable
          if (v1.next == null) {
             Value ret = (Value)v1.clone();
             ret.next = v2;
+            ret.items = null;
             return ret;
          }
          else {
@@ -459,7 +569,7 @@ public class Value implements Cloneable
       if (target == Object.class) {
          switch (type) {
          case EMPTY:   return null;
-         case NODE:    return event.value;
+         case NODE:    return event.getValue();
          case BOOLEAN: return new Boolean(bool);
          case NUMBER:  return new Double(number);
          case STRING:  return string;
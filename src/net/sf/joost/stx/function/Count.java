@@ -59,14 +59,6 @@ final public class Count implements Instance
    public Value evaluate(Context context, int top, Tree args)
       throws SAXException, EvalException
    {
-      Value v = args.evaluate(context, top);
-      if (v.type == Value.EMPTY) // empty sequence
-         return Value.VAL_ZERO;
-      int count = 1;
-      while (v.next != null) {
-         count++;
-         v = v.next;
-      }
-      return new Value(count);
+      return new Value(args.evaluateShared(context, top).size());
    }
 }
\ No newline at end of file
@@ -60,7 +60,7 @@ final public class Empty implements Instance
    public Value evaluate(Context context, int top, Tree args)
       throws SAXException, EvalException
    {
-      Value v = args.evaluate(context, top);
+      Value v = args.evaluateShared(context, top);
       return Value.getBoolean(v.type == Value.EMPTY);
    }
 }
\ No newline at end of file
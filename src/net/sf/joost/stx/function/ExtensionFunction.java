@@ -30,6 +30,10 @@ import net.sf.joost.stx.Context;
 import net.sf.joost.stx.Value;
 import net.sf.joost.stx.function.FunctionFactory.Instance;
 
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
@@ -52,8 +56,11 @@ final public class ExtensionFunction implements Instance
    /** the target class, identified by the namespace */
    private Class targetClass;
 
-   /** possible methods, should differ at most in formal parameter types */
-   private ArrayList candidateMethods = new ArrayList();
+   /**
+    * possible methods, should differ at most in formal parameter types;
+    * serialized by name and parameter types, see writeObject
+    */
+   private transient ArrayList candidateMethods = new ArrayList();
 
    /** the number of provided parameters in the function call */
    private int paramCount = 0;
@@ -63,6 +70,21 @@ final public class ExtensionFunction implements Instance
     */
    private boolean isConstructor;
 
+   /**
+    * the parameter types of the only candidate, <code>null</code> if
+    * there are several candidates
+    */
+   private transient Class[] singleParamTypes;
+
+   /** the maximal number of entries in {@link #targets} */
+   private static final int MAX_TARGETS = 8;
+
+   /**
+    * the candidates chosen for the parameter types encountered so far,
+    * the most recent first
+    */
+   private transient volatile Target[] targets = new Target[0];
+
 
    /**
     * Constructs a Java extension function.
@@ -186,6 +208,19 @@ final public class ExtensionFunction implements Instance
                " in class " + className,
                locator);
       }
+      initSingleParamTypes();
+   }
+
+
+   /** Initializes {@link #singleParamTypes} */
+   private void initSingleParamTypes()
+   {
+      if (candidateMethods.size() == 1) {
+         Object member = candidateMethods.get(0);
+         singleParamTypes = isConstructor
+            ? ((Constructor)member).getParameterTypes()
+            : ((Method)member).getParameterTypes();
+      }
    }
 
 
@@ -193,66 +228,55 @@ final public class ExtensionFunction implements Instance
    public Value evaluate(Context context, int top, Tree args)
       throws SAXException, EvalException
    {
-      // evaluate current parameters
-      Value[] values = null;
-      if (paramCount > 0) {
-         values = new Value[paramCount];
-
+      Object member;
+      Class[] formalParams;
+      Object theInstance = null;
+      Object[] currentParams;
+
+      if (singleParamTypes != null) {
+         // there's only one candidate: convert the current parameters
+         // immediately, there's no need to look at their types first
+         member = candidateMethods.get(0);
+         formalParams = singleParamTypes;
+         currentParams = new Object[formalParams.length];
+         int offset = paramCount - formalParams.length; // 1 or 0
+         for (int i=paramCount-1; i>=0; i--) {
+            Value v;
+            if (i > 0) {
+               v = args.right.evaluate(context, top);
+               args = args.left;
+            }
+            else
+               v = args.evaluate(context, top);
+            if (i >= offset)
+               currentParams[i-offset] = v.toJavaObject(formalParams[i-offset]);
+            else
+               theInstance = getInstance(v, (Method)member, true);
+         }
+      }
+      else {
+         // evaluate current parameters
+         Value[] values = new Value[paramCount];
          for (int i=paramCount-1; i>0; i--) {
             values[i] = args.right.evaluate(context, top);
             args = args.left;
          }
          values[0] = args.evaluate(context, top);
-      }
 
-      if (isConstructor) {
-         // this is a constructor call
-         Constructor theConstructor = null;
-         int methodNum = candidateMethods.size();
-         if (methodNum == 1)
-            theConstructor = (Constructor)candidateMethods.get(0);
-         else {
-            // choose the best constructor depending on current parameters
-            // This algorithm simply adds the distance values of all
-            // parameters and chooses the candidate with the lowest value.
-            // (Saxon's algorithm is more complicated, presumably there's
-            // a good reason for that ...)
-            double minDistance = -1;
-            boolean ambigous = false;
-            for (int i=0; i<methodNum; i++) {
-               Constructor c = (Constructor)candidateMethods.get(i);
-               double distance = 0;
-               Class[] paramTypes = c.getParameterTypes();
-               for (int j=0; j<paramTypes.length; j++)
-                  distance += values[j].getDistanceTo(paramTypes[j]);
-               // better fit?
-               if (distance < minDistance || minDistance < 0) {
-                  minDistance = distance;
-                  theConstructor = c;
-                  ambigous = false;
-               }
-               else if (distance == minDistance)
-                  ambigous = true;
-            }
-            if (minDistance == Double.POSITIVE_INFINITY)
-               throw new EvalException(
-                  "None of the Java constructors in " +
-                  targetClass.getName() +
-                  " matches this function call to 'new'");
-            if (ambigous)
-               throw new EvalException(
-                  "There are several Java constructors in " +
-                  targetClass.getName() +
-                  " that match the function call to 'new' equally well ");
-         } // end else (choose best constructor)
-
-         // set current parameters
-         Class[] formalParams = theConstructor.getParameterTypes();
-         Object[] currentParams = new Object[formalParams.length];
+         Target target = getTarget(values);
+         member = target.member;
+         formalParams = target.formalParams;
+         currentParams = new Object[formalParams.length];
+         int offset = paramCount - formalParams.length; // 1 or 0
+         if (offset != 0)
+            theInstance = getInstance(values[0], (Method)member, false);
          for (int i=0; i<formalParams.length; i++)
-            currentParams[i] = values[i].toJavaObject(formalParams[i]);
+            currentParams[i] = values[i+offset].toJavaObject(formalParams[i]);
+      }
 
+      if (isConstructor) {
          // call constructor
+         Constructor theConstructor = (Constructor)member;
          try {
             Object obj = theConstructor.newInstance(currentParams);
             return new Value(obj);
@@ -275,87 +299,10 @@ final public class ExtensionFunction implements Instance
                theConstructor.getName() +
                ": " + err3.getTargetException().toString());
          }
-      } // end else (constructor invocation)
-
-      else { // method invocation
-         Method theMethod = null;
-         int methodNum = candidateMethods.size();
-         if (methodNum == 1)
-            theMethod = (Method)candidateMethods.get(0);
-         else {
-            // choose the best method depending on current parameters
-            // (see comment for constructors above)
-            double minDistance = -1;
-            boolean ambigous = false;
-            for (int i=0; i<methodNum; i++) {
-               Method m = (Method)candidateMethods.get(i);
-               double distance = 0;
-               Class[] paramTypes = m.getParameterTypes();
-               if (Modifier.isStatic(m.getModifiers())) {
-                  for (int j=0; j<paramTypes.length; j++)
-                     distance += values[j].getDistanceTo(paramTypes[j]);
-               }
-               else {
-                  // first argument is the target object
-                  distance = values[0].getDistanceTo(targetClass);
-                  for (int j=0; j<paramTypes.length; j++)
-                     distance += values[j+1].getDistanceTo(paramTypes[j]);
-               }
-               // better fit?
-               if (distance < minDistance || minDistance < 0) {
-                  minDistance = distance;
-                  theMethod = m;
-                  ambigous = false;
-               }
-               else if (distance == minDistance)
-                  ambigous = true;
-            }
-            if (minDistance == Double.POSITIVE_INFINITY)
-               throw new EvalException(
-                  "None of the Java methods in " +
-                  targetClass.getName() +
-                  " matches this function call to '" +
-                  theMethod.getName() + "'");
-            if (ambigous)
-               throw new EvalException(
-                  "There are several Java methods in " +
-                  targetClass.getName() + " that match function '" +
-                  theMethod.getName() + "' equally well");
-         } // end else (choose best method)
-
-         // set current parameters
-         Object theInstance = null;
-         Class[] formalParams = theMethod.getParameterTypes();
-         Object[] currentParams = new Object[formalParams.length];
-         if (Modifier.isStatic(theMethod.getModifiers())) {
-            for (int i=0; i<formalParams.length; i++)
-               currentParams[i] = values[i].toJavaObject(formalParams[i]);
-         }
-         else {
-            // perform this additional check for the first parameter,
-            // because otherwise the error message is a little but
-            // misleading ("Conversion to ... is not supported")
-            if (methodNum == 1 && // haven't done this check in this case
-                values[0].getDistanceTo(targetClass) ==
-                          Double.POSITIVE_INFINITY)
-               throw new EvalException(
-                  "First parameter in the function call to '" +
-                  theMethod.getName() + "' must be the object instance");
-
-            theInstance = values[0].toJavaObject(targetClass);
-
-            if (theInstance == null)
-               throw new EvalException(
-                  "Target object (first parameter) in the function call " +
-                  "to '" + theMethod.getName() + "' is null");
-
-            for (int i=0; i<formalParams.length; i++) {
-               currentParams[i] =
-                  values[i+1].toJavaObject(formalParams[i]);
-            }
-         }
-
+      }
+      else {
          // call method
+         Method theMethod = (Method)member;
          try {
             return new Value(theMethod.invoke(theInstance, currentParams));
          }
@@ -377,6 +324,127 @@ final public class ExtensionFunction implements Instance
    }
 
 
+   /**
+    * Converts the first parameter of a call to an instance method.
+    * @param value the first parameter
+    * @param theMethod the method
+    * @param check <code>true</code> if the type of the first parameter
+    *        hasn't been checked yet
+    * @return the target object of the method call
+    */
+   private Object getInstance(Value value, Method theMethod, boolean check)
+      throws EvalException
+   {
+      // perform this additional check for the first parameter,
+      // because otherwise the error message is a little but
+      // misleading ("Conversion to ... is not supported")
+      if (check &&
+          value.getDistanceTo(targetClass) == Double.POSITIVE_INFINITY)
+         throw new EvalException(
+            "First parameter in the function call to '" +
+            theMethod.getName() + "' must be the object instance");
+
+      Object theInstance = value.toJavaObject(targetClass);
+
+      if (theInstance == null)
+         throw new EvalException(
+            "Target object (first parameter) in the function call " +
+            "to '" + theMethod.getName() + "' is null");
+      return theInstance;
+   }
+
+
+   /**
+    * Returns the best candidate for the types of the current parameters,
+    * either from {@link #targets} or by computing the distances of all
+    * candidates.
+    * @param values the current parameters
+    */
+   private Target getTarget(Value[] values)
+      throws EvalException
+   {
+      Target[] cached = targets;
+      for (int i=0; i<cached.length; i++)
+         if (cached[i].matches(values))
+            return cached[i];
+
+      // choose the best method or constructor depending on current
+      // parameters
+      // This algorithm simply adds the distance values of all
+      // parameters and chooses the candidate with the lowest value.
+      // (Saxon's algorithm is more complicated, presumably there's
+      // a good reason for that ...)
+      Object theMember = null;
+      Class[] theParamTypes = null;
+      double minDistance = -1;
+      boolean ambigous = false;
+      int methodNum = candidateMethods.size();
+      for (int i=0; i<methodNum; i++) {
+         Object member = candidateMethods.get(i);
+         double distance = 0;
+         Class[] paramTypes;
+         int offset = 0;
+         if (isConstructor)
+            paramTypes = ((Constructor)member).getParameterTypes();
+         else {
+            paramTypes = ((Method)member).getParameterTypes();
+            if (!Modifier.isStatic(((Method)member).getModifiers())) {
+               // first argument is the target object
+               distance = values[0].getDistanceTo(targetClass);
+               offset = 1;
+            }
+         }
+         for (int j=0; j<paramTypes.length; j++)
+            distance += values[j+offset].getDistanceTo(paramTypes[j]);
+         // better fit?
+         if (distance < minDistance || minDistance < 0) {
+            minDistance = distance;
+            theMember = member;
+            theParamTypes = paramTypes;
+            ambigous = false;
+         }
+         else if (distance == minDistance)
+            ambigous = true;
+      }
+
+      if (isConstructor) {
+         if (minDistance == Double.POSITIVE_INFINITY)
+            throw new EvalException(
+               "None of the Java constructors in " +
+               targetClass.getName() +
+               " matches this function call to 'new'");
+         if (ambigous)
+            throw new EvalException(
+               "There are several Java constructors in " +
+               targetClass.getName() +
+               " that match the function call to 'new' equally well ");
+      }
+      else {
+         if (minDistance == Double.POSITIVE_INFINITY)
+            throw new EvalException(
+               "None of the Java methods in " +
+               targetClass.getName() +
+               " matches this function call to '" +
+               ((Method)theMember).getName() + "'");
+         if (ambigous)
+            throw new EvalException(
+               "There are several Java methods in " +
+               targetClass.getName() + " that match function '" +
+               ((Method)theMember).getName() + "' equally well");
+      }
+
+      Target target = new Target(values, theMember, theParamTypes);
+      // add the new target, drop the oldest if the cache is full;
+      // concurrent threads may lose an entry, which does no harm
+      int length = Math.min(cached.length + 1, MAX_TARGETS);
+      Target[] tmp = new Target[length];
+      tmp[0] = target;
+      System.arraycopy(cached, 0, tmp, 1, length - 1);
+      targets = tmp;
+      return target;
+   }
+
+
    // These functions will never be called.
    // However, they are required by the Instance interface.
 
@@ -392,4 +460,102 @@ final public class ExtensionFunction implements Instance
    /** @return <code>false</code> (we don't know) */
    public boolean isConstant() { return false; }
 
+
+   /** Serializes the candidate methods by their signatures */
+   private void writeObject(ObjectOutputStream out)
+      throws IOException
+   {
+      out.defaultWriteObject();
+      out.writeInt(candidateMethods.size());
+      for (int i=0; i<candidateMethods.size(); i++) {
+         Object member = candidateMethods.get(i);
+         if (isConstructor)
+            out.writeObject(((Constructor)member).getParameterTypes());
+         else {
+            out.writeObject(((Method)member).getName());
+            out.writeObject(((Method)member).getParameterTypes());
+         }
+      }
+   }
+
+
+   /** Looks up the candidate methods in the target class */
+   private void readObject(ObjectInputStream in)
+      throws IOException, ClassNotFoundException
+   {
+      in.defaultReadObject();
+      candidateMethods = new ArrayList();
+      try {
+         for (int i=in.readInt(); i>0; i--) {
+            if (isConstructor)
+               candidateMethods.add(
+                  targetClass.getConstructor((Class[])in.readObject()));
+            else
+               candidateMethods.add(
+                  targetClass.getMethod((String)in.readObject(),
+                                        (Class[])in.readObject()));
+         }
+      }
+      catch (NoSuchMethodException ex) {
+         // the class has been changed
+         throw new InvalidClassException(targetClass.getName(),
+                                            ex.toString());
+      }
+      initSingleParamTypes();
+      targets = new Target[0];
+   }
+
+
+   /**
+    * A candidate chosen for certain types of the current parameters.
+    * Two parameters have the same type if they have the same value type
+    * and (for Java objects) the same class.
+    */
+   private static final class Target
+   {
+      /** the value types of the parameters */
+      private final int[] types;
+
+      /**
+       * the classes of Java object parameters, <code>null</code> for
+       * other parameters and for <code>null</code> objects
+       */
+      private final Class[] classes;
+
+      /** the chosen method or constructor */
+      final Object member;
+
+      /** the parameter types of {@link #member} */
+      final Class[] formalParams;
+
+      Target(Value[] values, Object member, Class[] formalParams)
+      {
+         types = new int[values.length];
+         classes = new Class[values.length];
+         for (int i=0; i<values.length; i++) {
+            types[i] = values[i].type;
+            if (types[i] == Value.OBJECT && values[i].getObject() != null)
+               classes[i] = values[i].getObject().getClass();
+         }
+         this.member = member;
+         this.formalParams = formalParams;
+      }
+
+      /** @return whether the parameters have the types of this target */
+      boolean matches(Value[] values)
+      {
+         for (int i=0; i<types.length; i++) {
+            Value v = values[i];
+            if (v.type != types[i])
+               return false;
+            if (v.type == Value.OBJECT) {
+               Object obj = v.getObject();
+               if ((obj != null ? obj.getClass() : null) != classes[i])
+                  return false;
+            }
+         }
+         return true;
+      }
+   }
+
 }
\ No newline at end of file
@@ -24,19 +24,21 @@
 
 package net.sf.joost.stx.function;
 
+import java.io.Serializable;
 import java.util.Hashtable;
 
+import javax.script.Invocable;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+
 import net.sf.joost.Constants;
 import net.sf.joost.grammar.EvalException;
 import net.sf.joost.grammar.Tree;
 import net.sf.joost.instruction.ScriptFactory;
 import net.sf.joost.stx.Context;
 import net.sf.joost.stx.ParseContext;
-import net.sf.joost.stx.SAXEvent;
 import net.sf.joost.stx.Value;
 
-import org.apache.bsf.BSFEngine;
-import org.apache.bsf.BSFManager;
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
 
@@ -51,7 +53,7 @@ final public class FunctionFactory implements Constants
    /**
     * Type for all functions
     */
-   public static interface Instance
+   public static interface Instance extends Serializable
    {
       /** Minimum number of parameters. */
       public int getMinParCount();
@@ -201,7 +203,7 @@ final public class FunctionFactory implements Constants
       // execute script functions
       if (this.scriptUriMap.containsValue(uri))
          if (pContext.allowExternalFunctions) {
-            return createScriptFunction(uri, lName, qName);
+            return createScriptFunction(uri, lName, qName, args);
          }
          else
             throw new SAXParseException(
@@ -218,8 +220,9 @@ final public class FunctionFactory implements Constants
       int argc = 0;
       if (args != null) {
          argc = 1;
-         while (args.type == Tree.LIST) {
-            args = args.left;
+         Tree arg = args;
+         while (arg.type == Tree.LIST) {
+            arg = arg.left;
             argc++;
          }
       }
@@ -233,6 +236,11 @@ final public class FunctionFactory implements Constants
                                      "function '" + qName + "' (" + 
                                      function.getMaxParCount() + " allowed)",
                                      pContext.locator);
+
+      // compile constant regular expressions in advance
+      if (function instanceof RegexFunction)
+         return ((RegexFunction)function).precompile(args, argc);
+
       return function;
    }
 
@@ -251,7 +259,7 @@ final public class FunctionFactory implements Constants
          return args.evaluate(context, top);
       else if (top > 0)                     // use current node
          return 
-            new Value((SAXEvent)context.ancestorStack.elementAt(top-1));
+            new Value(context.ancestorStack.elementAt(top-1));
       else // no event available (e.g. init of global variables)
          return Value.VAL_EMPTY;
    }
@@ -261,23 +269,24 @@ final public class FunctionFactory implements Constants
    // ************************************************************************
 
    //
-   // Accessing script functions via BSF
+   // Accessing script functions via javax.script
    //
    
-   /** BSF Manager instance, singleton */
-   private BSFManager bsfManager;
+   /** script engine manager instance, singleton */
+   private ScriptEngineManager scriptEngineManager;
 
-   /** uri-BSFEngine map of all script declarations */
-   private Hashtable uriEngineMap = new Hashtable();
+   /** uri-ScriptFunction.Script map of all script declarations */
+   private Hashtable uriScriptMap = new Hashtable();
 
    /**
-    * @return BSF manager, creates one if neccessary
+    * @return script engine manager, creates one if neccessary
     */
-   private BSFManager getBSFManager()
+   private ScriptEngineManager getScriptEngineManager()
    {
-      if (bsfManager == null)
-         bsfManager = new BSFManager();
-      return bsfManager;
+      if (scriptEngineManager == null)
+         scriptEngineManager = new ScriptEngineManager(
+            Thread.currentThread().getContextClassLoader());
+      return scriptEngineManager;
    }
 
    /**
@@ -304,21 +313,20 @@ final public class FunctionFactory implements Constants
       this.scriptUriMap.put(nsPrefix, nsUri);
       
       // set scripting engine
-      BSFEngine engine = null;
-      try {
-         engine = getBSFManager().loadScriptingEngine(scriptElement.getLang());
-         this.uriEngineMap.put(nsUri, engine);
-      }
-      catch (Exception e) {
+      ScriptEngine engine =
+         getScriptEngineManager().getEngineByName(scriptElement.getLang());
+      if (engine == null || !(engine instanceof Invocable))
          throw new SAXParseException("Exception while creating scripting "
                + "engine for prefix " + nsPrefix + "' and language '"
-               + scriptElement.getLang() + "'", scriptElement.publicId,
-               scriptElement.systemId, scriptElement.lineNo,
-               scriptElement.colNo, e);
-      }
+               + scriptElement.getLang() + "'" + (engine == null
+                  ? ": no engine found"
+                  : ": the engine doesn't support function calls"),
+               scriptElement.publicId, scriptElement.systemId,
+               scriptElement.lineNo, scriptElement.colNo);
       // execute stx-global script code
       try {
-         engine.exec("JoostScript", -1, -1, scriptCode);
+         this.uriScriptMap.put(nsUri,
+            new ScriptFunction.Script(nsPrefix, scriptCode, engine));
       }
       catch (Exception e) {
          throw new SAXParseException("Exception while executing the script "
@@ -329,9 +337,10 @@ final public class FunctionFactory implements Constants
    }
    
    private ScriptFunction createScriptFunction(String uri, String lName,
-                                               String qName)
+                                               String qName, Tree args)
    {
-      return new ScriptFunction(((BSFEngine) this.uriEngineMap.get(uri)),
-            lName, qName);
+      return new ScriptFunction(
+            ((ScriptFunction.Script) this.uriScriptMap.get(uri)),
+            lName, qName, args);
    }
 }
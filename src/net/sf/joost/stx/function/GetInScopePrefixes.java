@@ -75,7 +75,8 @@ final public class GetInScopePrefixes implements Instance
          return Value.VAL_EMPTY;
 
       Value ret = null, last = null;
-      for (Enumeration en=e.namespaces.keys(); en.hasMoreElements(); ) {
+      for (Enumeration en=e.namespaces.getPrefixes();
+           en.hasMoreElements(); ) {
          v = new Value((String)en.nextElement());
          if (last != null)
             last.next = v;
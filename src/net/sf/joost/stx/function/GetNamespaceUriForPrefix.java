@@ -74,7 +74,7 @@ final public class GetNamespaceUriForPrefix implements Instance
       if (e.namespaces == null)
          return Value.VAL_EMPTY;
 
-      String uri = (String)e.namespaces.get(prefix);
+      String uri = e.namespaces.getURI(prefix);
       if (uri == null)
          return Value.VAL_EMPTY;
       else
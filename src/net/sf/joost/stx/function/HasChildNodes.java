@@ -26,7 +26,6 @@ package net.sf.joost.stx.function;
 
 import net.sf.joost.grammar.Tree;
 import net.sf.joost.stx.Context;
-import net.sf.joost.stx.SAXEvent;
 import net.sf.joost.stx.Value;
 import net.sf.joost.stx.function.FunctionFactory.Instance;
 
@@ -54,8 +53,7 @@ final public class HasChildNodes implements Instance
    public Value evaluate(Context context, int top, Tree args)
    {
       return Value.getBoolean(context.ancestorStack.size() == 1 ||
-                       ((SAXEvent)context.ancestorStack.peek())
-                                         .hasChildNodes);
+                       context.ancestorStack.peek().hasChildNodes);
       // size() == 1 means: the context node is the document node
    }
 }
\ No newline at end of file
@@ -27,7 +27,6 @@ package net.sf.joost.stx.function;
 import net.sf.joost.grammar.EvalException;
 import net.sf.joost.grammar.Tree;
 import net.sf.joost.grammar.tree.EqTree;
-import net.sf.joost.grammar.tree.ValueTree;
 import net.sf.joost.stx.Context;
 import net.sf.joost.stx.Value;
 import net.sf.joost.stx.function.FunctionFactory.Instance;
@@ -63,31 +62,23 @@ final public class IndexOf implements Instance
    public Value evaluate(Context context, int top, Tree args)
       throws SAXException, EvalException
    {
-      Value seq = args.left.evaluate(context, top);
-      Value item = args.right.evaluate(context, top);
+      Value seq = args.left.evaluateShared(context, top);
+      Value item = args.right.evaluateShared(context, top);
 
-      if (seq.type == Value.EMPTY)
-         return seq;
+      if (seq.type == Value.EMPTY || item.type == Value.EMPTY)
+         return Value.VAL_EMPTY;
 
-      Tree tSeq = new ValueTree(seq);
-      item.next = null;
-      Tree tItem = new ValueTree(item);
-      // use the implemented = semantics
-      Tree equals = new EqTree(tSeq, tItem);
-
-      Value next, last = null, result = Value.VAL_EMPTY;
+      Value last = null, result = Value.VAL_EMPTY;
       long index = 1;
 
-      while (seq != null) {
-         next = seq.next;
-         seq.next = null; // compare items, not sequences
-         if (equals.evaluate(context, top).getBooleanValue()) {
+      // use the implemented = semantics, compare items, not sequences
+      for (; seq != null; seq = seq.next) {
+         if (EqTree.itemsEqual(seq, item)) {
             if (last == null)
                last = result = new Value(index);
             else
                last = last.next = new Value(index);
          }
-         tSeq.value = seq = next;
          index++;
       }
 
@@ -59,9 +59,9 @@ final public class InsertBefore implements Instance
    public Value evaluate(Context context, int top, Tree args)
       throws SAXException, EvalException
    {
-      Value target = args.left.left.evaluate(context, top);
+      Value target = args.left.left.evaluateShared(context, top);
       Value arg2 = args.left.right.evaluate(context, top);
-      Value inserts = args.right.evaluate(context, top);
+      Value inserts = args.right.evaluateShared(context, top);
 
       // make sure that the second parameter is a valid number
       double dPos = arg2.getNumberValue();
@@ -72,29 +72,17 @@ final public class InsertBefore implements Instance
                                  getName().substring(FunctionFactory.FNSP.length()) + "'");
       long position = Math.round(dPos);
 
-      if (inserts.type == Value.EMPTY)
-         return target;
-      if (target.type == Value.EMPTY)
-         return inserts;
-
-      Value result;
-      if (position <= 1)
-         // insert before the first item of target
-         result = inserts;
-      else {
-         result = target;
-         // determine position
-         while (target.next != null && --position > 1)
-            target = target.next;
-         Value rest = target.next;
-         target.next = inserts;
-         target = rest;
-      }
-      // append rest of target 
-      while (inserts.next != null)
-         inserts = inserts.next;
-      inserts.next = target;
-
-      return result;
+      // both sequences may be shared, so the result consists of copied items
+      Value[] targetItems = target.toArray();
+      Value[] insertItems = inserts.toArray();
+      int index = position <= 1 ? 0
+                : position > targetItems.length ? targetItems.length
+                : (int)position - 1;
+      Value[] items = new Value[targetItems.length + insertItems.length];
+      System.arraycopy(targetItems, 0, items, 0, index);
+      System.arraycopy(insertItems, 0, items, index, insertItems.length);
+      System.arraycopy(targetItems, index, items, index + insertItems.length,
+                       targetItems.length - index);
+      return Value.sequence(items, 0, items.length);
    }
 }
\ No newline at end of file
@@ -57,15 +57,17 @@ final public class ItemAt implements Instance
    public Value evaluate(Context context, int top, Tree args)
       throws SAXException, EvalException
    {
-      Value seq = args.left.evaluate(context, top);
+      Value seq = args.left.evaluateShared(context, top);
       double dpos = args.right.evaluate(context, top).getNumberValue();
 
       if (seq.type == Value.EMPTY || Double.isNaN(dpos))
          return Value.VAL_EMPTY;
 
       long position = Math.round(dpos);
-      while (seq != null && --position != 0)
-         seq = seq.next;
+      if (position < 1 || position > Integer.MAX_VALUE)
+         seq = null;
+      else
+         seq = seq.itemAt((int)position - 1);
 
       if (seq == null)
          throw new EvalException("Position " + dpos + 
@@ -28,8 +28,7 @@ import net.sf.joost.grammar.EvalException;
 import net.sf.joost.grammar.Tree;
 import net.sf.joost.stx.Context;
 import net.sf.joost.stx.Value;
-import net.sf.joost.stx.function.FunctionFactory.Instance;
-import net.sf.joost.util.regex.JRegularExpression;
+import net.sf.joost.util.regex.RegularExpression;
 
 import org.xml.sax.SAXException;
 
@@ -45,8 +44,17 @@ import org.xml.sax.SAXException;
  * @version $Revision: 1.2 $ $Date: 2007/06/13 20:29:07 $
  * @author Oliver Becker
  */
-final public class Matches implements Instance
+final public class Matches extends RegexFunction
 {
+   public Matches() { }
+
+   private Matches(RegularExpression re) { precompiled = re; }
+
+   RegexFunction createInstance(RegularExpression re)
+   {
+      return new Matches(re);
+   }
+
    /** @return 2 **/
    public int getMinParCount() { return 2; }
 
@@ -62,18 +70,16 @@ final public class Matches implements Instance
    public Value evaluate(Context context, int top, Tree args)
       throws SAXException, EvalException
    {
-      String input, pattern, flags;
+      String input;
+      RegularExpression re;
       if (args.left.type == Tree.LIST) { // three parameters
          input = args.left.left.evaluate(context, top).getStringValue();
-         pattern = args.left.right.evaluate(context, top).getStringValue();
-         flags = args.right.evaluate(context, top).getStringValue();
+         re = getRegex(context, top, args.left.right, args.right);
       }
       else { // two parameters
          input = args.left.evaluate(context, top).getStringValue();
-         pattern = args.right.evaluate(context, top).getStringValue();
-         flags = "";
+         re = getRegex(context, top, args.right, null);
       }
-      return new JRegularExpression(pattern, true, flags)
-                    .containsMatch(input) ? Value.VAL_TRUE : Value.VAL_FALSE;
+      return re.containsMatch(input) ? Value.VAL_TRUE : Value.VAL_FALSE;
    }
 }
\ No newline at end of file
@@ -56,7 +56,7 @@ final public class Max implements Instance
    public Value evaluate(Context context, int top, Tree args)
       throws SAXException, EvalException
    {
-      Value v = args.evaluate(context, top);
+      Value v = args.evaluateShared(context, top);
       if (v.type == Value.EMPTY) // empty sequence
          return v;
       double max = Double.NEGATIVE_INFINITY;
@@ -0,0 +1,117 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is agent.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+
+package net.sf.joost.stx.function;
+
+import net.sf.joost.grammar.EvalException;
+import net.sf.joost.grammar.Tree;
+import net.sf.joost.stx.Context;
+import net.sf.joost.stx.function.FunctionFactory.Instance;
+import net.sf.joost.util.regex.JRegularExpression;
+import net.sf.joost.util.regex.RegularExpression;
+
+import org.xml.sax.SAXException;
+
+/**
+ * Base class for the functions that take a regular expression as their
+ * second parameter and optional flags as their last parameter.
+ * <p>
+ * The instances registered in the {@link FunctionFactory} compile their
+ * regular expression for every invocation (using the regex cache of the
+ * transformation sheet). If the regular expression and the flags are
+ * constant, {@link #precompile} creates a new instance for the particular
+ * function call that holds the already compiled regular expression.
+ * @version $Revision$ $Date$
+ * @author agent
+ */
+abstract class RegexFunction implements Instance
+{
+   /** The compiled constant regular expression, may be <code>null</code> */
+   protected RegularExpression precompiled;
+
+
+   /** @return a new instance with a precompiled regular expression */
+   abstract RegexFunction createInstance(RegularExpression re);
+
+
+   /**
+    * Compiles the regular expression of a function call in advance if both
+    * the regular expression and the flags are constant.
+    * @param args the parameters of the function call
+    * @param argc the number of parameters
+    * @return a new instance for this function call, or this instance if
+    *         the regular expression can't be precompiled
+    */
+   Instance precompile(Tree args, int argc)
+   {
+      // collect the parameters (the tree is left-associative)
+      Tree[] params = new Tree[argc];
+      for (int i=argc-1; i>0; i--) {
+         params[i] = args.right;
+         args = args.left;
+      }
+      params[0] = args;
+
+      Tree flags = argc > getMinParCount() ? params[argc-1] : null;
+      if (!params[1].isConstant() || (flags != null && !flags.isConstant()))
+         return this;
+      try {
+         return createInstance(new JRegularExpression(
+            params[1].evaluate(null, -1).getStringValue(), true,
+            flags != null ? flags.evaluate(null, -1).getStringValue() : ""));
+      }
+      catch (Exception e) {
+         // an invalid regular expression will be reported at run time
+         return this;
+      }
+   }
+
+
+   /**
+    * Determines the regular expression for an invocation of this function.
+    * @param context the Context object
+    * @param top the number of the upper most element on the stack
+    * @param regex the parameter containing the regular expression
+    * @param flags the parameter containing the flags, may be
+    *        <code>null</code>
+    * @return the compiled regular expression
+    * @exception SAXException if an error occurs while processing
+    * @exception EvalException if the regular expression or the flags are
+    *            invalid
+    */
+   protected RegularExpression getRegex(Context context, int top,
+                                        Tree regex, Tree flags)
+      throws SAXException, EvalException
+   {
+      if (precompiled != null)
+         return precompiled;
+      String pattern = regex.evaluate(context, top).getStringValue();
+      String flagsStr = flags != null
+         ? flags.evaluate(context, top).getStringValue()
+         : "";
+      if (context != null && context.regexCache != null)
+         return context.regexCache.get(pattern, flagsStr);
+      return new JRegularExpression(pattern, true, flagsStr);
+   }
+}
@@ -28,7 +28,7 @@ import java.util.Stack;
 
 import net.sf.joost.grammar.EvalException;
 import net.sf.joost.grammar.Tree;
-import net.sf.joost.instruction.AnalyzeTextFactory;
+import net.sf.joost.instruction.NodeBase;
 import net.sf.joost.stx.Context;
 import net.sf.joost.stx.Value;
 import net.sf.joost.stx.function.FunctionFactory.Instance;
@@ -64,8 +64,7 @@ final public class RegexGroup implements Instance
       Value v = args.evaluate(context, top);
       double d = v.getNumberValue();
       // access a special pseudo variable
-      Stack s = 
-         (Stack)context.localVars.get(AnalyzeTextFactory.REGEX_GROUP);
+      Stack s = (Stack)context.getLocalVar(NodeBase.REGEX_GROUP_SLOT);
       if (Double.isNaN(d) || d < 0 || s == null || s.size() == 0)
          return Value.VAL_EMPTY_STRING;
       
@@ -60,7 +60,7 @@ final public class Remove implements Instance
    public Value evaluate(Context context, int top, Tree args)
       throws SAXException, EvalException
    {
-      Value seq = args.left.evaluate(context, top);
+      Value seq = args.left.evaluateShared(context, top);
       Value arg2 = args.right.evaluate(context, top);
 
       // make sure that the second parameter is a valid number
@@ -72,26 +72,15 @@ final public class Remove implements Instance
                                  getName().substring(FunctionFactory.FNSP.length()) + "'");
       long position = Math.round(dPos);
 
-      if (seq.type == Value.EMPTY || position < 1)
-         return seq;
+      // seq may be shared, so the result consists of copied items
+      Value[] items = seq.toArray();
+      if (position < 1 || position > items.length)
+         return Value.sequence(items, 0, items.length);
 
-      Value last = null, result = seq;
-      while (seq != null && --position != 0) {
-         last = seq;
-         seq = seq.next;
-      }
-
-      if (seq == null) // position greater than sequence length
-         return result;
-
-      if (last == null) { // remove the first item
-         if (result.next == null) // the one and only item
-            return Value.VAL_EMPTY;
-         else
-            return result.next;
-      }
-
-      last.next = seq.next;
-      return result;
+      int index = (int)position - 1;
+      Value[] result = new Value[items.length - 1];
+      System.arraycopy(items, 0, result, 0, index);
+      System.arraycopy(items, index + 1, result, index, result.length - index);
+      return Value.sequence(result, 0, result.length);
    }
 }
\ No newline at end of file
@@ -28,8 +28,6 @@ import net.sf.joost.grammar.EvalException;
 import net.sf.joost.grammar.Tree;
 import net.sf.joost.stx.Context;
 import net.sf.joost.stx.Value;
-import net.sf.joost.stx.function.FunctionFactory.Instance;
-import net.sf.joost.util.regex.JRegularExpression;
 import net.sf.joost.util.regex.RegularExpression;
 
 import org.xml.sax.SAXException;
@@ -47,8 +45,17 @@ import org.xml.sax.SAXException;
  * @version $Revision: 1.2 $ $Date: 2007/06/13 20:29:07 $
  * @author Oliver Becker
  */
-final public class Replace implements Instance
+final public class Replace extends RegexFunction
 {
+   public Replace() { }
+
+   private Replace(RegularExpression re) { precompiled = re; }
+
+   RegexFunction createInstance(RegularExpression re)
+   {
+      return new Replace(re);
+   }
+
    /** @return 3 **/
    public int getMinParCount() { return 3; }
 
@@ -64,20 +71,18 @@ final public class Replace implements Instance
    public Value evaluate(Context context, int top, Tree args)
       throws SAXException, EvalException
    {
-      String input, pattern, replacement, flags;
+      String input, replacement;
+      RegularExpression re;
       if (args.left.left.type == Tree.LIST) { // four parameters
          input = args.left.left.left.evaluate(context, top).getStringValue();
-         pattern = args.left.left.right.evaluate(context, top).getStringValue();
+         re = getRegex(context, top, args.left.left.right, args.right);
          replacement = args.left.right.evaluate(context, top).getStringValue();
-         flags = args.right.evaluate(context, top).getStringValue();
       }
       else { // three parameters
          input = args.left.left.evaluate(context, top).getStringValue();
-         pattern = args.left.right.evaluate(context, top).getStringValue();
+         re = getRegex(context, top, args.left.right, null);
          replacement = args.right.evaluate(context, top).getStringValue();
-         flags = "";
       }
-      RegularExpression re = new JRegularExpression(pattern, true, flags);
       if (re.matches(""))
          throw new EvalException("The regular expression in replace() must " +
                                  "not be one that matches a zero-length string");
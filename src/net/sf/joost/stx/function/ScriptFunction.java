@@ -24,8 +24,11 @@
 
 package net.sf.joost.stx.function;
 
-import java.util.Stack;
-import java.util.Vector;
+import javax.script.Compilable;
+import javax.script.Invocable;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptException;
 
 import net.sf.joost.grammar.EvalException;
 import net.sf.joost.grammar.Tree;
@@ -33,13 +36,17 @@ import net.sf.joost.stx.Context;
 import net.sf.joost.stx.Value;
 import net.sf.joost.stx.function.FunctionFactory.Instance;
 
-import org.apache.bsf.BSFEngine;
-import org.apache.bsf.BSFException;
 import org.xml.sax.SAXException;
 
 /**
  * An instance of this class represents a Javascript extension function defined
  * by the <code>joost:script</code> element.
+ * <p>
+ * The functions will be invoked via the {@link Invocable} interface of a
+ * JSR 223 (<code>javax.script</code>) scripting engine. Every
+ * transformation uses its own engine instance for each script (see
+ * {@link Context#scriptEngines}), thus concurrent transformations don't
+ * share the state of their scripts.
  * 
  * @see net.sf.joost.instruction.ScriptFactory
  * @version $Revision: 1.5 $ $Date: 2007/05/20 18:00:44 $
@@ -47,8 +54,8 @@ import org.xml.sax.SAXException;
  */
 final public class ScriptFunction implements Instance
 {
-   /** BSF script engine instance */
-   BSFEngine engine;
+   /** the script that defines this function */
+   Script script;
 
    /** the local function name without prefix for this script function */
    String funcName;
@@ -56,11 +63,22 @@ final public class ScriptFunction implements Instance
    /** the qualified function name including the prefix for this script function */
    String qName;
 
-   public ScriptFunction(BSFEngine engine, String funcName, String qName)
+   /** the number of provided parameters in the function call */
+   int paramCount;
+
+   public ScriptFunction(Script script, String funcName, String qName,
+                         Tree args)
    {
-      this.engine = engine;
+      this.script = script;
       this.funcName = funcName;
       this.qName = qName;
+      if (args != null) {
+         paramCount = 1;
+         while (args.type == Tree.LIST) {
+            args = args.left;
+            paramCount++;
+         }
+      }
    }
 
    /**
@@ -73,32 +91,21 @@ final public class ScriptFunction implements Instance
    private Object[] convertInputArgs(Context context, int top, Tree args)
          throws SAXException
    {
-      // evaluate current parameters
-      Stack varr = new Stack();
-      if (args != null) {
-         Tree t = args;
-         do {
-            if (t.right != null)
-               varr.push(t.right.evaluate(context, top));
-            if (t.left == null)
-               varr.push(t.evaluate(context, top));
-         } while ((t = t.left) != null);
-      }
-
-      // convert values to java objects
-      Vector ret = new Vector();
-      while (!varr.isEmpty()) {
-         Value v = (Value) varr.pop();
-         try {
-            ret.add(v.toJavaObject(Object.class));
-         } 
-         catch( EvalException e ) {
-            // Mustn't happen!
-            throw new SAXException( e );
+      Object[] ret = new Object[paramCount];
+      try {
+         for (int i=paramCount-1; i>0; i--) {
+            ret[i] = args.right.evaluate(context, top)
+                                .toJavaObject(Object.class);
+            args = args.left;
          }
+         if (paramCount > 0)
+            ret[0] = args.evaluate(context, top).toJavaObject(Object.class);
       }
-
-      return ret.toArray();
+      catch( EvalException e ) {
+         // Mustn't happen!
+         throw new SAXException( e );
+      }
+      return ret;
    }
 
    /**
@@ -111,12 +118,28 @@ final public class ScriptFunction implements Instance
       // convert input params
       Object[] scrArgs = convertInputArgs(context, top, args);
 
+      // the engine of this transformation
+      ScriptEngine engine = (ScriptEngine)context.scriptEngines.get(script);
+      if (engine == null) {
+         try {
+            engine = script.getEngine();
+         }
+         catch (ScriptException e) {
+            throw new EvalException("Exception while creating scripting "
+                  + "engine for prefix '" + script.prefix + "'", e);
+         }
+         context.scriptEngines.put(script, engine);
+      }
+
       Object ret = null;
       // execute the script function
       try {
-         ret = engine.call(null, funcName, scrArgs);
+         ret = ((Invocable)engine).invokeFunction(funcName, scrArgs);
+      }
+      catch (ScriptException e) {
+         throw new EvalException("Exception while executing " + qName, e);
       }
-      catch (BSFException e) {
+      catch (NoSuchMethodException e) {
          throw new EvalException("Exception while executing " + qName, e);
       }
       
@@ -138,4 +161,78 @@ final public class ScriptFunction implements Instance
 
    /** @return <code>false</code> (we don't know) */
    public boolean isConstant() { return false; }
+
+
+   /**
+    * The code of a <code>joost:script</code> element, shared by all
+    * transformations. Each transformation obtains its own engine, which
+    * has executed the script code, from {@link #getEngine}.
+    */
+   public static final class Script
+   {
+      /** the prefix of the script functions */
+      final String prefix;
+
+      /** the script code */
+      private String code;
+
+      /** the factory for the engines */
+      private ScriptEngineFactory factory;
+
+      /**
+       * the engine that has executed the code while compiling the
+       * transformation sheet, <code>null</code> after it has been handed
+       * out by {@link #getEngine}
+       */
+      private ScriptEngine spare;
+
+      /**
+       * Creates a script and executes its code in a first engine.
+       * @param prefix the prefix of the script functions
+       * @param code the script code
+       * @param engine the engine for the language of the script
+       * @exception ScriptException if the script code can't be executed
+       */
+      Script(String prefix, String code, ScriptEngine engine)
+         throws ScriptException
+      {
+         this.prefix = prefix;
+         this.code = code;
+         factory = engine.getFactory();
+         execute(engine);
+         spare = engine;
+      }
+
+      /**
+       * Executes the script code, uses a compiled script if the engine
+       * supports compilation
+       */
+      private void execute(ScriptEngine engine)
+         throws ScriptException
+      {
+         engine.put(ScriptEngine.FILENAME, "JoostScript");
+         if (engine instanceof Compilable)
+            ((Compilable)engine).compile(code).eval();
+         else
+            engine.eval(code);
+      }
+
+      /**
+       * @return an engine that has executed the script code and that
+       *         hasn't been returned before
+       * @exception ScriptException if the script code can't be executed
+       */
+      synchronized ScriptEngine getEngine()
+         throws ScriptException
+      {
+         ScriptEngine engine = spare;
+         if (engine != null)
+            spare = null;
+         else {
+            engine = factory.getScriptEngine();
+            execute(engine);
+         }
+         return engine;
+      }
+   }
 }
@@ -60,7 +60,7 @@ final public class StringJoin implements Instance
    public Value evaluate(Context context, int top, Tree args)
       throws SAXException, EvalException
    {
-      Value seq = args.left.evaluate(context, top);
+      Value seq = args.left.evaluateShared(context, top);
       String sep = args.right.evaluate(context, top).getStringValue();
       if (seq.type == Value.EMPTY)
          return Value.VAL_EMPTY_STRING;
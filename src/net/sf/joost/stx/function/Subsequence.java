@@ -64,7 +64,7 @@ final public class Subsequence implements Instance
       Value seq;
       long begin, end;
       if (args.left.type == Tree.LIST) { // three parameters
-         seq = args.left.left.evaluate(context, top);
+         seq = args.left.left.evaluateShared(context, top);
          double arg2 = args.left.right.evaluate(context, top).getNumberValue();
          double arg3 = args.right.evaluate(context, top).getNumberValue();
 
@@ -82,39 +82,21 @@ final public class Subsequence implements Instance
             return Value.VAL_EMPTY;
       }
       else { // two parameters
-         seq = args.left.evaluate(context, top);
+         seq = args.left.evaluateShared(context, top);
          double arg2 = args.right.evaluate(context, top).getNumberValue();
 
          if (seq.type == Value.EMPTY || Double.isNaN(arg2))
             return Value.VAL_EMPTY;
-         if (arg2 < 1)
-            return seq;
 
          // the first item is at position 1,
-         begin = Math.round(arg2 - 1.0);
-         end = -1; // special marker to speed up the evaluation
+         begin = arg2 < 1 ? 0 : Math.round(arg2 - 1.0);
+         end = Long.MAX_VALUE;
       }
 
-      Value ret = null;
-      while (seq != null) {
-         if (ret == null && begin == 0) {
-            ret = seq;
-            if (end < 0) // true, if the two parameter version was used
-               break;
-         }
-         else
-            begin--;
-         end--;
-         if (end == 0)
-            break;
-         seq = seq.next;
-      }
-      if (ret != null) {
-         if (end == 0) // reached the end of the requested subsequence
-            seq.next = null; // cut the rest
-         return ret;
-      }
-      else
-         return Value.VAL_EMPTY;
+      // seq may be shared, so the result consists of copied items
+      Value[] items = seq.toArray();
+      if (end > items.length)
+         end = items.length;
+      return Value.sequence(items, (int)Math.min(begin, end), (int)end);
    }
 }
\ No newline at end of file
@@ -59,7 +59,7 @@ final public class Sum implements Instance
    public Value evaluate(Context context, int top, Tree args)
       throws SAXException, EvalException
    {
-      Value v = args.evaluate(context, top);
+      Value v = args.evaluateShared(context, top);
       if (v.type == Value.EMPTY) // empty sequence
          return Value.VAL_ZERO;
       double sum = 0;
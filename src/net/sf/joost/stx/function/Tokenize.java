@@ -28,8 +28,6 @@ import net.sf.joost.grammar.EvalException;
 import net.sf.joost.grammar.Tree;
 import net.sf.joost.stx.Context;
 import net.sf.joost.stx.Value;
-import net.sf.joost.stx.function.FunctionFactory.Instance;
-import net.sf.joost.util.regex.JRegularExpression;
 import net.sf.joost.util.regex.RegularExpression;
 
 import java.util.regex.Matcher;
@@ -49,8 +47,17 @@ import org.xml.sax.SAXException;
  * @version $Revision: 1.3 $ $Date: 2008/06/14 15:01:30 $
  * @author Oliver Becker
  */
-final public class Tokenize implements Instance
+final public class Tokenize extends RegexFunction
 {
+   public Tokenize() { }
+
+   private Tokenize(RegularExpression re) { precompiled = re; }
+
+   RegexFunction createInstance(RegularExpression re)
+   {
+      return new Tokenize(re);
+   }
+
    /** @return 2 **/
    public int getMinParCount() { return 2; }
 
@@ -66,22 +73,23 @@ final public class Tokenize implements Instance
    public Value evaluate(Context context, int top, Tree args)
       throws SAXException, EvalException
    {
-      String input, pattern, flags;
+      Tree inputArg, regexArg, flagsArg;
       if (args.left.type == Tree.LIST) { // three parameters
-         input = args.left.left.evaluate(context, top).getStringValue();
-         pattern = args.left.right.evaluate(context, top).getStringValue();
-         flags = args.right.evaluate(context, top).getStringValue();
+         inputArg = args.left.left;
+         regexArg = args.left.right;
+         flagsArg = args.right;
       }
       else { // two parameters
-         input = args.left.evaluate(context, top).getStringValue();
-         pattern = args.right.evaluate(context, top).getStringValue();
-         flags = "";
+         inputArg = args.left;
+         regexArg = args.right;
+         flagsArg = null;
       }
 
+      String input = inputArg.evaluate(context, top).getStringValue();
       if ("".equals(input))
          return Value.VAL_EMPTY;
 
-      RegularExpression re = new JRegularExpression(pattern, true, flags);
+      RegularExpression re = getRegex(context, top, regexArg, flagsArg);
       if (re.matches(""))
          throw new EvalException("The regular expression in tokenize() must " +
                                  "not be one that matches a zero-length string");
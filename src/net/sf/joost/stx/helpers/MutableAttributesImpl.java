@@ -62,6 +62,38 @@ public final class MutableAttributesImpl implements MutableAttributes
       }
    }
 
+   /**
+    * Replaces the contents of this object by the given attributes. The
+    * internal arrays will be reused if they are large enough.
+    */
+   public void setAttributes(Attributes attributes)
+   {
+      int length = attributes.getLength();
+      if (length > _max) {
+         _max = length + 2;
+         _uris = new String[_max];
+         _lNames = new String[_max];
+         _qNames = new String[_max];
+         _values = new String[_max];
+         _types = new String[_max];
+      }
+      else {
+         // release the references of the previous attributes
+         for (int n=length; n<_length; n++)
+            _uris[n] = _lNames[n] = _qNames[n] = _values[n] = _types[n] =
+               null;
+      }
+      _length = length;
+
+      for (int n=_length; n-->0; ) {
+         _uris[n] = attributes.getURI(n);
+         _lNames[n] = attributes.getLocalName(n);
+         _qNames[n] = attributes.getQName(n);
+         _values[n] = attributes.getValue(n);
+         _types[n] = attributes.getType(n);
+      }
+   }
+
    public int getIndex(String uri, String localName) 
    {
       for (int n=_length; n-->0; ) {
@@ -34,6 +34,7 @@ import net.sf.joost.instruction.AbstractInstruction;
 import net.sf.joost.instruction.NodeBase;
 import net.sf.joost.stx.Emitter;
 import net.sf.joost.stx.ErrorHandlerImpl;
+import net.sf.joost.stx.NamespaceScope;
 import net.sf.joost.stx.SAXEvent;
 
 import org.apache.commons.logging.Log;
@@ -158,16 +159,18 @@ public class DebugEmitter extends Emitter {
                              NodeBase instruction) throws SAXException {
         if (log != null)
             log.debug("start element in resultdoc");
-        SAXEvent saxevent;
-        saxevent = SAXEvent.newElement(uri, lName, qName, attrs, true, 
-                                       namespaces);
+        SAXEvent saxevent = null;
+        if (tmgr.hasTraceListeners())
+            saxevent = SAXEvent.newElement(uri, lName, qName, attrs, true,
+                                           NamespaceScope.create(namespaces));
 
         super.startElement(uri, lName, qName, attrs,
                 namespaces, instruction);
         // update locator
         updateLocator(instruction.publicId, instruction.systemId, 
                       instruction.lineNo, instruction.colNo);
-        this.tmgr.fireStartResultElement(saxevent);
+        if (saxevent != null)
+            this.tmgr.fireStartResultElement(saxevent);
     }
 
     /**
@@ -178,15 +181,17 @@ public class DebugEmitter extends Emitter {
             throws SAXException {
         if (log != null)
             log.debug("end element in resultdoc");
-        SAXEvent saxevent;
+        SAXEvent saxevent = null;
         // todo - namespace support - remove null value
-        saxevent = SAXEvent.newElement(uri, lName, qName, null, true, null);
+        if (tmgr.hasTraceListeners())
+            saxevent = SAXEvent.newElement(uri, lName, qName, null, true, null);
         // update locator
         updateLocator(instruction.getNode().publicId, 
                       instruction.getNode().systemId, 
                       instruction.lineNo, instruction.colNo);
         super.endElement(uri, lName, qName, instruction);
-        this.tmgr.fireEndResultElement(saxevent);
+        if (saxevent != null)
+            this.tmgr.fireEndResultElement(saxevent);
     }
 
     /**
@@ -197,13 +202,15 @@ public class DebugEmitter extends Emitter {
             throws SAXException {
         if (log != null)
             log.debug("characters in resultdoc");
-        SAXEvent saxevent;
-        saxevent = SAXEvent.newText(new String(ch, start, length));
+        SAXEvent saxevent = null;
+        if (tmgr.hasTraceListeners())
+            saxevent = SAXEvent.newText(new String(ch, start, length));
         super.characters(ch, start, length, instruction);
         // update locator
         updateLocator(instruction.publicId, instruction.systemId, 
                       instruction.lineNo, instruction.colNo);
-        this.tmgr.fireResultText(saxevent);
+        if (saxevent != null)
+            this.tmgr.fireResultText(saxevent);
     }
 
     /**
@@ -213,13 +220,15 @@ public class DebugEmitter extends Emitter {
                                       NodeBase instruction) throws SAXException {
         if (log != null)
             log.debug("processingInstruction in resultdoc");
-        SAXEvent saxevent;
-        saxevent = SAXEvent.newPI(target, data);
+        SAXEvent saxevent = null;
+        if (tmgr.hasTraceListeners())
+            saxevent = SAXEvent.newPI(target, data);
         super.processingInstruction(target, data, instruction);
         // update locator
         updateLocator(instruction.publicId, instruction.systemId, 
                       instruction.lineNo, instruction.colNo);
-        this.tmgr.fireResultPI(saxevent);
+        if (saxevent != null)
+            this.tmgr.fireResultPI(saxevent);
     }
 
     /**
@@ -229,13 +238,15 @@ public class DebugEmitter extends Emitter {
                         NodeBase instruction) throws SAXException {
         if (log != null)
             log.debug("comment in resultdoc");
-        SAXEvent saxevent;
-        saxevent = SAXEvent.newComment(new String(ch, start, length));
+        SAXEvent saxevent = null;
+        if (tmgr.hasTraceListeners())
+            saxevent = SAXEvent.newComment(new String(ch, start, length));
         super.comment(ch, start, length, instruction);
         // update locator
         updateLocator(instruction.publicId, instruction.systemId, 
                       instruction.lineNo, instruction.colNo);
-        this.tmgr.fireResultComment(saxevent);
+        if (saxevent != null)
+            this.tmgr.fireResultComment(saxevent);
     }
 
     /**
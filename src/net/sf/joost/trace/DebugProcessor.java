@@ -251,15 +251,17 @@ public class DebugProcessor extends Processor {
     public void startElement(String uri, String lName, String qName,
                              Attributes attrs)
             throws SAXException {
-        SAXEvent saxevent;
+        SAXEvent saxevent = null;
 
         // todo - namespace support - remove null value
-        saxevent = SAXEvent.newElement(uri, lName, qName, attrs, false, null);
+        if (tmgr.hasTraceListeners())
+            saxevent = SAXEvent.newElement(uri, lName, qName, attrs, false, null);
 
         // process event
         super.startElement(uri, lName, qName, attrs);
         // inform debugger
-        this.tmgr.fireStartSourceElement(saxevent);
+        if (saxevent != null)
+            this.tmgr.fireStartSourceElement(saxevent);
     }
 
     /**
@@ -267,15 +269,17 @@ public class DebugProcessor extends Processor {
      */
     public void endElement(String uri, String lName, String qName)
             throws SAXException {
-        SAXEvent saxevent;
+        SAXEvent saxevent = null;
 
         // todo - namespace support - remove null value
-        saxevent = SAXEvent.newElement(uri, lName, qName, null, false, null);
+        if (tmgr.hasTraceListeners())
+            saxevent = SAXEvent.newElement(uri, lName, qName, null, false, null);
 
         // process event
         super.endElement(uri, lName, qName);
         // inform debugger
-        this.tmgr.fireEndSourceElement(saxevent);
+        if (saxevent != null)
+            this.tmgr.fireEndSourceElement(saxevent);
     }
 
 
@@ -284,13 +288,16 @@ public class DebugProcessor extends Processor {
      */
     public void characters(char[] ch, int start, int length)
             throws SAXException {
-        SAXEvent saxevent;
+        SAXEvent saxevent = null;
 
-        saxevent = SAXEvent.newText(new String(ch, start, length));
+        if (tmgr.hasTraceListeners())
+
+            saxevent = SAXEvent.newText(new String(ch, start, length));
         // process event
         super.characters(ch, start, length);
         // inform debugger
-        this.tmgr.fireSourceText(saxevent);
+        if (saxevent != null)
+            this.tmgr.fireSourceText(saxevent);
     }
 
 
@@ -299,13 +306,16 @@ public class DebugProcessor extends Processor {
      */
     public void processingInstruction(String target, String data)
             throws SAXException {
-        SAXEvent saxevent;
+        SAXEvent saxevent = null;
+
+        if (tmgr.hasTraceListeners())
 
-        saxevent = SAXEvent.newPI(target, data);
+            saxevent = SAXEvent.newPI(target, data);
         // process event
         super.processingInstruction(target, data);
         // inform debugger
-        this.tmgr.fireSourcePI(saxevent);
+        if (saxevent != null)
+            this.tmgr.fireSourcePI(saxevent);
     }
 
     /**
@@ -313,13 +323,16 @@ public class DebugProcessor extends Processor {
      */
     public void startPrefixMapping(String prefix, String uri)
             throws SAXException {
-        SAXEvent saxevent;
+        SAXEvent saxevent = null;
 
-        saxevent= SAXEvent.newMapping(prefix, uri);
+        if (tmgr.hasTraceListeners())
+
+            saxevent = SAXEvent.newMapping(prefix, uri);
         // process event
         super.startPrefixMapping(prefix, uri);
         // inform debugger
-        this.tmgr.fireSourceMapping(saxevent);
+        if (saxevent != null)
+            this.tmgr.fireSourceMapping(saxevent);
     }
 
     /**
@@ -327,13 +340,16 @@ public class DebugProcessor extends Processor {
      */
     public void comment(char[] ch, int start, int length)
             throws SAXException {
-        SAXEvent saxevent;
+        SAXEvent saxevent = null;
+
+        if (tmgr.hasTraceListeners())
 
-        saxevent = SAXEvent.newComment(new String(ch, start, length));
+            saxevent = SAXEvent.newComment(new String(ch, start, length));
         // process event
         super.comment(ch, start, length);
         // inform debugger
-        this.tmgr.fireSourceComment(saxevent);
+        if (saxevent != null)
+            this.tmgr.fireSourceComment(saxevent);
     }
 
     /**
@@ -24,9 +24,6 @@
 
 package net.sf.joost.trace;
 
-import java.util.ArrayList;
-import java.util.List;
-
 import net.sf.joost.instruction.NodeBase;
 import net.sf.joost.stx.ParserListener;
 import net.sf.joost.trax.TransformerImpl;
@@ -34,13 +31,19 @@ import net.sf.joost.trax.TransformerImpl;
 /**
  * This class implements the {@link ParserListener}-Interface for
  * static debug purpose (e.g. validation of breakpoints).
+ * The listeners are kept in an array that will be replaced when a listener
+ * is added or removed (see {@link TraceManager}).
  *
  * @author Zubow
  */
 public class ParserListenerMgr implements ParserListener {
 
-    /** list of all registered {@link ParserListener} */
-    private List parserListeners = null;
+    /** An empty array of listeners */
+    private static final ParserListener[] NO_LISTENERS =
+        new ParserListener[0];
+
+    /** all registered {@link ParserListener}, never modified */
+    private volatile ParserListener[] parserListeners = NO_LISTENERS;
 
     /** default constructor */
     public ParserListenerMgr() {}
@@ -51,32 +54,44 @@ public class ParserListenerMgr implements ParserListener {
      * @return True if there are registered parserlisteners
      */
     public boolean hasParseListeners() {
-        return (parserListeners != null);
+        return parserListeners.length != 0;
     }
 
     /**
      * Add a parserlistener (debugging and profiling).
      * @param newParserListener A parserlistener to be added.
      */
-    public void addParseListener(ParserListener newParserListener) {
+    public synchronized void addParseListener(
+            ParserListener newParserListener) {
         // set Joost-Transformer in debug-mode
         // todo think about this ???
         TransformerImpl.DEBUG_MODE = true;
-        if (parserListeners == null) {
-            parserListeners = new ArrayList();
-        }
         // add new parserlistener
-        parserListeners.add(newParserListener);
+        ParserListener[] listeners =
+            new ParserListener[parserListeners.length + 1];
+        System.arraycopy(parserListeners, 0, listeners, 0,
+                         parserListeners.length);
+        listeners[parserListeners.length] = newParserListener;
+        parserListeners = listeners;
     }
 
     /**
      * Remove a parserlistener.
      * @param oldParserListener A parserlistener to be removed.
      */
-    public void removeParseListener(ParserListener oldParserListener) {
-        if (parserListeners != null) {
-            // remove the given parserlistener
-            parserListeners.remove(oldParserListener);
+    public synchronized void removeParseListener(
+            ParserListener oldParserListener) {
+        for (int i = 0; i < parserListeners.length; i++) {
+            if (parserListeners[i].equals(oldParserListener)) {
+                // remove the given parserlistener
+                ParserListener[] listeners =
+                    new ParserListener[parserListeners.length - 1];
+                System.arraycopy(parserListeners, 0, listeners, 0, i);
+                System.arraycopy(parserListeners, i + 1, listeners, i,
+                                 listeners.length - i);
+                parserListeners = listeners;
+                return;
+            }
         }
     }
 
@@ -86,21 +101,15 @@ public class ParserListenerMgr implements ParserListener {
 
     /** see {@link ParserListener#nodeCreated} */
     public void nodeCreated(NodeBase node) {
-        if (hasParseListeners()) {
-            for (int i = 0; i < parserListeners.size(); i++) {
-                ParserListener pl = (ParserListener) parserListeners.get(i);
-                pl.nodeCreated(node);
-            }
-        }
+        ParserListener[] listeners = parserListeners;
+        for (int i = 0; i < listeners.length; i++)
+            listeners[i].nodeCreated(node);
     }
 
     /** see {@link ParserListener#parseFinished} */
     public void parseFinished() {
-        if (hasParseListeners()) {
-            for (int i = 0; i < parserListeners.size(); i++) {
-                ParserListener pl = (ParserListener) parserListeners.get(i);
-                pl.parseFinished();
-            }
-        }
+        ParserListener[] listeners = parserListeners;
+        for (int i = 0; i < listeners.length; i++)
+            listeners[i].parseFinished();
     }
 }
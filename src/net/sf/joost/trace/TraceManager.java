@@ -24,8 +24,6 @@
 
 package net.sf.joost.trace;
 
-import java.util.Vector;
-
 import net.sf.joost.instruction.AbstractInstruction;
 import net.sf.joost.stx.SAXEvent;
 import net.sf.joost.trax.TransformerImpl;
@@ -33,15 +31,21 @@ import net.sf.joost.trax.TransformerImpl;
 /**
  * This class manages a collection of {@link TraceListener}, and acts as an
  * interface for the tracing functionality in Joost.
+ * The listeners are kept in an array that will be replaced when a listener
+ * is added or removed, so firing an event needs no synchronization and
+ * costs only the check of an empty array if there are no listeners.
  * @version $Revision: 1.8 $ $Date: 2004/11/07 13:47:05 $
  * @author Zubow
  */
 public class TraceManager {
 
+    /** An empty array of listeners */
+    private static final TraceListener[] NO_LISTENERS = new TraceListener[0];
+
     /**
-     * Collection of registered listeners (must be synchronized).
+     * Registered listeners, never modified (copy on write).
      */
-    private Vector traceListeners = null;
+    private volatile TraceListener[] traceListeners = NO_LISTENERS;
 
     /**
      * Default constructor for the tracemanager.
@@ -54,31 +58,41 @@ public class TraceManager {
      * @return True if there are registered tracelisteners
      */
     public boolean hasTraceListeners() {
-        return (traceListeners != null);
+        return traceListeners.length != 0;
     }
 
     /**
      * Add a tracelistener (debugging and profiling).
      * @param newTraceListener A tracelistener to be added.
      */
-    public void addTraceListener(TraceListener newTraceListener) {
+    public synchronized void addTraceListener(TraceListener newTraceListener) {
         // set Joost-Transformer in debug-mode
         TransformerImpl.DEBUG_MODE = true;
-        if (traceListeners == null) {
-            traceListeners = new Vector();
-        }
         // add new tracelistener
-        traceListeners.addElement(newTraceListener);
+        TraceListener[] listeners =
+            new TraceListener[traceListeners.length + 1];
+        System.arraycopy(traceListeners, 0, listeners, 0,
+                         traceListeners.length);
+        listeners[traceListeners.length] = newTraceListener;
+        traceListeners = listeners;
     }
 
     /**
      * Remove a tracelistener.
      * @param oldTraceListener A tracelistener to be removed.
      */
-    public void removeTraceListener(TraceListener oldTraceListener) {
-        if (traceListeners != null) {
-            // remove the given tracelistener from tracemanager
-            traceListeners.removeElement(oldTraceListener);
+    public synchronized void removeTraceListener(TraceListener oldTraceListener) {
+        for (int i = 0; i < traceListeners.length; i++) {
+            if (traceListeners[i].equals(oldTraceListener)) {
+                // remove the given tracelistener from tracemanager
+                TraceListener[] listeners =
+                    new TraceListener[traceListeners.length - 1];
+                System.arraycopy(traceListeners, 0, listeners, 0, i);
+                System.arraycopy(traceListeners, i + 1, listeners, i,
+                                 listeners.length - i);
+                traceListeners = listeners;
+                return;
+            }
         }
     }
 
@@ -95,32 +109,18 @@ public class TraceManager {
      * Fire a start processing event (open).
      */
     public void fireStartSourceDocument() {
-        if (hasTraceListeners()) {
-            // count of registered tracelisteners
-            int countListener = traceListeners.size();
-            for (int i = 0; i < countListener; i++) {
-                TraceListener currentListener =
-                        (TraceListener) traceListeners.elementAt(i);
-                // call the according method on tracelistener
-                currentListener.startSourceDocument();
-            }
-        }
+        TraceListener[] listeners = traceListeners;
+        for (int i = 0; i < listeners.length; i++)
+            listeners[i].startSourceDocument();
     }
 
     /**
      * Fire at the end of processing (close).
      */
     public void fireEndSourceDocument() {
-        if (hasTraceListeners()) {
-            // count of registered tracelisteners
-            int countListener = traceListeners.size();
-            for (int i = 0; i < countListener; i++) {
-                TraceListener currentListener =
-                        (TraceListener) traceListeners.elementAt(i);
-                // call the according method on tracelistener
-                currentListener.endSourceDocument();
-            }
-        }
+        TraceListener[] listeners = traceListeners;
+        for (int i = 0; i < listeners.length; i++)
+            listeners[i].endSourceDocument();
     }
 
 
@@ -128,96 +128,54 @@ public class TraceManager {
      * Fire if a startelement event of the source gets processed.
      */
     public void fireStartSourceElement(SAXEvent saxevent) {
-        if (hasTraceListeners()) {
-            // count of registered tracelisteners
-            int countListener = traceListeners.size();
-            for (int i = 0; i < countListener; i++) {
-                TraceListener currentListener =
-                        (TraceListener) traceListeners.elementAt(i);
-                // call the according method on tracelistener
-                currentListener.startSourceElement(saxevent);
-            }
-        }
+        TraceListener[] listeners = traceListeners;
+        for (int i = 0; i < listeners.length; i++)
+            listeners[i].startSourceElement(saxevent);
     }
 
     /**
      * Fire after a node of the source tree got processed.
      */
     public void fireEndSourceElement(SAXEvent saxevent) {
-        if (hasTraceListeners()) {
-            // count of registered tracelisteners
-            int countListener = traceListeners.size();
-            for (int i = 0; i < countListener; i++) {
-                TraceListener currentListener =
-                        (TraceListener) traceListeners.elementAt(i);
-                // call the according method on tracelistener
-                currentListener.endSourceElement(saxevent);
-            }
-        }
+        TraceListener[] listeners = traceListeners;
+        for (int i = 0; i < listeners.length; i++)
+            listeners[i].endSourceElement(saxevent);
     }
 
     /**
      * Fire when a text event of the source was received.
      */
     public void fireSourceText(SAXEvent saxevent) {
-        if (hasTraceListeners()) {
-            // count of registered tracelisteners
-            int countListener = traceListeners.size();
-            for (int i = 0; i < countListener; i++) {
-                TraceListener currentListener =
-                        (TraceListener) traceListeners.elementAt(i);
-                // call the according method on tracelistener
-                currentListener.sourceText(saxevent);
-            }
-        }
+        TraceListener[] listeners = traceListeners;
+        for (int i = 0; i < listeners.length; i++)
+            listeners[i].sourceText(saxevent);
     }
 
     /**
      * Fire when a PI-Event of the source was received.
      */
     public void fireSourcePI(SAXEvent saxevent) {
-        if (hasTraceListeners()) {
-            // count of registered tracelisteners
-            int countListener = traceListeners.size();
-            for (int i = 0; i < countListener; i++) {
-                TraceListener currentListener =
-                        (TraceListener) traceListeners.elementAt(i);
-                // call the according method on tracelistener
-                currentListener.sourcePI(saxevent);
-            }
-        }
+        TraceListener[] listeners = traceListeners;
+        for (int i = 0; i < listeners.length; i++)
+            listeners[i].sourcePI(saxevent);
     }
 
     /**
      * Called when a namespace mapping event of the source was received.
      */
     public void fireSourceMapping(SAXEvent saxevent) {
-        if (hasTraceListeners()) {
-            // count of registered tracelisteners
-            int countListener = traceListeners.size();
-            for (int i = 0; i < countListener; i++) {
-                TraceListener currentListener =
-                        (TraceListener) traceListeners.elementAt(i);
-                // call the according method on tracelistener
-                currentListener.sourceMapping(saxevent);
-            }
-        }
+        TraceListener[] listeners = traceListeners;
+        for (int i = 0; i < listeners.length; i++)
+            listeners[i].sourceMapping(saxevent);
     }
 
     /**
      * Called when a comment event of the source was received.
      */
     public void fireSourceComment(SAXEvent saxevent) {
-        if (hasTraceListeners()) {
-            // count of registered tracelisteners
-            int countListener = traceListeners.size();
-            for (int i = 0; i < countListener; i++) {
-                TraceListener currentListener =
-                        (TraceListener) traceListeners.elementAt(i);
-                // call the according method on tracelistener
-                currentListener.sourceComment(saxevent);
-            }
-        }
+        TraceListener[] listeners = traceListeners;
+        for (int i = 0; i < listeners.length; i++)
+            listeners[i].sourceComment(saxevent);
     }
 
     // ----------------------------------------------------------------------
@@ -228,32 +186,18 @@ public class TraceManager {
      * Fire when an element of the stylesheet gets processed.
      */
     public void fireEnterInstructionNode(AbstractInstruction inst, SAXEvent event) {
-        if (hasTraceListeners()) {
-            // count of registered tracelisteners
-            int countListener = traceListeners.size();
-            for (int i = 0; i < countListener; i++) {
-                TraceListener currentListener =
-                        (TraceListener) traceListeners.elementAt(i);
-                // call the according method on tracelistener
-                currentListener.enterInstructionNode(inst, event);
-            }
-        }
+        TraceListener[] listeners = traceListeners;
+        for (int i = 0; i < listeners.length; i++)
+            listeners[i].enterInstructionNode(inst, event);
     }
 
     /**
      * Fire after an element of the stylesheet got processed.
      */
     public void fireLeaveInstructionNode(AbstractInstruction inst, SAXEvent event) {
-        if (hasTraceListeners()) {
-            // count of registered tracelisteners
-            int countListener = traceListeners.size();
-            for (int i = 0; i < countListener; i++) {
-                TraceListener currentListener =
-                        (TraceListener) traceListeners.elementAt(i);
-                // call the according method on tracelistener
-                currentListener.leaveInstructionNode(inst, event);
-            }
-        }
+        TraceListener[] listeners = traceListeners;
+        for (int i = 0; i < listeners.length; i++)
+            listeners[i].leaveInstructionNode(inst, event);
     }
 
     // ----------------------------------------------------------------------
@@ -264,143 +208,80 @@ public class TraceManager {
      * Indicates the begin of the result document.
      */
     public void fireStartResultDocument() {
-        if (hasTraceListeners()) {
-            // count of registered tracelisteners
-            int countListener = traceListeners.size();
-            for (int i = 0; i < countListener; i++) {
-                TraceListener currentListener =
-                        (TraceListener) traceListeners.elementAt(i);
-                // call the according method on tracelistener
-                currentListener.startResultDocument();
-            }
-        }
+        TraceListener[] listeners = traceListeners;
+        for (int i = 0; i < listeners.length; i++)
+            listeners[i].startResultDocument();
     }
 
     /**
      * Indicates the end of the result document.
      */
     public void fireEndResultDocument() {
-        if (hasTraceListeners()) {
-            // count of registered tracelisteners
-            int countListener = traceListeners.size();
-            for (int i = 0; i < countListener; i++) {
-                TraceListener currentListener =
-                        (TraceListener) traceListeners.elementAt(i);
-                // call the according method on tracelistener
-                currentListener.endResultDocument();
-            }
-        }
+        TraceListener[] listeners = traceListeners;
+        for (int i = 0; i < listeners.length; i++)
+            listeners[i].endResultDocument();
     }
 
     /**
      * Indicates the start of an element of the result document.
      */
     public void fireStartResultElement(SAXEvent saxevent) {
-        if (hasTraceListeners()) {
-            // count of registered tracelisteners
-            int countListener = traceListeners.size();
-            for (int i = 0; i < countListener; i++) {
-                TraceListener currentListener =
-                        (TraceListener) traceListeners.elementAt(i);
-                // call the according method on tracelistener
-                currentListener.startResultElement(saxevent);
-            }
-        }
+        TraceListener[] listeners = traceListeners;
+        for (int i = 0; i < listeners.length; i++)
+            listeners[i].startResultElement(saxevent);
     }
 
     /**
      * Indicates the start of an element of the result document.
      */
     public void fireEndResultElement(SAXEvent saxevent) {
-        if (hasTraceListeners()) {
-            // count of registered tracelisteners
-            int countListener = traceListeners.size();
-            for (int i = 0; i < countListener; i++) {
-                TraceListener currentListener =
-                        (TraceListener) traceListeners.elementAt(i);
-                // call the according method on tracelistener
-                currentListener.endResultElement(saxevent);
-            }
-        }
+        TraceListener[] listeners = traceListeners;
+        for (int i = 0; i < listeners.length; i++)
+            listeners[i].endResultElement(saxevent);
     }
 
     /**
      * Indicates the text event of the result document.
      */
     public void fireResultText(SAXEvent saxevent) {
-        if (hasTraceListeners()) {
-            // count of registered tracelisteners
-            int countListener = traceListeners.size();
-            for (int i = 0; i < countListener; i++) {
-                TraceListener currentListener =
-                        (TraceListener) traceListeners.elementAt(i);
-                // call the according method on tracelistener
-                currentListener.resultText(saxevent);
-            }
-        }
+        TraceListener[] listeners = traceListeners;
+        for (int i = 0; i < listeners.length; i++)
+            listeners[i].resultText(saxevent);
     }
 
     /**
      * Indicates the PI event of the result document.
      */
     public void fireResultPI(SAXEvent saxevent) {
-        if (hasTraceListeners()) {
-            // count of registered tracelisteners
-            int countListener = traceListeners.size();
-            for (int i = 0; i < countListener; i++) {
-                TraceListener currentListener =
-                        (TraceListener) traceListeners.elementAt(i);
-                // call the according method on tracelistener
-                currentListener.resultPI(saxevent);
-            }
-        }
+        TraceListener[] listeners = traceListeners;
+        for (int i = 0; i < listeners.length; i++)
+            listeners[i].resultPI(saxevent);
     }
 
     /**
      * Indicates the comment event of the result document.
      */
     public void fireResultComment(SAXEvent saxevent) {
-        if (hasTraceListeners()) {
-            // count of registered tracelisteners
-            int countListener = traceListeners.size();
-            for (int i = 0; i < countListener; i++) {
-                TraceListener currentListener =
-                        (TraceListener) traceListeners.elementAt(i);
-                // call the according method on tracelistener
-                currentListener.resultComment(saxevent);
-            }
-        }
+        TraceListener[] listeners = traceListeners;
+        for (int i = 0; i < listeners.length; i++)
+            listeners[i].resultComment(saxevent);
     }
 
     /**
      * Indicates the start CDATA event of the result document.
      */
     public void fireStartResultCDATA() {
-        if (hasTraceListeners()) {
-            // count of registered tracelisteners
-            int countListener = traceListeners.size();
-            for (int i = 0; i < countListener; i++) {
-                TraceListener currentListener =
-                        (TraceListener) traceListeners.elementAt(i);
-                // call the according method on tracelistener
-                currentListener.startResultCDATA();
-            }
-        }
+        TraceListener[] listeners = traceListeners;
+        for (int i = 0; i < listeners.length; i++)
+            listeners[i].startResultCDATA();
     }
 
     /**
      * Indicates the end CDATA event of the result document.
      */
     public void fireEndResultCDATA() {
-        if (hasTraceListeners()) {
-            // count of registered tracelisteners
-            int countListener = traceListeners.size();
-            for (int i = 0; i < countListener; i++) {
-                TraceListener currentListener =
-                        (TraceListener) traceListeners.elementAt(i);
-                // call the according method on tracelistener
-                currentListener.endResultCDATA();
-            }
-        }
+        TraceListener[] listeners = traceListeners;
+        for (int i = 0; i < listeners.length; i++)
+            listeners[i].endResultCDATA();
     }
 }
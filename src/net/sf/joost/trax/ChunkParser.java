@@ -0,0 +1,1142 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is agent.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+
+package net.sf.joost.trax;
+
+import net.sf.joost.util.om.XMLChar;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.Enumeration;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.NamespaceSupport;
+
+
+/**
+ * A non-blocking XML parser that is fed with chunks of bytes. Each
+ * invocation of {@link #parse(ByteBuffer)} consumes the whole chunk,
+ * reports the events of all complete markup to the content handler and
+ * keeps an incomplete rest for the next chunk. No thread waits for
+ * input, so a single thread may serve many documents at the same time
+ * (see {@link TransformerHandlerImpl#parse(ByteBuffer)}).
+ * <p>
+ * The parser is namespace aware and checks the well-formedness of the
+ * element structure, names, characters, text and comments. It supports the encodings of the Java platform
+ * (detected via byte order mark or XML declaration, UTF-8 otherwise),
+ * the predefined entities and character references. A document type
+ * declaration will be reported to the lexical handler but not
+ * interpreted; hence entities declared in the DTD and default attribute
+ * values are not supported. Text will be passed as slices of the
+ * internal buffer, names will be shared between events.
+ * @version $Revision$ $Date$
+ * @author agent
+ */
+public final class ChunkParser implements Locator
+{
+   /** The initial size of the buffers */
+   private static final int BUFFER_SIZE = 8192;
+
+   /** The maximal length of an entity reference */
+   private static final int MAX_REFERENCE = 64;
+
+   /** The maximal length of the XML declaration */
+   private static final int MAX_DECLARATION = 1024;
+
+   private ContentHandler contentHandler;
+   private LexicalHandler lexicalHandler;
+   private ErrorHandler errorHandler;
+   private String systemId;
+
+   /** The decoder, <code>null</code> until the encoding is known */
+   private CharsetDecoder decoder;
+
+   /** The bytes that haven't been decoded yet (in write mode) */
+   private ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+
+   /** Target buffer for {@link #decoder} */
+   private CharBuffer decoded = CharBuffer.allocate(BUFFER_SIZE);
+
+   /**
+    * The decoded characters, the unparsed ones are from {@link #pos} to
+    * {@link #end}
+    */
+   private char[] buf = new char[BUFFER_SIZE];
+   private int pos, end;
+
+   /**
+    * Position where the search for the end of an incomplete comment,
+    * CDATA section or PI can be continued
+    */
+   private int scanPos;
+
+   /** Set if the last decoded character was a CR */
+   private boolean lastCR;
+
+   /** The location of {@link #pos} */
+   private int line = 1, column = 1;
+
+   /** The location of the current markup (reported by the Locator) */
+   private int markupLine = 1, markupColumn = 1;
+
+   /** Set after the start of the document has been reported */
+   private boolean started;
+
+   /** Set after the end of the document or an error */
+   private boolean finished;
+
+   /** Set after the first markup (an XML declaration must come first) */
+   private boolean afterFirst;
+
+   /** Set after the document element has been started */
+   private boolean rootSeen;
+
+   /** The open elements, each one a String array {uri, lName, qName} */
+   private ArrayList openElements = new ArrayList();
+
+   private NamespaceSupport nsSupport = new NamespaceSupport();
+   private AttributesImpl attrs = new AttributesImpl();
+
+   /** The raw attributes of the current start tag (qName, value) */
+   private ArrayList rawAttrs = new ArrayList();
+
+   /** For attribute values with references or whitespace */
+   private StringBuffer valueBuffer = new StringBuffer();
+
+   /** For the replacement of references in text */
+   private char[] refChars = new char[2];
+
+   /** Shared names */
+   private SymbolTable symbols = new SymbolTable();
+
+
+   /**
+    * Constructs a parser.
+    * @param handler the receiver of the events; if it implements
+    *        <code>LexicalHandler</code> it will receive comments, CDATA
+    *        sections and the document type declaration, too
+    */
+   public ChunkParser(ContentHandler handler)
+   {
+      contentHandler = handler;
+      if (handler instanceof LexicalHandler)
+         lexicalHandler = (LexicalHandler)handler;
+   }
+
+
+   /** Sets the handler for parse errors */
+   public void setErrorHandler(ErrorHandler handler)
+   {
+      errorHandler = handler;
+   }
+
+
+   /** Sets the system identifier reported by the {@link Locator} */
+   public void setSystemId(String systemId)
+   {
+      this.systemId = systemId;
+   }
+
+
+   /**
+    * Parses the next chunk of the document. All remaining bytes of
+    * <code>chunk</code> will be consumed.
+    * @param chunk the bytes
+    * @exception SAXException if the document isn't well-formed or if
+    *            the content handler throws an exception
+    */
+   public void parse(ByteBuffer chunk)
+      throws SAXException
+   {
+      start();
+      if (bytes.remaining() < chunk.remaining()) {
+         ByteBuffer tmp = ByteBuffer.allocate(
+            Math.max(bytes.capacity() * 2, bytes.position() +
+                                           chunk.remaining()));
+         bytes.flip();
+         tmp.put(bytes);
+         bytes = tmp;
+      }
+      bytes.put(chunk);
+      if (decoder == null && !detectEncoding(false))
+         return;
+      decode(false);
+      tokenize(false);
+   }
+
+
+   /**
+    * Signals the end of the document.
+    * @exception SAXException if the document isn't well-formed or if
+    *            the content handler throws an exception
+    */
+   public void end()
+      throws SAXException
+   {
+      start();
+      if (decoder == null)
+         detectEncoding(true);
+      decode(true);
+      tokenize(true);
+      if (!rootSeen)
+         fatal("Missing document element");
+      if (!openElements.isEmpty())
+         fatal("Missing end tag of element '" +
+               ((String[])openElements.get(openElements.size()-1))[2] + "'");
+      finished = true;
+      contentHandler.endDocument();
+   }
+
+
+   /** Reports the start of the document on first invocation */
+   private void start()
+      throws SAXException
+   {
+      if (finished)
+         throw new SAXException("Document already finished");
+      if (!started) {
+         started = true;
+         contentHandler.setDocumentLocator(this);
+         contentHandler.startDocument();
+      }
+   }
+
+
+   //
+   // Decoding
+   //
+
+   /**
+    * Determines the encoding from the first bytes.
+    * @param eof whether the end of the input has been reached
+    * @return <code>false</code> if more bytes are necessary
+    */
+   private boolean detectEncoding(boolean eof)
+      throws SAXException
+   {
+      byte[] b = bytes.array();
+      int length = bytes.position();
+      String encoding = "UTF-8";
+      int skip = 0;
+      if (length < 4 && !eof)
+         return false;
+      if (length >= 2 && (b[0] & 0xFF) == 0xFE && (b[1] & 0xFF) == 0xFF) {
+         encoding = "UTF-16BE";
+         skip = 2;
+      }
+      else if (length >= 2 && (b[0] & 0xFF) == 0xFF &&
+               (b[1] & 0xFF) == 0xFE) {
+         encoding = "UTF-16LE";
+         skip = 2;
+      }
+      else if (length >= 3 && (b[0] & 0xFF) == 0xEF &&
+               (b[1] & 0xFF) == 0xBB && (b[2] & 0xFF) == 0xBF)
+         skip = 3;
+      else if (length >= 5 && b[0] == '<' && b[1] == '?' && b[2] == 'x' &&
+               b[3] == 'm' && b[4] == 'l') {
+         // ASCII compatible encoding with XML declaration
+         int close = -1;
+         for (int i=5; i<length-1 && close == -1; i++)
+            if (b[i] == '?' && b[i+1] == '>')
+               close = i;
+         if (close == -1) {
+            if (!eof && length < MAX_DECLARATION)
+               return false;
+            fatal("Incomplete XML declaration");
+         }
+         String declaration;
+         try {
+            declaration = new String(b, 0, close, "ISO-8859-1");
+         }
+         catch (java.io.UnsupportedEncodingException ex) {
+            // can't happen, every platform supports ISO-8859-1
+            throw new SAXException(ex);
+         }
+         String value = getPseudoAttribute(declaration, "encoding");
+         if (value != null)
+            encoding = value;
+      }
+      else if (length < 5 && !eof)
+         return false;
+
+      try {
+         decoder = Charset.forName(encoding).newDecoder()
+                   .onMalformedInput(CodingErrorAction.REPORT)
+                   .onUnmappableCharacter(CodingErrorAction.REPORT);
+      }
+      catch (IllegalArgumentException ex) {
+         fatal("Unsupported encoding '" + encoding + "'");
+      }
+      if (skip > 0) {
+         bytes.flip();
+         bytes.position(skip);
+         bytes.compact();
+      }
+      return true;
+   }
+
+
+   /**
+    * @return the value of a pseudo attribute of the XML declaration,
+    *         <code>null</code> if it's not present
+    */
+   private static String getPseudoAttribute(String declaration, String name)
+   {
+      int index = declaration.indexOf(name);
+      if (index == -1)
+         return null;
+      index = declaration.indexOf('=', index + name.length());
+      if (index == -1)
+         return null;
+      index++;
+      while (index < declaration.length() &&
+             isWhitespace(declaration.charAt(index)))
+         index++;
+      if (index == declaration.length())
+         return null;
+      char quote = declaration.charAt(index);
+      int close = declaration.indexOf(quote, index + 1);
+      if ((quote != '"' && quote != '\'') || close == -1)
+         return null;
+      return declaration.substring(index + 1, close);
+   }
+
+
+   /**
+    * Decodes the available bytes into {@link #buf}.
+    * @param eof whether the end of the input has been reached
+    */
+   private void decode(boolean eof)
+      throws SAXException
+   {
+      bytes.flip();
+      while (true) {
+         CoderResult result = decoder.decode(bytes, decoded, eof);
+         appendDecoded();
+         if (result.isOverflow())
+            continue;
+         if (result.isError())
+            fatal("Invalid byte sequence for encoding " +
+                  decoder.charset().name());
+         break;
+      }
+      if (eof) {
+         if (bytes.hasRemaining())
+            fatal("Incomplete byte sequence at the end of the input");
+         decoder.flush(decoded);
+         appendDecoded();
+      }
+      bytes.compact();
+   }
+
+
+   /**
+    * Appends the contents of {@link #decoded} to {@link #buf}, normalizes
+    * line ends and rejects characters that are not allowed in XML
+    */
+   private void appendDecoded()
+      throws SAXException
+   {
+      decoded.flip();
+      int length = decoded.remaining();
+      if (end + length > buf.length) {
+         // make room: discard parsed characters, grow if necessary
+         int keep = end - pos;
+         char[] target = keep + length > buf.length
+            ? new char[Math.max(buf.length * 2, keep + length)] : buf;
+         System.arraycopy(buf, pos, target, 0, keep);
+         buf = target;
+         scanPos -= pos;
+         end = keep;
+         pos = 0;
+      }
+      char[] src = decoded.array();
+      int offset = decoded.arrayOffset() + decoded.position();
+      for (int i=0; i<length; i++) {
+         char c = src[offset + i];
+         if ((c < 0x20 || c >= 0xD800) && !XMLChar.isValid(c) &&
+             !XMLChar.isSurrogate(c)) // the decoder checks the pairs
+            invalidCharacter(c, end);
+         if (c == '\r') {
+            buf[end++] = '\n';
+            lastCR = true;
+         }
+         else {
+            if (c != '\n' || !lastCR)
+               buf[end++] = c;
+            lastCR = false;
+         }
+      }
+      decoded.clear();
+   }
+
+
+   //
+   // Tokenizing
+   //
+
+   /**
+    * Reports the events for all complete markup in the buffer.
+    * @param eof whether the end of the input has been reached
+    */
+   private void tokenize(boolean eof)
+      throws SAXException
+   {
+      while (pos < end) {
+         markupLine = line;
+         markupColumn = column;
+         int next = buf[pos] == '<' ? parseMarkup(eof) : parseText(eof);
+         if (next == -1)
+            break;
+         afterFirst = true;
+         for (int i=pos; i<next; i++) {
+            if (buf[i] == '\n') {
+               line++;
+               column = 1;
+            }
+            else
+               column++;
+         }
+         pos = scanPos = next;
+      }
+      if (eof && pos < end)
+         fatal("Unexpected end of the input");
+   }
+
+
+   /**
+    * Reports the text at {@link #pos}.
+    * @return the position after the reported text, -1 if more input is
+    *         necessary
+    */
+   private int parseText(boolean eof)
+      throws SAXException
+   {
+      int stop = indexOf('<', pos);
+      if (stop == -1)
+         stop = end;
+      boolean inside = !openElements.isEmpty();
+      int run = pos;
+      int i = pos;
+      while (i < stop) {
+         char c = buf[i];
+         if (c == '&') {
+            int semi = indexOf(';', i + 1);
+            if (semi == -1 || semi > stop) {
+               if (stop == end && !eof && end - i < MAX_REFERENCE) {
+                  // the reference is incomplete
+                  if (inside && i > run)
+                     contentHandler.characters(buf, run, i - run);
+                  return i > pos ? i : -1;
+               }
+               fatal("Unterminated reference");
+            }
+            if (!inside)
+               fatal("Content is not allowed outside the document element");
+            if (i > run)
+               contentHandler.characters(buf, run, i - run);
+            int length = resolveReference(i + 1, semi);
+            contentHandler.characters(refChars, 0, length);
+            i = run = semi + 1;
+         }
+         else {
+            if (!inside && !isWhitespace(c))
+               fatal("Content is not allowed outside the document element");
+            if (c == '>' && i >= pos + 2 && buf[i-1] == ']' &&
+                buf[i-2] == ']')
+               fatal("The character sequence ']]>' must not appear in " +
+                     "content");
+            i++;
+         }
+      }
+      if (stop == end && !eof) {
+         // keep up to two ']' for the check of ']]>' in the next chunk
+         int keep = stop;
+         while (keep > run && stop - keep < 2 && buf[keep-1] == ']')
+            keep--;
+         if (keep == pos)
+            return -1;
+         stop = keep;
+      }
+      if (inside && stop > run)
+         contentHandler.characters(buf, run, stop - run);
+      return stop;
+   }
+
+
+   /**
+    * Reports the markup at {@link #pos}.
+    * @return the position after the markup, -1 if more input is necessary
+    */
+   private int parseMarkup(boolean eof)
+      throws SAXException
+   {
+      if (pos + 1 >= end)
+         return needMore(eof);
+      char c = buf[pos + 1];
+      int m;
+      if (c == '!') {
+         if ((m = matches("<!--")) == 1)
+            return parseComment(eof);
+         if (m == 0 && (m = matches("<![CDATA[")) == 1)
+            return parseCDATA(eof);
+         if (m == 0 && (m = matches("<!DOCTYPE")) == 1)
+            return parseDoctype(eof);
+         if (m == -1)
+            return needMore(eof);
+         fatal("Invalid markup");
+      }
+      if (c == '?')
+         return parsePI(eof);
+      if (c == '/')
+         return parseEndTag(eof);
+      return parseStartTag(eof);
+   }
+
+
+   /** Reports a comment */
+   private int parseComment(boolean eof)
+      throws SAXException
+   {
+      int close = find("-->", pos + 4);
+      if (close == -1)
+         return needMore(eof);
+      for (int i=pos+4; i<close; i++)
+         if (buf[i] == '-' && buf[i+1] == '-')
+            fatal("The string '--' is not permitted within comments");
+      if (lexicalHandler != null)
+         lexicalHandler.comment(buf, pos + 4, close - pos - 4);
+      return close + 3;
+   }
+
+
+   /** Reports a CDATA section */
+   private int parseCDATA(boolean eof)
+      throws SAXException
+   {
+      int close = find("]]>", pos + 9);
+      if (close == -1)
+         return needMore(eof);
+      if (openElements.isEmpty())
+         fatal("CDATA section outside the document element");
+      if (lexicalHandler != null)
+         lexicalHandler.startCDATA();
+      contentHandler.characters(buf, pos + 9, close - pos - 9);
+      if (lexicalHandler != null)
+         lexicalHandler.endCDATA();
+      return close + 3;
+   }
+
+
+   /** Reports a processing instruction, skips the XML declaration */
+   private int parsePI(boolean eof)
+      throws SAXException
+   {
+      int close = find("?>", pos + 2);
+      if (close == -1)
+         return needMore(eof);
+      int i = pos + 2;
+      while (i < close && !isWhitespace(buf[i]))
+         i++;
+      String target = getName(pos + 2, i - pos - 2);
+      if (target.length() == 0)
+         fatal("Missing target of processing instruction");
+      if (target.equalsIgnoreCase("xml")) {
+         if (target.equals("xml") && !afterFirst)
+            return close + 2; // XML declaration
+         fatal("Reserved processing instruction target '" + target + "'");
+      }
+      while (i < close && isWhitespace(buf[i]))
+         i++;
+      contentHandler.processingInstruction(target,
+                                           new String(buf, i, close - i));
+      return close + 2;
+   }
+
+
+   /** Reports the document type declaration (without interpreting it) */
+   private int parseDoctype(boolean eof)
+      throws SAXException
+   {
+      // find the closing '>' outside of quotes and the internal subset
+      char quote = 0;
+      int depth = 0;
+      int close = -1;
+      for (int i=pos+9; i<end && close == -1; i++) {
+         char c = buf[i];
+         if (quote != 0) {
+            if (c == quote)
+               quote = 0;
+         }
+         else if (c == '"' || c == '\'')
+            quote = c;
+         else if (c == '[')
+            depth++;
+         else if (c == ']')
+            depth--;
+         else if (c == '>' && depth == 0)
+            close = i;
+      }
+      if (close == -1)
+         return needMore(eof);
+      if (rootSeen)
+         fatal("Document type declaration after the document element");
+      if (lexicalHandler != null) {
+         String decl = new String(buf, pos + 9, close - pos - 9).trim();
+         int i = 0;
+         while (i < decl.length() && !isWhitespace(decl.charAt(i)) &&
+                decl.charAt(i) != '[')
+            i++;
+         String name = decl.substring(0, i);
+         String rest = decl.substring(i).trim();
+         String publicId = null, systemId = null;
+         if (rest.startsWith("PUBLIC")) {
+            String[] ids = getQuoted(rest.substring(6), 2);
+            publicId = ids[0];
+            systemId = ids[1];
+         }
+         else if (rest.startsWith("SYSTEM"))
+            systemId = getQuoted(rest.substring(6), 1)[0];
+         lexicalHandler.startDTD(name, publicId, systemId);
+         lexicalHandler.endDTD();
+      }
+      return close + 1;
+   }
+
+
+   /** @return the first <code>count</code> quoted strings of a string */
+   private static String[] getQuoted(String s, int count)
+   {
+      String[] result = new String[count];
+      int index = 0;
+      for (int i=0; i<count; i++) {
+         while (index < s.length() && isWhitespace(s.charAt(index)))
+            index++;
+         if (index == s.length())
+            break;
+         char quote = s.charAt(index);
+         int close = s.indexOf(quote, index + 1);
+         if ((quote != '"' && quote != '\'') || close == -1)
+            break;
+         result[i] = s.substring(index + 1, close);
+         index = close + 1;
+      }
+      return result;
+   }
+
+
+   /** Reports the end of an element */
+   private int parseEndTag(boolean eof)
+      throws SAXException
+   {
+      int close = indexOf('>', pos + 2);
+      if (close == -1)
+         return needMore(eof);
+      int i = close;
+      while (i > pos + 2 && isWhitespace(buf[i-1]))
+         i--;
+      String qName = symbols.get(buf, pos + 2, i - pos - 2);
+      if (openElements.isEmpty())
+         fatal("Unexpected end tag '" + qName + "'");
+      String[] element = (String[])openElements.get(openElements.size()-1);
+      if (!element[2].equals(qName))
+         fatal("End tag '" + qName + "' doesn't match start tag '" +
+               element[2] + "'");
+      endElement();
+      return close + 1;
+   }
+
+
+   /** Reports the start of an element (and its end for an empty tag) */
+   private int parseStartTag(boolean eof)
+      throws SAXException
+   {
+      // find the closing '>' outside of attribute values
+      char quote = 0;
+      int close = -1;
+      for (int i=pos+1; i<end && close == -1; i++) {
+         char c = buf[i];
+         if (quote != 0) {
+            if (c == quote)
+               quote = 0;
+         }
+         else if (c == '"' || c == '\'')
+            quote = c;
+         else if (c == '>')
+            close = i;
+      }
+      if (close == -1)
+         return needMore(eof);
+      boolean empty = buf[close-1] == '/';
+      int stop = empty ? close - 1 : close;
+
+      int i = pos + 1;
+      while (i < stop && !isWhitespace(buf[i]))
+         i++;
+      String qName = getName(pos + 1, i - pos - 1);
+      if (qName.length() == 0)
+         fatal("Missing element name");
+      if (openElements.isEmpty() && rootSeen)
+         fatal("Only one document element is allowed");
+
+      // attributes
+      rawAttrs.clear();
+      while (true) {
+         while (i < stop && isWhitespace(buf[i]))
+            i++;
+         if (i == stop)
+            break;
+         int start = i;
+         while (i < stop && buf[i] != '=' && !isWhitespace(buf[i]))
+            i++;
+         String aName = getName(start, i - start);
+         if (aName.length() == 0)
+            fatal("Missing attribute name");
+         while (i < stop && isWhitespace(buf[i]))
+            i++;
+         if (i == stop || buf[i] != '=')
+            fatal("Missing value of attribute '" + aName + "'");
+         i++;
+         while (i < stop && isWhitespace(buf[i]))
+            i++;
+         if (i == stop || (buf[i] != '"' && buf[i] != '\''))
+            fatal("Attribute value of '" + aName + "' must be quoted");
+         int close2 = indexOf(buf[i], i + 1);
+         rawAttrs.add(aName);
+         rawAttrs.add(getAttributeValue(i + 1, close2));
+         i = close2 + 1;
+         if (i < stop && !isWhitespace(buf[i]))
+            fatal("Whitespace required after attribute '" + aName + "'");
+      }
+
+      // namespace declarations
+      nsSupport.pushContext();
+      int count = rawAttrs.size();
+      for (int k=0; k<count; k+=2) {
+         String aName = (String)rawAttrs.get(k);
+         String value = (String)rawAttrs.get(k+1);
+         String prefix = null;
+         if (aName.equals("xmlns"))
+            prefix = "";
+         else if (aName.startsWith("xmlns:")) {
+            prefix = aName.substring(6);
+            if (value.length() == 0)
+               fatal("Empty namespace URI for prefix '" + prefix + "'");
+         }
+         if (prefix != null) {
+            nsSupport.declarePrefix(prefix, value);
+            contentHandler.startPrefixMapping(prefix, value);
+         }
+      }
+
+      attrs.clear();
+      for (int k=0; k<count; k+=2) {
+         String aName = (String)rawAttrs.get(k);
+         if (aName.equals("xmlns") || aName.startsWith("xmlns:"))
+            continue;
+         int colon = aName.indexOf(':');
+         String uri = "", lName = aName;
+         if (colon != -1) {
+            uri = getURI(aName.substring(0, colon), aName);
+            lName = symbols.get(aName.substring(colon + 1));
+         }
+         if (attrs.getIndex(uri, lName) != -1)
+            fatal("Duplicate attribute '" + aName + "'");
+         attrs.addAttribute(uri, lName, aName, "CDATA",
+                            (String)rawAttrs.get(k+1));
+      }
+
+      int colon = qName.indexOf(':');
+      String[] element;
+      if (colon != -1)
+         element = new String[] {
+            getURI(qName.substring(0, colon), qName),
+            symbols.get(qName.substring(colon + 1)), qName };
+      else {
+         String uri = nsSupport.getURI("");
+         element = new String[] { uri != null ? uri : "", qName, qName };
+      }
+      rootSeen = true;
+      openElements.add(element);
+      contentHandler.startElement(element[0], element[1], element[2], attrs);
+      if (empty)
+         endElement();
+      return close + 1;
+   }
+
+
+   /** Reports the end of the innermost open element */
+   private void endElement()
+      throws SAXException
+   {
+      String[] element =
+         (String[])openElements.remove(openElements.size()-1);
+      contentHandler.endElement(element[0], element[1], element[2]);
+      for (Enumeration e = nsSupport.getDeclaredPrefixes();
+           e.hasMoreElements(); )
+         contentHandler.endPrefixMapping((String)e.nextElement());
+      nsSupport.popContext();
+   }
+
+
+   /** @return the namespace URI for a prefix */
+   private String getURI(String prefix, String qName)
+      throws SAXException
+   {
+      String uri = nsSupport.getURI(prefix);
+      if (uri == null)
+         fatal("Undeclared namespace prefix in '" + qName + "'");
+      return uri;
+   }
+
+
+   /**
+    * @return the normalized value of an attribute, given as the range
+    *         from <code>start</code> to <code>stop</code>
+    */
+   private String getAttributeValue(int start, int stop)
+      throws SAXException
+   {
+      int i = start;
+      while (i < stop) {
+         char c = buf[i];
+         if (c == '&' || c == '<' || c == '\n' || c == '\t')
+            break;
+         i++;
+      }
+      if (i == stop)
+         return new String(buf, start, stop - start);
+
+      valueBuffer.setLength(0);
+      valueBuffer.append(buf, start, i - start);
+      while (i < stop) {
+         char c = buf[i];
+         if (c == '&') {
+            int semi = indexOf(';', i + 1);
+            if (semi == -1 || semi > stop)
+               fatal("Unterminated reference");
+            valueBuffer.append(refChars, 0, resolveReference(i + 1, semi));
+            i = semi + 1;
+            continue;
+         }
+         if (c == '<')
+            fatal("Attribute values must not contain '<'");
+         valueBuffer.append(c == '\n' || c == '\t' ? ' ' : c);
+         i++;
+      }
+      return valueBuffer.toString();
+   }
+
+
+   /**
+    * Stores the replacement of the reference between <code>start</code>
+    * and <code>stop</code> in {@link #refChars}.
+    * @return the number of characters of the replacement
+    */
+   private int resolveReference(int start, int stop)
+      throws SAXException
+   {
+      String name = new String(buf, start, stop - start);
+      if (name.length() > 1 && name.charAt(0) == '#') {
+         int code;
+         try {
+            code = name.charAt(1) == 'x'
+                   ? Integer.parseInt(name.substring(2), 16)
+                   : Integer.parseInt(name.substring(1));
+         }
+         catch (NumberFormatException ex) {
+            code = -1;
+         }
+         if (code < 0 || !XMLChar.isValid(code))
+            fatal("Invalid character reference '&" + name + ";'");
+         if (code < 0x10000) {
+            refChars[0] = (char)code;
+            return 1;
+         }
+         code -= 0x10000;
+         refChars[0] = (char)(0xD800 + (code >> 10));
+         refChars[1] = (char)(0xDC00 + (code & 0x3FF));
+         return 2;
+      }
+      if (name.equals("lt"))
+         refChars[0] = '<';
+      else if (name.equals("gt"))
+         refChars[0] = '>';
+      else if (name.equals("amp"))
+         refChars[0] = '&';
+      else if (name.equals("quot"))
+         refChars[0] = '"';
+      else if (name.equals("apos"))
+         refChars[0] = '\'';
+      else
+         fatal("Undeclared entity '" + name + "'");
+      return 1;
+   }
+
+
+   /**
+    * Compares the buffer at {@link #pos} with a string.
+    * @return 1 if the string matches, 0 if it doesn't match, -1 if the
+    *         buffer is too short to decide
+    */
+   private int matches(String s)
+   {
+      int length = s.length();
+      for (int i=0; i<length; i++) {
+         if (pos + i == end)
+            return -1;
+         if (buf[pos + i] != s.charAt(i))
+            return 0;
+      }
+      return 1;
+   }
+
+
+   /** @return the index of a character in the buffer, or -1 */
+   private int indexOf(char c, int from)
+   {
+      for (int i=from; i<end; i++)
+         if (buf[i] == c)
+            return i;
+      return -1;
+   }
+
+
+   /**
+    * Searches a string in the buffer, starting at <code>from</code> or at
+    * the position reached by the previous unsuccessful search for the
+    * same markup.
+    * @return the index of the string, or -1
+    */
+   private int find(String s, int from)
+   {
+      int last = end - s.length();
+      char first = s.charAt(0);
+      for (int i=Math.max(from, scanPos); i<=last; i++) {
+         if (buf[i] != first)
+            continue;
+         int k = 1;
+         while (k < s.length() && buf[i+k] == s.charAt(k))
+            k++;
+         if (k == s.length())
+            return i;
+      }
+      scanPos = Math.max(from, last + 1);
+      return -1;
+   }
+
+
+   /**
+    * @return the shared instance of the name in a range of {@link #buf};
+    *         names will be checked on their first occurrence
+    */
+   private String getName(int start, int length)
+      throws SAXException
+   {
+      String name = symbols.get(buf, start, length);
+      if (symbols.added && length > 0 && !isQName(name))
+         fatal("Invalid name '" + name + "'");
+      return name;
+   }
+
+
+   /**
+    * @return whether a string is a qualified name, i.e. a name that
+    *         contains at most one colon which is neither its first nor
+    *         its last character
+    */
+   private static boolean isQName(String name)
+   {
+      int colon = -1;
+      int length = name.length();
+      for (int i=0; i<length; i++) {
+         char c = name.charAt(i);
+         if (c == ':') {
+            if (colon != -1 || i == 0 || i == length - 1)
+               return false;
+            colon = i;
+         }
+         else if (i == 0 || i == colon + 1
+                  ? !XMLChar.isNCNameStart(c) : !XMLChar.isNCName(c))
+            return false;
+      }
+      return true;
+   }
+
+
+   /**
+    * Reports a character that is not allowed in XML.
+    * @param c the character
+    * @param index its index in {@link #buf}, after {@link #pos}
+    */
+   private void invalidCharacter(char c, int index)
+      throws SAXException
+   {
+      markupLine = line;
+      markupColumn = column;
+      for (int i=pos; i<index; i++) {
+         if (buf[i] == '\n') {
+            markupLine++;
+            markupColumn = 1;
+         }
+         else
+            markupColumn++;
+      }
+      fatal("Invalid XML character (Unicode: 0x" +
+            Integer.toHexString(c) + ")");
+   }
+
+
+   /**
+    * Called for incomplete markup.
+    * @return -1 if more input may follow
+    */
+   private int needMore(boolean eof)
+      throws SAXException
+   {
+      if (eof)
+         fatal("Unexpected end of the input");
+      return -1;
+   }
+
+
+   /** Reports a fatal error and throws it as exception */
+   private void fatal(String message)
+      throws SAXException
+   {
+      finished = true;
+      SAXParseException ex = new SAXParseException(message, this);
+      if (errorHandler != null)
+         errorHandler.fatalError(ex);
+      throw ex;
+   }
+
+
+   private static boolean isWhitespace(char c)
+   {
+      return c == ' ' || c == '\n' || c == '\t' || c == '\r';
+   }
+
+
+   //
+   // Locator
+   //
+
+   public String getPublicId()
+   {
+      return null;
+   }
+
+   public String getSystemId()
+   {
+      return systemId;
+   }
+
+   public int getLineNumber()
+   {
+      return markupLine;
+   }
+
+   public int getColumnNumber()
+   {
+      return markupColumn;
+   }
+
+
+   /**
+    * A table of names, such that the same name is represented by the same
+    * <code>String</code> object, without creating a new string for every
+    * occurrence
+    */
+   private static final class SymbolTable
+   {
+      private String[] table = new String[256];
+      private int size;
+
+      /** Set if the last invocation of {@link #get} added a new name */
+      boolean added;
+
+      /** @return the name for a range of a character array */
+      String get(char[] ch, int start, int length)
+      {
+         added = false;
+         int hash = 0;
+         for (int i=0; i<length; i++)
+            hash = hash * 31 + ch[start + i];
+         int mask = table.length - 1;
+         int index = hash & mask;
+         while (true) {
+            String s = table[index];
+            if (s == null)
+               break;
+            if (s.length() == length) {
+               int i = 0;
+               while (i < length && s.charAt(i) == ch[start + i])
+                  i++;
+               if (i == length)
+                  return s;
+            }
+            index = (index + 1) & mask;
+         }
+         added = true;
+         String s = new String(ch, start, length);
+         table[index] = s;
+         if (++size * 2 > table.length)
+            rehash();
+         return s;
+      }
+
+      /** @return the shared instance of a name */
+      String get(String name)
+      {
+         return get(name.toCharArray(), 0, name.length());
+      }
+
+      private void rehash()
+      {
+         String[] old = table;
+         table = new String[old.length * 2];
+         int mask = table.length - 1;
+         for (int k=0; k<old.length; k++) {
+            if (old[k] == null)
+               continue;
+            int index = old[k].hashCode() & mask;
+            while (table[index] != null)
+               index = (index + 1) & mask;
+            table[index] = old[k];
+         }
+      }
+   }
+}
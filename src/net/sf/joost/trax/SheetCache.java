@@ -0,0 +1,534 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is agent.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+
+package net.sf.joost.trax;
+
+import net.sf.joost.OptionalLog;
+import net.sf.joost.instruction.TransformFactory;
+import net.sf.joost.stx.ParseContext;
+import net.sf.joost.stx.Parser;
+import net.sf.joost.stx.Processor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Serializable;
+import java.io.StringReader;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Vector;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.URIResolver;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.commons.logging.Log;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+
+/**
+ * A directory containing compiled transformation sheets in serialized
+ * form (see {@link TrAXConstants#SHEET_CACHE_DIRECTORY}). The file name
+ * of a compiled sheet is a hash of its system identifier, its contents
+ * and the parse options. The file also records the hashes of all included
+ * sheets; if one of them has changed, the sheet will be parsed again.
+ * Included sheets will be resolved like <code>stx:include</code> does,
+ * i.e. using the URIResolver of the factory.
+ * <p>
+ * Sheets that can't be serialized (for example sheets that contain
+ * <code>stx:script</code> elements) won't be cached.
+ * <p>
+ * Only the classes of Joost and the few classes of the Java platform that
+ * make up a compiled sheet will be deserialized (see
+ * {@link #isAccepted}). Nevertheless, the cache directory must not be
+ * writable by anyone who isn't trusted to change the transformation
+ * sheets.
+ * @version $Revision$ $Date$
+ * @author agent
+ */
+final class SheetCache
+{
+   // Log initialization
+   private static Log log = OptionalLog.getLog(SheetCache.class);
+
+   /**
+    * Identifies the file format. The serialized classes will be checked
+    * by the serialization mechanism.
+    */
+   private static final String FORMAT = "Joost compiled sheet 2";
+
+   /** The file name extension of the compiled sheets */
+   private static final String EXTENSION = ".stxc";
+
+   /**
+    * The serializable classes outside of the package
+    * <code>net.sf.joost</code> that may occur in a compiled sheet
+    */
+   private static final HashSet ACCEPTED_CLASSES = new HashSet();
+   static {
+      String[] names = {
+         "java.lang.Boolean", "java.lang.Character", "java.lang.Class",
+         "java.lang.Double", "java.lang.Float", "java.lang.Integer",
+         "java.lang.Long", "java.lang.Number", "java.lang.Short",
+         "java.lang.Byte", "java.lang.String", "java.math.BigDecimal",
+         "java.math.BigInteger", "java.util.ArrayList", "java.util.HashMap",
+         "java.util.HashSet", "java.util.Hashtable",
+         "java.util.LinkedList", "java.util.Stack", "java.util.Vector",
+         "java.util.regex.Pattern"
+      };
+      for (int i=0; i<names.length; i++)
+         ACCEPTED_CLASSES.add(names[i]);
+   }
+
+   /** The cache directory */
+   private File directory;
+
+
+   /**
+    * Constructs a cache.
+    * @param directory the cache directory, will be created if necessary
+    */
+   SheetCache(File directory)
+   {
+      this.directory = directory;
+   }
+
+
+   /**
+    * Returns the compiled transformation sheet for a source, either from
+    * the cache or by parsing the sheet. A newly parsed sheet will be
+    * stored in the cache.
+    * @param reader the parser for reading the sheet, may be
+    *        <code>null</code>
+    * @param isource the source of the sheet
+    * @param pContext the parse context
+    * @return the root node of the sheet
+    */
+   TransformFactory.Instance getTransformNode(XMLReader reader,
+                                              InputSource isource,
+                                              ParseContext pContext)
+      throws IOException, SAXException
+   {
+      String key = null;
+      byte[] contents = readContents(isource);
+      if (contents != null) {
+         String systemId = isource.getSystemId();
+         if (systemId != null)
+            systemId = toURL(systemId).toExternalForm();
+         key = hash(new byte[][] {
+                  (systemId + " " +
+                   pContext.allowExternalFunctions + " " +
+                   pContext.compileExpressions).getBytes("UTF-8"),
+                  contents });
+         TransformFactory.Instance transformNode =
+            load(key, pContext.uriResolver);
+         if (transformNode != null)
+            return transformNode;
+      }
+
+      // parse the sheet
+      if (reader == null)
+         reader = Processor.createXMLReader();
+      Parser stxParser = new Parser(pContext);
+      reader.setContentHandler(stxParser);
+      reader.setErrorHandler(pContext.getErrorHandler());
+      Vector includes = new Vector();
+      pContext.includedSheets = includes;
+      reader.parse(isource);
+      pContext.includedSheets = null;
+
+      if (key != null)
+         store(key, stxParser.getTransformNode(), includes,
+               pContext.uriResolver);
+      return stxParser.getTransformNode();
+   }
+
+
+   /**
+    * Reads the contents of a sheet into memory and replaces the stream of
+    * the source by a stream on these contents.
+    * @return the contents, or <code>null</code> if the sheet has
+    *         neither a stream nor a system identifier
+    */
+   private static byte[] readContents(InputSource isource)
+      throws IOException
+   {
+      Reader chars = isource.getCharacterStream();
+      if (chars != null) {
+         StringBuffer buffer = new StringBuffer();
+         char[] cbuf = new char[4096];
+         int length;
+         while ((length = chars.read(cbuf)) != -1)
+            buffer.append(cbuf, 0, length);
+         String s = buffer.toString();
+         isource.setCharacterStream(new StringReader(s));
+         return s.getBytes("UTF-8");
+      }
+      InputStream in = isource.getByteStream();
+      if (in == null) {
+         if (isource.getSystemId() == null)
+            return null;
+         in = toURL(isource.getSystemId()).openStream();
+      }
+      byte[] bytes = readFully(in);
+      isource.setByteStream(new ByteArrayInputStream(bytes));
+      return bytes;
+   }
+
+
+   /**
+    * @return the URL for a system identifier, which may be a relative
+    *         file name (as accepted by XML parsers)
+    */
+   static URL toURL(String systemId)
+      throws MalformedURLException
+   {
+      try {
+         return new URL(systemId);
+      }
+      catch (MalformedURLException ex) {
+         return new File(systemId).toURI().toURL();
+      }
+   }
+
+
+   /** Reads a stream completely and closes it */
+   private static byte[] readFully(InputStream in)
+      throws IOException
+   {
+      try {
+         ByteArrayOutputStream out = new ByteArrayOutputStream();
+         byte[] buffer = new byte[4096];
+         int length;
+         while ((length = in.read(buffer)) != -1)
+            out.write(buffer, 0, length);
+         return out.toByteArray();
+      }
+      finally {
+         in.close();
+      }
+   }
+
+
+   /** @return the hash of the concatenated arrays in hexadecimal form */
+   private static String hash(byte[][] data)
+   {
+      MessageDigest digest;
+      try {
+         digest = MessageDigest.getInstance("SHA-1");
+      }
+      catch (NoSuchAlgorithmException ex) {
+         // every Java platform is required to support SHA-1
+         throw new IllegalStateException(ex.toString());
+      }
+      for (int i=0; i<data.length; i++)
+         digest.update(data[i]);
+      byte[] bytes = digest.digest();
+      StringBuffer sb = new StringBuffer(bytes.length * 2);
+      for (int i=0; i<bytes.length; i++) {
+         sb.append(Character.forDigit((bytes[i] >> 4) & 0xF, 16));
+         sb.append(Character.forDigit(bytes[i] & 0xF, 16));
+      }
+      return sb.toString();
+   }
+
+
+   /**
+    * Computes the hash of an included sheet, which will be resolved in
+    * the same way as by <code>stx:include</code>.
+    * @param href the <code>href</code> attribute of
+    *        <code>stx:include</code>
+    * @param base the system identifier of the including sheet
+    * @param resolver the URIResolver of the factory, may be
+    *        <code>null</code>
+    * @return the hash of the contents, or <code>null</code> if the sheet
+    *         isn't given as stream or system identifier
+    */
+   private static String hashInclude(String href, String base,
+                                     URIResolver resolver)
+      throws IOException, TransformerException
+   {
+      InputSource isource;
+      Source source;
+      if (resolver != null &&
+          (source = resolver.resolve(href, base)) != null) {
+         if (!(source instanceof StreamSource ||
+               source instanceof SAXSource))
+            return null; // for example a DOMSource
+         isource = TrAXHelper.getSAXSource(source, null).getInputSource();
+         if (isource == null)
+            return null;
+      }
+      else
+         isource = new InputSource(
+            new URL(new URL(base), href).toExternalForm());
+      byte[] contents = readContents(isource);
+      if (contents == null)
+         return null;
+      return hash(new byte[][] { contents });
+   }
+
+
+   /**
+    * Reads a compiled sheet from the cache.
+    * @param key the key of the sheet
+    * @param resolver the URIResolver for the included sheets
+    * @return the root node of the sheet, or <code>null</code> if the
+    *         sheet is not in the cache or if one of the included sheets
+    *         has been changed
+    */
+   private TransformFactory.Instance load(String key, URIResolver resolver)
+   {
+      File file = new File(directory, key + EXTENSION);
+      if (!file.exists())
+         return null;
+      ObjectInputStream in = null;
+      try {
+         in = new SheetInputStream(
+            new BufferedInputStream(new FileInputStream(file)));
+         if (!FORMAT.equals(in.readObject()))
+            return null;
+         String[] hrefs = (String[])in.readObject();
+         String[] bases = (String[])in.readObject();
+         String[] hashes = (String[])in.readObject();
+         for (int i=0; i<hrefs.length; i++) {
+            if (!hashes[i].equals(hashInclude(hrefs[i], bases[i],
+                                              resolver))) {
+               if (log != null)
+                  log.debug("Included sheet " + hrefs[i] + " (base " +
+                            bases[i] + ") has been changed");
+               return null;
+            }
+         }
+         TransformFactory.Instance transformNode =
+            (TransformFactory.Instance)in.readObject();
+         if (log != null)
+            log.debug("Read compiled sheet " + file);
+         return transformNode;
+      }
+      catch (Exception ex) {
+         // the file is corrupt or has been created by another version
+         if (log != null)
+            log.debug("Can't read compiled sheet " + file + ": " + ex);
+         return null;
+      }
+      finally {
+         if (in != null) {
+            try {
+               in.close();
+            }
+            catch (IOException ex) { }
+         }
+      }
+   }
+
+
+   /**
+    * Writes a compiled sheet to the cache. A temporary file will be
+    * renamed when complete, so other processes never read an incomplete
+    * file.
+    * @param key the key of the sheet
+    * @param transformNode the root node of the sheet
+    * @param includes the <code>href</code> attributes and base URIs of
+    *        all included sheets (see {@link ParseContext#includedSheets})
+    * @param resolver the URIResolver for the included sheets
+    */
+   private void store(String key, TransformFactory.Instance transformNode,
+                      Vector includes, URIResolver resolver)
+   {
+      File tmp = null;
+      ObjectOutputStream out = null;
+      try {
+         String[] hrefs = new String[includes.size()];
+         String[] bases = new String[hrefs.length];
+         String[] hashes = new String[hrefs.length];
+         for (int i=0; i<hrefs.length; i++) {
+            String[] include = (String[])includes.elementAt(i);
+            hrefs[i] = include[0];
+            bases[i] = include[1];
+            if (bases[i] == null ||
+                (hashes[i] = hashInclude(hrefs[i], bases[i],
+                                         resolver)) == null) {
+               if (log != null)
+                  log.debug("Not caching a sheet that includes a sheet " +
+                            "without system identifier");
+               return;
+            }
+         }
+
+         directory.mkdirs();
+         tmp = File.createTempFile(key, ".tmp", directory);
+         out = new SheetOutputStream(
+            new BufferedOutputStream(new FileOutputStream(tmp)));
+         out.writeObject(FORMAT);
+         out.writeObject(hrefs);
+         out.writeObject(bases);
+         out.writeObject(hashes);
+         out.writeObject(transformNode);
+         out.close();
+         out = null;
+
+         File file = new File(directory, key + EXTENSION);
+         if (!tmp.renameTo(file)) {
+            // another process may have stored the same sheet
+            file.delete();
+            if (!tmp.renameTo(file))
+               throw new IOException("Can't rename " + tmp + " to " + file);
+         }
+         tmp = null;
+         if (log != null)
+            log.debug("Stored compiled sheet " + file);
+      }
+      catch (IOException ex) {
+         // NotSerializableException for stx:script
+         if (log != null)
+            log.warn("Can't store compiled sheet in " + directory + ": " +
+                     ex);
+      }
+      catch (TransformerException ex) {
+         // thrown by the URIResolver
+         if (log != null)
+            log.warn("Can't store compiled sheet in " + directory + ": " +
+                     ex);
+      }
+      finally {
+         if (out != null) {
+            try {
+               out.close();
+            }
+            catch (IOException ex) { }
+         }
+         if (tmp != null)
+            tmp.delete();
+      }
+   }
+
+
+   /**
+    * Determines whether objects of a class may be stored in and read from
+    * the cache: classes of Joost, the accepted classes of the Java
+    * platform, arrays of these and of primitive types, and classes that
+    * aren't serializable (for example the classes of extension functions
+    * referenced by the compiled sheet), because the serialization
+    * mechanism never creates objects of them.
+    * @param c the class
+    */
+   private static boolean isAccepted(Class c)
+   {
+      while (c.isArray())
+         c = c.getComponentType();
+      return c.isPrimitive() ||
+             c.getName().startsWith("net.sf.joost.") ||
+             ACCEPTED_CLASSES.contains(c.getName()) ||
+             !Serializable.class.isAssignableFrom(c);
+   }
+
+
+   /** The stream for writing compiled sheets, see {@link #isAccepted} */
+   private static final class SheetOutputStream extends ObjectOutputStream
+   {
+      SheetOutputStream(OutputStream out)
+         throws IOException
+      {
+         super(out);
+      }
+
+      protected void annotateClass(Class c)
+         throws IOException
+      {
+         if (!isAccepted(c))
+            throw new NotSerializableException(c.getName());
+      }
+   }
+
+
+   /**
+    * The stream for reading compiled sheets. Strings will be interned
+    * (as they are when parsing a sheet), classes will be loaded by the
+    * context class loader (as extension functions are). Classes that
+    * haven't been accepted by {@link #isAccepted} will be rejected.
+    */
+   private static final class SheetInputStream extends ObjectInputStream
+   {
+      SheetInputStream(InputStream in)
+         throws IOException
+      {
+         super(in);
+         enableResolveObject(true);
+      }
+
+      protected Object resolveObject(Object obj)
+      {
+         if (obj instanceof String)
+            return ((String)obj).intern();
+         return obj;
+      }
+
+      protected Class resolveClass(ObjectStreamClass desc)
+         throws IOException, ClassNotFoundException
+      {
+         Class c = null;
+         ClassLoader loader = Thread.currentThread().getContextClassLoader();
+         if (loader != null) {
+            try {
+               c = Class.forName(desc.getName(), false, loader);
+            }
+            catch (ClassNotFoundException ex) { }
+         }
+         if (c == null)
+            c = super.resolveClass(desc);
+         if (!isAccepted(c))
+            throw new InvalidClassException(desc.getName(),
+                                            "not part of a compiled sheet");
+         return c;
+      }
+
+      protected Class resolveProxyClass(String[] interfaces)
+         throws IOException, ClassNotFoundException
+      {
+         throw new InvalidClassException("proxy class",
+                                         "not part of a compiled sheet");
+      }
+   }
+}
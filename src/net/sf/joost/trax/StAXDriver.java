@@ -0,0 +1,618 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is agent.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+
+package net.sf.joost.trax;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.Characters;
+import javax.xml.stream.events.Comment;
+import javax.xml.stream.events.EndElement;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.ProcessingInstruction;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.DTDHandler;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.DefaultHandler;
+
+
+/**
+ * A (pseudo-)SAX driver for StAX input. This class pulls the events from
+ * an <code>XMLStreamReader</code> or an <code>XMLEventReader</code> and
+ * passes them to the content handler (usually a
+ * {@link net.sf.joost.stx.Processor}), just like {@link DOMDriver} does
+ * for DOM input.
+ * <p>
+ * For an <code>XMLStreamReader</code> no intermediate objects will be
+ * created: text is passed as a slice of the character array of the
+ * reader, and the attributes of an element are passed as a view of the
+ * reader's current attributes, which will only be read if the handler
+ * asks for them.
+ * <p>
+ * Besides {@link #parse(InputSource)}, which processes the whole
+ * document, {@link #parseEvents} processes a limited number of events
+ * and returns, so a transformation may be interleaved with other tasks.
+ * @version $Revision$ $Date$
+ * @author agent
+ */
+public class StAXDriver implements XMLReader, Locator
+{
+   private static final String FEATURE = "http://xml.org/sax/features/";
+   private static final String LEXICAL_HANDLER =
+      "http://xml.org/sax/properties/lexical-handler";
+
+   /** The stream reader, <code>null</code> if {@link #eventReader} is used */
+   private XMLStreamReader streamReader;
+
+   /** The event reader, <code>null</code> if {@link #streamReader} is used */
+   private XMLEventReader eventReader;
+
+   private ContentHandler contentHandler = new DefaultHandler();
+   private LexicalHandler lexicalHandler;
+   private ErrorHandler errorHandler;
+   private String systemId;
+
+   /** The location of the current event */
+   private Location location;
+
+   /** Set after the first event has been reported */
+   private boolean started;
+
+   /** Set after the last event has been reported */
+   private boolean finished;
+
+   /**
+    * Set if the reader was positioned at an element, which is then the
+    * only element reported
+    */
+   private boolean subtree;
+
+   /** Set if the current event of the reader hasn't been reported yet */
+   private boolean pendingEvent;
+
+   /** The current element depth */
+   private int depth;
+
+   /** The view of the attributes of {@link #streamReader} */
+   private StreamAttributes streamAttributes = new StreamAttributes();
+
+   /** The attributes of the current event from {@link #eventReader} */
+   private AttributesImpl eventAttributes = new AttributesImpl();
+
+   /** Buffer for the characters from {@link #eventReader} */
+   private char[] chars = new char[256];
+
+
+   /**
+    * Constructs a driver for an <code>XMLStreamReader</code>.
+    * @param reader the reader, positioned at the start of the document
+    *        or at the start of an element (then only this element will
+    *        be processed)
+    */
+   public StAXDriver(XMLStreamReader reader)
+   {
+      streamReader = reader;
+      location = reader.getLocation();
+      subtree = pendingEvent =
+         reader.getEventType() == XMLStreamConstants.START_ELEMENT;
+   }
+
+
+   /**
+    * Constructs a driver for an <code>XMLEventReader</code>.
+    * @param reader the reader, positioned at the start of the document
+    *        or before the start of an element (then only this element
+    *        will be processed)
+    * @throws XMLStreamException if the first event can't be read
+    */
+   public StAXDriver(XMLEventReader reader)
+      throws XMLStreamException
+   {
+      eventReader = reader;
+      XMLEvent event = reader.peek();
+      subtree = event != null && event.isStartElement();
+   }
+
+
+   /** Sets the system identifier reported by the {@link Locator} */
+   public void setSystemId(String systemId)
+   {
+      this.systemId = systemId;
+   }
+
+
+   //
+   // XMLReader
+   //
+
+   /**
+    * Processes the whole document. The input source will be ignored.
+    */
+   public void parse(InputSource input)
+      throws IOException, SAXException
+   {
+      while (parseEvents(Integer.MAX_VALUE))
+         ;
+   }
+
+
+   /**
+    * Processes the whole document. The system identifier will be ignored.
+    */
+   public void parse(String systemId)
+      throws IOException, SAXException
+   {
+      parse((InputSource)null);
+   }
+
+
+   /**
+    * Processes at most <code>maxEvents</code> events of the document.
+    * The first invocation reports the start of the document.
+    * @param maxEvents the maximal number of events
+    * @return <code>true</code> if the document has more events,
+    *         <code>false</code> if the end of the document has been
+    *         reported
+    */
+   public boolean parseEvents(int maxEvents)
+      throws SAXException
+   {
+      if (finished)
+         return false;
+      if (!started) {
+         started = true;
+         contentHandler.setDocumentLocator(this);
+         contentHandler.startDocument();
+      }
+      try {
+         if (streamReader != null)
+            finished = processStreamEvents(maxEvents);
+         else
+            finished = processEventReader(maxEvents);
+      }
+      catch (XMLStreamException ex) {
+         SAXParseException spe = new SAXParseException(ex.getMessage(),
+                                                       this, ex);
+         if (errorHandler != null)
+            errorHandler.fatalError(spe);
+         throw spe;
+      }
+      if (finished)
+         contentHandler.endDocument();
+      return !finished;
+   }
+
+
+   /**
+    * Reports at most <code>maxEvents</code> events from
+    * {@link #streamReader}.
+    * @return <code>true</code> if the end of the document has been reached
+    */
+   private boolean processStreamEvents(int maxEvents)
+      throws XMLStreamException, SAXException
+   {
+      XMLStreamReader reader = streamReader;
+      for (int count = 0; count < maxEvents; count++) {
+         int type;
+         if (pendingEvent) {
+            type = reader.getEventType();
+            pendingEvent = false;
+         }
+         else {
+            if (!reader.hasNext())
+               return true;
+            type = reader.next();
+         }
+         location = reader.getLocation();
+         switch (type) {
+         case XMLStreamConstants.START_ELEMENT: {
+            depth++;
+            int nsCount = reader.getNamespaceCount();
+            for (int i=0; i<nsCount; i++)
+               contentHandler.startPrefixMapping(
+                  nonNull(reader.getNamespacePrefix(i)),
+                  nonNull(reader.getNamespaceURI(i)));
+            String prefix = reader.getPrefix();
+            String lName = reader.getLocalName();
+            contentHandler.startElement(
+               nonNull(reader.getNamespaceURI()), lName,
+               prefix == null || prefix.length() == 0
+                  ? lName : prefix + ":" + lName,
+               streamAttributes);
+            break;
+         }
+         case XMLStreamConstants.END_ELEMENT: {
+            String prefix = reader.getPrefix();
+            String lName = reader.getLocalName();
+            contentHandler.endElement(
+               nonNull(reader.getNamespaceURI()), lName,
+               prefix == null || prefix.length() == 0
+                  ? lName : prefix + ":" + lName);
+            int nsCount = reader.getNamespaceCount();
+            for (int i=0; i<nsCount; i++)
+               contentHandler.endPrefixMapping(
+                  nonNull(reader.getNamespacePrefix(i)));
+            if (--depth == 0 && subtree)
+               return true;
+            break;
+         }
+         case XMLStreamConstants.CHARACTERS:
+         case XMLStreamConstants.SPACE:
+            contentHandler.characters(reader.getTextCharacters(),
+                                      reader.getTextStart(),
+                                      reader.getTextLength());
+            break;
+         case XMLStreamConstants.CDATA:
+            if (lexicalHandler != null)
+               lexicalHandler.startCDATA();
+            contentHandler.characters(reader.getTextCharacters(),
+                                      reader.getTextStart(),
+                                      reader.getTextLength());
+            if (lexicalHandler != null)
+               lexicalHandler.endCDATA();
+            break;
+         case XMLStreamConstants.COMMENT:
+            if (lexicalHandler != null)
+               lexicalHandler.comment(reader.getTextCharacters(),
+                                      reader.getTextStart(),
+                                      reader.getTextLength());
+            break;
+         case XMLStreamConstants.PROCESSING_INSTRUCTION:
+            contentHandler.processingInstruction(reader.getPITarget(),
+                                                 nonNull(reader.getPIData()));
+            break;
+         case XMLStreamConstants.END_DOCUMENT:
+            return true;
+         default:
+            // DTD, entity references (not replaced): ignore
+            break;
+         }
+      }
+      return !reader.hasNext();
+   }
+
+
+   /**
+    * Reports at most <code>maxEvents</code> events from
+    * {@link #eventReader}.
+    * @return <code>true</code> if the end of the document has been reached
+    */
+   private boolean processEventReader(int maxEvents)
+      throws XMLStreamException, SAXException
+   {
+      XMLEventReader reader = eventReader;
+      for (int count = 0; count < maxEvents; count++) {
+         if (!reader.hasNext())
+            return true;
+         XMLEvent event = reader.nextEvent();
+         location = event.getLocation();
+         switch (event.getEventType()) {
+         case XMLStreamConstants.START_ELEMENT: {
+            depth++;
+            StartElement element = event.asStartElement();
+            for (Iterator it = element.getNamespaces(); it.hasNext(); ) {
+               Namespace ns = (Namespace)it.next();
+               contentHandler.startPrefixMapping(nonNull(ns.getPrefix()),
+                                                 nonNull(ns.getNamespaceURI()));
+            }
+            eventAttributes.clear();
+            for (Iterator it = element.getAttributes(); it.hasNext(); ) {
+               Attribute att = (Attribute)it.next();
+               QName name = att.getName();
+               eventAttributes.addAttribute(
+                  nonNull(name.getNamespaceURI()), name.getLocalPart(),
+                  getQName(name), nonNull(att.getDTDType()), att.getValue());
+            }
+            QName name = element.getName();
+            contentHandler.startElement(nonNull(name.getNamespaceURI()),
+                                        name.getLocalPart(), getQName(name),
+                                        eventAttributes);
+            break;
+         }
+         case XMLStreamConstants.END_ELEMENT: {
+            EndElement element = event.asEndElement();
+            QName name = element.getName();
+            contentHandler.endElement(nonNull(name.getNamespaceURI()),
+                                      name.getLocalPart(), getQName(name));
+            for (Iterator it = element.getNamespaces(); it.hasNext(); )
+               contentHandler.endPrefixMapping(
+                  nonNull(((Namespace)it.next()).getPrefix()));
+            if (--depth == 0 && subtree)
+               return true;
+            break;
+         }
+         case XMLStreamConstants.CHARACTERS:
+         case XMLStreamConstants.SPACE:
+         case XMLStreamConstants.CDATA: {
+            Characters text = event.asCharacters();
+            String data = text.getData();
+            int length = data.length();
+            if (length > chars.length)
+               chars = new char[length];
+            data.getChars(0, length, chars, 0);
+            boolean cdata = text.isCData() && lexicalHandler != null;
+            if (cdata)
+               lexicalHandler.startCDATA();
+            contentHandler.characters(chars, 0, length);
+            if (cdata)
+               lexicalHandler.endCDATA();
+            break;
+         }
+         case XMLStreamConstants.COMMENT:
+            if (lexicalHandler != null) {
+               String data = ((Comment)event).getText();
+               lexicalHandler.comment(data.toCharArray(), 0, data.length());
+            }
+            break;
+         case XMLStreamConstants.PROCESSING_INSTRUCTION: {
+            ProcessingInstruction pi = (ProcessingInstruction)event;
+            contentHandler.processingInstruction(pi.getTarget(),
+                                                 nonNull(pi.getData()));
+            break;
+         }
+         case XMLStreamConstants.END_DOCUMENT:
+            return true;
+         default:
+            break;
+         }
+      }
+      return !reader.hasNext();
+   }
+
+
+   /** @return the qualified name for a <code>QName</code> */
+   private static String getQName(QName name)
+   {
+      String prefix = name.getPrefix();
+      return prefix == null || prefix.length() == 0
+                ? name.getLocalPart()
+                : prefix + ":" + name.getLocalPart();
+   }
+
+
+   /** @return the empty string instead of <code>null</code> */
+   private static String nonNull(String s)
+   {
+      return s != null ? s : "";
+   }
+
+
+   public boolean getFeature(String name)
+      throws SAXNotRecognizedException
+   {
+      if ((FEATURE + "namespaces").equals(name))
+         return true;
+      if ((FEATURE + "namespace-prefixes").equals(name))
+         return false;
+      throw new SAXNotRecognizedException(name);
+   }
+
+
+   public void setFeature(String name, boolean value)
+      throws SAXNotRecognizedException, SAXNotSupportedException
+   {
+      if (getFeature(name) != value)
+         throw new SAXNotSupportedException(name + " can't be set to " +
+                                            value);
+   }
+
+
+   public Object getProperty(String name)
+      throws SAXNotRecognizedException
+   {
+      if (LEXICAL_HANDLER.equals(name))
+         return lexicalHandler;
+      throw new SAXNotRecognizedException(name);
+   }
+
+
+   public void setProperty(String name, Object value)
+      throws SAXNotRecognizedException, SAXNotSupportedException
+   {
+      if (LEXICAL_HANDLER.equals(name)) {
+         if (value != null && !(value instanceof LexicalHandler))
+            throw new SAXNotSupportedException(
+               "Lexical handler must implement " +
+               LexicalHandler.class.getName());
+         lexicalHandler = (LexicalHandler)value;
+      }
+      else
+         throw new SAXNotRecognizedException(name);
+   }
+
+
+   public void setContentHandler(ContentHandler handler)
+   {
+      contentHandler = handler;
+   }
+
+   public ContentHandler getContentHandler()
+   {
+      return contentHandler;
+   }
+
+   public void setErrorHandler(ErrorHandler handler)
+   {
+      errorHandler = handler;
+   }
+
+   public ErrorHandler getErrorHandler()
+   {
+      return errorHandler;
+   }
+
+   public void setEntityResolver(EntityResolver resolver)
+   { }
+
+   public EntityResolver getEntityResolver()
+   {
+      return null;
+   }
+
+   public void setDTDHandler(DTDHandler handler)
+   { }
+
+   public DTDHandler getDTDHandler()
+   {
+      return null;
+   }
+
+
+   //
+   // Locator
+   //
+
+   public String getPublicId()
+   {
+      return location != null ? location.getPublicId() : null;
+   }
+
+   public String getSystemId()
+   {
+      String id = location != null ? location.getSystemId() : null;
+      return id != null ? id : systemId;
+   }
+
+   public int getLineNumber()
+   {
+      return location != null ? location.getLineNumber() : -1;
+   }
+
+   public int getColumnNumber()
+   {
+      return location != null ? location.getColumnNumber() : -1;
+   }
+
+
+   /**
+    * The attributes of the current element of {@link #streamReader}.
+    * This is a view of the reader, no values will be copied.
+    */
+   private final class StreamAttributes implements Attributes
+   {
+      public int getLength()
+      {
+         return streamReader.getAttributeCount();
+      }
+
+      public String getURI(int index)
+      {
+         if (index < 0 || index >= getLength())
+            return null;
+         return nonNull(streamReader.getAttributeNamespace(index));
+      }
+
+      public String getLocalName(int index)
+      {
+         if (index < 0 || index >= getLength())
+            return null;
+         return streamReader.getAttributeLocalName(index);
+      }
+
+      public String getQName(int index)
+      {
+         if (index < 0 || index >= getLength())
+            return null;
+         String prefix = streamReader.getAttributePrefix(index);
+         String lName = streamReader.getAttributeLocalName(index);
+         return prefix == null || prefix.length() == 0
+                   ? lName : prefix + ":" + lName;
+      }
+
+      public String getType(int index)
+      {
+         if (index < 0 || index >= getLength())
+            return null;
+         return nonNull(streamReader.getAttributeType(index));
+      }
+
+      public String getValue(int index)
+      {
+         if (index < 0 || index >= getLength())
+            return null;
+         return streamReader.getAttributeValue(index);
+      }
+
+      public int getIndex(String uri, String localName)
+      {
+         int length = getLength();
+         for (int i=0; i<length; i++)
+            if (streamReader.getAttributeLocalName(i).equals(localName) &&
+                getURI(i).equals(uri))
+               return i;
+         return -1;
+      }
+
+      public int getIndex(String qName)
+      {
+         int length = getLength();
+         for (int i=0; i<length; i++)
+            if (getQName(i).equals(qName))
+               return i;
+         return -1;
+      }
+
+      public String getType(String uri, String localName)
+      {
+         return getType(getIndex(uri, localName));
+      }
+
+      public String getType(String qName)
+      {
+         return getType(getIndex(qName));
+      }
+
+      public String getValue(String uri, String localName)
+      {
+         return getValue(getIndex(uri, localName));
+      }
+
+      public String getValue(String qName)
+      {
+         return getValue(getIndex(qName));
+      }
+   }
+}
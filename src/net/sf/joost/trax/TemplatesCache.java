@@ -0,0 +1,335 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is agent.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+
+package net.sf.joost.trax;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.URIResolver;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stream.StreamSource;
+
+import org.xml.sax.InputSource;
+
+
+/**
+ * A cache of {@link Templates} objects used by the
+ * {@link TransformerFactoryImpl} (see
+ * {@link TrAXConstants#TEMPLATES_CACHE_SIZE}). The key of a cached
+ * object is the resolved system identifier of the sheet together with
+ * the URI resolver of the factory. Only sources that consist of a system
+ * identifier alone will be cached.
+ * <p>
+ * The entries are distributed among several independently locked
+ * stripes, each of them evicting its least recently used entry when
+ * full. The sheet will be compiled again if its file has been modified
+ * since the last compilation; the modification time of included sheets
+ * and of sheets that aren't files won't be checked.
+ * @version $Revision$ $Date$
+ * @author agent
+ */
+public final class TemplatesCache
+{
+   /** The number of stripes */
+   private static final int STRIPES = 16;
+
+   /** The stripes, each of them is used as lock for its own data */
+   private Stripe[] stripes;
+
+   /** The maximal number of cached objects */
+   private int maxSize;
+
+
+   /**
+    * Constructs a cache.
+    * @param maxSize the maximal number of cached objects
+    */
+   TemplatesCache(int maxSize)
+   {
+      this.maxSize = maxSize;
+      stripes = new Stripe[Math.min(STRIPES, maxSize)];
+      for (int i=0; i<stripes.length; i++)
+         // distribute maxSize among the stripes
+         stripes[i] = new Stripe((maxSize + i) / stripes.length);
+   }
+
+
+   /**
+    * Determines the key of a source.
+    * @return the resolved system identifier of the source, or
+    *         <code>null</code> if the source can't be cached
+    */
+   static String getSystemId(Source source)
+   {
+      String systemId = null;
+      if (source instanceof StreamSource) {
+         StreamSource ss = (StreamSource)source;
+         if (ss.getInputStream() == null && ss.getReader() == null)
+            systemId = ss.getSystemId();
+      }
+      else if (source instanceof SAXSource) {
+         SAXSource ss = (SAXSource)source;
+         InputSource is = ss.getInputSource();
+         if (ss.getXMLReader() == null && is != null &&
+             is.getByteStream() == null && is.getCharacterStream() == null)
+            systemId = is.getSystemId();
+      }
+      if (systemId == null)
+         return null;
+      try {
+         return SheetCache.toURL(systemId).toExternalForm();
+      }
+      catch (MalformedURLException ex) {
+         return null;
+      }
+   }
+
+
+   /**
+    * Returns the <code>Templates</code> object for a sheet, compiles the
+    * sheet if necessary. Concurrent requests for the same sheet wait for
+    * a single compilation.
+    * @param systemId the resolved system identifier (see
+    *        {@link #getSystemId})
+    * @param source the source of the sheet
+    * @param factory the factory that compiles the sheet
+    * @return the <code>Templates</code> object, or <code>null</code> if
+    *         an error occurred (no user defined ErrorListener)
+    */
+   Templates getTemplates(String systemId, Source source,
+                          TransformerFactoryImpl factory)
+      throws TransformerConfigurationException
+   {
+      Key key = new Key(systemId, factory.getURIResolver());
+      Stripe stripe = stripes[(key.hashCode() & 0x7FFFFFFF) % stripes.length];
+      Entry entry;
+      synchronized (stripe) {
+         entry = (Entry)stripe.get(key);
+         if (entry == null) {
+            entry = new Entry(getFile(systemId));
+            stripe.put(key, entry);
+         }
+      }
+
+      synchronized (entry) {
+         long modified = entry.file != null ? entry.file.lastModified() : 0;
+         if (entry.templates != null && entry.lastModified == modified) {
+            synchronized (stripe) {
+               stripe.hits++;
+            }
+            return entry.templates;
+         }
+
+         long start = System.currentTimeMillis();
+         Templates templates = null;
+         try {
+            templates = factory.compileTemplates(source);
+         }
+         finally {
+            synchronized (stripe) {
+               stripe.misses++;
+               stripe.compileTime += System.currentTimeMillis() - start;
+               // don't keep entries of sheets that failed to compile
+               if (templates == null && stripe.get(key) == entry)
+                  stripe.remove(key);
+            }
+         }
+         entry.templates = templates;
+         entry.lastModified = modified;
+         return templates;
+      }
+   }
+
+
+   /**
+    * @return the file denoted by a system identifier, <code>null</code>
+    *         if the system identifier is not a file URL
+    */
+   private static File getFile(String systemId)
+   {
+      if (!systemId.startsWith("file:"))
+         return null;
+      try {
+         return new File(new URI(systemId));
+      }
+      catch (URISyntaxException ex) {
+         return null;
+      }
+      catch (IllegalArgumentException ex) {
+         return null;
+      }
+   }
+
+
+   /** @return the maximal number of cached objects */
+   public int getMaxSize()
+   {
+      return maxSize;
+   }
+
+
+   /** @return the current number of cached objects */
+   public int getSize()
+   {
+      int size = 0;
+      for (int i=0; i<stripes.length; i++)
+         synchronized (stripes[i]) {
+            size += stripes[i].size();
+         }
+      return size;
+   }
+
+
+   /** @return the number of requests served from the cache */
+   public long getHits()
+   {
+      long hits = 0;
+      for (int i=0; i<stripes.length; i++)
+         synchronized (stripes[i]) {
+            hits += stripes[i].hits;
+         }
+      return hits;
+   }
+
+
+   /** @return the number of requests that compiled a sheet */
+   public long getMisses()
+   {
+      long misses = 0;
+      for (int i=0; i<stripes.length; i++)
+         synchronized (stripes[i]) {
+            misses += stripes[i].misses;
+         }
+      return misses;
+   }
+
+
+   /** @return the total time in milliseconds spent compiling sheets */
+   public long getCompileTime()
+   {
+      long time = 0;
+      for (int i=0; i<stripes.length; i++)
+         synchronized (stripes[i]) {
+            time += stripes[i].compileTime;
+         }
+      return time;
+   }
+
+
+   /** Removes all cached objects, the statistics remain unchanged */
+   public void clear()
+   {
+      for (int i=0; i<stripes.length; i++)
+         synchronized (stripes[i]) {
+            stripes[i].clear();
+         }
+   }
+
+
+   public String toString()
+   {
+      return "TemplatesCache[size=" + getSize() + "/" + maxSize +
+             ", hits=" + getHits() + ", misses=" + getMisses() +
+             ", compileTime=" + getCompileTime() + "ms]";
+   }
+
+
+   /** A part of the cache, a map from {@link Key} to {@link Entry} */
+   private static final class Stripe extends LinkedHashMap
+   {
+      /** The maximal number of entries */
+      private int capacity;
+
+      /** Statistics */
+      long hits, misses, compileTime;
+
+      Stripe(int capacity)
+      {
+         super(16, 0.75f, true); // access order
+         this.capacity = capacity;
+      }
+
+      protected boolean removeEldestEntry(Map.Entry eldest)
+      {
+         return size() > capacity;
+      }
+   }
+
+
+   /** The key of a cached object */
+   private static final class Key
+   {
+      private String systemId;
+      private URIResolver resolver;
+
+      Key(String systemId, URIResolver resolver)
+      {
+         this.systemId = systemId;
+         this.resolver = resolver;
+      }
+
+      public boolean equals(Object obj)
+      {
+         if (!(obj instanceof Key))
+            return false;
+         Key key = (Key)obj;
+         return systemId.equals(key.systemId) && resolver == key.resolver;
+      }
+
+      public int hashCode()
+      {
+         return systemId.hashCode() * 31 + System.identityHashCode(resolver);
+      }
+   }
+
+
+   /**
+    * A cached object. The entry is locked while its sheet will be
+    * compiled.
+    */
+   private static final class Entry
+   {
+      /** The file of the sheet, <code>null</code> if unknown */
+      final File file;
+
+      /** The compiled sheet, <code>null</code> before compilation */
+      Templates templates;
+
+      /** The modification time of {@link #file} when compiled */
+      long lastModified;
+
+      Entry(File file)
+      {
+         this.file = file;
+      }
+   }
+}
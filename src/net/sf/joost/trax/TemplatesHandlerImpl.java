@@ -75,6 +75,7 @@ public class TemplatesHandlerImpl implements TemplatesHandler, Constants {
         // construct a tree representation of an STX stylesheet
         ParseContext pContext = new ParseContext();
         pContext.allowExternalFunctions = tfactory.allowExternalFunctions;
+        pContext.compileExpressions = tfactory.compileExpressions;
         stxparser = new Parser(pContext);
     }
 
@@ -31,6 +31,7 @@ import net.sf.joost.stx.Parser;
 import net.sf.joost.stx.Processor;
 import net.sf.joost.trace.DebugProcessor;
 
+import java.util.ArrayList;
 import java.util.Properties;
 
 import javax.xml.transform.Templates;
@@ -66,11 +67,11 @@ public class TemplatesImpl implements Templates, TrAXConstants {
      */
     private Processor processor             = null;
 
-    /**
-     * Synch object to guard against setting values from the TrAX interface
-     * or reentry while the transform is going on.
-     */
-    private Object reentryGuard = new Object();
+    /** The idle transformers, see {@link #acquireTransformer} */
+    private ArrayList transformerPool       = new ArrayList();
+
+    /** The maximal size of {@link #transformerPool} */
+    private int transformerPoolSize         = 0;
 
 
     /**
@@ -84,6 +85,7 @@ public class TemplatesImpl implements Templates, TrAXConstants {
         if (DEBUG)
             log.debug("calling constructor with existing Parser");
         this.factory = factory;
+        this.transformerPoolSize = factory.transformerPoolSize;
         try {
             //configure the template
             init(stxParser);
@@ -110,6 +112,7 @@ public class TemplatesImpl implements Templates, TrAXConstants {
             log.debug("calling constructor with SystemId " +
                       isource.getSystemId());
         this.factory = factory;
+        this.transformerPoolSize = factory.transformerPoolSize;
         try {
             //configure template
             init(reader, isource);
@@ -141,7 +144,12 @@ public class TemplatesImpl implements Templates, TrAXConstants {
                 processor = new DebugProcessor(stxParser);
             } else {
                 processor = new Processor(stxParser);
+                processor.setRecycleEvents(factory.recycleEvents);
+                processor.setSplitPattern(factory.splitPattern);
+                processor.setSplitThreads(factory.splitThreads);
             }
+            processor.setBufferSpillThreshold(factory.bufferSpillThreshold);
+            processor.setDocumentCache(factory.documentCache);
             processor.setTransformerHandlerResolver(factory.thResolver);
             processor.setOutputURIResolver(factory.outputUriResolver);
         } catch (org.xml.sax.SAXException sE) {
@@ -181,6 +189,7 @@ public class TemplatesImpl implements Templates, TrAXConstants {
 
             ParseContext pContext = new ParseContext();
             pContext.allowExternalFunctions = factory.allowExternalFunctions;
+            pContext.compileExpressions = factory.compileExpressions;
             pContext.setErrorListener(factory.getErrorListener());
             pContext.uriResolver = factory.getURIResolver();
             if (debugmode) {
@@ -190,8 +199,18 @@ public class TemplatesImpl implements Templates, TrAXConstants {
                 processor = new DebugProcessor(reader, isource, pContext,
                                                factory.getMessageEmitter());
             } else {
-                processor = new Processor(reader, isource, pContext);
+                if (factory.sheetCache != null)
+                    processor = new Processor(
+                        factory.sheetCache.getTransformNode(reader, isource,
+                                                            pContext));
+                else
+                    processor = new Processor(reader, isource, pContext);
+                processor.setRecycleEvents(factory.recycleEvents);
+                processor.setSplitPattern(factory.splitPattern);
+                processor.setSplitThreads(factory.splitThreads);
             }
+            processor.setBufferSpillThreshold(factory.bufferSpillThreshold);
+            processor.setDocumentCache(factory.documentCache);
             processor.setTransformerHandlerResolver(factory.thResolver);
             processor.setOutputURIResolver(factory.outputUriResolver);
         } catch (java.io.IOException iE) {
@@ -215,28 +234,78 @@ public class TemplatesImpl implements Templates, TrAXConstants {
 
 
     /**
-     * Method returns a Transformer-instance for transformation-process
+     * Method returns a Transformer-instance for transformation-process.
+     * The compiled transformation sheet is shared among all transformers
+     * (it won't be modified while processing), so no synchronization is
+     * necessary here.
      * @return A <code>Transformer</code> object.
      * @throws TransformerConfigurationException
      */
     public Transformer newTransformer() throws TransformerConfigurationException {
 
-        synchronized (reentryGuard) {
-            if (DEBUG)
-                log.debug("calling newTransformer to get a " +
-                          "Transformer object for Transformation");
-            try {
-               // register the processor
-               Transformer transformer = new TransformerImpl(processor.copy());
-               if (factory.getURIResolver() != null)
-                  transformer.setURIResolver(factory.getURIResolver());
-               return transformer;
-            }
-            catch (SAXException e) {
-                if (log != null)
-                    log.fatal(e);
-                throw new TransformerConfigurationException(e.getMessage());
-            }
+        if (DEBUG)
+            log.debug("calling newTransformer to get a " +
+                      "Transformer object for Transformation");
+        try {
+           // register the processor
+           TransformerImpl transformer =
+              new TransformerImpl(processor.copy());
+           transformer.templates = this;
+           if (factory.getURIResolver() != null)
+              transformer.setURIResolver(factory.getURIResolver());
+           return transformer;
+        }
+        catch (SAXException e) {
+            if (log != null)
+                log.fatal(e);
+            throw new TransformerConfigurationException(e.getMessage());
+        }
+    }
+
+
+    /**
+     * Returns an idle transformer that has been passed to
+     * {@link #releaseTransformer} before, or a new transformer if there
+     * is none. Reusing a transformer saves the creation of its processor
+     * and XML parser.
+     * @return A <code>Transformer</code> object.
+     * @throws TransformerConfigurationException
+     */
+    public Transformer acquireTransformer()
+        throws TransformerConfigurationException {
+
+        synchronized (transformerPool) {
+            int size = transformerPool.size();
+            if (size > 0)
+                return (Transformer)transformerPool.remove(size - 1);
+        }
+        return newTransformer();
+    }
+
+
+    /**
+     * Returns a transformer to this <code>Templates</code> object for
+     * reuse by {@link #acquireTransformer}. The transformer will be
+     * reset (see {@link Transformer#reset}) and must not be used by the
+     * caller afterwards. Transformers created by other objects, those in
+     * debug mode, and those exceeding the pool size
+     * ({@link TrAXConstants#TRANSFORMER_POOL_SIZE}) will be discarded.
+     * @param transformer A <code>Transformer</code> object, may also be
+     *        an aborted one
+     */
+    public void releaseTransformer(Transformer transformer) {
+
+        if (!(transformer instanceof TransformerImpl))
+            return;
+        TransformerImpl impl = (TransformerImpl)transformer;
+        if (impl.templates != this ||
+            impl.getStxProcessor() instanceof DebugProcessor)
+            return;
+        impl.reset();
+        synchronized (transformerPool) {
+            if (transformerPool.size() < transformerPoolSize &&
+                !transformerPool.contains(impl))
+                transformerPool.add(impl);
         }
     }
 
@@ -96,6 +96,126 @@ public interface TrAXConstants extends Constants {
     public final static String ALLOW_EXTERNAL_FUNCTIONS =
        "http://joost.sf.net/attributes/allow-external-functions";
 
+    /**
+     * Key for a Joost property that determines whether STXPath expressions
+     * will be optimized by the {@link net.sf.joost.grammar.ExpressionCompiler}
+     * while parsing the transformation sheet. Its property value must be a
+     * Boolean, the default is <code>false</code>.
+     * @see javax.xml.transform.TransformerFactory#setAttribute
+     */
+    public final static String COMPILE_EXPRESSIONS =
+       "http://joost.sf.net/attributes/compile-expressions";
+
+    /**
+     * Key for a Joost property that determines whether the transformers
+     * reuse the objects that represent the nodes of the input (see
+     * {@link net.sf.joost.stx.Processor#setRecycleEvents}). Its property
+     * value must be a Boolean, the default is <code>false</code>.
+     * @see javax.xml.transform.TransformerFactory#setAttribute
+     */
+    public final static String RECYCLE_EVENTS =
+       "http://joost.sf.net/attributes/recycle-events";
+
+    /**
+     * Key for a Joost property that enables the parallel transformation of
+     * independent subtrees (see
+     * {@link net.sf.joost.stx.Processor#setSplitPattern}). Its property
+     * value must be a String containing the split pattern, for example
+     * <code>"/root/record"</code>. The default is <code>null</code>
+     * (serial transformation).
+     * @see javax.xml.transform.TransformerFactory#setAttribute
+     */
+    public final static String SPLIT_PATTERN =
+       "http://joost.sf.net/attributes/split-pattern";
+
+    /**
+     * Key for a Joost property that determines the number of threads used
+     * for the parallel transformation of subtrees (see
+     * {@link #SPLIT_PATTERN}). Its property value must be an Integer, the
+     * default is the number of available processors.
+     * @see javax.xml.transform.TransformerFactory#setAttribute
+     */
+    public final static String SPLIT_THREADS =
+       "http://joost.sf.net/attributes/split-threads";
+
+    /**
+     * Key for a Joost property that determines the number of bytes a
+     * buffer keeps in memory before its contents will be written to a
+     * temporary file (see
+     * {@link net.sf.joost.stx.Processor#setBufferSpillThreshold}). Its
+     * property value must be an Integer, a negative value keeps all
+     * buffers in memory. The default is 64 MB.
+     * @see javax.xml.transform.TransformerFactory#setAttribute
+     */
+    public final static String BUFFER_SPILL_THRESHOLD =
+       "http://joost.sf.net/attributes/buffer-spill-threshold";
+
+    /**
+     * Key for a Joost property that determines a directory for storing
+     * compiled transformation sheets. A sheet that has been compiled
+     * before (with the same contents, system identifier and included
+     * sheets) will be read from this directory instead of being parsed.
+     * Its property value must be a String containing the name of the
+     * directory, the default is <code>null</code> (no caching).
+     * <p>
+     * The files in this directory will be deserialized. Although only
+     * classes that make up a compiled sheet will be accepted, the
+     * directory must be writable only by those who are trusted to provide
+     * the transformation sheets.
+     * @see javax.xml.transform.TransformerFactory#setAttribute
+     */
+    public final static String SHEET_CACHE_DIRECTORY =
+       "http://joost.sf.net/attributes/sheet-cache-directory";
+
+    /**
+     * Key for a Joost property that determines the maximal number of
+     * <code>Templates</code> objects the factory keeps for sheets given
+     * by their system identifier (see {@link TemplatesCache}). Its
+     * property value must be an Integer, the default is 0 (no caching).
+     * The statistics of the cache are available via
+     * {@link TransformerFactoryImpl#getTemplatesCache}.
+     * @see javax.xml.transform.TransformerFactory#setAttribute
+     */
+    public final static String TEMPLATES_CACHE_SIZE =
+       "http://joost.sf.net/attributes/templates-cache-size";
+
+    /**
+     * Key for a Joost property that determines the maximal number of idle
+     * transformers a <code>Templates</code> object keeps for reuse (see
+     * {@link TemplatesImpl#acquireTransformer} and
+     * {@link TemplatesImpl#releaseTransformer}). Its property value must
+     * be an Integer, the default is 16.
+     * @see javax.xml.transform.TransformerFactory#setAttribute
+     */
+    public final static String TRANSFORMER_POOL_SIZE =
+       "http://joost.sf.net/attributes/transformer-pool-size";
+
+    /**
+     * Key for a Joost property that determines the maximal number of
+     * documents processed by <code>stx:process-document</code> the factory
+     * keeps in memory (see {@link net.sf.joost.stx.DocumentCache}). Its
+     * property value must be an Integer, the default is 0 (no caching).
+     * The statistics of the cache are available via
+     * {@link TransformerFactoryImpl#getDocumentCache}.
+     * @see javax.xml.transform.TransformerFactory#setAttribute
+     */
+    public final static String DOCUMENT_CACHE_SIZE =
+       "http://joost.sf.net/attributes/document-cache-size";
+
+    /**
+     * Key for a Joost property that determines the number of threads that
+     * parse the documents of a sequence passed to
+     * <code>stx:process-document</code> ahead of time. It will be used
+     * only if the document cache is enabled (see
+     * {@link #DOCUMENT_CACHE_SIZE}). Its property value must be an
+     * Integer, 0 disables parsing ahead; the default is the number of
+     * available processors. Idle threads terminate after
+     * {@link net.sf.joost.stx.DocumentCache#IDLE_TIMEOUT} milliseconds.
+     * @see javax.xml.transform.TransformerFactory#setAttribute
+     */
+    public final static String DOCUMENT_PREFETCH_THREADS =
+       "http://joost.sf.net/attributes/document-prefetch-threads";
+
     /**
      * Key for a Joost output property that determines whether the PIs for
      * controlling disable-output-escaping
@@ -44,6 +44,7 @@ import java.net.URLConnection;
 import java.util.Properties;
 
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
 import javax.xml.transform.ErrorListener;
 import javax.xml.transform.Result;
 import javax.xml.transform.Source;
@@ -53,6 +54,7 @@ import javax.xml.transform.dom.DOMResult;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.sax.SAXResult;
 import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stax.StAXSource;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 
@@ -317,6 +319,24 @@ public class TrAXHelper implements TrAXConstants {
             InputSource isource =
                     getInputSourceForStreamSources(source, errorListener);
             return new SAXSource(isource);
+        }
+        //StAXSource
+        if (source instanceof StAXSource) {
+            if (DEBUG)
+                log.debug("source is an instance of StAXSource");
+            StAXSource staxSource = (StAXSource)source;
+            StAXDriver driver;
+            if (staxSource.getXMLStreamReader() != null)
+                driver = new StAXDriver(staxSource.getXMLStreamReader());
+            else {
+                try {
+                    driver = new StAXDriver(staxSource.getXMLEventReader());
+                } catch (XMLStreamException xE) {
+                    throw new TransformerException(xE);
+                }
+            }
+            driver.setSystemId(source.getSystemId());
+            return new SAXSource(driver, new InputSource(source.getSystemId()));
         } else {
             String errMsg = "Unknown type of source";
             if (log != null)
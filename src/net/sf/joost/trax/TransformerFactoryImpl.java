@@ -27,11 +27,14 @@ package net.sf.joost.trax;
 import net.sf.joost.OptionalLog;
 import net.sf.joost.OutputURIResolver;
 import net.sf.joost.TransformerHandlerResolver;
+import net.sf.joost.emitter.BufferEmitter;
 import net.sf.joost.emitter.StreamEmitter;
 import net.sf.joost.emitter.StxEmitter;
+import net.sf.joost.stx.DocumentCache;
 import net.sf.joost.stx.Processor;
 import net.sf.joost.trace.ParserListenerMgr;
 
+import java.io.File;
 import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
 
@@ -50,6 +53,7 @@ import javax.xml.transform.sax.SAXSource;
 import javax.xml.transform.sax.SAXTransformerFactory;
 import javax.xml.transform.sax.TemplatesHandler;
 import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.transform.stax.StAXSource;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 
@@ -81,6 +85,21 @@ public class TransformerFactoryImpl extends SAXTransformerFactory
     protected TransformerHandlerResolver thResolver = null;
     protected OutputURIResolver outputUriResolver   = null;
     protected boolean allowExternalFunctions        = true;
+    protected boolean compileExpressions            = false;
+    protected boolean recycleEvents                 = false;
+    protected String splitPattern                   = null;
+    protected int splitThreads                      =
+       Runtime.getRuntime().availableProcessors();
+    protected int bufferSpillThreshold              =
+       BufferEmitter.DEFAULT_SPILL_THRESHOLD;
+    private   String sheetCacheDirectory            = null;
+    protected SheetCache sheetCache                 = null;
+    private   volatile TemplatesCache templatesCache = null;
+    protected int transformerPoolSize               = 16;
+    private   int documentCacheSize                 = 0;
+    private   int documentPrefetchThreads           =
+       Runtime.getRuntime().availableProcessors();
+    protected DocumentCache documentCache           = null;
 
     // init default errorlistener
     // visible for TemplatesImpl
@@ -171,6 +190,37 @@ public class TransformerFactoryImpl extends SAXTransformerFactory
         else if (ALLOW_EXTERNAL_FUNCTIONS.equals(name)) {
            return new Boolean(allowExternalFunctions);
         }
+        else if (COMPILE_EXPRESSIONS.equals(name)) {
+           return new Boolean(compileExpressions);
+        }
+        else if (RECYCLE_EVENTS.equals(name)) {
+           return new Boolean(recycleEvents);
+        }
+        else if (SPLIT_PATTERN.equals(name)) {
+           return splitPattern;
+        }
+        else if (SPLIT_THREADS.equals(name)) {
+           return new Integer(splitThreads);
+        }
+        else if (BUFFER_SPILL_THRESHOLD.equals(name)) {
+           return new Integer(bufferSpillThreshold);
+        }
+        else if (SHEET_CACHE_DIRECTORY.equals(name)) {
+           return sheetCacheDirectory;
+        }
+        else if (TEMPLATES_CACHE_SIZE.equals(name)) {
+           TemplatesCache cache = templatesCache;
+           return new Integer(cache != null ? cache.getMaxSize() : 0);
+        }
+        else if (TRANSFORMER_POOL_SIZE.equals(name)) {
+           return new Integer(transformerPoolSize);
+        }
+        else if (DOCUMENT_CACHE_SIZE.equals(name)) {
+           return new Integer(documentCacheSize);
+        }
+        else if (DOCUMENT_PREFETCH_THREADS.equals(name)) {
+           return new Integer(documentPrefetchThreads);
+        }
         else if (DEBUG_FEATURE.equals(name)) {
            return new Boolean(debugmode);
        }
@@ -192,6 +242,18 @@ public class TransformerFactoryImpl extends SAXTransformerFactory
     public void setAttribute(String name, Object value)
         throws IllegalArgumentException {
 
+        if (TEMPLATES_CACHE_SIZE.equals(name)) {
+            int size = ((Integer)value).intValue();
+            if (size < 0)
+                throw new IllegalArgumentException(
+                   "Invalid cache size: " + size);
+            this.templatesCache = size > 0 ? new TemplatesCache(size) : null;
+            return;
+        }
+
+        // cached Templates objects depend on the attributes
+        clearTemplatesCache();
+
         if (KEY_TH_RESOLVER.equals(name)) {
             thResolver = (TransformerHandlerResolver)value;
         }
@@ -221,6 +283,56 @@ public class TransformerFactoryImpl extends SAXTransformerFactory
         else if (ALLOW_EXTERNAL_FUNCTIONS.equals(name)) {
             this.allowExternalFunctions = ((Boolean)value).booleanValue();
         }
+        else if (COMPILE_EXPRESSIONS.equals(name)) {
+            this.compileExpressions = ((Boolean)value).booleanValue();
+        }
+        else if (RECYCLE_EVENTS.equals(name)) {
+            this.recycleEvents = ((Boolean)value).booleanValue();
+        }
+        else if (SPLIT_PATTERN.equals(name)) {
+            if (value != null)
+                Processor.checkSplitPattern((String)value);
+            this.splitPattern = (String)value;
+        }
+        else if (SPLIT_THREADS.equals(name)) {
+            int threads = ((Integer)value).intValue();
+            if (threads < 1)
+                throw new IllegalArgumentException(
+                   "Invalid number of threads: " + threads);
+            this.splitThreads = threads;
+        }
+        else if (BUFFER_SPILL_THRESHOLD.equals(name)) {
+            this.bufferSpillThreshold = ((Integer)value).intValue();
+        }
+        else if (SHEET_CACHE_DIRECTORY.equals(name)) {
+            this.sheetCacheDirectory = (String)value;
+            this.sheetCache = value != null
+                              ? new SheetCache(new File((String)value))
+                              : null;
+        }
+        else if (TRANSFORMER_POOL_SIZE.equals(name)) {
+            int size = ((Integer)value).intValue();
+            if (size < 0)
+                throw new IllegalArgumentException(
+                   "Invalid pool size: " + size);
+            this.transformerPoolSize = size;
+        }
+        else if (DOCUMENT_CACHE_SIZE.equals(name)) {
+            int size = ((Integer)value).intValue();
+            if (size < 0)
+                throw new IllegalArgumentException(
+                   "Invalid cache size: " + size);
+            this.documentCacheSize = size;
+            newDocumentCache();
+        }
+        else if (DOCUMENT_PREFETCH_THREADS.equals(name)) {
+            int threads = ((Integer)value).intValue();
+            if (threads < 0)
+                throw new IllegalArgumentException(
+                   "Invalid number of threads: " + threads);
+            this.documentPrefetchThreads = threads;
+            newDocumentCache();
+        }
         else if (DEBUG_FEATURE.equals(name)) {
            this.debugmode = ((Boolean)value).booleanValue();
        }
@@ -255,6 +367,7 @@ public class TransformerFactoryImpl extends SAXTransformerFactory
             }
             this.errorListener = errorListener;
             defaultErrorListener.setUserErrorListener(errorListener);
+            clearTemplatesCache();
         }
     }
 
@@ -305,6 +418,9 @@ public class TransformerFactoryImpl extends SAXTransformerFactory
     	if (name.equals(DOMResult.FEATURE)) {
             return true;
         }
+    	if (name.equals(StAXSource.FEATURE)) {
+            return true;
+        }
     	if (name.equals(StreamSource.FEATURE)) {
             return true;
         }
@@ -341,6 +457,24 @@ public class TransformerFactoryImpl extends SAXTransformerFactory
     public Templates newTemplates(Source source)
         throws TransformerConfigurationException {
 
+        TemplatesCache cache = templatesCache;
+        if (cache != null) {
+            String systemId = TemplatesCache.getSystemId(source);
+            if (systemId != null)
+                return cache.getTemplates(systemId, source, this);
+        }
+        return compileTemplates(source);
+    }
+
+
+    /**
+     * Creates a new Templates object without using the
+     * {@link #templatesCache}.
+     * @see #newTemplates
+     */
+    Templates compileTemplates(Source source)
+        throws TransformerConfigurationException {
+
         synchronized (reentryGuard) {
             if (DEBUG) {
                 if (log.isDebugEnabled())
@@ -389,13 +523,12 @@ public class TransformerFactoryImpl extends SAXTransformerFactory
     public Transformer newTransformer(Source source)
         throws TransformerConfigurationException {
 
-        synchronized (reentryGuard) {
-            if (DEBUG)
-                log.debug("get a Transformer-instance");
-            Templates templates     = newTemplates(source);
-            Transformer transformer = templates.newTransformer();
-            return(transformer);
-        }
+        // newTemplates locks reentryGuard if necessary
+        if (DEBUG)
+            log.debug("get a Transformer-instance");
+        Templates templates     = newTemplates(source);
+        Transformer transformer = templates.newTransformer();
+        return(transformer);
     }
 
 
@@ -458,14 +591,13 @@ public class TransformerFactoryImpl extends SAXTransformerFactory
     public TransformerHandler newTransformerHandler(Source src)
         throws TransformerConfigurationException {
 
-        synchronized (reentryGuard) {
-            if (DEBUG)
-                if (log.isDebugEnabled())
-                    log.debug("get a TransformerHandler-instance from Source " +
-                              src.getSystemId());
-            Templates templates = newTemplates(src);
-            return newTransformerHandler(templates);
-        }
+        // newTemplates locks reentryGuard if necessary
+        if (DEBUG)
+            if (log.isDebugEnabled())
+                log.debug("get a TransformerHandler-instance from Source " +
+                          src.getSystemId());
+        Templates templates = newTemplates(src);
+        return newTransformerHandler(templates);
     }
 
 
@@ -545,6 +677,42 @@ public class TransformerFactoryImpl extends SAXTransformerFactory
         return parserListenerMgr;
     }
 
+    /**
+     * returns the value of {@link #templatesCache}, <code>null</code> if
+     * the attribute {@link TrAXConstants#TEMPLATES_CACHE_SIZE} is 0
+     */
+    public TemplatesCache getTemplatesCache() {
+        return templatesCache;
+    }
+
+    /** Removes all objects from the {@link #templatesCache} */
+    private void clearTemplatesCache() {
+        TemplatesCache cache = templatesCache;
+        if (cache != null)
+            cache.clear();
+    }
+
+    /**
+     * returns the value of {@link #documentCache}, <code>null</code> if
+     * the attribute {@link TrAXConstants#DOCUMENT_CACHE_SIZE} is 0
+     */
+    public DocumentCache getDocumentCache() {
+        return documentCache;
+    }
+
+    /**
+     * Replaces the {@link #documentCache} according to the current
+     * attributes
+     */
+    private void newDocumentCache() {
+        if (documentCache != null)
+            documentCache.shutdown();
+        documentCache = documentCacheSize > 0
+                        ? new DocumentCache(documentCacheSize,
+                                            documentPrefetchThreads)
+                        : null;
+    }
+
     /** returns the value of {@link #msgEmitter} */
     public StxEmitter getMessageEmitter() {
         return msgEmitter;
@@ -25,6 +25,9 @@
 
 package net.sf.joost.trax;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
 import javax.xml.transform.Result;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerConfigurationException;
@@ -35,6 +38,7 @@ import javax.xml.transform.sax.TransformerHandler;
 import net.sf.joost.Constants;
 import net.sf.joost.OptionalLog;
 import net.sf.joost.emitter.DOMEmitter;
+import net.sf.joost.emitter.StreamEmitter;
 import net.sf.joost.emitter.StxEmitter;
 import net.sf.joost.stx.Processor;
 
@@ -82,6 +86,11 @@ public class TransformerHandlerImpl implements TransformerHandler, Constants {
      */
     private Result result               = null;
 
+    /**
+     * The parser for {@link #parse(ByteBuffer)}.
+     */
+    private ChunkParser chunkParser     = null;
+
     /**
      * Constructor.
      * @param transformer
@@ -160,6 +169,66 @@ public class TransformerHandlerImpl implements TransformerHandler, Constants {
     }
 
 
+    //*************************************************************************
+    // Non-blocking input
+    //*************************************************************************
+
+    /**
+     * Parses the next chunk of the source document and transforms it as
+     * far as possible. The chunk will be consumed completely, the output
+     * produced so far will be flushed to the stream of a
+     * <code>StreamResult</code>. This method never waits for input, so a
+     * single thread may drive many transformations.
+     * @param chunk the next bytes of the source document
+     * @throws SAXException if the document isn't well-formed or the
+     *  transformation fails
+     */
+    public void parse(ByteBuffer chunk) throws SAXException {
+
+        if (chunkParser == null) {
+            chunkParser = new ChunkParser(this);
+            chunkParser.setSystemId(systemId);
+        }
+        chunkParser.parse(chunk);
+        flushOutput();
+    }
+
+
+    /**
+     * Completes the transformation of a source document that has been
+     * passed to {@link #parse(ByteBuffer)}.
+     * @throws SAXException if the document isn't well-formed or the
+     *  transformation fails
+     */
+    public void endParse() throws SAXException {
+
+        if (chunkParser == null) {
+            chunkParser = new ChunkParser(this);
+            chunkParser.setSystemId(systemId);
+        }
+        try {
+            chunkParser.end();
+        } finally {
+            chunkParser = null;
+        }
+    }
+
+
+    /**
+     * Flushes the output of a StreamEmitter.
+     */
+    private void flushOutput() throws SAXException {
+
+        if (stxEmitter instanceof StreamEmitter) {
+            try {
+                ((StreamEmitter)stxEmitter).flushWriter();
+            } catch (IOException e) {
+                throw new SAXException(e);
+            }
+        }
+    }
+
+
     //*************************************************************************
     // Helper methods
     //*************************************************************************
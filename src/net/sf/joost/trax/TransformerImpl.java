@@ -77,9 +77,28 @@ public class TransformerImpl extends Transformer implements TrAXConstants
    // init with default errorlistener
    private ErrorListener errorListener = new TransformationErrListener();
 
+   /** The templates that created this transformer, may be null */
+   TemplatesImpl templates;
+
    // output properties
-   private HashSet supportedProperties = new HashSet();
-   private HashSet ignoredProperties = new HashSet();
+   private static final HashSet supportedProperties = new HashSet();
+   private static final HashSet ignoredProperties = new HashSet();
+
+   static {
+      supportedProperties.add(OutputKeys.ENCODING);
+      supportedProperties.add(OutputKeys.MEDIA_TYPE);
+      supportedProperties.add(OutputKeys.METHOD);
+      supportedProperties.add(OutputKeys.OMIT_XML_DECLARATION);
+      supportedProperties.add(OutputKeys.STANDALONE);
+      supportedProperties.add(OutputKeys.VERSION);
+      supportedProperties.add(
+            TrAXConstants.OUTPUT_KEY_SUPPORT_DISABLE_OUTPUT_ESCAPING);
+
+      ignoredProperties.add(OutputKeys.CDATA_SECTION_ELEMENTS);
+      ignoredProperties.add(OutputKeys.DOCTYPE_PUBLIC);
+      ignoredProperties.add(OutputKeys.DOCTYPE_SYSTEM);
+      ignoredProperties.add(OutputKeys.INDENT);
+   }
 
    /**
     * Synch object to gaurd against setting values from the TrAX interface or
@@ -126,19 +145,26 @@ public class TransformerImpl extends Transformer implements TrAXConstants
             ((DebugEmitter) emitter).setTraceManager(traceManager);
          }
       }
-      supportedProperties.add(OutputKeys.ENCODING);
-      supportedProperties.add(OutputKeys.MEDIA_TYPE);
-      supportedProperties.add(OutputKeys.METHOD);
-      supportedProperties.add(OutputKeys.OMIT_XML_DECLARATION);
-      supportedProperties.add(OutputKeys.STANDALONE);
-      supportedProperties.add(OutputKeys.VERSION);
-      supportedProperties.add(
-            TrAXConstants.OUTPUT_KEY_SUPPORT_DISABLE_OUTPUT_ESCAPING);
+   }
 
-      ignoredProperties.add(OutputKeys.CDATA_SECTION_ELEMENTS);
-      ignoredProperties.add(OutputKeys.DOCTYPE_PUBLIC);
-      ignoredProperties.add(OutputKeys.DOCTYPE_SYSTEM);
-      ignoredProperties.add(OutputKeys.INDENT);
+
+   /**
+    * Resets this transformer to the state after its creation: clears the
+    * parameters, restores the output properties of the transformation
+    * sheet, the URIResolver of the factory and the default ErrorListener.
+    * The XML parser and the other internal objects will be reused.
+    */
+   public void reset()
+   {
+      synchronized (reentryGuard) {
+         processor.reset();
+         processor.clearParameters();
+         processor.initOutputProperties();
+         errorListener = new TransformationErrListener();
+         setURIResolver(templates != null
+                        ? templates.factory.getURIResolver() : null);
+         cancelTransformation = false;
+      }
    }
 
    /**
@@ -175,6 +201,8 @@ public class TransformerImpl extends Transformer implements TrAXConstants
                   + "xml-source(SAXSource, DOMSource, StreamSource) "
                   + "to SAXResult, DOMResult or StreamResult");
          try {
+            // clean up after a previous aborted transformation
+            this.processor.reset();
 
             // init StxEmitter
             out = TrAXHelper.initStxEmitter(result, processor, null);
@@ -251,6 +279,9 @@ public class TransformerImpl extends Transformer implements TrAXConstants
                   // set the the SAXSource as the parent of the STX-Processor
                   this.processor.setParent(saxSource.getXMLReader());
                }
+               else
+                  // the reader of a previous source mustn't be used
+                  this.processor.setDefaultParent();
 
                // perform transformation
                this.processor.parse(isource);
@@ -0,0 +1,147 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is agent.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+
+package net.sf.joost.util.om;
+
+import java.util.Arrays;
+
+/**
+ * A hash table that maps non-negative int keys to long counters, using
+ * open addressing (in the style of {@link IntToIntHashMap}). Incrementing
+ * a counter doesn't create any objects.
+ * @version $Revision$ $Date$
+ * @author agent
+ */
+public final class IntCounterMap
+{
+   /** keys + 1, 0 marks an unused entry */
+   private int[] keys;
+
+   private long[] values;
+
+   /** keys.length - 1 */
+   private int mask;
+
+   /** number of used entries */
+   private int size;
+
+
+   /** Constructs an empty map */
+   public IntCounterMap()
+   {
+      keys = new int[8];
+      values = new long[8];
+      mask = 7;
+   }
+
+
+   /**
+    * Increments the counter for a key.
+    * @param key the key, must not be negative
+    * @return the new value of the counter
+    */
+   public long increment(int key)
+   {
+      int i = indexOf(key);
+      if (keys[i] == 0) {
+         keys[i] = key + 1;
+         values[i] = 1;
+         if (++size > (mask >> 1))
+            rehash();
+         return 1;
+      }
+      return ++values[i];
+   }
+
+
+   /**
+    * @param key the key
+    * @return the counter for this key, or 0 if the key is not present
+    */
+   public long get(int key)
+   {
+      if (key < 0)
+         return 0;
+      int i = indexOf(key);
+      return keys[i] == 0 ? 0 : values[i];
+   }
+
+
+   /** Removes all keys, the capacity of the map remains unchanged */
+   public void clear()
+   {
+      if (size > 0) {
+         Arrays.fill(keys, 0);
+         size = 0;
+      }
+   }
+
+
+   /** @return a copy of this map */
+   public IntCounterMap copy()
+   {
+      IntCounterMap map = new IntCounterMap();
+      map.keys = keys.clone();
+      map.values = values.clone();
+      map.mask = mask;
+      map.size = size;
+      return map;
+   }
+
+
+   /** @return the number of keys in this map */
+   public int size()
+   {
+      return size;
+   }
+
+
+   private int indexOf(int key)
+   {
+      // Knuth, see IntToIntHashMap
+      int i = (1327217885 * key) & mask;
+      int k = key + 1;
+      while (keys[i] != 0 && keys[i] != k)
+         i = (i - 1) & mask;
+      return i;
+   }
+
+
+   /** Doubles the capacity */
+   private void rehash()
+   {
+      int[] oldKeys = keys;
+      long[] oldValues = values;
+      keys = new int[oldKeys.length << 1];
+      values = new long[keys.length];
+      mask = keys.length - 1;
+      for (int i=0; i<oldKeys.length; i++) {
+         if (oldKeys[i] != 0) {
+            int j = indexOf(oldKeys[i] - 1);
+            keys[j] = oldKeys[i];
+            values[j] = oldValues[i];
+         }
+      }
+   }
+}
@@ -24,6 +24,10 @@ public class JRegularExpression implements RegularExpression {
     String javaRegex;
     int flagBits;
 
+    // OB: determine the Java version only once
+    private static final boolean JDK14 =
+        System.getProperty("java.version").startsWith("1.4");
+
     /**
      * Create a regular expression, starting with an already-translated Java regex
      */
@@ -31,8 +35,7 @@ public class JRegularExpression implements RegularExpression {
     public JRegularExpression(String javaRegex, int flagBits) {
         this.flagBits = flagBits;
         this.javaRegex = javaRegex;
-        String j = System.getProperty("java.version");
-        if (j.startsWith("1.4")) {
+        if (JDK14) { // OB: was j.startsWith("1.4")
             pattern = Pattern.compile(javaRegex, flagBits & (~Pattern.COMMENTS));
         } else {
             pattern = Pattern.compile(javaRegex, flagBits & (~(Pattern.COMMENTS | Pattern.CASE_INSENSITIVE)));
@@ -52,8 +55,7 @@ public class JRegularExpression implements RegularExpression {
     public JRegularExpression(CharSequence regex, boolean isXPath, int flagBits) throws EvalException {
         this.flagBits = flagBits;
         try {
-            String j = System.getProperty("java.version");
-            if (j.startsWith("1.4")) {
+            if (JDK14) { // OB: was j.startsWith("1.4")
                 JDK14RegexTranslator translator = new JDK14RegexTranslator();
                 translator.setIgnoreWhitespace((flagBits & Pattern.COMMENTS) != 0);
                 javaRegex = translator.translate(regex, isXPath);
@@ -0,0 +1,135 @@
+/*
+ * $Id$
+ *
+ * The contents of this file are subject to the Mozilla Public License
+ * Version 1.1 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ *
+ * The Original Code is: this file
+ *
+ * The Initial Developer of the Original Code is agent.
+ *
+ * Portions created by  ______________________
+ * are Copyright (C) ______ _______________________.
+ * All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ */
+
+package net.sf.joost.util.regex;
+
+import net.sf.joost.grammar.EvalException;
+
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of compiled regular expressions that evicts the least
+ * recently used entry if it is full. One cache belongs to a transformation
+ * sheet and will be used for all regular expressions that are computed
+ * at run time. Since a compiled sheet may be used by several transformers
+ * concurrently, all methods are synchronized.
+ * @version $Revision$ $Date$
+ * @author agent
+ */
+public final class RegexCache implements Serializable
+{
+   /** The default maximal number of cached regular expressions */
+   public static final int DEFAULT_SIZE = 100;
+
+   /** Access ordered map: key -> {@link RegularExpression} */
+   private final transient LinkedHashMap map;
+
+   /** The maximal number of cached regular expressions */
+   private final int maxSize;
+
+   private long hits, misses;
+
+
+   /** Constructs a cache with {@link #DEFAULT_SIZE} entries */
+   public RegexCache()
+   {
+      this(DEFAULT_SIZE);
+   }
+
+
+   /**
+    * Constructs a cache
+    * @param maxSize the maximal number of cached regular expressions
+    */
+   public RegexCache(final int maxSize)
+   {
+      this.maxSize = maxSize;
+      map = new LinkedHashMap(16, 0.75f, true) {
+         protected boolean removeEldestEntry(Map.Entry eldest)
+         {
+            return size() > maxSize;
+         }
+      };
+   }
+
+
+   /**
+    * Returns a compiled regular expression, either from the cache or
+    * newly created.
+    * @param regex the regular expression in XPath syntax
+    * @param flags the flags
+    * @return the compiled regular expression
+    * @exception EvalException if the regular expression or the flags are
+    *            invalid
+    */
+   public synchronized RegularExpression get(String regex, String flags)
+      throws EvalException
+   {
+      // a space can't occur in valid flags, and invalid flags never make it
+      // into the cache
+      String key = flags + ' ' + regex;
+      RegularExpression re = (RegularExpression)map.get(key);
+      if (re != null) {
+         hits++;
+         return re;
+      }
+      misses++;
+      re = new JRegularExpression(regex, true, flags);
+      map.put(key, re);
+      return re;
+   }
+
+
+   /** @return the number of successful lookups */
+   public synchronized long getHits()
+   {
+      return hits;
+   }
+
+
+   /** @return the number of lookups that required a compilation */
+   public synchronized long getMisses()
+   {
+      return misses;
+   }
+
+
+   /**
+    * A deserialized cache (of a precompiled transformation sheet) starts
+    * empty.
+    */
+   private Object readResolve()
+   {
+      return new RegexCache(maxSize);
+   }
+
+
+   /** @return the number of currently cached regular expressions */
+   public synchronized int size()
+   {
+      return map.size();
+   }
+}